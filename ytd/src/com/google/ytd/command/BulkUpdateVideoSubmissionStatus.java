@@ -0,0 +1,155 @@
+package com.google.ytd.command;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceException;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.InternalFailureException;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+import com.google.appengine.api.taskqueue.TransientFailureException;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.*;
+import com.google.inject.Inject;
+import com.google.ytd.dao.AdminConfigDao;
+import com.google.ytd.dao.VideoSubmissionDao;
+import com.google.ytd.model.VideoSubmission;
+import com.google.ytd.model.VideoSubmission.ModerationStatus;
+import com.google.ytd.tasks.ModerateVideoSubmission;
+import com.google.ytd.util.Util;
+import com.google.ytd.youtube.GDataBatch;
+
+/**
+ * Moves many video submissions to a new status at once. The new status is saved for each
+ * submission along with a record of its pending side effects, and the slower YouTube side effects
+ * are carried out by tasks that each moderate one YouTube batch's worth of videos, and report their
+ * progress over the channel given by the optional channelId param.
+ *
+ * The ids of submissions that couldn't be saved, or whose task couldn't be queued, are returned
+ * as failedIds. Repeating the request with the same ids is safe: submissions that were saved but
+ * whose moderation is still pending are queued again.
+ */
+public class BulkUpdateVideoSubmissionStatus extends Command {
+  private static final Logger LOG = Logger.getLogger(BulkUpdateVideoSubmissionStatus.class
+      .getName());
+
+  // The most tasks that can be added to a queue in one call.
+  private static final int MAX_TASKS_PER_ADD = 100;
+  private static final int PROGRESS_TTL_SECONDS = 60 * 60;
+
+  private AdminConfigDao adminConfigDao = null;
+  private VideoSubmissionDao submissionDao = null;
+  private MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  @Inject
+  private Util util;
+
+  @Inject
+  public BulkUpdateVideoSubmissionStatus(VideoSubmissionDao submissionDao,
+      AdminConfigDao adminConfigDao) {
+    this.submissionDao = submissionDao;
+    this.adminConfigDao = adminConfigDao;
+  }
+
+  @Override
+  public JSONObject execute() throws JSONException {
+    JSONObject json = new JSONObject();
+    String ids = getParam("ids");
+    String status = getParam("status");
+    String channelId = getParam("channelId");
+
+    if (util.isNullOrEmpty(ids)) {
+      throw new IllegalArgumentException("Missing required param: ids");
+    }
+
+    if (util.isNullOrEmpty(status)) {
+      throw new IllegalArgumentException("Missing required param: status");
+    }
+
+    ModerationStatus newStatus = ModerationStatus.valueOf(status.toUpperCase());
+
+    String token = adminConfigDao.getAdminConfig().getYouTubeAuthSubToken();
+    if (util.isNullOrEmpty(token)) {
+      throw new IllegalStateException("No AuthSub token found in admin config.");
+    }
+
+    List<String> failedIds = new ArrayList<String>();
+    List<VideoSubmission> submissions = submissionDao.setVideoStatuses(Arrays.asList(ids
+        .split(",")), newStatus, failedIds);
+
+    String batchId = UUID.randomUUID().toString();
+    try {
+      memcache.put(ModerateVideoSubmission.PROGRESS_KEY_PREFIX + batchId, 0L, Expiration
+          .byDeltaSeconds(PROGRESS_TTL_SECONDS));
+    } catch (MemcacheServiceException e) {
+      LOG.log(Level.WARNING, "", e);
+    }
+
+    String namespace = NamespaceManager.get();
+    if (namespace == null) {
+      namespace = "";
+    }
+
+    List<TaskOptions> tasks = new ArrayList<TaskOptions>();
+    List<List<String>> tasksIds = new ArrayList<List<String>>();
+    for (int i = 0; i < submissions.size(); i += GDataBatch.MAX_BATCH_SIZE) {
+      List<String> taskIds = new ArrayList<String>();
+      for (VideoSubmission submission : submissions.subList(i, Math.min(submissions.size(), i
+          + GDataBatch.MAX_BATCH_SIZE))) {
+        taskIds.add(submission.getId());
+      }
+
+      TaskOptions task = withUrl("/tasks/ModerateVideoSubmission").method(Method.POST)
+          .param("ids", util.sortedJoin(taskIds, ",")).param("batchId", batchId)
+          .param("total", String.valueOf(submissions.size())).param("ns", namespace);
+      if (!util.isNullOrEmpty(channelId)) {
+        task.param("channelId", channelId);
+      }
+      tasks.add(task);
+      tasksIds.add(taskIds);
+    }
+
+    int queued = 0;
+    Queue queue = QueueFactory.getDefaultQueue();
+    for (int i = 0; i < tasks.size(); i += MAX_TASKS_PER_ADD) {
+      int end = Math.min(tasks.size(), i + MAX_TASKS_PER_ADD);
+      try {
+        queue.add(tasks.subList(i, end));
+        for (List<String> taskIds : tasksIds.subList(i, end)) {
+          queued += taskIds.size();
+        }
+      } catch (TransientFailureException e) {
+        LOG.log(Level.WARNING, "", e);
+        addAll(failedIds, tasksIds.subList(i, end));
+      } catch (InternalFailureException e) {
+        LOG.log(Level.WARNING, "", e);
+        addAll(failedIds, tasksIds.subList(i, end));
+      }
+    }
+
+    json.put("updated", queued);
+    json.put("failedIds", new JSONArray(failedIds));
+    json.put("batchId", batchId);
+    return json;
+  }
+
+  private void addAll(List<String> ids, List<List<String>> idLists) {
+    for (List<String> idList : idLists) {
+      ids.addAll(idList);
+    }
+  }
+}
@@ -3,6 +3,7 @@ package com.google.ytd.command;
 public enum CommandType {
   GET_VIDEO_SUBMISSIONS(GetVideoSubmissions.class),
   UPDATE_VIDEO_SUBMISSION_STATUS(UpdateVideoSubmissionStatus.class),
+  BULK_UPDATE_VIDEO_SUBMISSION_STATUS(BulkUpdateVideoSubmissionStatus.class),
   UPDATE_VIDEO_SUBMISSION_ADMIN_NOTES(UpdateVideoSubmissionAdminNotes.class),
   NEW_ASSIGNMENT(NewAssignment.class),
   NEW_MOBILE_VIDEO_SUBMISSION(NewMobileVideoSubmission.class),
@@ -18,6 +19,7 @@ public enum CommandType {
   DELETE_PHOTO_SUBMISSION(DeletePhotoSubmission.class),
   VALIDATE_CAPTCHA(ValidateCaptcha.class),
   GET_VIDEO_DETAILS(GetVideoDetails.class),
+  GET_SYNC_STATUS(GetSyncStatus.class),
   GET_YOUTUBE_CATEGORIES(GetYouTubeCategories.class),
   GET_YOUTUBE_CAPTIONS(GetYouTubeCaptions.class),
   GET_YOUTUBE_CAPTION_TRACK(GetYouTubeCaptionTrack.class),
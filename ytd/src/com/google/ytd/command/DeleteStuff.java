@@ -10,6 +10,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.google.inject.Inject;
+import com.google.ytd.dao.SubmissionCounterDao;
 import com.google.ytd.util.Util;
 
 public class DeleteStuff extends Command {
@@ -17,11 +18,14 @@ public class DeleteStuff extends Command {
 
   private Util util = null;
   private PersistenceManagerFactory pmf = null;
+  private SubmissionCounterDao submissionCounterDao = null;
 
   @Inject
-  public DeleteStuff(Util util, PersistenceManagerFactory pmf) {
+  public DeleteStuff(Util util, PersistenceManagerFactory pmf,
+      SubmissionCounterDao submissionCounterDao) {
     this.util = util;
     this.pmf = pmf;
+    this.submissionCounterDao = submissionCounterDao;
   }
 
   @Override
@@ -36,8 +40,10 @@ public class DeleteStuff extends Command {
     }
     PersistenceManager pm = pmf.getPersistenceManager();
     try {
-      Query query = pm.newQuery(Class.forName(className));
+      Class<?> kind = Class.forName(className);
+      Query query = pm.newQuery(kind);
       query.deletePersistentAll();
+      submissionCounterDao.reset(kind);
     } catch (ClassNotFoundException e) {
       throw new IllegalArgumentException(className + " must be a valid fully-qualified class.");
     } finally {
@@ -12,6 +12,7 @@ import com.google.ytd.model.Assignment;
 import com.google.ytd.model.VideoSubmission;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 public class DeleteVideoSubmission extends Command {
   private static final Logger LOG = Logger.getLogger(DeleteVideoSubmission.class.getName());
@@ -20,7 +21,7 @@ public class DeleteVideoSubmission extends Command {
   private Util util = null;
   
   @Inject
-  private YouTubeApiHelper adminYouTubeApi;
+  private YouTubeClientPool youTubeClientPool;
   
   private VideoSubmissionDao videoSubmissionDao = null;
   private AdminConfigDao adminConfigDao = null;
@@ -60,7 +61,7 @@ public class DeleteVideoSubmission extends Command {
       return;
     }
 
-    adminYouTubeApi.setAuthSubToken(token);
+    YouTubeApiHelper adminYouTubeApi = youTubeClientPool.getAuthSubClient(token);
 
     long assignmentId = videoSubmission.getAssignmentId();
     Assignment assignment = assignmentDao.getAssignmentById(assignmentId);
@@ -8,19 +8,24 @@ import org.json.JSONObject;
 
 import com.google.inject.Inject;
 import com.google.ytd.dao.PhotoSubmissionDao;
+import com.google.ytd.dao.SubmissionCounterDao;
+import com.google.ytd.model.PhotoHash;
 import com.google.ytd.model.PhotoSubmission;
 import com.google.ytd.util.Util;
 
 public class GetPhotoSubmissions extends Command {
 
   private PhotoSubmissionDao photoSubmissionDao = null;
+  private SubmissionCounterDao submissionCounterDao = null;
 
   @Inject
   private Util util;
 
   @Inject
-  public GetPhotoSubmissions(PhotoSubmissionDao photoSubmissionDao) {
+  public GetPhotoSubmissions(PhotoSubmissionDao photoSubmissionDao,
+      SubmissionCounterDao submissionCounterDao) {
     this.photoSubmissionDao = photoSubmissionDao;
+    this.submissionCounterDao = submissionCounterDao;
   }
 
   @Override
@@ -49,26 +54,34 @@ public class GetPhotoSubmissions extends Command {
     int pageIndex = Integer.parseInt(pageIndexString);
     int pageSize = Integer.parseInt(pageSizeString);
 
-    submissions = photoSubmissionDao.getPhotoSubmissions(sortBy, sortOrder);
+    if (pageIndex < 1 || pageSize <= 0) {
+      throw new IllegalArgumentException(
+          "Params pageIndex and pageSize must be greater than zero.");
+    }
 
-    int totalSize = submissions.size();
-    int totalPages = (int) Math.ceil(((double) totalSize / (double) pageSize));
+    long totalSize = submissionCounterDao.getCount(PhotoSubmission.class, null, null);
+    long totalPages = (long) Math.ceil(((double) totalSize / (double) pageSize));
     int startIndex = (pageIndex - 1) * pageSize; // inclusive
-    int endIndex = -1; // exclusive
-
-    if (pageIndex < totalPages) {
-      endIndex = startIndex + pageSize;
-    } else {
-      if (pageIndex == totalPages && totalSize % pageSize == 0) {
-        endIndex = startIndex + pageSize;
-      } else {
-        endIndex = startIndex + (totalSize % pageSize);
-      }
+    int endIndex = startIndex + pageSize; // exclusive
+
+    // Read one row past the page to learn whether there is a next one; the counters are only an
+    // estimate, e.g. for submissions made before they were kept, so they can't drive paging.
+    submissions = photoSubmissionDao.getPhotoSubmissions(sortBy, sortOrder, startIndex,
+        endIndex + 1);
+    boolean hasMore = submissions.size() > pageSize;
+    if (hasMore) {
+      submissions = submissions.subList(0, pageSize);
     }
 
-    submissions = submissions.subList(startIndex, endIndex);
     json.put("totalSize", totalSize);
     json.put("totalPages", totalPages);
+    json.put("hasMore", hasMore);
+
+    // How often a submitter resent a photo that was on Picasa already; see PhotoHash.
+    json.put("duplicatePhotos", submissionCounterDao.getCount(PhotoHash.class, null,
+        PhotoHash.DUPLICATE));
+    json.put("uniquePhotos", submissionCounterDao.getCount(PhotoHash.class, null,
+        PhotoHash.UNIQUE));
 
     json.put("result", new JSONArray(util.toJson(submissions)));
 
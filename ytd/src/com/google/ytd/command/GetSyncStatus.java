@@ -0,0 +1,50 @@
+package com.google.ytd.command;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.inject.Inject;
+import com.google.ytd.dao.SyncPassDao;
+import com.google.ytd.model.SyncPass;
+import com.google.ytd.youtube.SyncProgress;
+
+/**
+ * Reports the progress and throughput of the latest metadata sync pass.
+ */
+public class GetSyncStatus extends Command {
+  private SyncPassDao syncPassDao = null;
+
+  @Inject
+  public GetSyncStatus(SyncPassDao syncPassDao) {
+    this.syncPassDao = syncPassDao;
+  }
+
+  @Override
+  public JSONObject execute() throws JSONException {
+    JSONObject json = new JSONObject();
+
+    SyncPass pass = syncPassDao.getLatestPass();
+    if (pass == null) {
+      json.put("result", JSONObject.NULL);
+      return json;
+    }
+
+    SyncProgress progress = new SyncProgress(pass, syncPassDao.getShards(pass.getId()));
+
+    JSONObject result = new JSONObject();
+    result.put("passId", pass.getId());
+    result.put("started", pass.getStarted().getTime());
+    result.put("finished", pass.isFinished() ? pass.getFinished().getTime() : JSONObject.NULL);
+    result.put("full", pass.isFull());
+    result.put("scheduled", pass.isScheduled());
+    result.put("shardCount", pass.getShardCount());
+    result.put("shardsDone", progress.getShardsDone());
+    result.put("videoCount", pass.getVideoCount());
+    result.put("synced", progress.getSynced());
+    result.put("elapsedSeconds", progress.getElapsedMillis() / 1000);
+    result.put("videosPerMinute", progress.getVideosPerMinute());
+    json.put("result", result);
+
+    return json;
+  }
+}
@@ -7,6 +7,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.google.inject.Inject;
+import com.google.ytd.dao.ResultPage;
+import com.google.ytd.dao.SubmissionCounterDao;
 import com.google.ytd.dao.VideoSubmissionDao;
 import com.google.ytd.model.VideoSubmission;
 import com.google.ytd.util.Util;
@@ -14,25 +16,27 @@ import com.google.ytd.util.Util;
 public class GetVideoSubmissions extends Command {
 
   private VideoSubmissionDao submissionDao = null;
+  private SubmissionCounterDao submissionCounterDao = null;
+  private Util util = null;
 
   @Inject
-  private Util util;
-
-  @Inject
-  public GetVideoSubmissions(VideoSubmissionDao submissionDao) {
+  public GetVideoSubmissions(VideoSubmissionDao submissionDao,
+      SubmissionCounterDao submissionCounterDao, Util util) {
     this.submissionDao = submissionDao;
+    this.submissionCounterDao = submissionCounterDao;
+    this.util = util;
   }
 
   @Override
   public JSONObject execute() throws JSONException {
     JSONObject json = new JSONObject();
-    List<VideoSubmission> submissions = null;
 
     String sortBy = getParam("sortBy");
     String sortOrder = getParam("sortOrder");
     String filterType = getParam("filterType");
-    String pageIndexString = getParam("pageIndex");
     String pageSizeString = getParam("pageSize");
+    // Optional; an empty cursor means the first page.
+    String cursor = getParam("cursor");
 
     if (util.isNullOrEmpty(sortBy)) {
       throw new IllegalArgumentException("Missing required param: sortBy");
@@ -43,35 +47,26 @@ public class GetVideoSubmissions extends Command {
     if (util.isNullOrEmpty(filterType)) {
       throw new IllegalArgumentException("Missing required param: filterType");
     }
-    if (util.isNullOrEmpty(pageIndexString)) {
-      throw new IllegalArgumentException("Missing required param: pageIndex");
-    }
     if (util.isNullOrEmpty(pageSizeString)) {
       throw new IllegalArgumentException("Missing required param: pageSize");
     }
 
-    int pageIndex = Integer.parseInt(pageIndexString);
     int pageSize = Integer.parseInt(pageSizeString);
-
-    submissions = submissionDao.getSubmissions(sortBy, sortOrder, filterType);
-    int totalSize = submissions.size();
-    int totalPages = (int) Math.ceil(((double) totalSize / (double) pageSize));
-    int startIndex = (pageIndex - 1) * pageSize; // inclusive
-    int endIndex = -1; // exclusive
-
-    if (pageIndex < totalPages) {
-      endIndex = startIndex + pageSize;
-    } else {
-      if (pageIndex == totalPages && totalSize % pageSize == 0) {
-        endIndex = startIndex + pageSize;
-      } else {
-        endIndex = startIndex + (totalSize % pageSize);
-      }
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Param pageSize must be greater than zero.");
     }
 
-    submissions = submissions.subList(startIndex, endIndex);
+    ResultPage<VideoSubmission> page =
+        submissionDao.getSubmissions(sortBy, sortOrder, filterType, pageSize, cursor);
+    List<VideoSubmission> submissions = page.getResults();
+
+    long totalSize = submissionCounterDao.getCount(VideoSubmission.class, null, filterType);
     json.put("totalSize", totalSize);
-    json.put("totalPages", totalPages);
+    json.put("totalPages", (long) Math.ceil((double) totalSize / (double) pageSize));
+    if (page.hasMore()) {
+      json.put("cursor", page.getCursor());
+    }
+    json.put("hasMore", page.hasMore());
     json.put("result", new JSONArray(util.toJson(submissions)));
     return json;
   }
@@ -5,12 +5,13 @@ import com.google.ytd.dao.UserAuthTokenDao;
 import com.google.ytd.model.UserAuthToken;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 public class GetYouTubeCaptionTrack extends Command {
-  private YouTubeApiHelper apiManager = null;
+  private YouTubeClientPool youTubeClientPool = null;
   private UserAuthTokenDao authTokenDao = null;
 
   @Inject
@@ -18,9 +19,10 @@ public class GetYouTubeCaptionTrack extends Command {
 
 
   @Inject
-  public GetYouTubeCaptionTrack(UserAuthTokenDao authTokenDao, YouTubeApiHelper apiManager) {
+  public GetYouTubeCaptionTrack(UserAuthTokenDao authTokenDao,
+      YouTubeClientPool youTubeClientPool) {
     this.authTokenDao = authTokenDao;
-    this.apiManager = apiManager;
+    this.youTubeClientPool = youTubeClientPool;
   }
 
   @Override
@@ -39,11 +41,7 @@ public class GetYouTubeCaptionTrack extends Command {
     
     UserAuthToken userAuthToken = authTokenDao.getUserAuthToken(username);    
     
-    if (!userAuthToken.getAuthSubToken().isEmpty()) {
-      apiManager.setAuthSubToken(userAuthToken.getAuthSubToken());
-    } else {
-      apiManager.setClientLoginToken(userAuthToken.getClientLoginToken());
-    }    
+    YouTubeApiHelper apiManager = youTubeClientPool.getUserClient(userAuthToken);
     
     String captionTrack = apiManager.getCaptionTrack(url);
 
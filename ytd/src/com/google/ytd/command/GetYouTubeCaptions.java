@@ -7,6 +7,7 @@ import com.google.ytd.model.UserAuthToken;
 import com.google.ytd.model.VideoSubmission;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -14,7 +15,7 @@ import org.json.JSONObject;
 import java.util.Map;
 
 public class GetYouTubeCaptions extends Command {
-  private YouTubeApiHelper apiManager = null;
+  private YouTubeClientPool youTubeClientPool = null;
   private VideoSubmissionDao submissionDao = null;
   private UserAuthTokenDao authTokenDao = null;
 
@@ -23,10 +24,10 @@ public class GetYouTubeCaptions extends Command {
 
   @Inject
   public GetYouTubeCaptions(VideoSubmissionDao submissionDao,
-      UserAuthTokenDao authTokenDao, YouTubeApiHelper apiManager) {
+      UserAuthTokenDao authTokenDao, YouTubeClientPool youTubeClientPool) {
     this.submissionDao = submissionDao;
     this.authTokenDao = authTokenDao;
-    this.apiManager = apiManager;
+    this.youTubeClientPool = youTubeClientPool;
   }
 
   @Override
@@ -50,11 +51,7 @@ public class GetYouTubeCaptions extends Command {
     String username = videoSubmission.getYouTubeName();
     UserAuthToken userAuthToken = authTokenDao.getUserAuthToken(videoSubmission
         .getYouTubeName());
-    if (!userAuthToken.getAuthSubToken().isEmpty()) {
-      apiManager.setAuthSubToken(userAuthToken.getAuthSubToken());
-    } else {
-      apiManager.setClientLoginToken(userAuthToken.getClientLoginToken());
-    }
+    YouTubeApiHelper apiManager = youTubeClientPool.getUserClient(userAuthToken);
 
     Map<String, String> languageToUrl = apiManager.getCaptions(videoSubmission
         .getVideoId());
@@ -5,6 +5,7 @@ import com.google.inject.Inject;
 import com.google.ytd.dao.AdminConfigDao;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -14,14 +15,14 @@ import java.util.List;
 import java.util.Map;
 
 public class GetYouTubePlaylists extends Command {
-  private YouTubeApiHelper apiManager = null;
+  private YouTubeClientPool youTubeClientPool = null;
   private AdminConfigDao adminConfigDao = null;
   @Inject
   private Util util = null;
   
   @Inject
-  public GetYouTubePlaylists(YouTubeApiHelper apiManager, AdminConfigDao adminConfigDao) {
-    this.apiManager = apiManager;
+  public GetYouTubePlaylists(YouTubeClientPool youTubeClientPool, AdminConfigDao adminConfigDao) {
+    this.youTubeClientPool = youTubeClientPool;
     this.adminConfigDao = adminConfigDao;
   }
 
@@ -33,7 +34,7 @@ public class GetYouTubePlaylists extends Command {
     if (util.isNullOrEmpty(token)) {
       throw new IllegalArgumentException("Please configure the admin YouTube account first.");
     }
-    apiManager.setAuthSubToken(token);
+    YouTubeApiHelper apiManager = youTubeClientPool.getAuthSubClient(token);
 
     List<PlaylistLinkEntry> playlistEntries = apiManager.getDefaulUsersPlaylists();
     if (playlistEntries != null) {
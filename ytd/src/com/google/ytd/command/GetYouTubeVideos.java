@@ -6,7 +6,7 @@ import com.google.gdata.data.youtube.VideoFeed;
 import com.google.gdata.data.youtube.YouTubeMediaGroup;
 import com.google.inject.Inject;
 import com.google.ytd.util.Util;
-import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -17,14 +17,14 @@ import java.util.Map;
 
 @NonAdmin
 public class GetYouTubeVideos extends Command {
-  private YouTubeApiHelper apiManager = null;
+  private YouTubeClientPool youTubeClientPool = null;
 
   @Inject
   private Util util;
 
   @Inject
-  public GetYouTubeVideos(YouTubeApiHelper apiManager) {
-    this.apiManager = apiManager;
+  public GetYouTubeVideos(YouTubeClientPool youTubeClientPool) {
+    this.youTubeClientPool = youTubeClientPool;
   }
 
   @Override
@@ -36,7 +36,7 @@ public class GetYouTubeVideos extends Command {
       throw new IllegalArgumentException("Required parameter 'username' is null or empty.");
     }
 
-    VideoFeed uploadsFeed = apiManager.getUploadsFeed(username);
+    VideoFeed uploadsFeed = youTubeClientPool.getAnonymousClient().getUploadsFeed(username);
     if (uploadsFeed != null) {
       if (uploadsFeed.getEntries().size() > 0) {
         HashMap<String, Map<String, String>> videoIdToMetadata = new HashMap<String, Map<String, String>>();
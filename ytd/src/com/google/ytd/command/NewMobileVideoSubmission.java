@@ -2,6 +2,7 @@ package com.google.ytd.command;
 
 import com.google.gdata.util.ServiceException;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -24,7 +25,7 @@ public class NewMobileVideoSubmission extends Command {
   private VideoSubmissionDao submissionDao = null;
   private UserAuthTokenDao userAuthTokenDao = null;
   private AssignmentDao assignmentDao = null;
-  YouTubeApiHelper youTubeApiHelper;
+  private YouTubeClientPool youTubeClientPool = null;
   private boolean isTokenClientLogin = false;
 
   private Util util = null;
@@ -32,12 +33,12 @@ public class NewMobileVideoSubmission extends Command {
   @Inject
   public NewMobileVideoSubmission(Util util, VideoSubmissionDao submissionDao,
       AssignmentDao assignmentDao, UserAuthTokenDao userAuthTokenDao,
-      AdminConfigDao adminConfigDao, YouTubeApiHelper youTubeApiHelper) {
+      AdminConfigDao adminConfigDao, YouTubeClientPool youTubeClientPool) {
     this.util = util;
     this.assignmentDao = assignmentDao;
     this.submissionDao = submissionDao;
     this.userAuthTokenDao = userAuthTokenDao;
-    this.youTubeApiHelper = youTubeApiHelper;
+    this.youTubeClientPool = youTubeClientPool;
   }
 
   @Override
@@ -141,10 +142,11 @@ public class NewMobileVideoSubmission extends Command {
     // the mobile app sends user account email, e.g. joe.cool@gmail.com
     // we need the associated (lnked) YouTube account name in order to access the feeds later on
     String youTubeName;
+    YouTubeApiHelper youTubeApiHelper;
     if (isTokenClientLogin) {
-      youTubeApiHelper.setClientLoginToken(loginToken);
+      youTubeApiHelper = youTubeClientPool.getClientLoginClient(loginToken);
     } else {
-      youTubeApiHelper.setAuthSubToken(loginToken);
+      youTubeApiHelper = youTubeClientPool.getAuthSubClient(loginToken);
     }
     try {
       log.fine(String.format("Resolving email '%s' to YT user name", youTubeEmail));
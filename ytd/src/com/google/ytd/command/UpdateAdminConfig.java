@@ -46,6 +46,7 @@ public class UpdateAdminConfig extends Command {
     String rejectionEmailText = getParam("rejectionEmailText");
     String privateKeyBytes = getParam("privateKeyBytes");
     String maxPhotoSizeMb = getParam("maxPhotoSizeMb");
+    String maxPhotoEdge = getParam("maxPhotoEdge");
     String photoSubmissionEnabled = getParam("photoSubmissionEnabled");
     String recaptchaPrivateKey = getParam("recaptchaPrivateKey");
     String recaptchaPublicKey = getParam("recaptchaPublicKey");
@@ -124,6 +125,10 @@ public class UpdateAdminConfig extends Command {
       adminConfig.setMaxPhotoSizeMb(Integer.parseInt(maxPhotoSizeMb));
     }
 
+    if (!util.isNullOrEmpty(maxPhotoEdge)) {
+      adminConfig.setMaxPhotoEdge(Integer.parseInt(maxPhotoEdge));
+    }
+
     if (photoSubmissionEnabled != null) {
       adminConfig.setPhotoSubmissionEnabled(photoSubmissionEnabled.equalsIgnoreCase("true"));
     }
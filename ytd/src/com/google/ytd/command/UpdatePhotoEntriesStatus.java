@@ -1,13 +1,22 @@
 package com.google.ytd.command;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import org.json.JSONObject;
 
 import com.google.inject.Inject;
 import com.google.ytd.dao.AdminConfigDao;
 import com.google.ytd.dao.AssignmentDao;
+import com.google.ytd.dao.PhotoHashDao;
 import com.google.ytd.dao.PhotoSubmissionDao;
 import com.google.ytd.model.Assignment;
 import com.google.ytd.model.PhotoEntry;
+import com.google.ytd.model.PhotoHash;
 import com.google.ytd.model.PhotoSubmission;
 import com.google.ytd.model.PhotoEntry.ModerationStatus;
 import com.google.ytd.picasa.PicasaApiHelper;
@@ -21,18 +30,21 @@ public class UpdatePhotoEntriesStatus extends Command {
   private PicasaApiHelper picasaApi = null;
   private Util util = null;
   private AdminConfigDao adminConfigDao = null;
+  private PhotoHashDao photoHashDao = null;
   
   @Inject
   private EmailUtil emailUtil;
 
   @Inject
   public UpdatePhotoEntriesStatus(PhotoSubmissionDao submissionDao, Util util,
-      AssignmentDao assignmentDao, PicasaApiHelper picasaApi, AdminConfigDao adminConfigDao) {
+      AssignmentDao assignmentDao, PicasaApiHelper picasaApi, AdminConfigDao adminConfigDao,
+      PhotoHashDao photoHashDao) {
     this.photoSubmissionDao = submissionDao;
     this.util = util;
     this.assignmentDao = assignmentDao;
     this.picasaApi = picasaApi;
     this.adminConfigDao = adminConfigDao;
+    this.photoHashDao = photoHashDao;
   }
 
   @Override
@@ -52,13 +64,40 @@ public class UpdatePhotoEntriesStatus extends Command {
     }
     status = status.toUpperCase();
 
-    // This code is much less efficient because we can't count on all the ids in
-    // the list being part of the same PhotoSubmission. I guess we could cache
-    // here in the future.
-    for (String id : ids.split(",")) {
-      PhotoEntry entry = photoSubmissionDao.getPhotoEntry(id);
-      PhotoSubmission submission = photoSubmissionDao.getSubmissionById(entry.getSubmissionId());
-      Assignment assignment = assignmentDao.getAssignmentById(submission.getAssignmentId());
+    // We can't count on all the ids in the list being part of the same PhotoSubmission, so the
+    // entries, their submissions and their assignments are each looked up in one batch up front.
+    List<String> entryIds = Arrays.asList(ids.split(","));
+    Map<String, PhotoEntry> entries = photoSubmissionDao.getPhotoEntriesByIds(entryIds);
+
+    List<String> submissionIds = new ArrayList<String>();
+    for (PhotoEntry entry : entries.values()) {
+      submissionIds.add(entry.getSubmissionId());
+    }
+    Map<String, PhotoSubmission> submissions =
+        photoSubmissionDao.getSubmissionsByIds(submissionIds);
+
+    List<Long> assignmentIds = new ArrayList<Long>();
+    for (PhotoSubmission submission : submissions.values()) {
+      assignmentIds.add(submission.getAssignmentId());
+    }
+    Map<Long, Assignment> assignments = assignmentDao.getAssignmentsByIds(assignmentIds);
+
+    for (String id : entryIds) {
+      PhotoEntry entry = entries.get(id);
+      if (entry == null) {
+        throw new IllegalArgumentException(String.format("Unable to find PhotoEntry with id '%s'.",
+            id));
+      }
+      PhotoSubmission submission = submissions.get(entry.getSubmissionId());
+      if (submission == null) {
+        throw new IllegalArgumentException(String.format(
+            "Unable to find PhotoSubmission with id '%s'.", entry.getSubmissionId()));
+      }
+      Assignment assignment = assignments.get(submission.getAssignmentId());
+      if (assignment == null) {
+        throw new IllegalArgumentException(String.format("Unable to find Assignment with id '%s'.",
+            submission.getAssignmentId()));
+      }
 
       if (entry.getBlobKey() != null || util.isNullOrEmpty(entry.getPicasaUrl())) {
         throw new IllegalStateException(String.format("Can't update the state of PhotoEntry id '%s'"
@@ -80,7 +119,8 @@ public class UpdatePhotoEntriesStatus extends Command {
           newAlbumUrl = assignment.getRejectedAlbumUrl();
       }
 
-      String newPhotoUrl = picasaApi.moveToNewAlbum(entry.getPicasaUrl(), newAlbumUrl);
+      String oldPhotoUrl = entry.getPicasaUrl();
+      String newPhotoUrl = picasaApi.moveToNewAlbum(oldPhotoUrl, newAlbumUrl);
       if (newPhotoUrl == null) {
         throw new IllegalStateException(String.format(
             "Couldn't move Picasa photo '%s' to album '%s'. Check AppEngine log for details.",
@@ -96,8 +136,54 @@ public class UpdatePhotoEntriesStatus extends Command {
           && !util.isNullOrEmpty(submission.getNotifyEmail())) {
         emailUtil.sendUserModerationEmail(submission, entry, statusEnum);
       }
+
+      // Duplicates of the photo share its Picasa photo, so they've just been moved as well.
+      for (PhotoEntry linked : getSharingEntries(submission, entry)) {
+        boolean inRequest = entries.containsKey(linked.getId());
+        if (inRequest) {
+          // Still to come in this request, which needs to see the new URL when it gets there.
+          linked = entries.get(linked.getId());
+        }
+        if (!oldPhotoUrl.equals(linked.getPicasaUrl())) {
+          // Linked to an earlier upload of the photo, whose entry has since been deleted.
+          continue;
+        }
+
+        linked.setStatus(statusEnum);
+        linked.setPicasaUrl(newPhotoUrl);
+        photoSubmissionDao.save(linked);
+
+        if (inRequest || !adminConfigDao.getAdminConfig().isModerationEmail()) {
+          continue;
+        }
+        PhotoSubmission linkedSubmission = photoSubmissionDao.getSubmissionsByIds(
+            Collections.singletonList(linked.getSubmissionId())).get(linked.getSubmissionId());
+        if (linkedSubmission != null && !util.isNullOrEmpty(linkedSubmission.getNotifyEmail())) {
+          emailUtil.sendUserModerationEmail(linkedSubmission, linked, statusEnum);
+        }
+      }
     }
 
     return json;
   }
+
+  /**
+   * Looks up the other entries that share the entry's Picasa photo by key, using the ids recorded
+   * in the photo's PhotoHash when they were linked to it.
+   */
+  private Collection<PhotoEntry> getSharingEntries(PhotoSubmission submission, PhotoEntry entry) {
+    if (entry.getSha256() == null || util.isNullOrEmpty(submission.getNotifyEmail())) {
+      return Collections.emptyList();
+    }
+
+    PhotoHash photoHash = photoHashDao.getPhotoHash(submission.getAssignmentId(),
+        submission.getNotifyEmail(), entry.getSha256());
+    if (photoHash == null) {
+      return Collections.emptyList();
+    }
+
+    List<String> ids = photoHash.getSharingPhotoEntryIds();
+    ids.remove(entry.getId());
+    return photoSubmissionDao.getPhotoEntriesByIds(ids).values();
+  }
 }
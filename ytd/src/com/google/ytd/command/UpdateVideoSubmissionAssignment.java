@@ -6,34 +6,31 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.google.inject.Inject;
-import com.google.ytd.dao.AdminConfigDao;
 import com.google.ytd.dao.AssignmentDao;
 import com.google.ytd.dao.VideoSubmissionDao;
-import com.google.ytd.model.AdminConfig;
 import com.google.ytd.model.Assignment;
 import com.google.ytd.model.VideoSubmission;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 public class UpdateVideoSubmissionAssignment extends Command {
   private static final Logger LOG = Logger.getLogger(UpdateVideoSubmissionAssignment.class.getName());
 
   private AssignmentDao assignmentDao = null;
   private VideoSubmissionDao submissionDao = null;
-  private AdminConfigDao adminConfigDao = null;
 
   @Inject
   private Util util;
 
   @Inject
-  private YouTubeApiHelper adminYouTubeApi;
+  private YouTubeClientPool youTubeClientPool;
 
   @Inject
   public UpdateVideoSubmissionAssignment(AssignmentDao assignmentDao,
-      VideoSubmissionDao submissionDao, AdminConfigDao adminConfigDao) {
+      VideoSubmissionDao submissionDao) {
     this.assignmentDao = assignmentDao;
     this.submissionDao = submissionDao;
-    this.adminConfigDao = adminConfigDao;
   }
 
   @Override
@@ -65,16 +62,6 @@ public class UpdateVideoSubmissionAssignment extends Command {
     }
     
     if (submission.isInPlaylist()) {
-      AdminConfig adminConfig = adminConfigDao.getAdminConfig();
-
-      // Set the YouTubeApiHelper with the admin auth token
-      String token = adminConfig.getYouTubeAuthSubToken();
-      if (util.isNullOrEmpty(token)) {
-        LOG.warning(String.format("No AuthSub token found in admin config."));
-      } else {
-        adminYouTubeApi.setAuthSubToken(token);
-      }
-      
       removeFromPlaylist(submission);
     }
     
@@ -107,7 +94,8 @@ public class UpdateVideoSubmissionAssignment extends Command {
       return false;
     }
 
-    return adminYouTubeApi.insertVideoIntoPlaylist(playlistId, videoSubmission.getVideoId());
+    YouTubeApiHelper youTubeApiHelper = youTubeClientPool.getAdminClient();
+    return youTubeApiHelper.insertVideoIntoPlaylist(playlistId, videoSubmission.getVideoId());
   }
 
   /**
@@ -135,6 +123,7 @@ public class UpdateVideoSubmissionAssignment extends Command {
       return false;
     }
 
-    return adminYouTubeApi.removeVideoFromPlaylist(playlistId, videoSubmission.getVideoId());
+    YouTubeApiHelper youTubeApiHelper = youTubeClientPool.getAdminClient();
+    return youTubeApiHelper.removeVideoFromPlaylist(playlistId, videoSubmission.getVideoId());
   }
 }
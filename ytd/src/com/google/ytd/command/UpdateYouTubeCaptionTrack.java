@@ -6,6 +6,7 @@ import com.google.ytd.dao.UserAuthTokenDao;
 import com.google.ytd.model.UserAuthToken;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -18,19 +19,17 @@ import java.util.logging.Logger;
 public class UpdateYouTubeCaptionTrack extends Command {
   private static final Logger LOG = Logger.getLogger(UpdateYouTubeCaptionTrack.class.getName());
 
-  private static final String CAPTION_CONTENT_TYPE = "application/vnd.youtube.timedtext; "
-      + "charset=UTF-8";
-
-  private YouTubeApiHelper apiManager = null;
+  private YouTubeClientPool youTubeClientPool = null;
   private UserAuthTokenDao authTokenDao = null;
 
   @Inject
   private Util util;
 
   @Inject
-  public UpdateYouTubeCaptionTrack(UserAuthTokenDao authTokenDao, YouTubeApiHelper apiManager) {
+  public UpdateYouTubeCaptionTrack(UserAuthTokenDao authTokenDao,
+      YouTubeClientPool youTubeClientPool) {
     this.authTokenDao = authTokenDao;
-    this.apiManager = apiManager;
+    this.youTubeClientPool = youTubeClientPool;
   }
 
   @Override
@@ -58,17 +57,10 @@ public class UpdateYouTubeCaptionTrack extends Command {
     }
 
     UserAuthToken userAuthToken = authTokenDao.getUserAuthToken(username);    
-    if (!userAuthToken.getAuthSubToken().isEmpty()) {
-      apiManager.setAuthSubToken(userAuthToken.getAuthSubToken());
-    } else {
-      apiManager.setClientLoginToken(userAuthToken.getClientLoginToken());
-    }       
-    
-    apiManager.setHeader("Content-Type", CAPTION_CONTENT_TYPE);
-    apiManager.setHeader("Content-Language", languageCode);
+    YouTubeApiHelper apiManager = youTubeClientPool.getUserClient(userAuthToken);
 
     try {
-      boolean success = apiManager.updateCaptionTrack(videoId, captionTrack);
+      boolean success = apiManager.updateCaptionTrack(videoId, captionTrack, languageCode);
       json.put("success", success);
     } catch (MalformedURLException e) {
       json.put("error", "YouTube API error: " + e.getMessage());
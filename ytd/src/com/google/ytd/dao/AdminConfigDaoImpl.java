@@ -14,23 +14,97 @@ import javax.jdo.PersistenceManager;
 import javax.jdo.PersistenceManagerFactory;
 import javax.jdo.Query;
 
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceException;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
 import com.google.inject.Inject;
 import com.google.ytd.model.AdminConfig;
 import com.google.ytd.model.Assignment;
+import com.google.ytd.util.RequestCache;
 
 public class AdminConfigDaoImpl implements AdminConfigDao {
   private static final Logger LOG = Logger.getLogger(AdminConfigDaoImpl.class.getName());
 
   private PersistenceManagerFactory pmf = null;
+  private MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
 
   @Inject
   public AdminConfigDaoImpl(PersistenceManagerFactory pmf) {
     this.pmf = pmf;
   }
 
+  /**
+   * Reads the config from the request snapshot if there is one, then from memcache, and only then
+   * from the datastore. The memcache copy is keyed by a version stamp which save() bumps, so a
+   * stale copy is simply never looked up again.
+   */
   @Override
-  @SuppressWarnings("unchecked")
   public AdminConfig getAdminConfig() {
+    String namespace = getNamespace();
+    String requestKey = String.format("%s:%s", AdminConfig.getCacheKey(), namespace);
+
+    AdminConfig adminConfig = (AdminConfig) RequestCache.get(requestKey);
+    if (adminConfig != null) {
+      return adminConfig;
+    }
+
+    String cacheKey = null;
+    try {
+      Object version = getVersion(namespace);
+      if (version != null) {
+        cacheKey = String.format("%s:%s:%s", AdminConfig.getCacheKey(), namespace, version);
+        adminConfig = (AdminConfig) memcache.get(cacheKey);
+      }
+    } catch (MemcacheServiceException e) {
+      LOG.log(Level.WARNING, "", e);
+    }
+
+    if (adminConfig == null) {
+      adminConfig = loadAdminConfig();
+
+      if (adminConfig != null && cacheKey != null) {
+        try {
+          memcache.put(cacheKey, adminConfig);
+        } catch (MemcacheServiceException e) {
+          LOG.log(Level.WARNING, "", e);
+        }
+      }
+    }
+
+    if (adminConfig != null) {
+      RequestCache.put(requestKey, adminConfig);
+    }
+
+    return adminConfig;
+  }
+
+  private String getNamespace() {
+    String namespace = NamespaceManager.get();
+    return namespace == null ? "" : namespace;
+  }
+
+  private String getVersionKey(String namespace) {
+    return String.format("%s:%s:version", AdminConfig.getCacheKey(), namespace);
+  }
+
+  private Object getVersion(String namespace) {
+    String versionKey = getVersionKey(namespace);
+    Object version = memcache.get(versionKey);
+
+    if (version == null) {
+      // Start from a fresh stamp so an evicted version can't resurrect an old cached copy.
+      memcache.put(versionKey, System.currentTimeMillis(), null,
+          SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      version = memcache.get(versionKey);
+    }
+
+    return version;
+  }
+
+  @SuppressWarnings("unchecked")
+  private AdminConfig loadAdminConfig() {
     AdminConfig adminConfig = null;
 
     PersistenceManager pm = pmf.getPersistenceManager();
@@ -107,6 +181,19 @@ public class AdminConfigDaoImpl implements AdminConfigDao {
     } finally {
       pm.close();
     }
+
+    String namespace = getNamespace();
+    try {
+      // Moving to a new version orphans every cached copy of the old config.
+      String versionKey = getVersionKey(namespace);
+      if (memcache.increment(versionKey, 1) == null) {
+        memcache.put(versionKey, System.currentTimeMillis());
+      }
+    } catch (MemcacheServiceException e) {
+      LOG.log(Level.WARNING, "", e);
+    }
+    RequestCache.put(String.format("%s:%s", AdminConfig.getCacheKey(), namespace), adminConfig);
+
     return adminConfig;
   }
 
@@ -1,6 +1,8 @@
 package com.google.ytd.dao;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import com.google.ytd.model.Assignment;
 
@@ -13,6 +15,13 @@ public interface AssignmentDao {
 
   public Assignment getAssignmentById(String id);
 
+  /**
+   * Looks up several assignments with a single batch get.
+   * 
+   * @return The assignments that were found, keyed by id.
+   */
+  public Map<Long, Assignment> getAssignmentsByIds(Collection<Long> ids);
+
   public long getDefaultMobileAssignmentId();
 
   public List<Assignment> getAssignments(String sortBy, String sortOrder, String filterType);
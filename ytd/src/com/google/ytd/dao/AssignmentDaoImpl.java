@@ -17,7 +17,10 @@
 package com.google.ytd.dao;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,6 +30,8 @@ import javax.jdo.PersistenceManagerFactory;
 import javax.jdo.Query;
 
 import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.TaskOptions.Method;
@@ -37,6 +42,7 @@ import com.google.inject.Singleton;
 import com.google.ytd.model.Assignment;
 import com.google.ytd.model.VideoSubmission.ModerationStatus;
 import com.google.ytd.picasa.PicasaApiHelper;
+import com.google.ytd.util.PmfUtil;
 import com.google.ytd.util.Util;
 
 /**
@@ -55,6 +61,8 @@ public class AssignmentDaoImpl implements AssignmentDao {
   private AdminConfigDao adminConfigDao;
   @Inject
   private PicasaApiHelper picasaApiHelper;
+  @Inject
+  private PmfUtil pmfUtil;
 
   @Inject
   public AssignmentDaoImpl(PersistenceManagerFactory pmf) {
@@ -92,6 +100,23 @@ public class AssignmentDaoImpl implements AssignmentDao {
     }
   }
 
+  @Override
+  public Map<Long, Assignment> getAssignmentsByIds(Collection<Long> ids) {
+    List<Key> keys = new ArrayList<Key>();
+    for (Long id : ids) {
+      if (id != null) {
+        keys.add(KeyFactory.createKey(Assignment.class.getSimpleName(), id));
+      }
+    }
+
+    Map<Long, Assignment> assignments = new HashMap<Long, Assignment>();
+    for (Assignment assignment : pmfUtil.getObjectsByKeys(Assignment.class, "id", keys)) {
+      assignments.put(assignment.getId(), assignment);
+    }
+
+    return assignments;
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public List<Assignment> getAssignments(String sortBy, String sortOrder, String filterType) {
@@ -0,0 +1,15 @@
+package com.google.ytd.dao;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public interface BlobDao {
+  /**
+   * Streams data into a new blob, holding no more than one write buffer of it in memory at a time.
+   * 
+   * @return The new blob's key, size and so on.
+   */
+  public BlobInfo save(String contentType, String fileName, InputStream data) throws IOException;
+}
@@ -0,0 +1,78 @@
+package com.google.ytd.dao;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.files.AppEngineFile;
+import com.google.appengine.api.files.FileService;
+import com.google.appengine.api.files.FileServiceFactory;
+import com.google.appengine.api.files.FileWriteChannel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.logging.Logger;
+
+/**
+ * Writes blobs through the Files API, so that data which doesn't arrive as a browser upload, e.g.
+ * an emailed photo, ends up in the Blobstore just like one that does.
+ */
+public class BlobDaoImpl implements BlobDao {
+  private static final Logger LOG = Logger.getLogger(BlobDaoImpl.class.getName());
+
+  // Each write is a separate API call, which is limited to a little under 1MB.
+  private static final int WRITE_BUFFER_SIZE = 512 * 1024;
+  // The blob key of a newly finalized file can take a moment to become visible.
+  private static final int MAX_KEY_LOOKUPS = 5;
+  private static final long KEY_LOOKUP_DELAY = 100; // In milliseconds
+
+  private FileService fileService = FileServiceFactory.getFileService();
+
+  @Override
+  public BlobInfo save(String contentType, String fileName, InputStream data) throws IOException {
+    AppEngineFile file = fileService.createNewBlobFile(contentType, fileName);
+    FileWriteChannel channel = fileService.openWriteChannel(file, true);
+
+    long size = 0;
+    byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+    int filled = 0;
+    while (true) {
+      int read = data.read(buffer, filled, buffer.length - filled);
+      if (read > 0) {
+        filled += read;
+      }
+
+      if (filled == buffer.length || (read < 0 && filled > 0)) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, filled);
+        while (byteBuffer.hasRemaining()) {
+          channel.write(byteBuffer);
+        }
+        size += filled;
+        filled = 0;
+      }
+
+      if (read < 0) {
+        break;
+      }
+    }
+    channel.closeFinally();
+
+    BlobKey blobKey = fileService.getBlobKey(file);
+    for (int i = 1; blobKey == null && i < MAX_KEY_LOOKUPS; i++) {
+      try {
+        Thread.sleep(KEY_LOOKUP_DELAY);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      blobKey = fileService.getBlobKey(file);
+    }
+    if (blobKey == null) {
+      throw new IOException(String.format("No blob key found for '%s'.", file.getFullPath()));
+    }
+
+    LOG.info(String.format("Wrote %d bytes to blob '%s'.", size, blobKey.getKeyString()));
+
+    return new BlobInfo(blobKey, contentType, new Date(), fileName, size);
+  }
+}
@@ -1,6 +1,30 @@
 package com.google.ytd.dao;
 
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.ytd.model.DataChunk;
+
 public interface DataChunkDao {
   public byte[] getBytes(String photoEntryId, long startByte);
+
+  /**
+   * @return A stream over the photo entry's data, starting at startByte and running through its
+   *         last chunk. Chunks are fetched one at a time as the stream is read.
+   */
+  public InputStream getInputStream(String photoEntryId, long startByte);
+
+  /**
+   * Stores the chunks using as few datastore calls as possible.
+   */
+  public void saveChunks(List<DataChunk> chunks);
+
   public void deleteChunks(String photoEntryId);
+
+  /**
+   * Deletes the chunks of several photo entries, with one query per handful of entries rather than
+   * one per entry.
+   */
+  public void deleteChunks(Collection<String> photoEntryIds);
 }
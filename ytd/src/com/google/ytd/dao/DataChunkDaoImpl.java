@@ -1,73 +1,218 @@
 package com.google.ytd.dao;
 
-import com.google.inject.Inject;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.ytd.model.DataChunk;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.logging.Logger;
 
-import javax.jdo.PersistenceManager;
-import javax.jdo.PersistenceManagerFactory;
-import javax.jdo.Query;
-
+/**
+ * Stores DataChunks under keys derived from "photoEntryId#index", so that reading a chunk is a key
+ * get. Chunks written by older versions have generated ids, and are found with a query instead.
+ *
+ * The low-level datastore API is used throughout, with the same property names as the JDO
+ * mapping of DataChunk.
+ */
 public class DataChunkDaoImpl implements DataChunkDao {
   private static final Logger LOG = Logger.getLogger(DataChunkDaoImpl.class.getName());
 
-  @Inject
-  private PersistenceManagerFactory pmf;
+  private static final String KIND = DataChunk.class.getSimpleName();
+  // Keeps each batch put comfortably below the datastore's per-call size limit.
+  private static final int MAX_BYTES_PER_PUT = 4 * DataChunk.CHUNK_SIZE;
+  private static final int MAX_KEYS_PER_DELETE = 500;
+  // The datastore's limit on the number of values in an IN filter.
+  private static final int MAX_IN_FILTER_VALUES = 30;
 
-  @Inject
-  public DataChunkDaoImpl(PersistenceManagerFactory pmf) {
-    this.pmf = pmf;
-  }
+  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
 
   @Override
-  @SuppressWarnings("unchecked")
   public byte[] getBytes(String photoEntryId, long startByte) {
-    PersistenceManager pm = pmf.getPersistenceManager();
-    byte[] bytes = null;
-
     // We explicitly want to truncate via the int cast.
     int index = (int) (startByte / DataChunk.CHUNK_SIZE);
 
-    try {
-      Query query = pm.newQuery(DataChunk.class);
-      query.setFilter("photoEntryId == photoEntryIdParam && index == indexParam");
-      query.declareParameters("String photoEntryIdParam, int indexParam");
-
-      List<DataChunk> results = (List<DataChunk>) query.execute(photoEntryId, index);
-      if (results.size() > 0) {
-        DataChunk dataChunk = results.get(0);
-        bytes = dataChunk.getData();
-
-        int startIndex = (int) startByte - (index * DataChunk.CHUNK_SIZE);
-        if (startIndex != 0) {
-          bytes = Arrays.copyOfRange(bytes, startIndex, bytes.length);
-        }
+    byte[] bytes = getChunkData(photoEntryId, index);
+    if (bytes != null) {
+      int startIndex = (int) startByte - (index * DataChunk.CHUNK_SIZE);
+      if (startIndex != 0) {
+        bytes = Arrays.copyOfRange(bytes, startIndex, bytes.length);
       }
-    } finally {
-      pm.close();
     }
 
     return bytes;
   }
 
+  @Override
+  public InputStream getInputStream(String photoEntryId, long startByte) {
+    return new DataChunkInputStream(photoEntryId, startByte);
+  }
+
+  @Override
+  public void saveChunks(List<DataChunk> chunks) {
+    List<Entity> batch = new ArrayList<Entity>();
+    int batchBytes = 0;
+
+    for (DataChunk chunk : chunks) {
+      byte[] data = chunk.getData();
+      if (!batch.isEmpty() && batchBytes + data.length > MAX_BYTES_PER_PUT) {
+        datastore.put(batch);
+        batch.clear();
+        batchBytes = 0;
+      }
+
+      Entity entity = new Entity(getKey(chunk.getPhotoEntryId(), chunk.getIndex()));
+      entity.setUnindexedProperty("data", new Blob(data));
+      entity.setProperty("photoEntryId", chunk.getPhotoEntryId());
+      entity.setProperty("index", chunk.getIndex());
+      entity.setProperty("created", chunk.getCreated());
+      batch.add(entity);
+      batchBytes += data.length;
+    }
+
+    if (!batch.isEmpty()) {
+      datastore.put(batch);
+    }
+  }
+
   @Override
   public void deleteChunks(String photoEntryId) {
     LOG.info(String.format("Attempting to delete all DataChunks with photoEntryId '%s'...",
         photoEntryId));
-    PersistenceManager pm = pmf.getPersistenceManager();
 
+    List<String> photoEntryIds = new ArrayList<String>();
+    photoEntryIds.add(photoEntryId);
+    deleteChunks(photoEntryIds);
+  }
+
+  @Override
+  public void deleteChunks(Collection<String> photoEntryIds) {
+    List<String> ids = new ArrayList<String>(photoEntryIds);
+
+    // A keys-only query also picks up chunks stored before keys were derived from the index.
+    List<Key> keys = new ArrayList<Key>();
+    for (int i = 0; i < ids.size(); i += MAX_IN_FILTER_VALUES) {
+      List<String> batch = ids.subList(i, Math.min(ids.size(), i + MAX_IN_FILTER_VALUES));
+
+      Query query = new Query(KIND);
+      if (batch.size() == 1) {
+        query.addFilter("photoEntryId", FilterOperator.EQUAL, batch.get(0));
+      } else {
+        query.addFilter("photoEntryId", FilterOperator.IN, new ArrayList<String>(batch));
+      }
+      query.setKeysOnly();
+
+      for (Entity entity : datastore.prepare(query).asIterable(
+          FetchOptions.Builder.withChunkSize(MAX_KEYS_PER_DELETE))) {
+        keys.add(entity.getKey());
+      }
+    }
+
+    for (int i = 0; i < keys.size(); i += MAX_KEYS_PER_DELETE) {
+      datastore.delete(keys.subList(i, Math.min(keys.size(), i + MAX_KEYS_PER_DELETE)));
+    }
+
+    LOG.info(String.format("... %d DataChunk(s) deleted successfully.", keys.size()));
+  }
+
+  private Key getKey(String photoEntryId, int index) {
+    return KeyFactory.createKey(KIND, String.format("%s#%d", photoEntryId, index));
+  }
+
+  /**
+   * @return The data in the given chunk, or null if there is no such chunk.
+   */
+  private byte[] getChunkData(String photoEntryId, int index) {
     try {
-      Query query = pm.newQuery(DataChunk.class);
-      query.setFilter("photoEntryId == photoEntryIdParam");
-      query.declareParameters("String photoEntryIdParam");
-      long itemsDeleted = query.deletePersistentAll(photoEntryId);
-
-      LOG.info(String.format("... %d DataChunk(s) deleted successfully.", itemsDeleted));
-    } finally {
-      pm.close();
+      Entity entity = datastore.get(getKey(photoEntryId, index));
+      return ((Blob) entity.getProperty("data")).getBytes();
+    } catch (EntityNotFoundException e) {
+      // Fall back on a chunk stored under a generated id.
+    }
+
+    Query query = new Query(KIND);
+    query.addFilter("photoEntryId", FilterOperator.EQUAL, photoEntryId);
+    query.addFilter("index", FilterOperator.EQUAL, index);
+    Entity entity = datastore.prepare(query).asSingleEntity();
+
+    return entity == null ? null : ((Blob) entity.getProperty("data")).getBytes();
+  }
+
+  /**
+   * Reads through a photo entry's chunks in order, holding only one chunk in memory at a time.
+   */
+  private class DataChunkInputStream extends InputStream {
+    private String photoEntryId = null;
+    private int index = 0;
+    private byte[] chunk = null;
+    private int position = 0;
+    private boolean done = false;
+
+    public DataChunkInputStream(String photoEntryId, long startByte) {
+      this.photoEntryId = photoEntryId;
+      // We explicitly want to truncate via the int cast.
+      this.index = (int) (startByte / DataChunk.CHUNK_SIZE);
+      this.position = (int) (startByte - ((long) index * DataChunk.CHUNK_SIZE));
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return chunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+
+      int count = Math.min(length, chunk.length - position);
+      System.arraycopy(chunk, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return chunk == null ? 0 : chunk.length - position;
+    }
+
+    /**
+     * Makes sure there's unread data in the current chunk, moving on to the next one if needed.
+     *
+     * @return false once there is no more data.
+     */
+    private boolean fill() {
+      while (!done && (chunk == null || position >= chunk.length)) {
+        if (chunk != null) {
+          position -= chunk.length;
+          index++;
+        }
+
+        chunk = getChunkData(photoEntryId, index);
+        if (chunk == null) {
+          done = true;
+        }
+      }
+      return !done;
     }
   }
 }
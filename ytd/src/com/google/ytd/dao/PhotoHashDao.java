@@ -0,0 +1,29 @@
+package com.google.ytd.dao;
+
+import com.google.ytd.model.PhotoHash;
+
+/**
+ * Index of the photos already uploaded to Picasa, by assignment, submitter email and content hash.
+ */
+public interface PhotoHashDao {
+  /**
+   * @return The index entry for the hash, or null if the submitter hasn't had a photo with that
+   *         content uploaded for the assignment.
+   */
+  public PhotoHash getPhotoHash(Long assignmentId, String email, String sha256);
+
+  /**
+   * Records a newly uploaded photo, replacing any index entry for an earlier upload of it.
+   * 
+   * @return false if the index already named the same PhotoEntry, in which case nothing changed.
+   */
+  public boolean create(PhotoHash photoHash);
+
+  /**
+   * Records, in a transaction, that a PhotoEntry now shares the indexed photo.
+   * 
+   * @return false if the entry was already linked, or the hash isn't indexed.
+   */
+  public boolean addLinkedPhotoEntry(Long assignmentId, String email, String sha256,
+      String photoEntryId);
+}
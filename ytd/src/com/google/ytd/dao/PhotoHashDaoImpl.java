@@ -0,0 +1,94 @@
+package com.google.ytd.dao;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Transaction;
+
+import com.google.inject.Inject;
+import com.google.ytd.model.PhotoHash;
+
+public class PhotoHashDaoImpl implements PhotoHashDao {
+  private PersistenceManagerFactory pmf = null;
+
+  @Inject
+  public PhotoHashDaoImpl(PersistenceManagerFactory pmf) {
+    this.pmf = pmf;
+  }
+
+  @Override
+  public PhotoHash getPhotoHash(Long assignmentId, String email, String sha256) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      PhotoHash photoHash = pm.getObjectById(PhotoHash.class, PhotoHash.createId(assignmentId,
+          email, sha256));
+      return pm.detachCopy(photoHash);
+    } catch (JDOObjectNotFoundException e) {
+      return null;
+    } finally {
+      pm.close();
+    }
+  }
+
+  @Override
+  public boolean create(PhotoHash photoHash) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+    Transaction tx = pm.currentTransaction();
+
+    try {
+      tx.begin();
+
+      try {
+        PhotoHash existing = pm.getObjectById(PhotoHash.class, photoHash.getId());
+        if (photoHash.getPhotoEntryId().equals(existing.getPhotoEntryId())) {
+          return false;
+        }
+
+        // The earlier upload's entry is gone, and so the entries linked to it don't share this
+        // upload.
+        existing.setPhotoEntryId(photoHash.getPhotoEntryId());
+        existing.getLinkedPhotoEntryIds().clear();
+      } catch (JDOObjectNotFoundException e) {
+        // The usual case: the first upload of this photo.
+        pm.makePersistent(photoHash);
+      }
+
+      tx.commit();
+      return true;
+    } finally {
+      if (tx.isActive()) {
+        tx.rollback();
+      }
+      pm.close();
+    }
+  }
+
+  @Override
+  public boolean addLinkedPhotoEntry(Long assignmentId, String email, String sha256,
+      String photoEntryId) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+    Transaction tx = pm.currentTransaction();
+
+    try {
+      tx.begin();
+
+      PhotoHash photoHash = pm.getObjectById(PhotoHash.class, PhotoHash.createId(assignmentId,
+          email, sha256));
+      if (photoHash.getLinkedPhotoEntryIds().contains(photoEntryId)) {
+        return false;
+      }
+      photoHash.getLinkedPhotoEntryIds().add(photoEntryId);
+
+      tx.commit();
+      return true;
+    } catch (JDOObjectNotFoundException e) {
+      return false;
+    } finally {
+      if (tx.isActive()) {
+        tx.rollback();
+      }
+      pm.close();
+    }
+  }
+}
@@ -1,13 +1,16 @@
 package com.google.ytd.dao;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import com.google.ytd.model.PhotoEntry;
 import com.google.ytd.model.PhotoSubmission;
 import com.google.ytd.model.PhotoEntry.ModerationStatus;
 
 public interface PhotoSubmissionDao {
-  public List<PhotoSubmission> getPhotoSubmissions(String sortBy, String sortOrder);
+  public List<PhotoSubmission> getPhotoSubmissions(String sortBy, String sortOrder, int start,
+      int end);
 
   public PhotoSubmission save(PhotoSubmission submission);
 
@@ -19,11 +22,38 @@ public interface PhotoSubmissionDao {
 
   public PhotoEntry getPhotoEntry(String id);
 
+  /**
+   * Looks up several submissions with a single batch get.
+   * 
+   * @return The submissions that were found, keyed by id.
+   */
+  public Map<String, PhotoSubmission> getSubmissionsByIds(Collection<String> ids);
+
+  /**
+   * Looks up several photo entries with a single batch get.
+   * 
+   * @return The entries that were found, keyed by id.
+   */
+  public Map<String, PhotoEntry> getPhotoEntriesByIds(Collection<String> ids);
+
+  /**
+   * Deletes the entries in batches, along with their blobs and DataChunks. The photo count of each
+   * affected PhotoSubmission is adjusted once, rather than once per entry.
+   */
   public void deletePhotoEntries(String[] ids);
 
   public void deletePhotoEntry(String id);
 
   public void deleteSubmission(String id);
 
+  /**
+   * Deletes a submission and its entries. Large submissions are deleted a few batches at a time;
+   * if entries remain once this request's share is done, a task is queued to pick up where it left
+   * off, and the submission itself is only deleted after its last entry.
+   *
+   * @param cursor Where a previous pass left off, or null to start from the first entry.
+   */
+  public void deleteSubmission(String id, String cursor);
+
   public List<PhotoEntry> getAllPhotos(String submissionId, ModerationStatus status);
 }
@@ -1,26 +1,62 @@
 package com.google.ytd.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
 
+import javax.jdo.JDOObjectNotFoundException;
 import javax.jdo.PersistenceManager;
 import javax.jdo.PersistenceManagerFactory;
 import javax.jdo.Query;
 
+import org.datanucleus.store.appengine.query.JDOCursorHelper;
+
+import com.google.appengine.api.NamespaceManager;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.*;
 import com.google.inject.Inject;
 import com.google.ytd.model.PhotoEntry;
 import com.google.ytd.model.PhotoSubmission;
 import com.google.ytd.model.PhotoEntry.ModerationStatus;
+import com.google.ytd.util.PmfUtil;
 
 public class PhotoSubmissionDaoImpl implements PhotoSubmissionDao {
+  private static final Logger LOG = Logger.getLogger(PhotoSubmissionDaoImpl.class.getName());
+
+  private static final int MAX_ENTRIES_PER_BATCH = 100;
+  // How much of a large submission a single request deletes before handing off to a task.
+  private static final int MAX_BATCHES_PER_REQUEST = 5;
+
   @Inject
   private PersistenceManagerFactory pmf;
+  @Inject
+  private SubmissionCounterDao submissionCounterDao;
+  @Inject
+  private DataChunkDao dataChunkDao;
+  @Inject
+  private PmfUtil pmfUtil;
+
+  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
 
   @SuppressWarnings("unchecked")
   @Override
-  public List<PhotoSubmission> getPhotoSubmissions(String sortBy, String sortOrder) {
+  public List<PhotoSubmission> getPhotoSubmissions(String sortBy, String sortOrder, int start,
+      int end) {
     PersistenceManager pm = pmf.getPersistenceManager();
     List<PhotoSubmission> submissions = null;
 
@@ -28,6 +64,7 @@ public class PhotoSubmissionDaoImpl implements PhotoSubmissionDao {
       Query query = pm.newQuery(PhotoSubmission.class);
       query.declareImports("import java.util.Date");
       query.setOrdering(sortBy + " " + sortOrder);
+      query.setRange(start, end);
 
       submissions = (List<PhotoSubmission>) query.execute();
       submissions = (List<PhotoSubmission>) pm.detachCopyAll(submissions);
@@ -94,55 +131,155 @@ public class PhotoSubmissionDaoImpl implements PhotoSubmissionDao {
 
   @Override
   public void deleteSubmission(String id) {
+    deleteSubmission(id, null);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void deleteSubmission(String id, String cursor) {
     PersistenceManager pm = pmf.getPersistenceManager();
     PhotoSubmission submission = null;
+    boolean done = false;
 
     try {
       submission = pm.getObjectById(PhotoSubmission.class, id);
 
-      // Delete all associated photo entries of this submission
-      List<PhotoEntry> photos = this.getAllPhotos(id);
-      for (PhotoEntry photo : photos) {
-        this.deletePhotoEntry(photo.getId());
+      // The entries are walked with a cursor rather than re-queried after each batch, since a
+      // query issued right after a delete can still return the entries that were just deleted.
+      for (int i = 0; i < MAX_BATCHES_PER_REQUEST && !done; i++) {
+        Query query = pm.newQuery(PhotoEntry.class);
+        query.declareParameters("String submissionId_");
+        query.setFilter("submissionId == submissionId_");
+        query.setRange(0, MAX_ENTRIES_PER_BATCH);
+
+        if (cursor != null && cursor.length() > 0) {
+          Map<String, Object> extensionMap = new HashMap<String, Object>();
+          extensionMap.put(JDOCursorHelper.CURSOR_EXTENSION, Cursor.fromWebSafeString(cursor));
+          query.setExtensions(extensionMap);
+        }
+
+        List<PhotoEntry> entries = (List<PhotoEntry>) query.execute(id);
+
+        Cursor endCursor = null;
+        if (entries.size() == MAX_ENTRIES_PER_BATCH) {
+          endCursor = JDOCursorHelper.getCursor(entries);
+        }
+
+        deletePhotoEntries(pm, entries);
+
+        if (endCursor == null) {
+          done = true;
+        } else {
+          cursor = endCursor.toWebSafeString();
+        }
       }
 
-      // Delete the persistent entry for this photo submission
-      pm.deletePersistent(submission);
+      if (done) {
+        // Delete the persistent entry for this photo submission
+        Long assignmentId = submission.getAssignmentId();
+        pm.deletePersistent(submission);
+        submissionCounterDao.increment(PhotoSubmission.class, assignmentId, null, -1);
+      }
     } finally {
       pm.close();
     }
+
+    if (!done) {
+      LOG.info(String.format("Continuing deletion of PhotoSubmission '%s' in a task.", id));
+
+      Queue queue = QueueFactory.getDefaultQueue();
+      String namespace = NamespaceManager.get();
+      if (namespace == null) {
+        namespace = "";
+      }
+      queue.add(withUrl("/tasks/DeletePhotoSubmission").method(Method.POST).param("id", id)
+          .param("cursor", cursor).param("ns", namespace));
+    }
   }
 
   @Override
   public void deletePhotoEntries(String[] ids) {
-    for (String id : ids) {
-      deletePhotoEntry(id);
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      for (int i = 0; i < ids.length; i += MAX_ENTRIES_PER_BATCH) {
+        List<String> batch = new ArrayList<String>();
+        for (int j = i; j < Math.min(ids.length, i + MAX_ENTRIES_PER_BATCH); j++) {
+          batch.add(ids[j]);
+        }
+
+        deletePhotoEntries(pm, new ArrayList<PhotoEntry>(getPhotoEntriesByIds(batch).values()));
+      }
+    } finally {
+      pm.close();
     }
   }
 
   @Override
   public void deletePhotoEntry(String id) {
-    PersistenceManager pm = pmf.getPersistenceManager();
-    PhotoEntry entry = null;
-    try {
-      entry = pm.getObjectById(PhotoEntry.class, id);
+    deletePhotoEntries(new String[] { id });
+  }
 
-      // Update the photo count of the corresponding submission
-      PhotoSubmission photoSubmission = this.getSubmissionById(entry.getSubmissionId());
-      photoSubmission.setNumberOfPhotos(photoSubmission.getNumberOfPhotos() - 1);
-      this.save(photoSubmission);
+  /**
+   * Deletes a batch of entries with one call each for their blobs, their DataChunks and the
+   * entries themselves, then updates each parent PhotoSubmission and the counters once.
+   */
+  private void deletePhotoEntries(PersistenceManager pm, List<PhotoEntry> entries) {
+    if (entries.isEmpty()) {
+      return;
+    }
 
-      BlobKey blobKey = entry.getBlobKey();
-      if (blobKey != null) {
-        // Delete the image binary from blob store
-        BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-        blobstoreService.delete(blobKey);
+    List<BlobKey> blobKeys = new ArrayList<BlobKey>();
+    List<String> ids = new ArrayList<String>();
+    List<Key> keys = new ArrayList<Key>();
+    // Submission id -> status -> number of entries deleted.
+    Map<String, Map<String, Integer>> deleted = new LinkedHashMap<String, Map<String, Integer>>();
+
+    for (PhotoEntry entry : entries) {
+      if (entry.getBlobKey() != null) {
+        blobKeys.add(entry.getBlobKey());
       }
+      ids.add(entry.getId());
+      keys.add(KeyFactory.createKey(PhotoEntry.class.getSimpleName(), entry.getId()));
 
-      // Delete the persistent entry record of this image
-      pm.deletePersistent(entry);
-    } finally {
-      pm.close();
+      Map<String, Integer> byStatus = deleted.get(entry.getSubmissionId());
+      if (byStatus == null) {
+        byStatus = new HashMap<String, Integer>();
+        deleted.put(entry.getSubmissionId(), byStatus);
+      }
+      String status = statusName(entry.getStatus());
+      Integer count = byStatus.get(status);
+      byStatus.put(status, count == null ? 1 : count + 1);
+    }
+
+    if (!blobKeys.isEmpty()) {
+      BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+      blobstoreService.delete(blobKeys.toArray(new BlobKey[blobKeys.size()]));
+    }
+    dataChunkDao.deleteChunks(ids);
+    datastore.delete(keys);
+
+    for (Map.Entry<String, Map<String, Integer>> entry : deleted.entrySet()) {
+      PhotoSubmission photoSubmission = null;
+      try {
+        photoSubmission = pm.getObjectById(PhotoSubmission.class, entry.getKey());
+      } catch (JDOObjectNotFoundException e) {
+        photoSubmission = null;
+      }
+      Long assignmentId = photoSubmission == null ? null : photoSubmission.getAssignmentId();
+
+      int total = 0;
+      for (Map.Entry<String, Integer> count : entry.getValue().entrySet()) {
+        submissionCounterDao.increment(PhotoEntry.class, assignmentId, count.getKey(),
+            -count.getValue());
+        total += count.getValue();
+      }
+
+      if (photoSubmission != null) {
+        // Update the photo count of the corresponding submission
+        photoSubmission.setNumberOfPhotos(Math.max(0, photoSubmission.getNumberOfPhotos()
+            - total));
+      }
     }
   }
 
@@ -160,8 +297,48 @@ public class PhotoSubmissionDaoImpl implements PhotoSubmissionDao {
     return entry;
   }
 
+  @Override
+  public Map<String, PhotoSubmission> getSubmissionsByIds(Collection<String> ids) {
+    List<Key> keys = new ArrayList<Key>();
+    for (String id : ids) {
+      keys.add(KeyFactory.stringToKey(id));
+    }
+
+    Map<String, PhotoSubmission> submissions = new HashMap<String, PhotoSubmission>();
+    for (PhotoSubmission submission : pmfUtil.getObjectsByKeys(PhotoSubmission.class, "id", keys)) {
+      submissions.put(submission.getId(), submission);
+    }
+
+    return submissions;
+  }
+
+  @Override
+  public Map<String, PhotoEntry> getPhotoEntriesByIds(Collection<String> ids) {
+    List<Key> keys = new ArrayList<Key>();
+    for (String id : ids) {
+      keys.add(KeyFactory.createKey(PhotoEntry.class.getSimpleName(), id));
+    }
+
+    Map<String, PhotoEntry> entries = new HashMap<String, PhotoEntry>();
+    for (PhotoEntry entry : pmfUtil.getObjectsByKeys(PhotoEntry.class, "id", keys)) {
+      entries.put(entry.getId(), entry);
+    }
+
+    return entries;
+  }
+
   @Override
   public PhotoSubmission save(PhotoSubmission submission) {
+    // Look up what's currently stored so that the counters can be moved to the right buckets.
+    PhotoSubmission previous = null;
+    if (submission.getId() != null) {
+      try {
+        previous = getSubmissionById(submission.getId());
+      } catch (JDOObjectNotFoundException e) {
+        previous = null;
+      }
+    }
+
     PersistenceManager pm = pmf.getPersistenceManager();
     try {
       pm.makePersistent(submission);
@@ -169,11 +346,28 @@ public class PhotoSubmissionDaoImpl implements PhotoSubmissionDao {
     } finally {
       pm.close();
     }
+
+    if (previous == null) {
+      submissionCounterDao.increment(PhotoSubmission.class, submission.getAssignmentId(), null, 1);
+    } else if (!equal(previous.getAssignmentId(), submission.getAssignmentId())) {
+      submissionCounterDao.move(PhotoSubmission.class, previous.getAssignmentId(), null,
+          submission.getAssignmentId(), null);
+    }
+
     return submission;
   }
 
   @Override
   public PhotoEntry save(PhotoEntry photo) {
+    PhotoEntry previous = null;
+    if (photo.getId() != null) {
+      try {
+        previous = getPhotoEntry(photo.getId());
+      } catch (JDOObjectNotFoundException e) {
+        previous = null;
+      }
+    }
+
     PersistenceManager pm = pmf.getPersistenceManager();
     try {
       pm.makePersistent(photo);
@@ -181,6 +375,32 @@ public class PhotoSubmissionDaoImpl implements PhotoSubmissionDao {
     } finally {
       pm.close();
     }
+
+    if (previous == null) {
+      submissionCounterDao.increment(PhotoEntry.class, getAssignmentId(photo), statusName(photo
+          .getStatus()), 1);
+    } else if (previous.getStatus() != photo.getStatus()) {
+      Long assignmentId = getAssignmentId(photo);
+      submissionCounterDao.move(PhotoEntry.class, assignmentId, statusName(previous.getStatus()),
+          assignmentId, statusName(photo.getStatus()));
+    }
+
     return photo;
   }
+
+  private Long getAssignmentId(PhotoEntry photo) {
+    try {
+      return getSubmissionById(photo.getSubmissionId()).getAssignmentId();
+    } catch (JDOObjectNotFoundException e) {
+      return null;
+    }
+  }
+
+  private String statusName(ModerationStatus status) {
+    return status == null ? null : status.toString();
+  }
+
+  private boolean equal(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
 }
@@ -0,0 +1,36 @@
+package com.google.ytd.dao;
+
+import java.util.Date;
+import java.util.List;
+
+import com.google.ytd.model.PlaylistMembership;
+
+/**
+ * Index of which videos are in which YouTube playlists. The index for a playlist can only be
+ * trusted once it has been reconciled against the playlist feed at least once.
+ */
+public interface PlaylistMembershipDao {
+  public PlaylistMembership getMembership(String playlistId, String videoId);
+
+  /**
+   * @return The entry closest to the end of the playlist, or null if the playlist is empty.
+   */
+  public PlaylistMembership getLastMembership(String playlistId);
+
+  public PlaylistMembership save(PlaylistMembership membership);
+
+  public void delete(String playlistId, String videoId);
+
+  /**
+   * Replaces everything known about the playlist with the given entries, as read from its feed.
+   * Entries saved since the feed was read are kept even if the feed doesn't have them.
+   *
+   * @param started When reading the feed started.
+   */
+  public void reconcile(String playlistId, List<PlaylistMembership> memberships, Date started);
+
+  /**
+   * @return When the playlist was last reconciled, or null if it never has been.
+   */
+  public Date getLastReconciled(String playlistId);
+}
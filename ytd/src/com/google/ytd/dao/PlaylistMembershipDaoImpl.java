@@ -0,0 +1,142 @@
+package com.google.ytd.dao;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.inject.Inject;
+import com.google.ytd.model.PlaylistMembership;
+
+public class PlaylistMembershipDaoImpl implements PlaylistMembershipDao {
+  // Records when each playlist was last reconciled; keyed by playlist id.
+  private static final String STATUS_KIND = "PlaylistMembershipStatus";
+
+  private PersistenceManagerFactory pmf = null;
+  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  @Inject
+  public PlaylistMembershipDaoImpl(PersistenceManagerFactory pmf) {
+    this.pmf = pmf;
+  }
+
+  @Override
+  public PlaylistMembership getMembership(String playlistId, String videoId) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      PlaylistMembership membership = pm.getObjectById(PlaylistMembership.class,
+          PlaylistMembership.createId(playlistId, videoId));
+      return pm.detachCopy(membership);
+    } catch (JDOObjectNotFoundException e) {
+      return null;
+    } finally {
+      pm.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public PlaylistMembership getLastMembership(String playlistId) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      Query query = pm.newQuery(PlaylistMembership.class);
+      query.declareParameters("String playlistId_");
+      query.setFilter("playlistId == playlistId_");
+      query.setOrdering("position desc");
+      query.setRange(0, 1);
+
+      List<PlaylistMembership> results = (List<PlaylistMembership>) query.execute(playlistId);
+      if (results.isEmpty()) {
+        return null;
+      }
+      return pm.detachCopy(results.get(0));
+    } finally {
+      pm.close();
+    }
+  }
+
+  @Override
+  public PlaylistMembership save(PlaylistMembership membership) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      membership = pm.makePersistent(membership);
+      membership = pm.detachCopy(membership);
+    } finally {
+      pm.close();
+    }
+
+    return membership;
+  }
+
+  @Override
+  public void delete(String playlistId, String videoId) {
+    datastore.delete(getKey(PlaylistMembership.createId(playlistId, videoId)));
+  }
+
+  @Override
+  public void reconcile(String playlistId, List<PlaylistMembership> memberships,
+      Date started) {
+    Set<Key> current = new HashSet<Key>();
+    for (PlaylistMembership membership : memberships) {
+      current.add(getKey(membership.getId()));
+    }
+
+    // Whatever the index has that the feed doesn't is stale, unless it was saved after the feed
+    // was read, e.g. by a video being approved while this ran.
+    com.google.appengine.api.datastore.Query query = new com.google.appengine.api.datastore.Query(
+        PlaylistMembership.class.getSimpleName());
+    query.addFilter("playlistId", com.google.appengine.api.datastore.Query.FilterOperator.EQUAL,
+        playlistId);
+
+    List<Key> stale = new ArrayList<Key>();
+    for (Entity entity : datastore.prepare(query).asIterable()) {
+      Date updated = (Date) entity.getProperty("updated");
+      if (!current.contains(entity.getKey()) && (updated == null || updated.before(started))) {
+        stale.add(entity.getKey());
+      }
+    }
+    if (!stale.isEmpty()) {
+      datastore.delete(stale);
+    }
+
+    PersistenceManager pm = pmf.getPersistenceManager();
+    try {
+      pm.makePersistentAll(memberships);
+    } finally {
+      pm.close();
+    }
+
+    Entity status = new Entity(STATUS_KIND, playlistId);
+    status.setProperty("reconciled", started);
+    datastore.put(status);
+  }
+
+  @Override
+  public Date getLastReconciled(String playlistId) {
+    try {
+      Entity status = datastore.get(KeyFactory.createKey(STATUS_KIND, playlistId));
+      return (Date) status.getProperty("reconciled");
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  private Key getKey(String id) {
+    return KeyFactory.createKey(PlaylistMembership.class.getSimpleName(), id);
+  }
+}
@@ -0,0 +1,35 @@
+package com.google.ytd.dao;
+
+import java.util.List;
+
+/**
+ * A single page of query results, along with the opaque cursor that can be used to fetch the page
+ * that follows it.
+ */
+public class ResultPage<T> {
+  private List<T> results = null;
+  private String cursor = null;
+  private boolean hasMore = false;
+
+  public ResultPage(List<T> results, String cursor, boolean hasMore) {
+    this.results = results;
+    this.cursor = cursor;
+    this.hasMore = hasMore;
+  }
+
+  public List<T> getResults() {
+    return results;
+  }
+
+  /**
+   * @return A web-safe cursor string pointing just past the last result in this page, or null if
+   *         there is no next page.
+   */
+  public String getCursor() {
+    return cursor;
+  }
+
+  public boolean hasMore() {
+    return hasMore;
+  }
+}
@@ -0,0 +1,52 @@
+package com.google.ytd.dao;
+
+/**
+ * Keeps running totals of submissions per assignment and moderation status, so that the admin
+ * grids don't need to read every entity just to display a count.
+ *
+ * Counts are kept per namespace, since the datastore itself is partitioned by namespace.
+ */
+public interface SubmissionCounterDao {
+  /**
+   * Wildcard used in place of an assignment id or a status to mean "all of them".
+   */
+  public static final String ALL = "ALL";
+
+  /**
+   * Adjusts the counts for entities being created (positive delta) or deleted (negative delta).
+   *
+   * @param kind The model class being counted, e.g. VideoSubmission.class.
+   * @param assignmentId The entity's assignment, or null if unknown.
+   * @param status The entity's moderation status, or null if the kind doesn't have one.
+   */
+  public void increment(Class<?> kind, Long assignmentId, String status, long delta);
+
+  /**
+   * Moves a single entity from one assignment/status bucket to another.
+   */
+  public void move(Class<?> kind, Long oldAssignmentId, String oldStatus, Long newAssignmentId,
+      String newStatus);
+
+  /**
+   * The first read of a kind that was never counted in full, e.g. because its entities were saved
+   * before counts were kept, starts a rebuild of its counts; see continueRebuild().
+   *
+   * @param assignmentId An assignment id, or null to count across all assignments.
+   * @param status A moderation status, or null/ALL to count across all statuses.
+   */
+  public long getCount(Class<?> kind, Long assignmentId, String status);
+
+  /**
+   * Drops every count kept for the given kind, e.g. after all of its entities were deleted.
+   */
+  public void reset(Class<?> kind);
+
+  /**
+   * Counts the next batch of entities for a rebuild of the kind's counts, and queues the batch
+   * after it. Once every entity has been counted, the rebuilt counts replace the old ones.
+   *
+   * Entities saved or moderated while the rebuild is running can be miscounted, since the live
+   * counts are dropped for the rebuilt ones.
+   */
+  public void continueRebuild(Class<?> kind);
+}
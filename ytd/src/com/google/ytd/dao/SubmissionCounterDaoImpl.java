@@ -0,0 +1,420 @@
+package com.google.ytd.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+import com.google.inject.Singleton;
+import com.google.ytd.model.PhotoEntry;
+import com.google.ytd.model.PhotoSubmission;
+import com.google.ytd.model.VideoSubmission;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.*;
+
+/**
+ * Sharded counter implementation of SubmissionCounterDao.
+ *
+ * Every (kind, assignment, status) bucket is spread over NUM_SHARDS entities so that concurrent
+ * submissions don't contend on a single entity group. Each change updates four buckets: the exact
+ * one, plus the "all statuses", "all assignments" and "everything" roll-ups, so reads never need
+ * more than a single batch get.
+ *
+ * Counts of a kind are rebuilt from its entities, a batch per task, the first time they're read.
+ * The rebuild's progress and running totals live on one SubmissionCounterRebuild entity per kind,
+ * which is kept once the rebuild is done to mark the counts as complete.
+ */
+@Singleton
+public class SubmissionCounterDaoImpl implements SubmissionCounterDao {
+  private static final Logger LOG = Logger.getLogger(SubmissionCounterDaoImpl.class.getName());
+
+  private static final String ENTITY_KIND = "SubmissionCounterShard";
+  private static final String COUNT_PROPERTY = "count";
+  private static final String KIND_PROPERTY = "kind";
+  private static final int NUM_SHARDS = 10;
+  private static final int MAX_RETRIES = 3;
+  // Cross-group transactions are limited to five entity groups.
+  private static final int MAX_GROUPS_PER_TRANSACTION = 5;
+
+  private static final String REBUILD_KIND = "SubmissionCounterRebuild";
+  private static final String CURSOR_PROPERTY = "cursor";
+  private static final String DONE_PROPERTY = "done";
+  // Running totals are kept as one property per bucket on the rebuild entity.
+  private static final String BUCKET_PREFIX = "bucket:";
+  private static final int REBUILD_BATCH_SIZE = 500;
+  // PhotoHash counts record uploads rather than entities, so they can't be rebuilt.
+  private static final List<String> REBUILDABLE_KINDS = Arrays.asList(VideoSubmission.class
+      .getSimpleName(), PhotoSubmission.class.getSimpleName(), PhotoEntry.class.getSimpleName());
+
+  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private Random random = new Random();
+
+  @Override
+  public void increment(Class<?> kind, Long assignmentId, String status, long delta) {
+    Map<String, Long> deltas = new LinkedHashMap<String, Long>();
+    addDeltas(deltas, kind, assignmentId, status, delta);
+    apply(kind, deltas);
+  }
+
+  @Override
+  public void move(Class<?> kind, Long oldAssignmentId, String oldStatus, Long newAssignmentId,
+      String newStatus) {
+    Map<String, Long> deltas = new LinkedHashMap<String, Long>();
+    addDeltas(deltas, kind, oldAssignmentId, oldStatus, -1);
+    addDeltas(deltas, kind, newAssignmentId, newStatus, 1);
+    apply(kind, deltas);
+  }
+
+  @Override
+  public long getCount(Class<?> kind, Long assignmentId, String status) {
+    String bucket = bucketName(kind, assignmentId == null ? ALL : assignmentId.toString(),
+        status == null ? ALL : status.toUpperCase());
+
+    List<Key> keys = new ArrayList<Key>(NUM_SHARDS + 1);
+    for (int i = 0; i < NUM_SHARDS; i++) {
+      keys.add(shardKey(bucket, i));
+    }
+
+    // Whether the kind was ever counted in full comes along with the same batch get.
+    Key rebuildKey = rebuildKey(kind);
+    boolean rebuildable = REBUILDABLE_KINDS.contains(kind.getSimpleName());
+    if (rebuildable) {
+      keys.add(rebuildKey);
+    }
+
+    Map<Key, Entity> entities = datastore.get(keys);
+    if (rebuildable && !entities.containsKey(rebuildKey)) {
+      startRebuild(kind);
+    }
+
+    long count = 0;
+    for (Entity shard : entities.values()) {
+      if (shard.getKey().equals(rebuildKey)) {
+        continue;
+      }
+
+      Long value = (Long) shard.getProperty(COUNT_PROPERTY);
+      if (value != null) {
+        count += value;
+      }
+    }
+
+    // Counters are best-effort, so never report a negative total.
+    return Math.max(count, 0);
+  }
+
+  @Override
+  public void reset(Class<?> kind) {
+    deleteShards(kind);
+
+    if (REBUILDABLE_KINDS.contains(kind.getSimpleName())) {
+      // With every entity gone, zero is the complete count, and a rebuild that's in progress
+      // would only bring back entities it counted before they were deleted.
+      Entity rebuild = new Entity(rebuildKey(kind));
+      rebuild.setUnindexedProperty(DONE_PROPERTY, true);
+      datastore.put(rebuild);
+    }
+  }
+
+  @Override
+  public void continueRebuild(Class<?> kind) {
+    Entity rebuild = null;
+    try {
+      rebuild = datastore.get(rebuildKey(kind));
+    } catch (EntityNotFoundException e) {
+      throw new IllegalArgumentException(String.format("No rebuild of %s counts was started.", kind
+          .getSimpleName()));
+    }
+    if (Boolean.TRUE.equals(rebuild.getProperty(DONE_PROPERTY))) {
+      return;
+    }
+
+    Text cursor = (Text) rebuild.getProperty(CURSOR_PROPERTY);
+    FetchOptions options = FetchOptions.Builder.withLimit(REBUILD_BATCH_SIZE);
+    if (cursor != null) {
+      options.startCursor(Cursor.fromWebSafeString(cursor.getValue()));
+    }
+    QueryResultList<Entity> entities = datastore.prepare(new Query(kind.getSimpleName()))
+        .asQueryResultList(options);
+
+    Map<Key, Long> photoAssignments = null;
+    if (kind == PhotoEntry.class) {
+      photoAssignments = getPhotoAssignments(entities);
+    }
+
+    Map<String, Long> deltas = new LinkedHashMap<String, Long>();
+    for (Entity entity : entities) {
+      Long assignmentId = null;
+      if (photoAssignments != null) {
+        String submissionId = (String) entity.getProperty("submissionId");
+        if (submissionId != null) {
+          assignmentId = photoAssignments.get(KeyFactory.stringToKey(submissionId));
+        }
+      } else {
+        assignmentId = (Long) entity.getProperty("assignmentId");
+      }
+
+      addDeltas(deltas, kind, assignmentId, (String) entity.getProperty("status"), 1);
+    }
+
+    boolean hasMore = entities.size() == REBUILD_BATCH_SIZE;
+
+    Transaction tx = datastore.beginTransaction();
+    try {
+      Entity current = datastore.get(tx, rebuild.getKey());
+      if (!equal(cursor, current.getProperty(CURSOR_PROPERTY))
+          || Boolean.TRUE.equals(current.getProperty(DONE_PROPERTY))) {
+        // Another run of this task counted the batch already, and queued the next one.
+        return;
+      }
+
+      for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+        String property = BUCKET_PREFIX + delta.getKey();
+        Long total = (Long) current.getProperty(property);
+        current.setUnindexedProperty(property, (total == null ? 0 : total) + delta.getValue());
+      }
+      if (entities.getCursor() != null) {
+        current.setUnindexedProperty(CURSOR_PROPERTY, new Text(entities.getCursor()
+            .toWebSafeString()));
+      }
+
+      datastore.put(tx, current);
+      if (hasMore) {
+        // Queued along with the checkpoint, so every batch is counted exactly once.
+        queueRebuild(tx, kind);
+      }
+      tx.commit();
+
+      rebuild = current;
+    } catch (EntityNotFoundException e) {
+      throw new IllegalArgumentException(String.format("No rebuild of %s counts was started.", kind
+          .getSimpleName()));
+    } finally {
+      if (tx.isActive()) {
+        tx.rollback();
+      }
+    }
+
+    if (!hasMore) {
+      // If this fails, the task is retried from the final checkpoint and finishes again.
+      finishRebuild(kind, rebuild);
+    }
+  }
+
+  private void startRebuild(Class<?> kind) {
+    Transaction tx = datastore.beginTransaction();
+    try {
+      try {
+        datastore.get(tx, rebuildKey(kind));
+        // Started by a concurrent read.
+        return;
+      } catch (EntityNotFoundException e) {
+        // Not started yet.
+      }
+
+      Entity rebuild = new Entity(rebuildKey(kind));
+      rebuild.setUnindexedProperty(DONE_PROPERTY, false);
+      datastore.put(tx, rebuild);
+      queueRebuild(tx, kind);
+      tx.commit();
+
+      LOG.info(String.format("Started rebuilding the counts of %s.", kind.getSimpleName()));
+    } catch (ConcurrentModificationException e) {
+      // Started by a concurrent read.
+    } finally {
+      if (tx.isActive()) {
+        tx.rollback();
+      }
+    }
+  }
+
+  private void queueRebuild(Transaction tx, Class<?> kind) {
+    String namespace = NamespaceManager.get();
+    if (namespace == null) {
+      namespace = "";
+    }
+
+    QueueFactory.getDefaultQueue().add(tx, withUrl("/tasks/RebuildSubmissionCounters").method(
+        Method.POST).param("kind", kind.getSimpleName()).param("ns", namespace));
+  }
+
+  /**
+   * Replaces the kind's counts with the rebuilt ones, each bucket's total going into one shard.
+   */
+  private void finishRebuild(Class<?> kind, Entity rebuild) {
+    deleteShards(kind);
+
+    List<Entity> shards = new ArrayList<Entity>();
+    for (Map.Entry<String, Object> property : rebuild.getProperties().entrySet()) {
+      if (property.getKey().startsWith(BUCKET_PREFIX)) {
+        Entity shard = new Entity(shardKey(property.getKey().substring(BUCKET_PREFIX.length()),
+            0));
+        shard.setProperty(KIND_PROPERTY, kind.getSimpleName());
+        shard.setUnindexedProperty(COUNT_PROPERTY, property.getValue());
+        shards.add(shard);
+      }
+    }
+    datastore.put(shards);
+
+    Entity done = new Entity(rebuild.getKey());
+    done.setUnindexedProperty(DONE_PROPERTY, true);
+    datastore.put(done);
+
+    LOG.info(String.format("Rebuilt %d counts of %s.", shards.size(), kind.getSimpleName()));
+  }
+
+  /**
+   * @return The assignment id of each PhotoSubmission the given PhotoEntries belong to.
+   */
+  private Map<Key, Long> getPhotoAssignments(List<Entity> photos) {
+    Set<Key> keys = new HashSet<Key>();
+    for (Entity photo : photos) {
+      String submissionId = (String) photo.getProperty("submissionId");
+      if (submissionId != null) {
+        keys.add(KeyFactory.stringToKey(submissionId));
+      }
+    }
+
+    Map<Key, Long> assignments = new HashMap<Key, Long>();
+    for (Entity submission : datastore.get(keys).values()) {
+      assignments.put(submission.getKey(), (Long) submission.getProperty("assignmentId"));
+    }
+    return assignments;
+  }
+
+  private void deleteShards(Class<?> kind) {
+    Query query = new Query(ENTITY_KIND);
+    query.addFilter(KIND_PROPERTY, Query.FilterOperator.EQUAL, kind.getSimpleName());
+    query.setKeysOnly();
+
+    List<Key> keys = new ArrayList<Key>();
+    for (Entity shard : datastore.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(
+        500))) {
+      keys.add(shard.getKey());
+    }
+
+    datastore.delete(keys);
+    LOG.info(String.format("Reset %d counter shards for %s.", keys.size(), kind.getSimpleName()));
+  }
+
+  private void addDeltas(Map<String, Long> deltas, Class<?> kind, Long assignmentId,
+      String status, long delta) {
+    String assignment = assignmentId == null ? null : assignmentId.toString();
+    status = status == null ? null : status.toUpperCase();
+
+    addDelta(deltas, bucketName(kind, ALL, ALL), delta);
+    if (assignment != null) {
+      addDelta(deltas, bucketName(kind, assignment, ALL), delta);
+    }
+    if (status != null) {
+      addDelta(deltas, bucketName(kind, ALL, status), delta);
+      if (assignment != null) {
+        addDelta(deltas, bucketName(kind, assignment, status), delta);
+      }
+    }
+  }
+
+  private void addDelta(Map<String, Long> deltas, String bucket, long delta) {
+    Long current = deltas.get(bucket);
+    long total = (current == null ? 0 : current) + delta;
+    if (total == 0) {
+      // Moves within the same bucket cancel out, e.g. the roll-ups when only the status changed.
+      deltas.remove(bucket);
+    } else {
+      deltas.put(bucket, total);
+    }
+  }
+
+  private void apply(Class<?> kind, Map<String, Long> deltas) {
+    List<Map.Entry<String, Long>> pending = new ArrayList<Map.Entry<String, Long>>(
+        deltas.entrySet());
+
+    for (int i = 0; i < pending.size(); i += MAX_GROUPS_PER_TRANSACTION) {
+      List<Map.Entry<String, Long>> batch = pending.subList(i, Math.min(pending.size(), i
+          + MAX_GROUPS_PER_TRANSACTION));
+
+      for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
+        try {
+          applyBatch(kind, batch);
+          break;
+        } catch (ConcurrentModificationException e) {
+          if (attempt == MAX_RETRIES) {
+            LOG.log(Level.WARNING, "Giving up on counter update for " + kind.getSimpleName(), e);
+          }
+        }
+      }
+    }
+  }
+
+  private void applyBatch(Class<?> kind, List<Map.Entry<String, Long>> batch) {
+    Transaction tx = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      List<Entity> shards = new ArrayList<Entity>(batch.size());
+
+      for (Map.Entry<String, Long> entry : batch) {
+        // Each bucket gets a random shard, which is its own entity group.
+        Key key = shardKey(entry.getKey(), random.nextInt(NUM_SHARDS));
+
+        Entity shard = null;
+        try {
+          shard = datastore.get(tx, key);
+        } catch (EntityNotFoundException e) {
+          shard = new Entity(key);
+          shard.setProperty(KIND_PROPERTY, kind.getSimpleName());
+          shard.setUnindexedProperty(COUNT_PROPERTY, 0L);
+        }
+
+        Long count = (Long) shard.getProperty(COUNT_PROPERTY);
+        shard.setUnindexedProperty(COUNT_PROPERTY, (count == null ? 0 : count) + entry.getValue());
+        shards.add(shard);
+      }
+
+      datastore.put(tx, shards);
+      tx.commit();
+    } finally {
+      if (tx.isActive()) {
+        tx.rollback();
+      }
+    }
+  }
+
+  private boolean equal(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  private Key rebuildKey(Class<?> kind) {
+    return KeyFactory.createKey(REBUILD_KIND, kind.getSimpleName());
+  }
+
+  private String bucketName(Class<?> kind, String assignment, String status) {
+    return String.format("%s|%s|%s", kind.getSimpleName(), assignment, status);
+  }
+
+  private Key shardKey(String bucket, int shard) {
+    return KeyFactory.createKey(ENTITY_KIND, bucket + "#" + shard);
+  }
+}
@@ -0,0 +1,49 @@
+package com.google.ytd.dao;
+
+import java.util.List;
+
+import com.google.ytd.model.SyncPass;
+import com.google.ytd.model.SyncShard;
+
+/**
+ * Bookkeeping for the metadata sync: its passes, and the shards each pass is split into.
+ */
+public interface SyncPassDao {
+  public SyncPass newPass(boolean full);
+
+  public SyncPass getPass(long id);
+
+  /**
+   * @return The most recently started pass, or null if there has never been one.
+   */
+  public SyncPass getLatestPass();
+
+  /**
+   * @return The most recently started full pass, or null if there has never been one.
+   */
+  public SyncPass getLatestFullPass();
+
+  public SyncPass savePass(SyncPass pass);
+
+  public SyncShard getShard(long passId, int shardIndex);
+
+  /**
+   * Saves several new shards with a single batch write.
+   */
+  public void saveShards(List<SyncShard> shards);
+
+  public SyncShard saveShard(SyncShard shard);
+
+  /**
+   * @return Every shard of the pass, in order.
+   */
+  public List<SyncShard> getShards(long passId);
+
+  /**
+   * Marks the pass as finished if all of its shards have been queued and are done. This relies on
+   * a query, so it may take a little while to notice the last shards finishing.
+   * 
+   * @return The pass, which may or may not be finished.
+   */
+  public SyncPass finishIfComplete(long passId);
+}
@@ -0,0 +1,189 @@
+package com.google.ytd.dao;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+
+import com.google.inject.Inject;
+import com.google.ytd.model.SyncPass;
+import com.google.ytd.model.SyncShard;
+
+public class SyncPassDaoImpl implements SyncPassDao {
+  private PersistenceManagerFactory pmf = null;
+
+  @Inject
+  public SyncPassDaoImpl(PersistenceManagerFactory pmf) {
+    this.pmf = pmf;
+  }
+
+  @Override
+  public SyncPass newPass(boolean full) {
+    return savePass(new SyncPass(full));
+  }
+
+  @Override
+  public SyncPass getPass(long id) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      return pm.detachCopy(pm.getObjectById(SyncPass.class, id));
+    } catch (JDOObjectNotFoundException e) {
+      return null;
+    } finally {
+      pm.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public SyncPass getLatestPass() {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      Query query = pm.newQuery(SyncPass.class);
+      query.setOrdering("started desc");
+      query.setRange(0, 1);
+
+      List<SyncPass> results = (List<SyncPass>) query.execute();
+      if (results.isEmpty()) {
+        return null;
+      }
+      return pm.detachCopy(results.get(0));
+    } finally {
+      pm.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public SyncPass getLatestFullPass() {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      Query query = pm.newQuery(SyncPass.class);
+      query.setFilter("full == true");
+      query.setOrdering("started desc");
+      query.setRange(0, 1);
+
+      List<SyncPass> results = (List<SyncPass>) query.execute();
+      if (results.isEmpty()) {
+        return null;
+      }
+      return pm.detachCopy(results.get(0));
+    } finally {
+      pm.close();
+    }
+  }
+
+  @Override
+  public SyncPass savePass(SyncPass pass) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      pass = pm.makePersistent(pass);
+      pass = pm.detachCopy(pass);
+    } finally {
+      pm.close();
+    }
+
+    return pass;
+  }
+
+  @Override
+  public SyncShard getShard(long passId, int shardIndex) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      return pm.detachCopy(pm.getObjectById(SyncShard.class, SyncShard.createId(passId,
+          shardIndex)));
+    } catch (JDOObjectNotFoundException e) {
+      return null;
+    } finally {
+      pm.close();
+    }
+  }
+
+  @Override
+  public void saveShards(List<SyncShard> shards) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      pm.makePersistentAll(shards);
+    } finally {
+      pm.close();
+    }
+  }
+
+  @Override
+  public SyncShard saveShard(SyncShard shard) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      shard = pm.makePersistent(shard);
+      shard = pm.detachCopy(shard);
+    } finally {
+      pm.close();
+    }
+
+    return shard;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public List<SyncShard> getShards(long passId) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      Query query = pm.newQuery(SyncShard.class);
+      query.declareParameters("Long passId_");
+      query.setFilter("passId == passId_");
+      query.setOrdering("shardIndex asc");
+
+      List<SyncShard> results = (List<SyncShard>) query.execute(passId);
+      return new ArrayList<SyncShard>(pm.detachCopyAll(results));
+    } finally {
+      pm.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public SyncPass finishIfComplete(long passId) {
+    SyncPass pass = getPass(passId);
+    if (pass == null || pass.isFinished() || !pass.isScheduled()) {
+      return pass;
+    }
+
+    PersistenceManager pm = pmf.getPersistenceManager();
+    Date lastUpdated = pass.getStarted();
+
+    try {
+      Query query = pm.newQuery(SyncShard.class);
+      query.declareParameters("Long passId_");
+      query.setFilter("passId == passId_ && done == true");
+
+      List<SyncShard> done = (List<SyncShard>) query.execute(passId);
+      if (done.size() < pass.getShardCount()) {
+        return pass;
+      }
+
+      for (SyncShard shard : done) {
+        if (shard.getUpdated().after(lastUpdated)) {
+          lastUpdated = shard.getUpdated();
+        }
+      }
+    } finally {
+      pm.close();
+    }
+
+    // Use the time the last shard finished, rather than the time this was noticed, so that the
+    // pass's throughput comes out right.
+    pass.setFinished(lastUpdated);
+    return savePass(pass);
+  }
+}
@@ -1,10 +1,20 @@
 package com.google.ytd.dao;
 
+import java.util.Collection;
+import java.util.Map;
+
 import com.google.ytd.model.UserAuthToken;
 
 public interface UserAuthTokenDao {
   public UserAuthToken getUserAuthToken(String username);
 
+  /**
+   * Looks up the tokens for several users at once.
+   *
+   * @return A map of username to token. Users without a token are left out.
+   */
+  public Map<String, UserAuthToken> getUserAuthTokens(Collection<String> usernames);
+
   public void setUserAuthToken(String username, String token);
 
   public void setUserAuthToken(String username, String token, UserAuthToken.TokenType tokenType);
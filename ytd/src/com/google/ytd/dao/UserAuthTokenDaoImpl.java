@@ -1,18 +1,43 @@
 package com.google.ytd.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.jdo.PersistenceManager;
 import javax.jdo.PersistenceManagerFactory;
 import javax.jdo.Query;
 
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceException;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.inject.Inject;
 import com.google.ytd.model.UserAuthToken;
 import com.google.ytd.util.Util;
 
 public class UserAuthTokenDaoImpl implements UserAuthTokenDao {
+  private static final Logger LOG = Logger.getLogger(UserAuthTokenDaoImpl.class.getName());
+
+  private static final String CACHE_KEY_PREFIX = "userAuthToken";
+  // Keeps each datastore batch get well under the per-call limit.
+  private static final int MAX_KEYS_PER_GET = 500;
+
   private PersistenceManagerFactory pmf = null;
-  
+  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
   @Inject
   private Util util;
 
@@ -21,55 +46,186 @@ public class UserAuthTokenDaoImpl implements UserAuthTokenDao {
     this.pmf = pmf;
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public UserAuthToken getUserAuthToken(String username) {
-    PersistenceManager pm = pmf.getPersistenceManager();
-    try {
+    if (util.isNullOrEmpty(username)) {
+      return null;
+    }
+
+    List<String> usernames = new ArrayList<String>();
+    usernames.add(username);
+    return getUserAuthTokens(usernames).get(username);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public Map<String, UserAuthToken> getUserAuthTokens(Collection<String> usernames) {
+    Map<String, UserAuthToken> tokens = new HashMap<String, UserAuthToken>();
+
+    Set<String> missing = new LinkedHashSet<String>();
+    for (String username : usernames) {
       if (!util.isNullOrEmpty(username)) {
-        Query query = pm.newQuery(UserAuthToken.class, "youtubeName == username");
-        query.declareParameters("String username");
-        List<UserAuthToken> results = (List<UserAuthToken>) query.execute(username);
-        if (results.size() > 0) {
-          return pm.detachCopy(results.get(0));
-        }
+        missing.add(username);
+      }
+    }
+    if (missing.isEmpty()) {
+      return tokens;
+    }
+
+    // First tier: memcache.
+    Map<String, String> cacheKeys = new HashMap<String, String>();
+    for (String username : missing) {
+      cacheKeys.put(getCacheKey(username), username);
+    }
+    try {
+      Map<Object, Object> cached = memcache.getAll((Collection) cacheKeys.keySet());
+      for (Map.Entry<Object, Object> entry : cached.entrySet()) {
+        String username = cacheKeys.get(entry.getKey());
+        tokens.put(username, (UserAuthToken) entry.getValue());
+        missing.remove(username);
+      }
+    } catch (MemcacheServiceException e) {
+      LOG.log(Level.WARNING, "", e);
+    }
+    if (missing.isEmpty()) {
+      return tokens;
+    }
+
+    // Second tier: batch gets on the username keys.
+    List<Key> keys = new ArrayList<Key>();
+    for (String username : missing) {
+      keys.add(getKey(username));
+    }
+    Map<Object, Object> fetched = new HashMap<Object, Object>();
+    for (int i = 0; i < keys.size(); i += MAX_KEYS_PER_GET) {
+      List<Key> batch = keys.subList(i, Math.min(keys.size(), i + MAX_KEYS_PER_GET));
+      for (Entity entity : datastore.get(batch).values()) {
+        UserAuthToken userAuthToken = toUserAuthToken(entity);
+        String username = entity.getKey().getName();
+
+        tokens.put(username, userAuthToken);
+        fetched.put(getCacheKey(username), userAuthToken);
+        missing.remove(username);
+      }
+    }
+
+    // Last resort: tokens stored before they were keyed by username. These get re-keyed as they're
+    // found, so this only keeps costing a query for users that have no token at all.
+    for (String username : missing) {
+      UserAuthToken userAuthToken = migrateLegacyUserAuthToken(username);
+      if (userAuthToken != null) {
+        tokens.put(username, userAuthToken);
+        fetched.put(getCacheKey(username), userAuthToken);
+      }
+    }
+
+    if (!fetched.isEmpty()) {
+      try {
+        memcache.putAll(fetched);
+      } catch (MemcacheServiceException e) {
+        LOG.log(Level.WARNING, "", e);
       }
-    } finally {
-      pm.close();
     }
-    return null;
+
+    return tokens;
   }
-  
+
   @Override
   public void setUserAuthToken(String username, String token) {
     // default token type is authsub
     setUserAuthToken(username, token, UserAuthToken.TokenType.AUTH_SUB);
   }
-  
+
   @Override
   public void setUserAuthToken(String username, String token, UserAuthToken.TokenType tokenType) {
     UserAuthToken userAuthToken = getUserAuthToken(username);
-    
+
     if (userAuthToken == null) {
       userAuthToken = new UserAuthToken();
+      userAuthToken.setId(KeyFactory.keyToString(getKey(username)));
       userAuthToken.setYoutubeName(username);
-    } 
-    
+    }
+
     switch (tokenType) {
       case AUTH_SUB:
         userAuthToken.setAuthSubToken(token);
         break;
       case CLIENT_LOGIN:
         userAuthToken.setClientLoginToken(token);
-        break;      
+        break;
     }
-    
+
+    save(userAuthToken);
+  }
+
+  /**
+   * Writes the token under its username key. The properties match the ones JDO would write, so
+   * either API can read the result.
+   */
+  private void save(UserAuthToken userAuthToken) {
+    Entity entity = new Entity(KeyFactory.stringToKey(userAuthToken.getId()));
+    entity.setProperty("youtubeName", userAuthToken.getYoutubeName());
+    entity.setProperty("authSubToken", userAuthToken.getAuthSubToken());
+    entity.setProperty("clientLoginToken", userAuthToken.getClientLoginToken());
+    datastore.put(entity);
+
+    try {
+      memcache.put(getCacheKey(userAuthToken.getYoutubeName()), userAuthToken);
+    } catch (MemcacheServiceException e) {
+      LOG.log(Level.WARNING, "", e);
+    }
+  }
+
+  /**
+   * Looks for a token stored under an auto-generated id, and if there is one, moves it to a key
+   * based on the username.
+   */
+  @SuppressWarnings("unchecked")
+  private UserAuthToken migrateLegacyUserAuthToken(String username) {
+    UserAuthToken legacyToken = null;
+
     PersistenceManager pm = pmf.getPersistenceManager();
     try {
-      pm.makePersistent(userAuthToken);
+      Query query = pm.newQuery(UserAuthToken.class, "youtubeName == username");
+      query.declareParameters("String username");
+      List<UserAuthToken> results = (List<UserAuthToken>) query.execute(username);
+      if (results.size() > 0) {
+        legacyToken = pm.detachCopy(results.get(0));
+      }
     } finally {
       pm.close();
     }
-  }  
-  
+
+    if (legacyToken == null) {
+      return null;
+    }
+
+    LOG.info(String.format("Re-keying UserAuthToken for '%s'.", username));
+
+    UserAuthToken userAuthToken = new UserAuthToken(username, legacyToken.getAuthSubToken());
+    userAuthToken.setId(KeyFactory.keyToString(getKey(username)));
+    userAuthToken.setClientLoginToken(legacyToken.getClientLoginToken());
+    save(userAuthToken);
+
+    datastore.delete(KeyFactory.stringToKey(legacyToken.getId()));
+
+    return userAuthToken;
+  }
+
+  private UserAuthToken toUserAuthToken(Entity entity) {
+    UserAuthToken userAuthToken = new UserAuthToken((String) entity.getProperty("youtubeName"),
+        (String) entity.getProperty("authSubToken"));
+    userAuthToken.setId(KeyFactory.keyToString(entity.getKey()));
+    userAuthToken.setClientLoginToken((String) entity.getProperty("clientLoginToken"));
+    return userAuthToken;
+  }
+
+  private Key getKey(String username) {
+    return KeyFactory.createKey(UserAuthToken.class.getSimpleName(), username);
+  }
+
+  private String getCacheKey(String username) {
+    String namespace = NamespaceManager.get() == null ? "" : NamespaceManager.get();
+    return String.format("%s:%s:%s", CACHE_KEY_PREFIX, namespace, username);
+  }
 }
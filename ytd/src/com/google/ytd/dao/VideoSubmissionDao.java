@@ -1,19 +1,121 @@
 package com.google.ytd.dao;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
+import com.google.ytd.model.PendingModeration;
 import com.google.ytd.model.VideoSubmission;
+import com.google.ytd.model.VideoSyncState;
+import com.google.ytd.model.VideoSubmission.ModerationStatus;
 
 public interface VideoSubmissionDao {
   public VideoSubmission newSubmission(long assignmentId);
 
-  public List<VideoSubmission> getSubmissions(String sortBy, String sortOrder, String filterType);
+  /**
+   * Retrieves a single page of submissions, starting at the position described by cursor.
+   * 
+   * @param cursor A web-safe cursor string returned with a previous page, or null/empty to start
+   *          from the first page.
+   */
+  public ResultPage<VideoSubmission> getSubmissions(String sortBy, String sortOrder,
+      String filterType, int pageSize, String cursor);
 
   public void setVideoStatus(String id, String status);
 
+  /**
+   * Moves several submissions to a new status. Each one is saved together with a PendingModeration
+   * in a transaction of its own, so a status is never changed without its side effects being
+   * recorded. The caller is responsible for queueing the /tasks/ModerateVideoSubmission tasks that
+   * carry those out.
+   * 
+   * Submissions that already have the status are left alone, unless their PendingModeration for it
+   * is still outstanding, e.g. because an earlier attempt saved the status but failed to queue the
+   * task. Those are returned again so that the task can be queued again; moderating is idempotent.
+   * 
+   * @param failedIds
+   *          Filled in with the ids of the submissions that couldn't be found or saved.
+   * @return The submissions whose moderation to the status needs a task.
+   */
+  public List<VideoSubmission> setVideoStatuses(Collection<String> ids, ModerationStatus status,
+      Collection<String> failedIds);
+
   public VideoSubmission getSubmissionById(String id);
 
+  /**
+   * Looks up several submissions with a single batch get.
+   * 
+   * @return The submissions that were found, keyed by id.
+   */
+  public Map<String, VideoSubmission> getSubmissionsByIds(Collection<String> ids);
+
+  /**
+   * Walks the ids of every submission with a keys-only query. Each uploader's submissions come
+   * one after another, so that they can be synced together.
+   * 
+   * @param cursor A web-safe cursor string returned with a previous page, or null/empty to start
+   *          from the first submission.
+   */
+  public ResultPage<String> getSubmissionIds(int pageSize, String cursor);
+
+  /**
+   * Walks the ids of the submissions whose next sync is due by the given time, soonest due first,
+   * with a keys-only query over their VideoSyncStates.
+   */
+  public ResultPage<String> getDueSubmissionIds(Date due, int pageSize, String cursor);
+
+  /**
+   * Looks up the sync states of several submissions with a single batch get. A submission that
+   * has no stored state yet gets a new, unsaved one, which is due to be synced straight away.
+   * 
+   * @return The states, keyed by submission id.
+   */
+  public Map<String, VideoSyncState> getSyncStates(Collection<String> submissionIds);
+
+  public VideoSyncState getSyncState(String submissionId);
+
+  /**
+   * Saves several sync states with a single batch write.
+   */
+  public void saveSyncStates(Collection<VideoSyncState> syncStates);
+
   public VideoSubmission save(VideoSubmission submission);
+
+  /**
+   * Saves the fields a metadata sync sets, i.e. the YouTube state, title, description, tags, view
+   * count and updated time, onto the current version of each submission, one transaction per
+   * submission. The submission counters and sync states aren't touched. Only meant for changes
+   * synced from YouTube, which never move a submission to a different status or assignment.
+   */
+  public void saveSyncedSubmissions(Collection<VideoSubmission> submissions);
+
+  /**
+   * Saves the fields the moderation worker sets, i.e. the playlist membership and the description
+   * and tags that branding rewrites, onto the current version of each submission, one transaction
+   * per submission. The status and submission counters are never touched.
+   * 
+   * If a submission's status has changed since the worker read it, only its playlist membership
+   * is saved, since that records what is now on YouTube and the worker for the newer status
+   * relies on it.
+   */
+  public void saveModeratedSubmissions(Collection<VideoSubmission> submissions);
+
+  /**
+   * Saves a submission whose status has changed, together with a PendingModeration for the new
+   * status, in a single transaction. A /tasks/ModerateVideoSubmission task to carry out the side
+   * effects is queued as part of the same transaction, so it runs only if the save succeeds.
+   */
+  public VideoSubmission saveAndQueueModeration(VideoSubmission submission);
+
+  /**
+   * @return The submission's outstanding PendingModerations, oldest first.
+   */
+  public List<PendingModeration> getPendingModerations(String submissionId);
+
+  public PendingModeration savePendingModeration(PendingModeration pendingModeration);
+
+  public void deletePendingModerations(List<PendingModeration> pendingModerations);
   
   public void deleteSubmission(String id);
 }
\ No newline at end of file
@@ -1,19 +1,45 @@
 package com.google.ytd.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.jdo.JDOException;
+import javax.jdo.JDOObjectNotFoundException;
 import javax.jdo.PersistenceManager;
 import javax.jdo.PersistenceManagerFactory;
 import javax.jdo.Query;
+import javax.jdo.Transaction;
 
+import org.datanucleus.store.appengine.query.JDOCursorHelper;
+
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.*;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.ytd.model.AdminConfig;
+import com.google.ytd.model.PendingModeration;
 import com.google.ytd.model.VideoSubmission;
 import com.google.ytd.model.VideoSubmission.ModerationStatus;
+import com.google.ytd.model.VideoSyncState;
 import com.google.ytd.util.EmailUtil;
+import com.google.ytd.util.PmfUtil;
 
 @Singleton
 public class VideoSubmissionDaoImpl implements VideoSubmissionDao {
@@ -25,6 +51,10 @@ public class VideoSubmissionDaoImpl implements VideoSubmissionDao {
   private EmailUtil emailUtil;
   @Inject
   private AdminConfigDao adminConfigDao;
+  @Inject
+  private SubmissionCounterDao submissionCounterDao;
+  @Inject
+  private PmfUtil pmfUtil;
 
   @Inject
   public VideoSubmissionDaoImpl(PersistenceManagerFactory pmf) {
@@ -38,28 +68,47 @@ public class VideoSubmissionDaoImpl implements VideoSubmissionDao {
 
   @SuppressWarnings("unchecked")
   @Override
-  public List<VideoSubmission> getSubmissions(String sortBy, String sortOrder, String filterType) {
+  public ResultPage<VideoSubmission> getSubmissions(String sortBy, String sortOrder,
+      String filterType, int pageSize, String cursor) {
     PersistenceManager pm = pmf.getPersistenceManager();
     List<VideoSubmission> submissions = null;
+    String nextCursor = null;
 
     try {
       Query query = pm.newQuery(VideoSubmission.class);
       query.declareImports("import java.util.Date");
       query.declareParameters("String filterType");
       query.setOrdering(sortBy + " " + sortOrder);
+      query.setRange(0, pageSize);
 
       if (!filterType.toUpperCase().equals("ALL")) {
         String filters = "status == filterType";
         query.setFilter(filters);
       }
 
+      if (cursor != null && cursor.length() > 0) {
+        // Throws an IllegalArgumentException if the client hands us a malformed cursor.
+        Map<String, Object> extensionMap = new HashMap<String, Object>();
+        extensionMap.put(JDOCursorHelper.CURSOR_EXTENSION, Cursor.fromWebSafeString(cursor));
+        query.setExtensions(extensionMap);
+      }
+
       submissions = (List<VideoSubmission>) query.execute(filterType);
+
+      // Only a full page can be followed by another one.
+      if (submissions.size() == pageSize) {
+        Cursor endCursor = JDOCursorHelper.getCursor(submissions);
+        if (endCursor != null) {
+          nextCursor = endCursor.toWebSafeString();
+        }
+      }
+
       submissions = (List<VideoSubmission>) pm.detachCopyAll(submissions);
     } finally {
       pm.close();
     }
 
-    return submissions;
+    return new ResultPage<VideoSubmission>(submissions, nextCursor, nextCursor != null);
   }
 
   @Override
@@ -76,6 +125,196 @@ public class VideoSubmissionDaoImpl implements VideoSubmissionDao {
     return submission;
   }
 
+  @Override
+  public Map<String, VideoSubmission> getSubmissionsByIds(Collection<String> ids) {
+    List<Key> keys = new ArrayList<Key>();
+    for (String id : ids) {
+      keys.add(KeyFactory.stringToKey(id));
+    }
+
+    Map<String, VideoSubmission> submissions = new HashMap<String, VideoSubmission>();
+    for (VideoSubmission submission : pmfUtil.getObjectsByKeys(VideoSubmission.class, "id", keys)) {
+      submissions.put(submission.getId(), submission);
+    }
+
+    return submissions;
+  }
+
+  @Override
+  public List<VideoSubmission> setVideoStatuses(Collection<String> ids, ModerationStatus status,
+      Collection<String> failedIds) {
+    List<VideoSubmission> submissions = new ArrayList<VideoSubmission>();
+    // Assignment id -> previous status -> number of submissions moved out of it.
+    Map<Long, Map<ModerationStatus, Integer>> moved =
+        new HashMap<Long, Map<ModerationStatus, Integer>>();
+    Date now = new Date();
+
+    Map<String, VideoSubmission> found = getSubmissionsByIds(ids);
+    PersistenceManager pm = pmf.getPersistenceManager();
+    try {
+      for (String id : ids) {
+        VideoSubmission submission = found.get(id);
+        if (submission == null) {
+          failedIds.add(id);
+          continue;
+        }
+        if (submission.getStatus() == status) {
+          if (isModerationPending(id, status)) {
+            submissions.add(submission);
+          }
+          continue;
+        }
+
+        Transaction tx = pm.currentTransaction();
+        try {
+          tx.begin();
+
+          // Read again inside the transaction, so that a concurrent change isn't overwritten.
+          submission = pm.getObjectById(VideoSubmission.class, id);
+          ModerationStatus currentStatus = submission.getStatus();
+          if (currentStatus == status) {
+            continue;
+          }
+
+          submission.setStatus(status);
+          submission.setUpdated(now);
+          pm.makePersistent(new PendingModeration(id, status));
+
+          tx.commit();
+          submissions.add(pm.detachCopy(submission));
+
+          Map<ModerationStatus, Integer> byStatus = moved.get(submission.getAssignmentId());
+          if (byStatus == null) {
+            byStatus = new HashMap<ModerationStatus, Integer>();
+            moved.put(submission.getAssignmentId(), byStatus);
+          }
+          Integer count = byStatus.get(currentStatus);
+          byStatus.put(currentStatus, count == null ? 1 : count + 1);
+        } catch (JDOObjectNotFoundException e) {
+          failedIds.add(id);
+        } catch (JDOException e) {
+          LOG.log(Level.WARNING, String.format("Couldn't set the status of VideoSubmission '%s'.",
+              id), e);
+          failedIds.add(id);
+        } finally {
+          if (tx.isActive()) {
+            tx.rollback();
+          }
+        }
+      }
+    } finally {
+      pm.close();
+    }
+
+    for (Map.Entry<Long, Map<ModerationStatus, Integer>> entry : moved.entrySet()) {
+      for (Map.Entry<ModerationStatus, Integer> count : entry.getValue().entrySet()) {
+        submissionCounterDao.increment(VideoSubmission.class, entry.getKey(), count.getKey()
+            .toString(), -count.getValue());
+        submissionCounterDao.increment(VideoSubmission.class, entry.getKey(), status.toString(),
+            count.getValue());
+      }
+    }
+
+    return submissions;
+  }
+
+  /**
+   * @return true if the latest PendingModeration of the submission is for the status.
+   */
+  private boolean isModerationPending(String id, ModerationStatus status) {
+    List<PendingModeration> pendingModerations = getPendingModerations(id);
+    return !pendingModerations.isEmpty()
+        && pendingModerations.get(pendingModerations.size() - 1).getStatus() == status;
+  }
+
+  @Override
+  public ResultPage<String> getSubmissionIds(int pageSize, String cursor) {
+    com.google.appengine.api.datastore.Query query =
+        new com.google.appengine.api.datastore.Query(VideoSubmission.class.getSimpleName());
+    query.addSort("youTubeName");
+    return getIds(query, pageSize, cursor);
+  }
+
+  @Override
+  public ResultPage<String> getDueSubmissionIds(Date due, int pageSize, String cursor) {
+    com.google.appengine.api.datastore.Query query =
+        new com.google.appengine.api.datastore.Query(VideoSyncState.class.getSimpleName());
+    query.addFilter("nextSyncDue", FilterOperator.LESS_THAN_OR_EQUAL, due);
+    query.addSort("nextSyncDue");
+    return getIds(query, pageSize, cursor);
+  }
+
+  private ResultPage<String> getIds(com.google.appengine.api.datastore.Query query,
+      int pageSize, String cursor) {
+    query.setKeysOnly();
+
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(pageSize);
+    if (cursor != null && cursor.length() > 0) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+
+    QueryResultList<Entity> entities = DatastoreServiceFactory.getDatastoreService()
+        .prepare(query).asQueryResultList(fetchOptions);
+
+    List<String> ids = new ArrayList<String>();
+    for (Entity entity : entities) {
+      Key key = entity.getKey();
+      // Sync states are named after the id of their submission.
+      ids.add(key.getName() == null ? KeyFactory.keyToString(key) : key.getName());
+    }
+
+    // Only a full page can be followed by another one.
+    String nextCursor = null;
+    if (ids.size() == pageSize && entities.getCursor() != null) {
+      nextCursor = entities.getCursor().toWebSafeString();
+    }
+
+    return new ResultPage<String>(ids, nextCursor, nextCursor != null);
+  }
+
+  @Override
+  public Map<String, VideoSyncState> getSyncStates(Collection<String> submissionIds) {
+    List<Key> keys = new ArrayList<Key>();
+    for (String submissionId : submissionIds) {
+      keys.add(KeyFactory.createKey(VideoSyncState.class.getSimpleName(), submissionId));
+    }
+
+    Map<String, VideoSyncState> syncStates = new HashMap<String, VideoSyncState>();
+    for (VideoSyncState syncState : pmfUtil.getObjectsByKeys(VideoSyncState.class, "id", keys)) {
+      syncStates.put(syncState.getId(), syncState);
+    }
+
+    // Submissions from before sync states existed pick one up the first time they're synced.
+    for (String submissionId : submissionIds) {
+      if (!syncStates.containsKey(submissionId)) {
+        syncStates.put(submissionId, new VideoSyncState(submissionId));
+      }
+    }
+
+    return syncStates;
+  }
+
+  @Override
+  public VideoSyncState getSyncState(String submissionId) {
+    List<String> submissionIds = new ArrayList<String>();
+    submissionIds.add(submissionId);
+    return getSyncStates(submissionIds).get(submissionId);
+  }
+
+  @Override
+  public void saveSyncStates(Collection<VideoSyncState> syncStates) {
+    if (syncStates.isEmpty()) {
+      return;
+    }
+
+    PersistenceManager pm = pmf.getPersistenceManager();
+    try {
+      pm.makePersistentAll(syncStates);
+    } finally {
+      pm.close();
+    }
+  }
+
   @Override
   public void setVideoStatus(String id, String status) {
     VideoSubmission submission = getSubmissionById(id);
@@ -97,6 +336,9 @@ public class VideoSubmissionDaoImpl implements VideoSubmissionDao {
       pm.close();
     }
 
+    submissionCounterDao.move(VideoSubmission.class, submission.getAssignmentId(), currentStatus
+        .toString(), submission.getAssignmentId(), newStatus.toString());
+
     switch (newStatus) {
       case APPROVED:
         onApproved(submission);
@@ -125,6 +367,16 @@ public class VideoSubmissionDaoImpl implements VideoSubmissionDao {
 
   @Override
   public VideoSubmission save(VideoSubmission submission) {
+    // Look up what's currently stored so that the counters can be moved to the right buckets.
+    VideoSubmission previous = null;
+    if (submission.getId() != null) {
+      try {
+        previous = getSubmissionById(submission.getId());
+      } catch (JDOObjectNotFoundException e) {
+        previous = null;
+      }
+    }
+
     PersistenceManager pm = pmf.getPersistenceManager();
     try {
       pm.makePersistent(submission);
@@ -132,8 +384,196 @@ public class VideoSubmissionDaoImpl implements VideoSubmissionDao {
     } finally {
       pm.close();
     }
+
+    if (previous == null) {
+      submissionCounterDao.increment(VideoSubmission.class, submission.getAssignmentId(),
+          submission.getStatus().toString(), 1);
+      pmfUtil.persistJdo(new VideoSyncState(submission));
+    } else if (!equal(previous.getAssignmentId(), submission.getAssignmentId())
+        || previous.getStatus() != submission.getStatus()) {
+      submissionCounterDao.move(VideoSubmission.class, previous.getAssignmentId(), previous
+          .getStatus().toString(), submission.getAssignmentId(), submission.getStatus()
+          .toString());
+    }
+
+    return submission;
+  }
+
+  @Override
+  public void saveSyncedSubmissions(Collection<VideoSubmission> submissions) {
+    if (submissions.isEmpty()) {
+      return;
+    }
+
+    PersistenceManager pm = pmf.getPersistenceManager();
+    try {
+      for (VideoSubmission synced : submissions) {
+        // The sync works on copies read before its API calls, so only the fields it sets are
+        // copied onto the current submission, which may have been moderated in the meantime.
+        Transaction tx = pm.currentTransaction();
+        try {
+          tx.begin();
+
+          VideoSubmission submission = pm.getObjectById(VideoSubmission.class, synced.getId());
+          submission.setYouTubeState(synced.getYouTubeState());
+          submission.setVideoTitle(synced.getVideoTitle());
+          submission.setVideoDescription(synced.getVideoDescription());
+          submission.setVideoTags(synced.getVideoTags());
+          submission.setViewCount(synced.getViewCount());
+          if (synced.getUpdated() != null && (submission.getUpdated() == null
+              || synced.getUpdated().after(submission.getUpdated()))) {
+            submission.setUpdated(synced.getUpdated());
+          }
+
+          tx.commit();
+        } catch (JDOObjectNotFoundException e) {
+          LOG.info(String.format("VideoSubmission '%s' was deleted before its sync was saved.",
+              synced.getId()));
+        } finally {
+          if (tx.isActive()) {
+            tx.rollback();
+          }
+        }
+      }
+    } finally {
+      pm.close();
+    }
+  }
+
+  @Override
+  public void saveModeratedSubmissions(Collection<VideoSubmission> submissions) {
+    if (submissions.isEmpty()) {
+      return;
+    }
+
+    PersistenceManager pm = pmf.getPersistenceManager();
+    try {
+      for (VideoSubmission moderated : submissions) {
+        // The worker's copy may be stale, e.g. if the submission was moderated again while the
+        // task ran, so it's never written back as a whole.
+        Transaction tx = pm.currentTransaction();
+        try {
+          tx.begin();
+
+          VideoSubmission submission = pm.getObjectById(VideoSubmission.class,
+              moderated.getId());
+          submission.setIsInPlaylist(moderated.isInPlaylist());
+          if (submission.getStatus() == moderated.getStatus()) {
+            submission.setVideoDescription(moderated.getVideoDescription());
+            submission.setVideoTags(moderated.getVideoTags());
+          } else {
+            LOG.info(String.format("VideoSubmission '%s' is now %s rather than %s; only saving "
+                + "its playlist membership.", moderated.getId(), submission.getStatus(),
+                moderated.getStatus()));
+          }
+
+          tx.commit();
+        } catch (JDOObjectNotFoundException e) {
+          LOG.info(String.format("VideoSubmission '%s' was deleted before its moderation was "
+              + "saved.", moderated.getId()));
+        } finally {
+          if (tx.isActive()) {
+            tx.rollback();
+          }
+        }
+      }
+    } finally {
+      pm.close();
+    }
+  }
+
+  @Override
+  public VideoSubmission saveAndQueueModeration(VideoSubmission submission) {
+    VideoSubmission previous = getSubmissionById(submission.getId());
+
+    String namespace = NamespaceManager.get();
+    if (namespace == null) {
+      namespace = "";
+    }
+
+    PersistenceManager pm = pmf.getPersistenceManager();
+    Transaction tx = pm.currentTransaction();
+    try {
+      tx.begin();
+
+      submission = pm.makePersistent(submission);
+      pm.makePersistent(new PendingModeration(submission.getId(), submission.getStatus()));
+
+      // A transactional task is only added if the commit goes through.
+      QueueFactory.getDefaultQueue().add(
+          DatastoreServiceFactory.getDatastoreService().getCurrentTransaction(),
+          withUrl("/tasks/ModerateVideoSubmission").method(Method.POST)
+              .param("id", submission.getId()).param("ns", namespace));
+
+      tx.commit();
+      submission = pm.detachCopy(submission);
+    } finally {
+      if (tx.isActive()) {
+        tx.rollback();
+      }
+      pm.close();
+    }
+
+    if (!equal(previous.getAssignmentId(), submission.getAssignmentId())
+        || previous.getStatus() != submission.getStatus()) {
+      submissionCounterDao.move(VideoSubmission.class, previous.getAssignmentId(), previous
+          .getStatus().toString(), submission.getAssignmentId(), submission.getStatus()
+          .toString());
+    }
+
     return submission;
   }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public List<PendingModeration> getPendingModerations(String submissionId) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+    List<PendingModeration> pendingModerations = null;
+
+    try {
+      // Filtering on the parent key makes this an ancestor query, so it sees every write so far.
+      Query query = pm.newQuery(PendingModeration.class);
+      query.declareParameters("String submissionId_");
+      query.setFilter("submissionId == submissionId_");
+      query.setOrdering("created asc");
+      pendingModerations = (List<PendingModeration>) query.execute(submissionId);
+      pendingModerations = new ArrayList<PendingModeration>(pm.detachCopyAll(pendingModerations));
+    } finally {
+      pm.close();
+    }
+
+    return pendingModerations;
+  }
+
+  @Override
+  public PendingModeration savePendingModeration(PendingModeration pendingModeration) {
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      pendingModeration = pm.makePersistent(pendingModeration);
+      pendingModeration = pm.detachCopy(pendingModeration);
+    } finally {
+      pm.close();
+    }
+
+    return pendingModeration;
+  }
+
+  @Override
+  public void deletePendingModerations(List<PendingModeration> pendingModerations) {
+    List<Key> keys = new ArrayList<Key>();
+    for (PendingModeration pendingModeration : pendingModerations) {
+      keys.add(KeyFactory.stringToKey(pendingModeration.getId()));
+    }
+
+    if (!keys.isEmpty()) {
+      DatastoreServiceFactory.getDatastoreService().delete(keys);
+    }
+  }
+
+  private boolean equal(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
   
   @Override
   public void deleteSubmission(String id) {
@@ -142,7 +582,19 @@ public class VideoSubmissionDaoImpl implements VideoSubmissionDao {
     PersistenceManager pm = pmf.getPersistenceManager();
     try {
       VideoSubmission submission = pm.getObjectById(VideoSubmission.class, id);
+      Long assignmentId = submission.getAssignmentId();
+      String status = submission.getStatus().toString();
       pm.deletePersistent(submission);
+      submissionCounterDao.increment(VideoSubmission.class, assignmentId, status, -1);
+
+      try {
+        pm.deletePersistent(pm.getObjectById(VideoSyncState.class, id));
+      } catch (JDOObjectNotFoundException e) {
+        // Not synced since sync states were introduced.
+      }
+
+      // Nothing left to moderate once the submission itself is gone.
+      deletePendingModerations(getPendingModerations(id));
       
       LOG.info("VideoSubmission deleted.");
     } finally {
@@ -35,6 +35,7 @@ import com.google.ytd.dao.UserAuthTokenDao;
 import com.google.ytd.model.UserSession;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 /**
  * Super simple class to handle doing the AuthSub token exchange to upgrade a
@@ -49,7 +50,7 @@ public class AuthSubHandler extends HttpServlet {
   @Inject
   private UserSessionManager userSessionManager;
   @Inject
-  private YouTubeApiHelper youTubeApiHelper;
+  private YouTubeClientPool youTubeClientPool;
   @Inject
   private UserAuthTokenDao userAuthTokenDao;
   @Inject
@@ -84,7 +85,7 @@ public class AuthSubHandler extends HttpServlet {
       // userSession.setAuthSubToken(authSubToken);
       userSession.addMetaData("authSubToken", authSubToken);
 
-      youTubeApiHelper.setAuthSubToken(authSubToken);
+      YouTubeApiHelper youTubeApiHelper = youTubeClientPool.getAuthSubClient(authSubToken);
 
       String youTubeName = youTubeApiHelper.getCurrentUsername();
       if (util.isNullOrEmpty(youTubeName)) {
@@ -93,7 +94,7 @@ public class AuthSubHandler extends HttpServlet {
             + "the authenticated user.");
       }
       userSession.addMetaData("youTubeName", youTubeName);
-      userSessionManager.save(userSession);
+      userSession = userSessionManager.save(userSession, response);
 
       // Create or update the UserAuthToken entry, which maps a username to an AuthSub token.
       userAuthTokenDao.setUserAuthToken(youTubeName, authSubToken);
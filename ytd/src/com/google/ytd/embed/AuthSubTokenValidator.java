@@ -0,0 +1,136 @@
+/* Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ytd.embed;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceException;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.gdata.client.http.AuthSubUtil;
+import com.google.gdata.util.AuthenticationException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.ytd.dao.AdminConfigDao;
+import com.google.ytd.util.RequestCache;
+
+/**
+ * Checks whether AuthSub tokens are still valid, remembering the answer so that embed page views
+ * don't each need a round trip to the AuthSub token info service.
+ *
+ * Valid tokens are remembered for POSITIVE_TTL_SECONDS and invalid ones for the much shorter
+ * NEGATIVE_TTL_SECONDS. Network errors aren't remembered at all.
+ */
+@Singleton
+public class AuthSubTokenValidator {
+  private static final Logger log = Logger.getLogger(AuthSubTokenValidator.class.getName());
+
+  private static final String CACHE_KEY_PREFIX = "authSubTokenValid:";
+  private static final int POSITIVE_TTL_SECONDS = 10 * 60;
+  private static final int NEGATIVE_TTL_SECONDS = 30;
+
+  private AdminConfigDao adminConfigDao = null;
+  private MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  @Inject
+  public AuthSubTokenValidator(AdminConfigDao adminConfigDao) {
+    this.adminConfigDao = adminConfigDao;
+  }
+
+  public boolean isTokenValid(String token) {
+    String cacheKey = getCacheKey(token);
+
+    // The same token is usually checked more than once while rendering a single page.
+    Boolean valid = (Boolean) RequestCache.get(cacheKey);
+    if (valid != null) {
+      return valid;
+    }
+
+    try {
+      valid = (Boolean) memcache.get(cacheKey);
+    } catch (MemcacheServiceException e) {
+      log.log(Level.WARNING, "", e);
+    }
+
+    if (valid == null) {
+      boolean cacheable = true;
+
+      try {
+        PrivateKey privateKey = adminConfigDao.getPrivateKey();
+        AuthSubUtil.getTokenInfo(token, privateKey);
+        valid = true;
+      } catch (AuthenticationException e) {
+        valid = false;
+      } catch (GeneralSecurityException e) {
+        valid = false;
+      } catch (IOException e) {
+        // Says nothing about the token itself, so check again next time.
+        valid = false;
+        cacheable = false;
+      }
+
+      if (cacheable) {
+        try {
+          memcache.put(cacheKey, valid, Expiration.byDeltaSeconds(valid ? POSITIVE_TTL_SECONDS
+              : NEGATIVE_TTL_SECONDS));
+        } catch (MemcacheServiceException e) {
+          log.log(Level.WARNING, "", e);
+        }
+      }
+    }
+
+    RequestCache.put(cacheKey, valid);
+    return valid;
+  }
+
+  /**
+   * Forgets whatever is known about the token, e.g. when the user logs out.
+   */
+  public void evict(String token) {
+    String cacheKey = getCacheKey(token);
+
+    RequestCache.remove(cacheKey);
+    try {
+      memcache.delete(cacheKey);
+    } catch (MemcacheServiceException e) {
+      log.log(Level.WARNING, "", e);
+    }
+  }
+
+  private String getCacheKey(String token) {
+    // Tokens are credentials, so only a digest of them ends up in the cache.
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      StringBuffer key = new StringBuffer(CACHE_KEY_PREFIX);
+      for (byte b : digest.digest(token.getBytes("UTF-8"))) {
+        key.append(String.format("%02x", b));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
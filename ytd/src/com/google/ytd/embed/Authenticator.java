@@ -15,12 +15,9 @@
 
 package com.google.ytd.embed;
 
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.security.GeneralSecurityException;
-import java.security.PrivateKey;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,7 +25,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.gdata.client.http.AuthSubUtil;
-import com.google.gdata.util.AuthenticationException;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.ytd.dao.AdminConfigDao;
@@ -51,15 +47,18 @@ public class Authenticator {
   private static final String AUTHSUB_HANDLER = "/AuthsubHandler";
 
   private UserSession userSession = null;
+  private AuthSubTokenValidator tokenValidator = null;
 
   private static final Logger log = Logger.getLogger(Authenticator.class.getName());
 
   @Inject
   public Authenticator(HttpServletRequest req, HttpServletResponse resp,
-      UserSessionManager userSessionManager, Util util, AdminConfigDao adminConfigDao) {
+      UserSessionManager userSessionManager, Util util, AdminConfigDao adminConfigDao,
+      AuthSubTokenValidator tokenValidator) {
     this.request = req;
     this.response = resp;
     this.adminConfigDao = adminConfigDao;
+    this.tokenValidator = tokenValidator;
     this.userSession = userSessionManager.getUserSession(request);
 
     String assignmentId = request.getParameter("assignmentId");
@@ -77,17 +76,8 @@ public class Authenticator {
 
     if (userSession == null) {
       userSession = new UserSession();
-      userSession = userSessionManager.save(userSession);
-      // stick the session id as cookie
-      userSessionManager.sendSessionIdCookie(userSession.getId(), response);
     }
 
-    userSession.addMetaData("assignmentId", assignmentId);
-    userSession.addMetaData("articleUrl", articleUrl);
-    userSession.addMetaData("selfUrl", selfUrl);
-
-    userSession = userSessionManager.save(userSession);
-
     String authSubToken = userSession.getMetaData("authSubToken");
 
     if (authSubToken != null) {
@@ -101,34 +91,24 @@ public class Authenticator {
         userSessionManager.delete(userSession);
 
         // replace with new session
-
         userSession = new UserSession();
-        userSession.addMetaData("assignmentId", assignmentId);
-        userSession.addMetaData("articleUrl", articleUrl);
-        userSession.addMetaData("selfUrl", selfUrl);
-        userSession = userSessionManager.save(userSession);
-
-        // stick the session id as cookie
-        userSessionManager.sendSessionIdCookie(userSession.getId(), response);
       } else {
         // good token
         log.finest(String.format("Reusing cached AuthSub token '%s'.", authSubToken));
       }
     }
+
+    userSession.addMetaData("assignmentId", assignmentId);
+    userSession.addMetaData("articleUrl", articleUrl);
+    userSession.addMetaData("selfUrl", selfUrl);
+
+    // Only written if it's new or one of the values above changed, and the session id cookie is
+    // only (re)sent if the id changed.
+    userSession = userSessionManager.save(userSession, response);
   }
 
   public boolean isTokenValid(String token) {
-    try {
-      PrivateKey privateKey = adminConfigDao.getPrivateKey();
-      AuthSubUtil.getTokenInfo(token, privateKey);
-    } catch (AuthenticationException e) {
-      return false;
-    } catch (IOException e) {
-      return false;
-    } catch (GeneralSecurityException e) {
-      return false;
-    }
-    return true;
+    return tokenValidator.isTokenValid(token);
   }
 
   public boolean isLoggedIn() {
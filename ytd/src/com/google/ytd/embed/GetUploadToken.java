@@ -47,6 +47,7 @@ import com.google.ytd.model.UserSession;
 import com.google.ytd.model.Assignment.AssignmentStatus;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 /**
  * Class responsible for submitting metadata about a new video to the YouTube
@@ -62,7 +63,7 @@ public class GetUploadToken extends HttpServlet {
   @Inject
   private UserSessionManager userSessionManager;
   @Inject
-  private YouTubeApiHelper youTubeApi;
+  private YouTubeClientPool youTubeClientPool;
   @Inject
   private AssignmentDao assignmentDao;
 
@@ -187,9 +188,9 @@ public class GetUploadToken extends HttpServlet {
       userSession.addMetaData("videoDate", date);
       userSession.addMetaData("videoTags", sortedTags);
       userSession.addMetaData("email", email);
-      userSessionManager.save(userSession);
+      userSession = userSessionManager.save(userSession, resp);
 
-      youTubeApi.setAuthSubToken(authSubToken);
+      YouTubeApiHelper youTubeApi = youTubeClientPool.getAuthSubClient(authSubToken);
 
       FormUploadToken token = youTubeApi.getFormUploadToken(newEntry);
       if (token == null) {
@@ -203,6 +204,8 @@ public class GetUploadToken extends HttpServlet {
       JSONObject responseJsonObj = new JSONObject();
       responseJsonObj.put("uploadToken", uploadToken);
       responseJsonObj.put("uploadUrl", uploadUrl);
+      // Signed session ids change whenever the session does.
+      responseJsonObj.put("sessionId", userSession.getId());
 
       resp.setContentType("text/javascript");
       resp.getWriter().println(responseJsonObj.toString());
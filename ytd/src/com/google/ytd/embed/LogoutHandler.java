@@ -34,6 +34,8 @@ public class LogoutHandler extends HttpServlet {
   private static final Logger log = Logger.getLogger(LogoutHandler.class.getName());
   @Inject
   private UserSessionManager userSessionManager;
+  @Inject
+  private AuthSubTokenValidator tokenValidator;
 
   @Override
   public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -42,6 +44,11 @@ public class LogoutHandler extends HttpServlet {
     // Don't revoke the AuthSub token, since that's needed for branding the
     // video after moderation.
     // If the user wants to revoke their token, they can do it from youtube.com.
+    // Do forget that it was valid, though, so the next embed view checks it again.
+    String authSubToken = userSession.getMetaData("authSubToken");
+    if (authSubToken != null) {
+      tokenValidator.evict(authSubToken);
+    }
 
     // Remove local cookie.
     userSessionManager.destroySessionIdCookie(resp);
@@ -0,0 +1,251 @@
+/* Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ytd.embed;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Type;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.gdata.util.common.util.Base64;
+import com.google.gdata.util.common.util.Base64DecoderException;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.inject.Singleton;
+
+/**
+ * Packs a UserSession's meta data into a self-contained session id, so that sessions can be read
+ * and written without touching the datastore.
+ *
+ * The meta data holds the user's AuthSub token, and session ids end up in URLs, so the payload is
+ * encrypted as well as signed. A token looks like "s.&lt;iv + ciphertext&gt;.&lt;mac&gt;", using
+ * web-safe base64, which can't be mistaken for the encoded datastore key of a stored UserSession.
+ */
+@Singleton
+public class SignedSessionCodec {
+  private static final Logger log = Logger.getLogger(SignedSessionCodec.class.getName());
+
+  private static final String PREFIX = "s.";
+  private static final int IV_LENGTH = 16;
+  private static final int MAC_LENGTH = 16;
+  private static final String KEY_KIND = "SessionSigningKey";
+  private static final String KEY_NAME = "default";
+
+  // Shared by every instance; generated once per application and then never changes.
+  private static volatile SecretKeySpec encryptionKey = null;
+  private static volatile SecretKeySpec macKey = null;
+
+  private static SecureRandom random = new SecureRandom();
+  private Gson gson = new Gson();
+  private Type mapType = new TypeToken<HashMap<String, String>>() {}.getType();
+
+  /**
+   * The decoded contents of a session token.
+   */
+  public static class Payload {
+    private Map<String, String> metaData = null;
+    private long issued = 0;
+
+    public Payload(Map<String, String> metaData, long issued) {
+      this.metaData = metaData;
+      this.issued = issued;
+    }
+
+    public Map<String, String> getMetaData() {
+      return metaData;
+    }
+
+    /**
+     * @return The time the token was created, in milliseconds since the epoch.
+     */
+    public long getIssued() {
+      return issued;
+    }
+  }
+
+  public boolean isSignedSessionId(String id) {
+    return id != null && id.startsWith(PREFIX);
+  }
+
+  public String encode(Map<String, String> metaData) {
+    try {
+      ByteArrayOutputStream plainText = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(plainText);
+      out.writeLong(System.currentTimeMillis());
+
+      OutputStreamWriter writer = new OutputStreamWriter(new DeflaterOutputStream(out), "UTF-8");
+      writer.write(gson.toJson(metaData));
+      writer.close();
+
+      byte[] iv = new byte[IV_LENGTH];
+      random.nextBytes(iv);
+
+      Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+      cipher.init(Cipher.ENCRYPT_MODE, getEncryptionKey(), new IvParameterSpec(iv));
+      byte[] cipherText = cipher.doFinal(plainText.toByteArray());
+
+      byte[] body = new byte[iv.length + cipherText.length];
+      System.arraycopy(iv, 0, body, 0, iv.length);
+      System.arraycopy(cipherText, 0, body, iv.length, cipherText.length);
+
+      return PREFIX + Base64.encodeWebSafe(body, false) + "." + Base64.encodeWebSafe(sign(body),
+          false);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return The session's contents, or null if the token was tampered with or is malformed.
+   */
+  public Payload decode(String id) {
+    if (!isSignedSessionId(id)) {
+      return null;
+    }
+
+    String[] parts = id.substring(PREFIX.length()).split("\\.");
+    if (parts.length != 2) {
+      return null;
+    }
+
+    try {
+      byte[] body = Base64.decodeWebSafe(parts[0]);
+      byte[] mac = Base64.decodeWebSafe(parts[1]);
+
+      if (body.length <= IV_LENGTH || !MessageDigest.isEqual(mac, sign(body))) {
+        log.warning("Rejecting session token with a bad signature.");
+        return null;
+      }
+
+      Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+      cipher.init(Cipher.DECRYPT_MODE, getEncryptionKey(), new IvParameterSpec(body, 0,
+          IV_LENGTH));
+      byte[] plainText = cipher.doFinal(body, IV_LENGTH, body.length - IV_LENGTH);
+
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(plainText));
+      long issued = in.readLong();
+      InputStreamReader reader = new InputStreamReader(new InflaterInputStream(in), "UTF-8");
+      Map<String, String> metaData = gson.fromJson(reader, mapType);
+      reader.close();
+
+      return new Payload(metaData, issued);
+    } catch (Base64DecoderException e) {
+      return null;
+    } catch (IOException e) {
+      log.log(Level.WARNING, "", e);
+      return null;
+    } catch (GeneralSecurityException e) {
+      log.log(Level.WARNING, "", e);
+      return null;
+    }
+  }
+
+  private byte[] sign(byte[] body) throws GeneralSecurityException {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(getMacKey());
+    return Arrays.copyOf(mac.doFinal(body), MAC_LENGTH);
+  }
+
+  private SecretKeySpec getEncryptionKey() {
+    if (encryptionKey == null) {
+      loadKeys();
+    }
+    return encryptionKey;
+  }
+
+  private SecretKeySpec getMacKey() {
+    if (macKey == null) {
+      loadKeys();
+    }
+    return macKey;
+  }
+
+  /**
+   * Reads the application's session keys, creating them on first use. Sessions aren't namespaced,
+   * so neither are the keys.
+   */
+  private static synchronized void loadKeys() {
+    if (encryptionKey != null && macKey != null) {
+      return;
+    }
+
+    String oldNamespace = NamespaceManager.get();
+    NamespaceManager.set("");
+
+    try {
+      DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+      Key key = KeyFactory.createKey(KEY_KIND, KEY_NAME);
+
+      Entity entity = null;
+      // If another instance creates the keys at the same time, the commit fails and the keys are
+      // simply read back on the next attempt.
+      Transaction tx = datastore.beginTransaction();
+      try {
+        entity = datastore.get(tx, key);
+      } catch (EntityNotFoundException e) {
+        byte[] encryptionBytes = new byte[16];
+        byte[] macBytes = new byte[32];
+        random.nextBytes(encryptionBytes);
+        random.nextBytes(macBytes);
+
+        entity = new Entity(key);
+        entity.setProperty("encryptionKey", new Blob(encryptionBytes));
+        entity.setProperty("macKey", new Blob(macBytes));
+        datastore.put(tx, entity);
+      } finally {
+        if (tx.isActive()) {
+          tx.commit();
+        }
+      }
+
+      encryptionKey = new SecretKeySpec(((Blob) entity.getProperty("encryptionKey")).getBytes(),
+          "AES");
+      macKey = new SecretKeySpec(((Blob) entity.getProperty("macKey")).getBytes(), "HmacSHA256");
+    } finally {
+      NamespaceManager.set(oldNamespace);
+    }
+  }
+}
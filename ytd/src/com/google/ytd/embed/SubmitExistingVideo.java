@@ -35,14 +35,15 @@ import com.google.inject.Singleton;
 import com.google.ytd.dao.AdminConfigDao;
 import com.google.ytd.dao.AssignmentDao;
 import com.google.ytd.dao.UserAuthTokenDao;
+import com.google.ytd.dao.VideoSubmissionDao;
 import com.google.ytd.model.AdminConfig;
 import com.google.ytd.model.Assignment;
 import com.google.ytd.model.UserSession;
 import com.google.ytd.model.VideoSubmission;
 import com.google.ytd.util.EmailUtil;
-import com.google.ytd.util.PmfUtil;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 /**
  * Servlet that handles the submission of an existing YouTube video. It creates
@@ -58,17 +59,17 @@ public class SubmitExistingVideo extends HttpServlet {
   @Inject
   private EmailUtil emailUtil;
   @Inject
-  private PmfUtil pmfUtil;
-  @Inject
   private UserSessionManager userSessionManager;
   @Inject
-  private YouTubeApiHelper apiManager;
+  private YouTubeClientPool youTubeClientPool;
   @Inject
   private UserAuthTokenDao userAuthTokenDao;
   @Inject
   private AdminConfigDao adminConfigDao;
   @Inject
   private AssignmentDao assignmentDao;
+  @Inject
+  private VideoSubmissionDao videoSubmissionDao;
 
 
   @Override
@@ -107,7 +108,7 @@ public class SubmitExistingVideo extends HttpServlet {
         userSession.addMetaData("assignmentId", assignmentId);
       }
       
-      apiManager.setAuthSubToken(authSubToken);
+      YouTubeApiHelper apiManager = youTubeClientPool.getAuthSubClient(authSubToken);
 
       for (int i = 0; i < videoIds.length(); i++) {
         String videoId = videoIds.getString(i);
@@ -176,8 +177,8 @@ public class SubmitExistingVideo extends HttpServlet {
                   log.warning(String.format("Assignment id '%d' doesn't have an associated playlist.",
                       assignmentId));
                 } else {
-                  apiManager.setAuthSubToken(adminConfig.getYouTubeAuthSubToken());
-                  if (apiManager.insertVideoIntoPlaylist(playlistId, videoId)) {
+                  YouTubeApiHelper adminApi = youTubeClientPool.getAdminClient();
+                  if (adminApi.insertVideoIntoPlaylist(playlistId, videoId)) {
                     submission.setIsInPlaylist(true);
                   }
                 }
@@ -185,7 +186,7 @@ public class SubmitExistingVideo extends HttpServlet {
             }
           }
   
-          pmfUtil.persistJdo(submission);
+          submission = videoSubmissionDao.save(submission);
   
           emailUtil.sendNewSubmissionEmail(submission);
         }
@@ -31,6 +31,7 @@ import com.google.appengine.api.NamespaceManager;
 import com.google.appengine.api.blobstore.BlobInfo;
 import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.appengine.api.taskqueue.Queue;
@@ -42,10 +43,10 @@ import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Singleton;
 import com.google.ytd.dao.AdminConfigDao;
+import com.google.ytd.dao.PhotoSubmissionDao;
 import com.google.ytd.guice.ProductionModule;
 import com.google.ytd.model.PhotoEntry;
 import com.google.ytd.model.PhotoSubmission;
-import com.google.ytd.util.PmfUtil;
 import com.google.ytd.util.Util;
 
 /**
@@ -61,14 +62,14 @@ public class SubmitPhoto extends HttpServlet {
 
   private Injector injector = null;
   private Util util = null;
-  private PmfUtil pmfUtil = null;
   private AdminConfigDao adminConfigDao;
+  private PhotoSubmissionDao photoSubmissionDao;
 
   public SubmitPhoto() {
     injector = Guice.createInjector(new ProductionModule());
     util = injector.getInstance(Util.class);
-    pmfUtil = injector.getInstance(PmfUtil.class);
     adminConfigDao = injector.getInstance(AdminConfigDao.class);
+    photoSubmissionDao = injector.getInstance(PhotoSubmissionDao.class);
   }
 
   @Override
@@ -167,7 +168,7 @@ public class SubmitPhoto extends HttpServlet {
           }
         }
         
-        pmfUtil.persistJdo(photoSubmission);
+        photoSubmission = photoSubmissionDao.save(photoSubmission);
         String submissionId = photoSubmission.getId();
 
         for (BlobKey blobKey : validSubmissionKeys) {
@@ -176,8 +177,15 @@ public class SubmitPhoto extends HttpServlet {
           PhotoEntry photoEntry = new PhotoEntry(submissionId, blobKey, blobInfo.getContentType());
           photoEntry.setOriginalFileSize(blobInfo.getSize());
           photoEntry.setOriginalFileName(blobInfo.getFilename());
+
+          // Lets MoveToPicasa spot a photo that's already been uploaded; see PhotoHash.
+          try {
+            photoEntry.setSha256(util.getSha256(new BlobstoreInputStream(blobKey)));
+          } catch (IOException e) {
+            LOG.log(Level.WARNING, "", e);
+          }
           
-          pmfUtil.persistJdo(photoEntry);
+          photoSubmissionDao.save(photoEntry);
         }
         
         Queue queue = QueueFactory.getDefaultQueue();
@@ -38,6 +38,7 @@ import com.google.ytd.model.VideoSubmission;
 import com.google.ytd.util.EmailUtil;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 /**
  * Servlet that is invoked as part of the browser-based YouTube video upload
@@ -56,7 +57,7 @@ public class UploadResponseHandler extends HttpServlet {
   @Inject
   private UserSessionManager userSessionManager;
   @Inject
-  private YouTubeApiHelper youTubeApiHelper;
+  private YouTubeClientPool youTubeClientPool;
   @Inject
   private VideoSubmissionDao submissionDao;
   @Inject
@@ -107,7 +108,7 @@ public class UploadResponseHandler extends HttpServlet {
 
       AdminConfig adminConfig = adminConfigDao.getAdminConfig();
 
-      youTubeApiHelper.setAuthSubToken(adminConfig.getYouTubeAuthSubToken());
+      YouTubeApiHelper youTubeApiHelper = youTubeClientPool.getAdminClient();
 
       if (adminConfig.getModerationMode() == AdminConfig.ModerationModeType.NO_MOD.ordinal()) {
         // NO_MOD is set, auto approve all submission
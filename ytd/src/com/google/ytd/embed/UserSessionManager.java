@@ -15,24 +15,16 @@
 
 package com.google.ytd.embed;
 
-import java.io.IOException;
-import java.security.GeneralSecurityException;
-import java.security.PrivateKey;
-import java.util.List;
-
+import javax.jdo.JDOException;
 import javax.jdo.PersistenceManager;
 import javax.jdo.PersistenceManagerFactory;
-import javax.jdo.Query;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.appengine.api.NamespaceManager;
-import com.google.gdata.client.http.AuthSubUtil;
-import com.google.gdata.util.AuthenticationException;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.ytd.dao.AdminConfigDao;
 import com.google.ytd.model.UserSession;
 import com.google.ytd.util.PmfUtil;
 import com.google.ytd.util.Util;
@@ -43,26 +35,35 @@ import com.google.ytd.util.Util;
 @Singleton
 public class UserSessionManager {
   private static final String USER_SESSION_ID_NAME = "YTD_SESSION_ID";
+  // Sessions, and the cookie that holds them, live for a year.
+  private static final int SESSION_MAX_AGE_SECONDS = 31536000;
+  // When set to "true", new sessions are kept in signed session ids instead of the datastore.
+  private static final String SIGNED_SESSIONS_PROPERTY = "com.google.ytd.SignedSessions";
+
   private Util util = null;
   private PmfUtil pmfUtil = null;
   private PersistenceManagerFactory pmf = null;
-  private AdminConfigDao adminConfigDao = null;
+  private AuthSubTokenValidator tokenValidator = null;
+  private SignedSessionCodec signedSessionCodec = null;
+  private boolean signedSessions = false;
 
   @Inject
-  public UserSessionManager(PersistenceManagerFactory pmf, AdminConfigDao adminConfigDao,
-      Util util, PmfUtil pmfUtil) {
+  public UserSessionManager(PersistenceManagerFactory pmf, Util util, PmfUtil pmfUtil,
+      AuthSubTokenValidator tokenValidator, SignedSessionCodec signedSessionCodec) {
     this.pmf = pmf;
-    this.adminConfigDao = adminConfigDao;
     this.util = util;
     this.pmfUtil = pmfUtil;
+    this.tokenValidator = tokenValidator;
+    this.signedSessionCodec = signedSessionCodec;
+    this.signedSessions = Boolean.parseBoolean(System.getProperty(SIGNED_SESSIONS_PROPERTY,
+        "false"));
   }
 
   public void sendSessionIdCookie(String sessionId, HttpServletResponse response) {
     disableHttpCaching(response);
     
     Cookie cookie = new Cookie(USER_SESSION_ID_NAME, sessionId);
-    // cookie lives for a year
-    cookie.setMaxAge(31536000);
+    cookie.setMaxAge(SESSION_MAX_AGE_SECONDS);
     response.addCookie(cookie);
   }
 
@@ -86,16 +87,7 @@ public class UserSessionManager {
     String authSubToken = session.getMetaData("authSubToken");
 
     if (authSubToken != null) {
-      try {
-        PrivateKey privateKey = adminConfigDao.getPrivateKey();
-        AuthSubUtil.getTokenInfo(authSubToken, privateKey);
-      } catch (AuthenticationException e) {
-        valid = false;
-      } catch (IOException e) {
-        valid = false;
-      } catch (GeneralSecurityException e) {
-        valid = false;
-      }
+      valid = tokenValidator.isTokenValid(authSubToken);
     } else {
       valid = false;
 
@@ -103,67 +95,142 @@ public class UserSessionManager {
     return valid;
   }
 
+  /**
+   * Saves the session if it's new or its meta data changed. Note that the session id changes on
+   * every write of a signed session.
+   */
   public UserSession save(UserSession session) {
+    if (session.getId() != null && !session.isDirty()) {
+      return session;
+    }
+
+    if (signedSessions) {
+      session.setId(signedSessionCodec.encode(session.getMetaDataMap()));
+      session.setDirty(false);
+      return session;
+    }
+
     String oldNamespace = NamespaceManager.get();
     NamespaceManager.set("");
     UserSession userSession = (UserSession) pmfUtil.persistJdo(session);
     NamespaceManager.set(oldNamespace);
+    userSession.setDirty(false);
     return userSession;
   }
 
+  /**
+   * Saves the session, and re-sends the session cookie if the session id changed.
+   */
+  public UserSession save(UserSession session, HttpServletResponse response) {
+    String oldId = session.getId();
+    session = save(session);
+
+    if (!session.getId().equals(oldId)) {
+      sendSessionIdCookie(session.getId(), response);
+    }
+
+    return session;
+  }
+
   public void delete(UserSession session) {
+    if (signedSessionCodec.isSignedSessionId(session.getId())) {
+      // Nothing is kept server-side; removing the cookie is all there is to it.
+      return;
+    }
+
     String oldNamespace = NamespaceManager.get();
     NamespaceManager.set("");
     pmfUtil.removeJdo(session);
     NamespaceManager.set(oldNamespace);
   }
 
-  @SuppressWarnings("unchecked")
   public UserSession getUserSession(HttpServletRequest request) {
-    UserSession userSession = null;
+    String cookieSessionId = null;
 
     Cookie[] cookies = request.getCookies();
     if (cookies != null) {
       for (Cookie cookie : cookies) {
         if (USER_SESSION_ID_NAME.equals(cookie.getName())) {
-          String sessionId = cookie.getValue();
-          userSession = getUserSessionById(sessionId);
+          cookieSessionId = cookie.getValue();
         }
       }
     }
 
-    // Fall back on checking the sessionId parameter if cookies are disabled.
-    if (userSession == null) {
-      String sessionId = request.getParameter("sessionId");
-      if (!util.isNullOrEmpty(sessionId)) {
-        userSession = getUserSessionById(sessionId);
+    String paramSessionId = request.getParameter("sessionId");
+
+    // A signed session gets a new id on every write, and a client might hold a newer one in the
+    // sessionId parameter than in its cookie (or vice versa), so go with the most recent one.
+    if (signedSessionCodec.isSignedSessionId(cookieSessionId)
+        && signedSessionCodec.isSignedSessionId(paramSessionId)) {
+      SignedSessionCodec.Payload cookiePayload = signedSessionCodec.decode(cookieSessionId);
+      SignedSessionCodec.Payload paramPayload = signedSessionCodec.decode(paramSessionId);
+
+      if (paramPayload != null
+          && (cookiePayload == null || paramPayload.getIssued() > cookiePayload.getIssued())) {
+        return getUserSessionById(paramSessionId);
       }
     }
 
+    UserSession userSession = null;
+    if (!util.isNullOrEmpty(cookieSessionId)) {
+      userSession = getUserSessionById(cookieSessionId);
+    }
+
+    // Fall back on checking the sessionId parameter if cookies are disabled.
+    if (userSession == null && !util.isNullOrEmpty(paramSessionId)) {
+      userSession = getUserSessionById(paramSessionId);
+    }
+
     return userSession;
   }
 
-  @SuppressWarnings("unchecked")
   public UserSession getUserSessionById(String id) {
+    if (signedSessionCodec.isSignedSessionId(id)) {
+      return getSignedUserSession(id);
+    }
+
     String oldNamespace = NamespaceManager.get();
     NamespaceManager.set("");
     
     PersistenceManager pm = pmf.getPersistenceManager();
     UserSession userSession = null;
 
-    String filters = "id == id_";
-    Query query = pm.newQuery(UserSession.class, filters);
-    query.declareParameters("String id_");
-    List<UserSession> list = (List<UserSession>) query.executeWithArray(new Object[] { id });
-
-    if (list.size() > 0) {
-      userSession = list.get(0);
+    try {
+      // The id is an encoded datastore key, so this is a plain get rather than a query.
+      userSession = pm.getObjectById(UserSession.class, id);
       userSession = pm.detachCopy(userSession);
+    } catch (JDOException e) {
+      // Unknown or malformed session id.
+      userSession = null;
+    } catch (IllegalArgumentException e) {
+      userSession = null;
+    } finally {
+      pm.close();
+      NamespaceManager.set(oldNamespace);
     }
 
-    pm.close();
-    
-    NamespaceManager.set(oldNamespace);
+    return userSession;
+  }
+
+  private UserSession getSignedUserSession(String id) {
+    SignedSessionCodec.Payload payload = signedSessionCodec.decode(id);
+    if (payload == null) {
+      return null;
+    }
+
+    if (System.currentTimeMillis() - payload.getIssued() > SESSION_MAX_AGE_SECONDS * 1000L) {
+      return null;
+    }
+
+    UserSession userSession = new UserSession();
+    userSession.setId(id);
+    if (payload.getMetaData() == null) {
+      return userSession;
+    }
+    for (String key : payload.getMetaData().keySet()) {
+      userSession.addMetaData(key, payload.getMetaData().get(key));
+    }
+    userSession.setDirty(false);
 
     return userSession;
   }
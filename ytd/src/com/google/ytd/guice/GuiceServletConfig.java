@@ -19,10 +19,16 @@ import com.google.ytd.mobile.PersistMobileSubmission;
 import com.google.ytd.picasa.PersistPicasaAuthSubToken;
 import com.google.ytd.tasks.CreateAlbum;
 import com.google.ytd.tasks.CreatePlaylist;
+import com.google.ytd.tasks.DeletePhotoSubmission;
+import com.google.ytd.tasks.ModerateVideoSubmission;
 import com.google.ytd.tasks.MoveToPicasa;
 import com.google.ytd.tasks.PicasaUpload;
+import com.google.ytd.tasks.RebuildSubmissionCounters;
+import com.google.ytd.tasks.ReconcilePlaylist;
+import com.google.ytd.tasks.SyncMetadataShard;
 import com.google.ytd.youtube.InsightDownloadRedirect;
 import com.google.ytd.youtube.PersistAuthSubToken;
+import com.google.ytd.youtube.SyncMetadata;
 import com.google.ytd.youtube.VideoDownloadRedirect;
 
 public class GuiceServletConfig extends GuiceServletContextListener {
@@ -32,6 +38,9 @@ public class GuiceServletConfig extends GuiceServletContextListener {
     ServletModule servletModule = new ServletModule() {
       @Override
       protected void configureServlets() {
+        // Per-request caches must be dropped once each request is done
+        filter("/*").through(RequestCacheFilter.class);
+
         // Single entry point for all jsonrpc requests
         serve("/jsonrpc").with(JsonRpcProcessor.class);
         
@@ -55,7 +64,13 @@ public class GuiceServletConfig extends GuiceServletContextListener {
         serve("/tasks/CreateAlbum").with(CreateAlbum.class);
         serve("/tasks/MoveToPicasa").with(MoveToPicasa.class);
         serve("/tasks/PicasaUpload").with(PicasaUpload.class);
+        serve("/tasks/DeletePhotoSubmission").with(DeletePhotoSubmission.class);
+        serve("/tasks/ModerateVideoSubmission").with(ModerateVideoSubmission.class);
+        serve("/tasks/ReconcilePlaylist").with(ReconcilePlaylist.class);
+        serve("/tasks/SyncMetadataShard").with(SyncMetadataShard.class);
+        serve("/tasks/RebuildSubmissionCounters").with(RebuildSubmissionCounters.class);
         serve("/cron/PurgeBlobstorePhotos").with(PurgeBlobstorePhotos.class);
+        serve("/cron/SyncMetadata", "/tasks/SyncMetadata").with(SyncMetadata.class);
         serve("/_ah/mail/*").with(IncomingMail.class);
 
         // Map mobile servlet handlers
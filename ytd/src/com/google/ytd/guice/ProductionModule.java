@@ -10,10 +10,20 @@ import com.google.ytd.dao.AdminConfigDao;
 import com.google.ytd.dao.AdminConfigDaoImpl;
 import com.google.ytd.dao.AssignmentDao;
 import com.google.ytd.dao.AssignmentDaoImpl;
+import com.google.ytd.dao.BlobDao;
+import com.google.ytd.dao.BlobDaoImpl;
 import com.google.ytd.dao.DataChunkDao;
 import com.google.ytd.dao.DataChunkDaoImpl;
+import com.google.ytd.dao.PhotoHashDao;
+import com.google.ytd.dao.PhotoHashDaoImpl;
 import com.google.ytd.dao.PhotoSubmissionDao;
 import com.google.ytd.dao.PhotoSubmissionDaoImpl;
+import com.google.ytd.dao.PlaylistMembershipDao;
+import com.google.ytd.dao.PlaylistMembershipDaoImpl;
+import com.google.ytd.dao.SubmissionCounterDao;
+import com.google.ytd.dao.SubmissionCounterDaoImpl;
+import com.google.ytd.dao.SyncPassDao;
+import com.google.ytd.dao.SyncPassDaoImpl;
 import com.google.ytd.dao.UserAuthTokenDao;
 import com.google.ytd.dao.UserAuthTokenDaoImpl;
 import com.google.ytd.dao.VideoSubmissionDao;
@@ -28,6 +38,11 @@ public class ProductionModule extends AbstractModule {
     bind(UserAuthTokenDao.class).to(UserAuthTokenDaoImpl.class);
     bind(PhotoSubmissionDao.class).to(PhotoSubmissionDaoImpl.class);
     bind(DataChunkDao.class).to(DataChunkDaoImpl.class);
+    bind(BlobDao.class).to(BlobDaoImpl.class);
+    bind(SubmissionCounterDao.class).to(SubmissionCounterDaoImpl.class);
+    bind(PlaylistMembershipDao.class).to(PlaylistMembershipDaoImpl.class);
+    bind(SyncPassDao.class).to(SyncPassDaoImpl.class);
+    bind(PhotoHashDao.class).to(PhotoHashDaoImpl.class);
   }
 
   @Provides
@@ -0,0 +1,38 @@
+package com.google.ytd.guice;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import com.google.inject.Singleton;
+import com.google.ytd.util.RequestCache;
+
+/**
+ * Makes sure that values stashed in the RequestCache never outlive the request they were read in.
+ */
+@Singleton
+public class RequestCacheFilter implements Filter {
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException {
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    RequestCache.clear();
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      RequestCache.clear();
+    }
+  }
+
+  @Override
+  public void destroy() {
+  }
+}
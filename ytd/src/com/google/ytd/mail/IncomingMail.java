@@ -3,6 +3,7 @@
 package com.google.ytd.mail;
 
 import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.blobstore.BlobInfo;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.TaskOptions.Method;
@@ -14,50 +15,64 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.ytd.dao.AdminConfigDao;
 import com.google.ytd.dao.AssignmentDao;
-import com.google.ytd.model.DataChunk;
+import com.google.ytd.dao.BlobDao;
+import com.google.ytd.dao.PhotoSubmissionDao;
 import com.google.ytd.model.PhotoEntry;
 import com.google.ytd.model.PhotoSubmission;
-import com.google.ytd.util.EmailUtil;
-import com.google.ytd.util.PmfUtil;
 import com.google.ytd.util.Util;
 
-import org.apache.geronimo.mail.util.Base64DecoderStream;
-
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Properties;
+import java.io.InputStream;
+import java.security.DigestInputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.mail.BodyPart;
 import javax.mail.MessagingException;
-import javax.mail.Session;
+import javax.mail.internet.ContentDisposition;
+import javax.mail.internet.ContentType;
 import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeUtility;
+import javax.mail.internet.ParseException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+/**
+ * Turns an emailed photo submission into a PhotoSubmission.
+ *
+ * The message is parsed in a single pass as it arrives, and each image is streamed into the
+ * Blobstore and given its PhotoEntry as soon as it's reached, so nothing close to the size of the
+ * message is ever held in memory. Messages or images over the size limits are rejected as soon as
+ * that's apparent, and whatever had been saved for them is deleted.
+ */
 @Singleton
 public class IncomingMail extends HttpServlet {
   private static final Logger LOG = Logger.getLogger(IncomingMail.class.getName());
   
   private static final long TASK_DELAY = 1000 * 30; // Timeout before task is invoked.
+
+  // The raw message, attachments still encoded.
+  private static final long MAX_MESSAGE_SIZE = 32 * 1024 * 1024;
+  // Each decoded image; Picasa won't take anything larger anyway.
+  private static final long MAX_IMAGE_SIZE = 20 * 1024 * 1024;
+  private static final int MAX_DESCRIPTION_SIZE = 64 * 1024;
+
+  private static final String DEFAULT_DESCRIPTION = "Submitted via email.";
   
   @Inject
   private Util util;
   @Inject
-  private PmfUtil pmfUtil;
-  @Inject
-  private EmailUtil emailUtil;
-  @Inject
   private AssignmentDao assignmentDao;
   @Inject
   private AdminConfigDao adminConfigDao;
+  @Inject
+  private PhotoSubmissionDao photoSubmissionDao;
+  @Inject
+  private BlobDao blobDao;
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -67,26 +82,31 @@ public class IncomingMail extends HttpServlet {
       if (!adminConfigDao.allowPhotoSubmission()) {
         throw new IllegalStateException("Photo submissions are not enabled.");
       }
-      
-      Properties props = new Properties();
-      Session session = Session.getDefaultInstance(props, null);
-      MimeMessage message = new MimeMessage(session, request.getInputStream());
-      
-      String title = message.getSubject();
+
+      MimeStreamParser parser = new MimeStreamParser(request.getInputStream(), MAX_MESSAGE_SIZE,
+          MAX_IMAGE_SIZE);
+      InternetHeaders headers = parser.readHeaders();
+
+      String title = headers.getHeader("Subject", null);
+      if (title != null) {
+        title = MimeUtility.decodeText(title);
+      }
       LOG.info(String.format("Subject line is '%s'.", title));
-      
+
       String author = "Unknown";
       String email = "";
-      InternetAddress[] fromAddresses = (InternetAddress[]) message.getFrom();
+      String from = headers.getHeader("From", ",");
+      InternetAddress[] fromAddresses = from == null ? null : InternetAddress.parseHeader(from,
+          false);
       if (fromAddresses != null && fromAddresses.length > 0) {
         InternetAddress fromAddress = fromAddresses[0];
         LOG.info(String.format("From name is '%s' and address is '%s'.", fromAddress.getPersonal(),
             fromAddress.getAddress()));
-        
+
         if (!util.isNullOrEmpty(fromAddress.getPersonal())) {
           author = fromAddress.getPersonal();
         }
-        
+
         if (util.isNullOrEmpty(fromAddress.getAddress())) {
           throw new IllegalArgumentException("No 'From' email address found.");
         } else {
@@ -107,100 +127,53 @@ public class IncomingMail extends HttpServlet {
       } else {
         assignmentId = String.valueOf(assignmentDao.getDefaultMobileAssignmentId());
       }
-      
+
       LOG.info(String.format("Assignment id is '%s' and namespace is '%s'.",
         assignmentId, namespace));
-      
+
       if (!assignmentDao.isAssignmentPhotoEnabled(assignmentId)) {
         throw new IllegalArgumentException(String.format("Assignment id '%s' either does not "
             + "exist, or is not enabled for photo submissions.", assignmentId));
       }
-      
-      String mimeType = message.getContentType().toLowerCase();
+
+      String mimeType = MimeStreamParser.getBaseType(headers);
       LOG.info("Incoming message's MIME type is " + mimeType);
 
-      ArrayList<BodyPart> parts = null;
-      if (mimeType.startsWith("multipart/")) {
-        parts = emailUtil.getAllMIMEParts((MimeMultipart) message.getContent());
-      } else if (mimeType.startsWith("image/")) {
-        parts = new ArrayList<BodyPart>();
-        parts.add((BodyPart) message.getContent());
-      }
-      
-      String description = "Submitted via email.";
-      int imageCount = 0;
-      
-      if (parts != null) {
-        for (BodyPart part : parts) {
-          String partMimeType = part.getContentType().toLowerCase();
-          
-          if (partMimeType.startsWith("image/")) {
-            imageCount++;
-          } else if (partMimeType.startsWith("text/plain")) {
-            description = (String) part.getContent();
-            LOG.info(String.format("Description is '%s'.", description));
-          }
-        }
-      }
-      
-      if (imageCount == 0) {
+      if (!mimeType.startsWith("multipart/") && !mimeType.startsWith("image/")) {
         throw new IllegalArgumentException("No image attachments were found in the email.");
       }
-      
+
+      // Saved up front so that each image's PhotoEntry can be created as soon as it's been read.
       String date = new DateTime().toUiString();
-      
       PhotoSubmission photoSubmission = new PhotoSubmission(Long.parseLong(assignmentId), "",
-          author, email, "", title, description, "", date, imageCount);
-      pmfUtil.persistJdo(photoSubmission);
+          author, email, "", title, DEFAULT_DESCRIPTION, "", date, 0);
+      photoSubmission = photoSubmissionDao.save(photoSubmission);
       String submissionId = photoSubmission.getId();
 
-      imageCount = 0;
-      for (BodyPart part : parts) {
-        String partMimeType = part.getContentType().toLowerCase();
-
-        if (partMimeType.startsWith("image/") && part.getContent() instanceof Base64DecoderStream) {
-          imageCount++;
-          // The filename might be appended following a ';' character.
-          String[] splits = partMimeType.split(";\\s*");
-          partMimeType = splits[0];
-
-          String fileName = "unknown";
-          if (splits.length > 1) {
-            fileName = splits[1];
-          }
-
-          PhotoEntry photoEntry = new PhotoEntry(submissionId,
-              String.format("%s%d", submissionId, imageCount), partMimeType);
-          pmfUtil.persistJdo(photoEntry);
-          
-          Base64DecoderStream base64Stream = (Base64DecoderStream) part.getContent();
-          
-          int index = 0;
-          int bytesRead = DataChunk.CHUNK_SIZE;
-          long fileSize = 0;
-          while (bytesRead == DataChunk.CHUNK_SIZE) {
-            byte[] buffer = new byte[DataChunk.CHUNK_SIZE];
-            bytesRead = base64Stream.read(buffer, 0, DataChunk.CHUNK_SIZE);
-            fileSize += bytesRead;
-
-            if (bytesRead < DataChunk.CHUNK_SIZE) {
-              buffer = Arrays.copyOf(buffer, bytesRead);
-            }
-            
-            DataChunk chunk = new DataChunk(photoEntry.getId(), index, buffer);
-            pmfUtil.persistJdo(chunk);
-            index++;
-          }
-          
-          photoEntry.setOriginalFileSize(fileSize);
-          photoEntry.setOriginalFileName(fileName);
-          pmfUtil.persistJdo(photoEntry);
+      boolean complete = false;
+      try {
+        AttachmentHandler handler = readAttachments(parser, submissionId);
+
+        if (handler.getImageCount() == 0) {
+          throw new IllegalArgumentException("No image attachments were found in the email.");
+        }
+
+        photoSubmission.setDescription(handler.getDescription());
+        photoSubmission.setNumberOfPhotos(handler.getImageCount());
+        photoSubmissionDao.save(photoSubmission);
+        complete = true;
+      } finally {
+        if (!complete) {
+          photoSubmissionDao.deleteSubmission(submissionId);
         }
       }
-      
+
       Queue queue = QueueFactory.getDefaultQueue();
       queue.add(withUrl("/tasks/MoveToPicasa").method(Method.POST).param("id", submissionId)
         .param("ns", namespace).countdownMillis(TASK_DELAY));
+    } catch (MimeStreamParser.SizeLimitException e) {
+      LOG.log(Level.WARNING, "", e);
+      response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
     } catch (MessagingException e) {
       LOG.log(Level.WARNING, "", e);
       response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
@@ -212,4 +185,119 @@ public class IncomingMail extends HttpServlet {
       response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
     }
   }
+
+  /**
+   * Reads the parts of a message whose headers have already been read, saving a PhotoEntry under
+   * the submission for each image.
+   */
+  AttachmentHandler readAttachments(MimeStreamParser parser, String submissionId)
+      throws IOException, MessagingException {
+    AttachmentHandler handler = new AttachmentHandler(submissionId);
+    parser.readParts(handler);
+    return handler;
+  }
+
+  /**
+   * Streams each image part into the Blobstore and saves its PhotoEntry, and keeps the first plain
+   * text part as the description.
+   */
+  class AttachmentHandler implements MimeStreamParser.PartHandler {
+    private String submissionId = null;
+    private String description = DEFAULT_DESCRIPTION;
+    private boolean hasDescription = false;
+    private int imageCount = 0;
+
+    public AttachmentHandler(String submissionId) {
+      this.submissionId = submissionId;
+    }
+
+    public String getDescription() {
+      return description;
+    }
+
+    public int getImageCount() {
+      return imageCount;
+    }
+
+    @Override
+    public void handlePart(InternetHeaders headers, InputStream body) throws IOException,
+        MessagingException {
+      String partMimeType = MimeStreamParser.getBaseType(headers);
+
+      if (partMimeType.startsWith("image/")) {
+        String fileName = getFileName(headers);
+        // Hashed on the way into the Blobstore; see PhotoHash.
+        DigestInputStream digestStream = new DigestInputStream(body, util.newSha256Digest());
+        BlobInfo blobInfo = blobDao.save(partMimeType, fileName, digestStream);
+
+        PhotoEntry photoEntry = new PhotoEntry(submissionId, blobInfo.getBlobKey(), partMimeType);
+        photoEntry.setOriginalFileSize(blobInfo.getSize());
+        photoEntry.setOriginalFileName(fileName);
+        photoEntry.setSha256(util.toHex(digestStream.getMessageDigest().digest()));
+        photoSubmissionDao.save(photoEntry);
+        imageCount++;
+      } else if (partMimeType.equals("text/plain") && !hasDescription) {
+        description = readText(headers, body);
+        hasDescription = true;
+        LOG.info(String.format("Description is '%s'.", description));
+      }
+    }
+  }
+
+  private String getFileName(InternetHeaders headers) {
+    String fileName = null;
+
+    String disposition = headers.getHeader("Content-Disposition", null);
+    if (disposition != null) {
+      try {
+        fileName = new ContentDisposition(disposition).getParameter("filename");
+      } catch (ParseException e) {
+        LOG.log(Level.WARNING, "", e);
+      }
+    }
+
+    if (fileName == null) {
+      ContentType contentType = MimeStreamParser.getContentType(headers);
+      if (contentType != null) {
+        fileName = contentType.getParameter("name");
+      }
+    }
+
+    if (util.isNullOrEmpty(fileName)) {
+      return "unknown";
+    }
+
+    try {
+      return MimeUtility.decodeText(fileName);
+    } catch (IOException e) {
+      return fileName;
+    }
+  }
+
+  /**
+   * Reads at most MAX_DESCRIPTION_SIZE bytes of a text part; the rest is left to be skipped.
+   */
+  private String readText(InternetHeaders headers, InputStream body) throws IOException {
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while (text.size() < MAX_DESCRIPTION_SIZE
+        && (read = body.read(buffer, 0, Math.min(buffer.length, MAX_DESCRIPTION_SIZE
+            - text.size()))) >= 0) {
+      text.write(buffer, 0, read);
+    }
+
+    String charset = "us-ascii";
+    ContentType contentType = MimeStreamParser.getContentType(headers);
+    if (contentType != null && contentType.getParameter("charset") != null) {
+      charset = contentType.getParameter("charset");
+    }
+
+    try {
+      return text.toString(MimeUtility.javaCharset(charset));
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "", e);
+      return text.toString("ISO-8859-1");
+    }
+  }
 }
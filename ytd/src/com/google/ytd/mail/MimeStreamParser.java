@@ -0,0 +1,387 @@
+// Copyright 2010 Google Inc. All Rights Reserved.
+
+package com.google.ytd.mail;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeUtility;
+import javax.mail.internet.ParseException;
+
+/**
+ * Reads a MIME message in a single pass, handing each part to a PartHandler as soon as its headers
+ * have arrived, so that no more than a line of the message is ever held in memory.
+ *
+ * Nested multiparts are flattened, and each part's body is decoded according to its
+ * Content-Transfer-Encoding. The size of the message as a whole, and of each decoded part, is
+ * checked as it's read, and going over either limit throws a SizeLimitException straight away.
+ */
+public class MimeStreamParser {
+  // Longer lines are handed on in pieces; boundaries and header lines are far shorter.
+  private static final int MAX_LINE_LENGTH = 8 * 1024;
+  private static final int MAX_HEADER_SIZE = 64 * 1024;
+  private static final int MAX_DEPTH = 10;
+
+  /**
+   * Thrown as soon as a message, or one of its parts, turns out to be larger than allowed.
+   */
+  @SuppressWarnings("serial")
+  public static class SizeLimitException extends IOException {
+    public SizeLimitException(String message) {
+      super(message);
+    }
+  }
+
+  public interface PartHandler {
+    /**
+     * Called for each part that isn't itself a multipart, in the order they appear.
+     *
+     * @param body
+     *          The part's decoded content. It's only valid during the call, and whatever the
+     *          handler leaves unread is skipped.
+     */
+    public void handlePart(InternetHeaders headers, InputStream body) throws IOException,
+        MessagingException;
+  }
+
+  private InputStream in = null;
+  private long maxPartSize = 0;
+  private InternetHeaders headers = null;
+
+  public MimeStreamParser(InputStream in, long maxMessageSize, long maxPartSize) {
+    this.in = new BufferedInputStream(new LimitedInputStream(in, maxMessageSize, "Message"));
+    this.maxPartSize = maxPartSize;
+  }
+
+  /**
+   * Reads the message's own headers. This has to be called before readParts().
+   */
+  public InternetHeaders readHeaders() throws IOException {
+    headers = readHeaders(in);
+    return headers;
+  }
+
+  /**
+   * Reads the rest of the message, calling the handler for each part.
+   */
+  public void readParts(PartHandler handler) throws IOException, MessagingException {
+    if (headers == null) {
+      throw new IllegalStateException("The message's headers haven't been read.");
+    }
+
+    readEntity(headers, in, handler, 0);
+  }
+
+  /**
+   * @return The header's base type in lower case, e.g. "image/jpeg", or "text/plain" if there's no
+   *         usable Content-Type.
+   */
+  public static String getBaseType(InternetHeaders headers) {
+    ContentType contentType = getContentType(headers);
+    return contentType == null ? "text/plain" : contentType.getBaseType().toLowerCase();
+  }
+
+  public static ContentType getContentType(InternetHeaders headers) {
+    String value = headers.getHeader("Content-Type", null);
+    if (value == null) {
+      return null;
+    }
+
+    try {
+      return new ContentType(value);
+    } catch (ParseException e) {
+      return null;
+    }
+  }
+
+  private void readEntity(InternetHeaders entityHeaders, InputStream body, PartHandler handler,
+      int depth) throws IOException, MessagingException {
+    ContentType contentType = getContentType(entityHeaders);
+
+    if (contentType != null && contentType.match("multipart/*")) {
+      String boundary = contentType.getParameter("boundary");
+      if (boundary == null || depth >= MAX_DEPTH) {
+        return;
+      }
+      byte[] delimiter = ("--" + boundary).getBytes("US-ASCII");
+
+      // Skip the preamble.
+      BoundedInputStream part = new BoundedInputStream(body, delimiter);
+      skip(part);
+
+      while (part.isDelimited() && !part.isLast()) {
+        part = new BoundedInputStream(body, delimiter);
+        readEntity(readHeaders(part), part, handler, depth + 1);
+        skip(part);
+      }
+    } else {
+      String encoding = entityHeaders.getHeader("Content-Transfer-Encoding", null);
+      InputStream decoded = body;
+      if (encoding != null) {
+        decoded = MimeUtility.decode(body, encoding.trim().toLowerCase());
+      }
+
+      handler.handlePart(entityHeaders, new LimitedInputStream(decoded, maxPartSize, "Part"));
+    }
+  }
+
+  private static InternetHeaders readHeaders(InputStream in) throws IOException {
+    InternetHeaders headers = new InternetHeaders();
+    byte[] line = new byte[MAX_LINE_LENGTH];
+    StringBuffer header = null;
+    int size = 0;
+
+    while (true) {
+      int length = readLine(in, line);
+      if (length < 0) {
+        break;
+      }
+
+      size += length;
+      if (size > MAX_HEADER_SIZE) {
+        throw new SizeLimitException(String.format("Headers are longer than %d bytes.",
+            MAX_HEADER_SIZE));
+      }
+
+      String text = stripEol(line, length);
+      if (text.length() > 0 && (text.charAt(0) == ' ' || text.charAt(0) == '\t')) {
+        // A folded continuation of the previous header.
+        if (header != null) {
+          header.append(text);
+        }
+        continue;
+      }
+
+      addHeader(headers, header);
+      header = null;
+
+      if (text.length() == 0) {
+        break;
+      }
+      header = new StringBuffer(text);
+    }
+    addHeader(headers, header);
+
+    return headers;
+  }
+
+  private static void addHeader(InternetHeaders headers, StringBuffer header) {
+    if (header == null) {
+      return;
+    }
+
+    int colon = header.indexOf(":");
+    if (colon > 0) {
+      headers.addHeader(header.substring(0, colon).trim(), header.substring(colon + 1).trim());
+    }
+  }
+
+  private static String stripEol(byte[] line, int length) throws UnsupportedEncodingException {
+    int end = length;
+    if (end > 0 && line[end - 1] == '\n') {
+      end--;
+      if (end > 0 && line[end - 1] == '\r') {
+        end--;
+      }
+    }
+    return new String(line, 0, end, "UTF-8");
+  }
+
+  /**
+   * Reads up to and including the next LF, or until the buffer is full.
+   *
+   * @return The number of bytes read, or -1 at the end of the stream.
+   */
+  private static int readLine(InputStream in, byte[] buffer) throws IOException {
+    int length = 0;
+    while (length < buffer.length) {
+      int b = in.read();
+      if (b < 0) {
+        break;
+      }
+
+      buffer[length++] = (byte) b;
+      if (b == '\n') {
+        break;
+      }
+      // Keeps a CR and the LF that follows it in the same piece.
+      if (length == buffer.length - 1 && b != '\r') {
+        break;
+      }
+    }
+    return length == 0 ? -1 : length;
+  }
+
+  private static void skip(InputStream in) throws IOException {
+    byte[] buffer = new byte[4096];
+    while (in.read(buffer, 0, buffer.length) >= 0) {
+    }
+  }
+
+  /**
+   * The content of one part of a multipart, which ends at the next line that starts with the
+   * delimiter. The line break before the delimiter belongs to the delimiter, not the content.
+   */
+  private static class BoundedInputStream extends InputStream {
+    private InputStream in = null;
+    private byte[] delimiter = null;
+
+    private byte[] line = new byte[MAX_LINE_LENGTH];
+    // The content waiting to be read: the previous line's line break, then the current line.
+    private byte[] buffer = new byte[MAX_LINE_LENGTH + 2];
+    private int position = 0;
+    private int length = 0;
+    private byte[] lineBreak = new byte[2];
+    private int lineBreakLength = 0;
+
+    private boolean atLineStart = true;
+    private boolean done = false;
+    private boolean delimited = false;
+    private boolean last = false;
+
+    public BoundedInputStream(InputStream in, byte[] delimiter) {
+      this.in = in;
+      this.delimiter = delimiter;
+    }
+
+    /**
+     * @return true if the content ended at a delimiter, rather than at the end of the stream.
+     */
+    public boolean isDelimited() {
+      return delimited;
+    }
+
+    /**
+     * @return true if the delimiter was the closing one, so no parts follow.
+     */
+    public boolean isLast() {
+      return last;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int count) throws IOException {
+      if (count == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+
+      int copied = Math.min(count, length - position);
+      System.arraycopy(buffer, position, bytes, offset, copied);
+      position += copied;
+      return copied;
+    }
+
+    private boolean fill() throws IOException {
+      while (position >= length) {
+        if (done) {
+          return false;
+        }
+
+        int lineLength = readLine(in, line);
+        if (lineLength < 0) {
+          done = true;
+          return false;
+        }
+
+        if (atLineStart && startsWith(line, lineLength, delimiter)) {
+          done = true;
+          delimited = true;
+          last = lineLength >= delimiter.length + 2 && line[delimiter.length] == '-'
+              && line[delimiter.length + 1] == '-';
+          return false;
+        }
+
+        int eol = 0;
+        if (line[lineLength - 1] == '\n') {
+          eol = lineLength > 1 && line[lineLength - 2] == '\r' ? 2 : 1;
+        }
+
+        System.arraycopy(lineBreak, 0, buffer, 0, lineBreakLength);
+        System.arraycopy(line, 0, buffer, lineBreakLength, lineLength - eol);
+        position = 0;
+        length = lineBreakLength + lineLength - eol;
+
+        System.arraycopy(line, lineLength - eol, lineBreak, 0, eol);
+        lineBreakLength = eol;
+        atLineStart = eol > 0;
+      }
+      return true;
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, byte[] prefix) {
+      if (length < prefix.length) {
+        return false;
+      }
+      for (int i = 0; i < prefix.length; i++) {
+        if (bytes[i] != prefix[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Throws a SizeLimitException as soon as more than the allowed number of bytes has been read.
+   */
+  private static class LimitedInputStream extends FilterInputStream {
+    private long remaining = 0;
+    private long limit = 0;
+    private String what = null;
+
+    public LimitedInputStream(InputStream in, long limit, String what) {
+      super(in);
+      this.remaining = limit;
+      this.limit = limit;
+      this.what = what;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      int read = super.read(bytes, offset, length);
+      if (read > 0) {
+        count(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    private void count(long bytes) throws SizeLimitException {
+      remaining -= bytes;
+      if (remaining < 0) {
+        throw new SizeLimitException(String.format("%s is larger than %d bytes.", what, limit));
+      }
+    }
+  }
+}
@@ -34,6 +34,7 @@ import com.google.ytd.dao.AdminConfigDao;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.PersistAuthSubToken;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 /**
  * AuthSub redirection flow for mobile phones.
@@ -50,7 +51,7 @@ public class MobileAuthSub extends HttpServlet {
   @Inject
   private Util util;
   @Inject
-  private YouTubeApiHelper apiManager;
+  private YouTubeClientPool youTubeClientPool;
   @Inject
   private AdminConfigDao adminConfigDao;
 
@@ -76,7 +77,7 @@ public class MobileAuthSub extends HttpServlet {
         String sessionToken = AuthSubUtil.exchangeForSessionToken(token, privateKey);
 
         // Test the token to make sure it's valid, and get the username it corresponds to.
-        apiManager.setAuthSubToken(sessionToken);
+        YouTubeApiHelper apiManager = youTubeClientPool.getAuthSubClient(sessionToken);
 
         String youTubeName = apiManager.getCurrentUsername();
         if (util.isNullOrEmpty(youTubeName)) {
@@ -32,12 +32,13 @@ import com.google.inject.Singleton;
 import com.google.ytd.dao.AdminConfigDao;
 import com.google.ytd.dao.AssignmentDao;
 import com.google.ytd.dao.UserAuthTokenDao;
+import com.google.ytd.dao.VideoSubmissionDao;
 import com.google.ytd.model.AdminConfig;
 import com.google.ytd.model.VideoSubmission;
 import com.google.ytd.util.EmailUtil;
-import com.google.ytd.util.PmfUtil;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 /**
  * Servlet that handles mobile phone submissions, creating an appropriate
@@ -49,17 +50,17 @@ public class PersistMobileSubmission extends HttpServlet {
   @Inject
   private Util util;
   @Inject
-  private PmfUtil pmfUtil;
-  @Inject
   private EmailUtil emailUtil;
   @Inject
-  private YouTubeApiHelper youtubeApiProxy;
+  private YouTubeClientPool youTubeClientPool;
   @Inject
   private UserAuthTokenDao userAuthTokenDao;
   @Inject
   private AssignmentDao assignmentDao;
   @Inject
   private AdminConfigDao adminConfigDao;
+  @Inject
+  private VideoSubmissionDao videoSubmissionDao;
 
   private String decode(String input) {
     // TODO: This should use a URL decode method from a library.
@@ -121,7 +122,7 @@ public class PersistMobileSubmission extends HttpServlet {
         resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "missing authSubToken");
       }
 
-      youtubeApiProxy.setAuthSubToken(authSubToken);
+      YouTubeApiHelper youtubeApiProxy = youTubeClientPool.getAuthSubClient(authSubToken);
       VideoEntry videoEntry = youtubeApiProxy.getUploadsVideoEntry(videoId);
 
       if (videoEntry == null) {
@@ -155,7 +156,7 @@ public class PersistMobileSubmission extends HttpServlet {
           // etc.) isn't taking place.
           submission.setStatus(VideoSubmission.ModerationStatus.APPROVED);
         }
-        pmfUtil.persistJdo(submission);
+        submission = videoSubmissionDao.save(submission);
         emailUtil.sendNewSubmissionEmail(submission);
 
         resp.setContentType("text/plain");
@@ -137,6 +137,12 @@ public class AdminConfig implements Serializable {
   @Persistent
   private Integer maxPhotoSizeMb;
 
+  // Photos whose longer edge has more pixels than this are downscaled before they're uploaded to
+  // Picasa; 0 leaves them as they are.
+  @Expose
+  @Persistent
+  private Integer maxPhotoEdge;
+
   @Expose
   @Persistent
   private Boolean photoSubmissionEnabled;
@@ -175,6 +181,7 @@ public class AdminConfig implements Serializable {
     postSubmitMessage = "Thank you for your submission.";
 
     maxPhotoSizeMb = 10;
+    maxPhotoEdge = 0;
     photoSubmissionEnabled = false;
 
     setUpdated(new Date());
@@ -364,6 +371,18 @@ public class AdminConfig implements Serializable {
     this.maxPhotoSizeMb = maxPhotoSizeMb;
   }
 
+  public int getMaxPhotoEdge() {
+    if (maxPhotoEdge == null) {
+      maxPhotoEdge = 0;
+    }
+
+    return maxPhotoEdge;
+  }
+
+  public void setMaxPhotoEdge(int maxPhotoEdge) {
+    this.maxPhotoEdge = maxPhotoEdge;
+  }
+
   public Boolean getPhotoSubmissionEnabled() {
     if (photoSubmissionEnabled == null) {
       photoSubmissionEnabled = false;
@@ -0,0 +1,95 @@
+package com.google.ytd.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.jdo.annotations.Extension;
+import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.IdentityType;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+import com.google.ytd.model.VideoSubmission.ModerationStatus;
+
+/**
+ * Records that the side effects of a moderation decision (playlist changes, branding, the
+ * submitter's email) still have to be carried out for a VideoSubmission.
+ *
+ * Each one is stored as a child of its VideoSubmission, so that it can be written in the same
+ * transaction as the status change it belongs to.
+ */
+@PersistenceCapable(identityType = IdentityType.APPLICATION)
+public class PendingModeration {
+  @PrimaryKey
+  @Extension(vendorName = "datanucleus", key = "gae.encoded-pk", value = "true")
+  @Persistent(valueStrategy = IdGeneratorStrategy.IDENTITY)
+  private String id;
+
+  @Persistent
+  @Extension(vendorName = "datanucleus", key = "gae.parent-pk", value = "true")
+  private String submissionId;
+
+  @Persistent
+  private ModerationStatus status;
+
+  @Persistent
+  private List<String> completedSteps = new ArrayList<String>();
+
+  @Persistent
+  private int attempts = 0;
+
+  @Persistent
+  private Date created;
+
+  public PendingModeration(String submissionId, ModerationStatus status) {
+    this.submissionId = submissionId;
+    this.status = status;
+
+    this.created = new Date();
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getSubmissionId() {
+    return submissionId;
+  }
+
+  /**
+   * @return The status whose side effects are to be carried out.
+   */
+  public ModerationStatus getStatus() {
+    return status;
+  }
+
+  /**
+   * @return The names of the side effects that have already succeeded, so that retries can skip
+   *         them.
+   */
+  public List<String> getCompletedSteps() {
+    if (completedSteps == null) {
+      completedSteps = new ArrayList<String>();
+    }
+
+    return completedSteps;
+  }
+
+  public void setCompletedSteps(List<String> completedSteps) {
+    this.completedSteps = completedSteps;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public void setAttempts(int attempts) {
+    this.attempts = attempts;
+  }
+
+  public Date getCreated() {
+    return created;
+  }
+}
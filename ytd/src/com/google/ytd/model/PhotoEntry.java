@@ -1,5 +1,6 @@
 package com.google.ytd.model;
 
+import javax.jdo.annotations.Extension;
 import javax.jdo.annotations.IdentityType;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
@@ -52,6 +53,21 @@ public class PhotoEntry {
   @Expose
   private String resumableUploadUrl = null;
 
+  // How many bytes of the resumable upload Picasa has acknowledged; null if that isn't known and
+  // has to be asked for.
+  @Persistent
+  private Long uploadedBytes = null;
+
+  // The size of the next chunk of the resumable upload; see UploadChunkSizer.
+  @Persistent
+  private Integer chunkSize = null;
+
+  // The SHA-256 of the photo as it was submitted, in hex; see PhotoHash. Null for photos
+  // submitted before hashes were kept.
+  @Persistent
+  @Extension(vendorName = "datanucleus", key = "gae.unindexed", value = "true")
+  private String sha256 = null;
+
   @SuppressWarnings("unused")
   @Expose
   @Persistent
@@ -112,6 +128,10 @@ public class PhotoEntry {
     return format;
   }
 
+  public void setFormat(String format) {
+    this.format = format;
+  }
+
   public String getPicasaUrl() {
     return picasaUrl;
   }
@@ -168,5 +188,32 @@ public class PhotoEntry {
    */
   public void setResumableUploadUrl(String resumableUploadUrl) {
     this.resumableUploadUrl = resumableUploadUrl;
+    // A new upload session starts out empty.
+    this.uploadedBytes = resumableUploadUrl == null ? null : Long.valueOf(0);
+    this.chunkSize = null;
+  }
+
+  public Long getUploadedBytes() {
+    return uploadedBytes;
+  }
+
+  public void setUploadedBytes(Long uploadedBytes) {
+    this.uploadedBytes = uploadedBytes;
+  }
+
+  public Integer getChunkSize() {
+    return chunkSize;
+  }
+
+  public void setChunkSize(Integer chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  public String getSha256() {
+    return sha256;
+  }
+
+  public void setSha256(String sha256) {
+    this.sha256 = sha256;
   }
 }
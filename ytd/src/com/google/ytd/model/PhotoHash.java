@@ -0,0 +1,93 @@
+package com.google.ytd.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.jdo.annotations.Extension;
+import javax.jdo.annotations.IdentityType;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * Index of the photos already uploaded to Picasa, keyed by assignment, submitter and the SHA-256
+ * of each photo as it was submitted, so that a resubmitted photo can share the existing Picasa
+ * photo rather than being uploaded again.
+ *
+ * Like everything else in the datastore, the index is kept per namespace. It's per assignment as
+ * well, since each assignment has albums of its own. It's per submitter because an entry that
+ * shares a photo also shares its moderation status; someone else's copy of an approved photo is
+ * a new submission and has to be moderated like one.
+ */
+@PersistenceCapable(identityType = IdentityType.APPLICATION, detachable = "true")
+public class PhotoHash {
+  // The submission counter statuses under which duplicate and unique photos are counted.
+  public static final String DUPLICATE = "DUPLICATE";
+  public static final String UNIQUE = "UNIQUE";
+
+  // Derived from the assignment id, the submitter's email and the hash, so that a lookup is a key
+  // get.
+  @PrimaryKey
+  private String id;
+
+  // The PhotoEntry whose Picasa photo is shared. Moderating any entry that shares it keeps all of
+  // their Picasa URLs in step, so this entry's are always current.
+  @Persistent
+  @Extension(vendorName = "datanucleus", key = "gae.unindexed", value = "true")
+  private String photoEntryId;
+
+  // The later PhotoEntries that were linked to the photo instead of being uploaded.
+  @Persistent
+  @Extension(vendorName = "datanucleus", key = "gae.unindexed", value = "true")
+  private List<String> linkedPhotoEntryIds;
+
+  @Persistent
+  @Extension(vendorName = "datanucleus", key = "gae.unindexed", value = "true")
+  private Date created;
+
+  public PhotoHash(Long assignmentId, String email, String sha256, String photoEntryId) {
+    this.id = createId(assignmentId, email, sha256);
+    this.photoEntryId = photoEntryId;
+    this.linkedPhotoEntryIds = new ArrayList<String>();
+
+    this.created = new Date();
+  }
+
+  public static String createId(Long assignmentId, String email, String sha256) {
+    return String.format("%s/%s/%s", assignmentId, email.toLowerCase(), sha256);
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getPhotoEntryId() {
+    return photoEntryId;
+  }
+
+  public void setPhotoEntryId(String photoEntryId) {
+    this.photoEntryId = photoEntryId;
+  }
+
+  public List<String> getLinkedPhotoEntryIds() {
+    if (linkedPhotoEntryIds == null) {
+      linkedPhotoEntryIds = new ArrayList<String>();
+    }
+    return linkedPhotoEntryIds;
+  }
+
+  /**
+   * @return The ids of every PhotoEntry that shares the photo, the original one first.
+   */
+  public List<String> getSharingPhotoEntryIds() {
+    List<String> ids = new ArrayList<String>();
+    ids.add(photoEntryId);
+    ids.addAll(getLinkedPhotoEntryIds());
+    return ids;
+  }
+
+  public Date getCreated() {
+    return created;
+  }
+}
@@ -128,6 +128,10 @@ public class PhotoSubmission {
     return description;
   }
 
+  public void setDescription(String description) {
+    this.description = description;
+  }
+
   public String getLocation() {
     return location;
   }
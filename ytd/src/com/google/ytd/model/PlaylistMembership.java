@@ -0,0 +1,75 @@
+package com.google.ytd.model;
+
+import java.util.Date;
+
+import javax.jdo.annotations.IdentityType;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * Local record of a video's entry in a YouTube playlist, so that membership checks and removals
+ * don't need to page through the playlist feed.
+ */
+@PersistenceCapable(identityType = IdentityType.APPLICATION)
+public class PlaylistMembership {
+  // Derived from the playlist and video ids, so that a lookup is a key get.
+  @PrimaryKey
+  private String id;
+
+  @Persistent
+  private String playlistId;
+
+  @Persistent
+  private String videoId;
+
+  // The playlist entry's edit URL, which is all that's needed to delete it.
+  @Persistent
+  private String editUrl;
+
+  // Smaller values are closer to the start of the playlist. Entries inserted since the last
+  // reconciliation get negative values, since they are always inserted at the start.
+  @Persistent
+  private Long position;
+
+  @Persistent
+  private Date updated;
+
+  public PlaylistMembership(String playlistId, String videoId, String editUrl, long position) {
+    this.id = createId(playlistId, videoId);
+    this.playlistId = playlistId;
+    this.videoId = videoId;
+    this.editUrl = editUrl;
+    this.position = position;
+
+    this.updated = new Date();
+  }
+
+  public static String createId(String playlistId, String videoId) {
+    return String.format("%s/%s", playlistId, videoId);
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getPlaylistId() {
+    return playlistId;
+  }
+
+  public String getVideoId() {
+    return videoId;
+  }
+
+  public String getEditUrl() {
+    return editUrl;
+  }
+
+  public long getPosition() {
+    return position == null ? 0 : position.longValue();
+  }
+
+  public Date getUpdated() {
+    return updated;
+  }
+}
@@ -0,0 +1,108 @@
+package com.google.ytd.model;
+
+import java.util.Date;
+
+import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.IdentityType;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * One pass of the metadata sync. A regular pass covers the VideoSubmissions whose next sync was
+ * due when the pass started, while a full pass walks every VideoSubmission and picks out the due
+ * ones itself, which also catches submissions that have never been scheduled. The pass is split
+ * into SyncShards, which are queued as the submissions are walked, and it's finished once every
+ * shard is done.
+ */
+@PersistenceCapable(identityType = IdentityType.APPLICATION)
+public class SyncPass {
+  @PrimaryKey
+  @Persistent(valueStrategy = IdGeneratorStrategy.IDENTITY)
+  private Long id;
+
+  @Persistent
+  private Date started;
+
+  @Persistent
+  private Date finished = null;
+
+  @Persistent
+  private Boolean full = false;
+
+  // Where the walk over the VideoSubmissions carries on from; null at the start of the pass.
+  @Persistent
+  private String cursor = null;
+
+  // Whether every shard of the pass has been queued.
+  @Persistent
+  private Boolean scheduled = false;
+
+  @Persistent
+  private Integer shardCount = 0;
+
+  // The number of submissions handed out to the shards so far.
+  @Persistent
+  private Long videoCount = 0L;
+
+  public SyncPass(boolean full) {
+    this.full = full;
+    this.started = new Date();
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public Date getStarted() {
+    return started;
+  }
+
+  public Date getFinished() {
+    return finished;
+  }
+
+  public void setFinished(Date finished) {
+    this.finished = finished;
+  }
+
+  public boolean isFinished() {
+    return finished != null;
+  }
+
+  public boolean isFull() {
+    return full != null && full.booleanValue();
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  public boolean isScheduled() {
+    return scheduled != null && scheduled.booleanValue();
+  }
+
+  public void setScheduled(boolean scheduled) {
+    this.scheduled = scheduled;
+  }
+
+  public int getShardCount() {
+    return shardCount == null ? 0 : shardCount.intValue();
+  }
+
+  public void setShardCount(int shardCount) {
+    this.shardCount = shardCount;
+  }
+
+  public long getVideoCount() {
+    return videoCount == null ? 0 : videoCount.longValue();
+  }
+
+  public void setVideoCount(long videoCount) {
+    this.videoCount = videoCount;
+  }
+}
@@ -0,0 +1,101 @@
+package com.google.ytd.model;
+
+import java.util.Date;
+
+import javax.jdo.annotations.IdentityType;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * A bounded run of VideoSubmissions, in key order, that is synced by a single task. The shard
+ * checkpoints its position after every batch, so a task that is retried or continued picks up
+ * where the last one left off.
+ */
+@PersistenceCapable(identityType = IdentityType.APPLICATION)
+public class SyncShard {
+  // Derived from the pass id and the shard's index within the pass, so that a lookup is a key get.
+  @PrimaryKey
+  private String id;
+
+  @Persistent
+  private Long passId;
+
+  @Persistent
+  private Integer shardIndex;
+
+  // The number of submissions in the shard.
+  @Persistent
+  private Integer size;
+
+  // Cursor pointing just past the last submission synced; null if the shard starts at the very
+  // first submission and nothing has been synced yet.
+  @Persistent
+  private String checkpoint;
+
+  @Persistent
+  private Integer synced = 0;
+
+  @Persistent
+  private Boolean done = false;
+
+  @Persistent
+  private Date updated;
+
+  public SyncShard(long passId, int shardIndex, String startCursor, int size) {
+    this.id = createId(passId, shardIndex);
+    this.passId = passId;
+    this.shardIndex = shardIndex;
+    this.checkpoint = startCursor;
+    this.size = size;
+
+    this.updated = new Date();
+  }
+
+  public static String createId(long passId, int shardIndex) {
+    return String.format("%d/%d", passId, shardIndex);
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public long getPassId() {
+    return passId;
+  }
+
+  public int getShardIndex() {
+    return shardIndex;
+  }
+
+  public int getSize() {
+    return size == null ? 0 : size.intValue();
+  }
+
+  public String getCheckpoint() {
+    return checkpoint;
+  }
+
+  public int getSynced() {
+    return synced == null ? 0 : synced.intValue();
+  }
+
+  public boolean isDone() {
+    return done != null && done.booleanValue();
+  }
+
+  public Date getUpdated() {
+    return updated;
+  }
+
+  /**
+   * Moves the checkpoint past another batch of synced submissions.
+   */
+  public void checkpoint(String cursor, int count, boolean done) {
+    this.checkpoint = cursor;
+    this.synced = getSynced() + count;
+    this.done = done;
+
+    this.updated = new Date();
+  }
+}
@@ -15,8 +15,9 @@
 
 package com.google.ytd.model;
 
+import java.io.Serializable;
+
 import javax.jdo.annotations.Extension;
-import javax.jdo.annotations.IdGeneratorStrategy;
 import javax.jdo.annotations.IdentityType;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
@@ -24,13 +25,15 @@ import javax.jdo.annotations.PrimaryKey;
 
 /**
  * Model class for the YouTube user to AuthSub token mapping.
+ *
+ * Entities are keyed by YouTube username (see UserAuthTokenDaoImpl), although ones written by
+ * older versions have numeric ids.
  */
 @PersistenceCapable(identityType = IdentityType.APPLICATION, detachable = "true")
-public class UserAuthToken {
+public class UserAuthToken implements Serializable {
 
   @PrimaryKey
   @Extension(vendorName = "datanucleus", key = "gae.encoded-pk", value = "true")
-  @Persistent(valueStrategy = IdGeneratorStrategy.IDENTITY)
   private String id = null;
 
   @Persistent
@@ -61,6 +64,10 @@ public class UserAuthToken {
     return id;
   }
 
+  public void setId(String id) {
+    this.id = id;
+  }
+
   public String getYoutubeName() {
     return youtubeName;
   }
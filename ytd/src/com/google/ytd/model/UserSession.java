@@ -21,6 +21,7 @@ import java.util.Map;
 import javax.jdo.annotations.Extension;
 import javax.jdo.annotations.IdGeneratorStrategy;
 import javax.jdo.annotations.IdentityType;
+import javax.jdo.annotations.NotPersistent;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
 import javax.jdo.annotations.PrimaryKey;
@@ -39,6 +40,10 @@ public class UserSession {
   @Persistent(serialized = "true", defaultFetchGroup = "true")
   private Map<String, String> metaDataMap = null;
 
+  // Whether the meta data changed since the session was last read or saved.
+  @NotPersistent
+  private boolean dirty = false;
+
   public UserSession() {
     this.metaDataMap = new HashMap<String, String>();
   }
@@ -61,12 +66,25 @@ public class UserSession {
   public void addMetaData(String key, String value) {
     Map<String, String> dataMap = getMetaDataMap();
     if (dataMap.containsKey(key)) {
-      dataMap.remove(key);
+      String oldValue = dataMap.remove(key);
+      if (oldValue == null ? value != null : !oldValue.equals(value)) {
+        dirty = true;
+      }
+    } else {
+      dirty = true;
     }
     
     dataMap.put(key, value);
   }
 
+  public boolean isDirty() {
+    return dirty;
+  }
+
+  public void setDirty(boolean dirty) {
+    this.dirty = dirty;
+  }
+
   public String getMetaData(String key) {
     return getMetaDataMap().get(key);
   }
@@ -96,9 +96,8 @@ public class VideoSubmission implements Serializable {
   @Persistent
   private Date created;
 
-  @Persistent
-  private Date lastSynced;
-
+  // A copy of the view count in the submission's VideoSyncState, kept here for sorting. The sync
+  // only refreshes it when the submission is saved anyway or the count has moved noticeably.
   @Expose
   @Persistent
   private long viewCount;
@@ -158,7 +157,6 @@ public class VideoSubmission implements Serializable {
     this.youTubeState = "UNKNOWN";
     this.created = new Date();
     this.updated = this.created;
-    this.lastSynced = this.created;
     this.viewCount = -1;
     setStatus(ModerationStatus.UNREVIEWED);
     setVideoSource(videoSource);
@@ -168,7 +166,6 @@ public class VideoSubmission implements Serializable {
     this.assignmentId = assignmentId;
     this.created = new Date();
     this.updated = this.created;
-    this.lastSynced = this.created;
     this.viewCount = -1;
     this.youTubeState = "UNKNOWN";
     setStatus(ModerationStatus.UNREVIEWED);
@@ -177,7 +174,6 @@ public class VideoSubmission implements Serializable {
   public VideoSubmission() {
     this.created = new Date();
     this.updated = this.created;
-    this.lastSynced = this.created;
     this.viewCount = -1;
     this.youTubeState = "UNKNOWN";
     setStatus(ModerationStatus.UNREVIEWED);
@@ -349,14 +345,6 @@ public class VideoSubmission implements Serializable {
     return String.format(YOUTUBE_WATCH_URL_FORMAT, videoId);
   }
 
-  public Date getLastSynced() {
-    return lastSynced;
-  }
-
-  public void setLastSynced(Date lastSynced) {
-    this.lastSynced = lastSynced;
-  }
-
   public void setVideoDate(String videoDate) {
     this.videoDate = videoDate;
   }
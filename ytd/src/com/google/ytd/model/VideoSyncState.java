@@ -0,0 +1,92 @@
+package com.google.ytd.model;
+
+import java.util.Date;
+
+import javax.jdo.annotations.Extension;
+import javax.jdo.annotations.IdentityType;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * The metadata sync's bookkeeping for a VideoSubmission, which changes on every sync.
+ *
+ * Keeping it apart from the submission means a sync that finds nothing new only writes this small
+ * entity, rather than the submission and all of its composite indexes. Only nextSyncDue is
+ * indexed, since that's the one property that's queried.
+ */
+@PersistenceCapable(identityType = IdentityType.APPLICATION, detachable = "true")
+public class VideoSyncState {
+  // The id of the VideoSubmission, so that a lookup is a key get.
+  @PrimaryKey
+  private String id;
+
+  // Null until the submission is first synced.
+  @Persistent
+  @Extension(vendorName = "datanucleus", key = "gae.unindexed", value = "true")
+  private Date lastSynced;
+
+  // The GData ETag of the video's entry as of the last sync.
+  @Persistent
+  @Extension(vendorName = "datanucleus", key = "gae.unindexed", value = "true")
+  private String etag;
+
+  // When the metadata sync should next look at the video; see SyncScheduler. Null means straight
+  // away.
+  @Persistent
+  private Date nextSyncDue;
+
+  // The latest view count. VideoSubmission keeps a copy for sorting, which is allowed to lag.
+  @Persistent
+  @Extension(vendorName = "datanucleus", key = "gae.unindexed", value = "true")
+  private Long viewCount = -1L;
+
+  public VideoSyncState(String submissionId) {
+    this.id = submissionId;
+  }
+
+  /**
+   * Creates the state for a new submission, which is due to be synced straight away.
+   */
+  public VideoSyncState(VideoSubmission submission) {
+    this.id = submission.getId();
+    this.nextSyncDue = submission.getCreated();
+    this.viewCount = submission.getViewCount();
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public Date getLastSynced() {
+    return lastSynced;
+  }
+
+  public void setLastSynced(Date lastSynced) {
+    this.lastSynced = lastSynced;
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  public void setEtag(String etag) {
+    this.etag = etag;
+  }
+
+  public Date getNextSyncDue() {
+    return nextSyncDue;
+  }
+
+  public void setNextSyncDue(Date nextSyncDue) {
+    this.nextSyncDue = nextSyncDue;
+  }
+
+  public long getViewCount() {
+    return viewCount == null ? -1 : viewCount.longValue();
+  }
+
+  public void setViewCount(long viewCount) {
+    this.viewCount = viewCount;
+  }
+}
@@ -21,8 +21,6 @@ import java.security.GeneralSecurityException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.jdo.PersistenceManager;
-import javax.jdo.PersistenceManagerFactory;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -47,16 +45,12 @@ public class PersistPicasaAuthSubToken extends HttpServlet {
   @Inject
   private Util util;
   @Inject
-  private PersistenceManagerFactory pmf;
-  @Inject
   private PicasaApiHelper picasaApi;
   @Inject
   private AdminConfigDao adminConfigDao;
 
   @Override
   public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-    PersistenceManager pm = pmf.getPersistenceManager();
-
     try {
       String token = AuthSubUtil.getTokenFromReply(req.getQueryString());
       token = URLDecoder.decode(token, "UTF-8");
@@ -81,7 +75,8 @@ public class PersistPicasaAuthSubToken extends HttpServlet {
       adminConfig.setPicasaAuthSubToken(sessionToken);
       adminConfig.setPicasaUsername(picasaUsername);
 
-      pm.makePersistent(adminConfig);
+      // Goes through the DAO so that every instance's cached copy is invalidated.
+      adminConfigDao.save(adminConfig);
 
       resp.sendRedirect(util.addNamespaceParamIfNeeded("/admin#configuration"));
     } catch (ResourceNotFoundException e) {
@@ -100,8 +95,6 @@ public class PersistPicasaAuthSubToken extends HttpServlet {
     } catch (ServiceException e) {
       log.log(Level.WARNING, "", e);
       resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
-    } finally {
-      pm.close();
     }
   }
 }
\ No newline at end of file
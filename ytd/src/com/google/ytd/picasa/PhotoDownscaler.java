@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytd.picasa;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.ImagesServiceFailureException;
+import com.google.appengine.api.images.InputSettings;
+import com.google.appengine.api.images.OutputSettings;
+import com.google.appengine.api.images.Transform;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.ytd.dao.BlobDao;
+import com.google.ytd.model.PhotoEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shrinks a photo that's still in the Blobstore before it's uploaded to Picasa, so that large phone
+ * photos take fewer chunks to upload and less space while they wait.
+ *
+ * Only JPEGs whose longer edge is over the configured maximum are touched. Their dimensions are
+ * read from the JPEG header, so photos that are already small enough cost a single small Blobstore
+ * read. The rest are resized and recompressed by the Images service, and the result replaces the
+ * original blob if it's any smaller. The original blob is left for the caller to delete once the
+ * PhotoEntry pointing at its replacement has been saved.
+ */
+@Singleton
+public class PhotoDownscaler {
+  private static final Logger LOG = Logger.getLogger(PhotoDownscaler.class.getName());
+
+  private static final int JPEG_QUALITY = 85;
+
+  private BlobDao blobDao = null;
+
+  @Inject
+  public PhotoDownscaler(BlobDao blobDao) {
+    this.blobDao = blobDao;
+  }
+
+  /**
+   * @param maxEdge
+   *          The most pixels the longer edge of the photo may have, or 0 to leave photos alone.
+   * @return The key of the original blob if the photo's blob was replaced with a smaller one, or
+   *         null if it wasn't. The PhotoEntry still needs to be saved, and the original blob
+   *         deleted after that.
+   */
+  public BlobKey downscale(PhotoEntry photoEntry, int maxEdge) {
+    BlobKey blobKey = photoEntry.getBlobKey();
+    if (maxEdge <= 0 || blobKey == null) {
+      return null;
+    }
+
+    try {
+      int[] size = getJpegSize(new BlobstoreInputStream(blobKey));
+      if (size == null || Math.max(size[0], size[1]) <= maxEdge) {
+        return null;
+      }
+
+      LOG.info(String.format("Downscaling %dx%d photo id '%s' to fit in %d pixels.", size[0],
+          size[1], photoEntry.getId(), maxEdge));
+
+      ImagesService imagesService = ImagesServiceFactory.getImagesService();
+      Transform resize = ImagesServiceFactory.makeResize(maxEdge, maxEdge);
+      // The Images service drops EXIF data, so the rotation it describes is applied instead.
+      InputSettings inputSettings = new InputSettings();
+      inputSettings.setOrientationCorrection(InputSettings.OrientationCorrection
+          .CORRECT_ORIENTATION);
+      OutputSettings outputSettings = new OutputSettings(ImagesService.OutputEncoding.JPEG);
+      outputSettings.setQuality(JPEG_QUALITY);
+
+      Image resized = imagesService.applyTransform(resize, ImagesServiceFactory
+          .makeImageFromBlob(blobKey), inputSettings, outputSettings);
+      byte[] data = resized.getImageData();
+
+      if (data.length >= photoEntry.getOriginalFileSize()) {
+        LOG.info(String.format("Downscaled photo id '%s' is no smaller; keeping the original.",
+            photoEntry.getId()));
+        return null;
+      }
+
+      String fileName = photoEntry.getOriginalFileName();
+      BlobInfo blobInfo = blobDao.save("image/jpeg", fileName == null ? "unknown" : fileName,
+          new ByteArrayInputStream(data));
+      photoEntry.setBlobKey(blobInfo.getBlobKey());
+      photoEntry.setFormat("image/jpeg");
+      photoEntry.setOriginalFileSize(blobInfo.getSize());
+
+      return blobKey;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "", e);
+    } catch (IllegalArgumentException e) {
+      // The Images service couldn't make sense of the photo.
+      LOG.log(Level.WARNING, "", e);
+    } catch (ImagesServiceFailureException e) {
+      LOG.log(Level.WARNING, "", e);
+    }
+
+    // The original is uploaded as it is.
+    return null;
+  }
+
+  /**
+   * Reads the dimensions from a JPEG's start of frame marker, skipping over any segments before it.
+   *
+   * @return The width and height, or null if the data isn't a JPEG, or its size couldn't be found.
+   */
+  public static int[] getJpegSize(InputStream in) throws IOException {
+    try {
+      if (in.read() != 0xFF || in.read() != 0xD8) {
+        return null;
+      }
+
+      while (true) {
+        int marker = in.read();
+        if (marker < 0) {
+          return null;
+        }
+        if (marker != 0xFF) {
+          continue;
+        }
+
+        int type = in.read();
+        while (type == 0xFF) {
+          // Markers may be padded with any number of 0xFFs.
+          type = in.read();
+        }
+        if (type < 0 || type == 0xD9 || type == 0xDA) {
+          // The image data, or the end of the image, has been reached without a frame header.
+          return null;
+        }
+        if (type == 0x01 || (type >= 0xD0 && type <= 0xD7)) {
+          // Markers that stand alone, without a length.
+          continue;
+        }
+
+        int length = readShort(in);
+        if (length < 2) {
+          return null;
+        }
+
+        // Every start of frame marker but DHT, JPG and DAC.
+        if (type >= 0xC0 && type <= 0xCF && type != 0xC4 && type != 0xC8 && type != 0xCC) {
+          in.read(); // Sample precision.
+          int height = readShort(in);
+          int width = readShort(in);
+          return width > 0 && height > 0 ? new int[] { width, height } : null;
+        }
+
+        skipFully(in, length - 2);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static int readShort(InputStream in) throws IOException {
+    int high = in.read();
+    int low = in.read();
+    if (high < 0 || low < 0) {
+      throw new IOException("Unexpected end of JPEG header.");
+    }
+    return (high << 8) | low;
+  }
+
+  private static void skipFully(InputStream in, long bytes) throws IOException {
+    while (bytes > 0) {
+      long skipped = in.skip(bytes);
+      if (skipped <= 0) {
+        if (in.read() < 0) {
+          throw new IOException("Unexpected end of JPEG header.");
+        }
+        skipped = 1;
+      }
+      bytes -= skipped;
+    }
+  }
+}
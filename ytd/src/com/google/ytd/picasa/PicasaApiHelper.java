@@ -16,8 +16,7 @@
 
 package com.google.ytd.picasa;
 
-import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
 import com.google.appengine.api.utils.SystemProperty;
 import com.google.gdata.client.photos.PicasawebService;
 import com.google.gdata.data.Link;
@@ -39,10 +38,12 @@ import com.google.ytd.util.Util;
 import org.apache.commons.lang.StringEscapeUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
@@ -77,22 +78,21 @@ public class PicasaApiHelper {
   // The connect + read timeout needs to be <= 10 seconds, due to App Engine limitations.
   private static final int CONNECT_TIMEOUT = 1000 * 2; // In milliseconds
   private static final int READ_TIMEOUT = 1000 * 8; // In milliseconds
-  // The size of each resumable upload chunk we send. Due to App Engine limitations, this needs to
-  // be less than 1MB.
-  private static final int CHUNK_SIZE = 950 * 1024; // 950KB
 
   private PicasawebService service = null;
   private Util util = null;
   private AdminConfigDao adminConfigDao = null;
   private DataChunkDao dataChunkDao = null;
+  private UploadChunkSizer chunkSizer = null;
 
   @Inject
   public PicasaApiHelper(AdminConfigDao adminConfigDao, AssignmentDao assignmentDao,
-      DataChunkDao dataChunkDao) {
+      DataChunkDao dataChunkDao, UploadChunkSizer chunkSizer) {
     this.service = new PicasawebService(Util.CLIENT_ID_PREFIX + SystemProperty.applicationId.get());
     this.util = Util.get();
     this.adminConfigDao = adminConfigDao;
     this.dataChunkDao = dataChunkDao;
+    this.chunkSizer = chunkSizer;
 
     setAuthSubTokenFromConfig();
 
@@ -322,111 +322,177 @@ public class PicasaApiHelper {
     return null;
   }
   
-  public PhotoEntry doResumableUpload(com.google.ytd.model.PhotoEntry photoEntry)
-      throws IllegalArgumentException {
+  /**
+   * Asks Picasa how much of a resumable upload it has received, with an empty PUT whose
+   * Content-Range is "bytes &#42;/&#42;". This is only needed when the number isn't already known,
+   * e.g. after a failed chunk.
+   *
+   * @throws IOException If the request failed in a way that's worth retrying later.
+   * @throws IllegalArgumentException If the upload can't be carried on with.
+   */
+  public ResumableUploadStatus getResumableUploadStatus(
+      com.google.ytd.model.PhotoEntry photoEntry) throws IOException, ServiceException {
+    HttpURLConnection connection = openResumableUploadConnection(photoEntry);
+    connection.setRequestProperty("Content-Range", "bytes */*");
+
+    return readResumableUploadStatus(connection, photoEntry);
+  }
+
+  /**
+   * Sends the next chunk of a resumable upload, starting at the given byte, which must be the
+   * number of bytes Picasa already has. The chunk is sized by UploadChunkSizer, and the size to use
+   * for the next one is recorded on the PhotoEntry, even if this one times out.
+   *
+   * @throws IOException If the request failed in a way that's worth retrying later.
+   * @throws IllegalArgumentException If the upload can't be carried on with.
+   */
+  public ResumableUploadStatus uploadChunk(com.google.ytd.model.PhotoEntry photoEntry,
+      long firstByte) throws IOException, ServiceException {
+    if (firstByte >= photoEntry.getOriginalFileSize()) {
+      throw new IllegalArgumentException(String.format("PhotoEntry with id '%s' has no data "
+          + "after byte '%d'.", photoEntry.getId(), firstByte));
+    }
+
+    InputStream data;
+    if (photoEntry.getBlobKey() != null) {
+      data = new BlobstoreInputStream(photoEntry.getBlobKey(), firstByte);
+    } else {
+      // Photos emailed in before attachments were written to the Blobstore.
+      data = dataChunkDao.getInputStream(photoEntry.getId(), firstByte);
+    }
+
+    int chunkSize = chunkSizer.getChunkSize(photoEntry.getChunkSize());
+    long contentLength = Math.min(chunkSize, photoEntry.getOriginalFileSize() - firstByte);
+
+    String contentRangeHeader = String.format("bytes %d-%d/%d", firstByte,
+        firstByte + contentLength - 1, photoEntry.getOriginalFileSize());
+    LOG.info("Using the following for Content-Range header: " + contentRangeHeader);
+
+    long start = System.currentTimeMillis();
+    try {
+      HttpURLConnection connection = openResumableUploadConnection(photoEntry);
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Length", String.valueOf(contentLength));
+      connection.setRequestProperty("Content-Range", contentRangeHeader);
+
+      OutputStream outputStream = connection.getOutputStream();
+      long remaining = contentLength;
+      byte[] buffer = new byte[64 * 1024];
+      while (remaining > 0) {
+        int bytesRead = data.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (bytesRead < 0) {
+          throw new IllegalArgumentException(String.format("The data for PhotoEntry with id '%s' "
+              + "ends before byte '%d'.", photoEntry.getId(), firstByte + contentLength
+              - remaining));
+        }
+        outputStream.write(buffer, 0, bytesRead);
+        remaining -= bytesRead;
+      }
+      outputStream.close();
+
+      ResumableUploadStatus status = readResumableUploadStatus(connection, photoEntry);
+      long millis = System.currentTimeMillis() - start;
+      photoEntry.setChunkSize(chunkSizer.afterSuccess(chunkSize, contentLength, millis));
+      return status;
+    } catch (SocketTimeoutException e) {
+      photoEntry.setChunkSize(chunkSizer.afterTimeout(chunkSize));
+      throw e;
+    } finally {
+      data.close();
+    }
+  }
+
+  private HttpURLConnection openResumableUploadConnection(
+      com.google.ytd.model.PhotoEntry photoEntry) throws IOException {
     if (util.isNullOrEmpty(photoEntry.getResumableUploadUrl())) {
       throw new IllegalArgumentException(String.format("No resumable upload URL found for "
           + "PhotoEntry id '%s'.", photoEntry.getId()));
     }
 
+    URL url;
     try {
-      URL url = new URL(photoEntry.getResumableUploadUrl());
+      url = new URL(photoEntry.getResumableUploadUrl());
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException(e);
+    }
 
-      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-      connection.setInstanceFollowRedirects(false);
-      connection.setConnectTimeout(CONNECT_TIMEOUT);
-      connection.setReadTimeout(READ_TIMEOUT);
-      connection.setRequestMethod("PUT");
-
-      connection.setRequestProperty("Content-Range", "bytes */*");
-
-      // Response code 308 is specific to this use case and doesn't appear to have a
-      // HttpURLConnection constant.
-      if (connection.getResponseCode() == 308) {
-        long previousByte = 0;
-
-        String rangeHeader = connection.getHeaderField("Range");
-        if (!util.isNullOrEmpty(rangeHeader)) {
-          LOG.info("Range header in 308 response is " + rangeHeader);
-          
-          String[] rangeHeaderSplits = rangeHeader.split("-", 2);
-          if (rangeHeaderSplits.length == 2) {
-            previousByte = Long.valueOf(rangeHeaderSplits[1]).longValue() + 1;
-          }
-        }
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setInstanceFollowRedirects(false);
+    connection.setConnectTimeout(CONNECT_TIMEOUT);
+    connection.setReadTimeout(READ_TIMEOUT);
+    connection.setRequestMethod("PUT");
 
-        connection = (HttpURLConnection) url.openConnection();
-        connection.setInstanceFollowRedirects(false);
-        connection.setDoOutput(true);
-        connection.setConnectTimeout(CONNECT_TIMEOUT);
-        connection.setReadTimeout(READ_TIMEOUT);
-        connection.setRequestMethod("PUT");
-        
-        byte[] bytes;
-        String contentRangeHeader;
-        
-        if (photoEntry.getBlobKey() != null) {
-          long lastByte = previousByte + CHUNK_SIZE;
-          if (lastByte > (photoEntry.getOriginalFileSize() - 1)) {
-            lastByte = photoEntry.getOriginalFileSize() - 1;
-          }
-
-          contentRangeHeader = String.format("bytes %d-%d/%d", previousByte, lastByte,
-            photoEntry.getOriginalFileSize());
-          
-          BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-          bytes = blobstoreService.fetchData(photoEntry.getBlobKey(), previousByte, lastByte);
-        } else {
-          bytes = dataChunkDao.getBytes(photoEntry.getId(), previousByte);
-          
-          if (bytes == null) {
-            throw new IllegalArgumentException(String.format("PhotoEntry with id '%s' does not "
-                + "have a valid blob key. Additionally, there is no DataChunk entry for the "
-                + "initial byte '%d'.", photoEntry.getId(), previousByte));
-          }
-          
-          contentRangeHeader = String.format("bytes %d-%d/%d", previousByte,
-              previousByte + bytes.length - 1, photoEntry.getOriginalFileSize());
-        }
-        
-        connection.setRequestProperty("Content-Length", String.valueOf(bytes.length));
-        
-        LOG.info("Using the following for Content-Range header: " + contentRangeHeader);
-        connection.setRequestProperty("Content-Range", contentRangeHeader);
+    return connection;
+  }
 
-        OutputStream outputStream = connection.getOutputStream();
-        outputStream.write(bytes);
-        outputStream.close();
+  private ResumableUploadStatus readResumableUploadStatus(HttpURLConnection connection,
+      com.google.ytd.model.PhotoEntry photoEntry) throws IOException, ServiceException {
+    int responseCode = connection.getResponseCode();
 
-        if (connection.getResponseCode() == HttpURLConnection.HTTP_CREATED) {
-          LOG.info("Resumable upload is complete and successful.");
+    // Response code 308 is specific to this use case and doesn't appear to have a
+    // HttpURLConnection constant.
+    if (responseCode == 308) {
+      long uploadedBytes = 0;
 
-          return (PhotoEntry) ParseUtil.readEntry(new ParseSource(connection.getInputStream()));
-        }
-      } else if (connection.getResponseCode() == HttpURLConnection.HTTP_CREATED) {
-        // It's possible that the Picasa upload associated with the specific resumable upload URL
-        // had previously completed successfully. In that case, the response to the initial */* PUT
-        // will be a 201 Created with the new PhotoEntry. This is probably an edge case.
-        LOG.info("Resumable upload is complete and successful.");
+      String rangeHeader = connection.getHeaderField("Range");
+      if (!util.isNullOrEmpty(rangeHeader)) {
+        LOG.info("Range header in 308 response is " + rangeHeader);
 
-        return (PhotoEntry) ParseUtil.readEntry(new ParseSource(connection.getInputStream()));
-      } else {
-        // The IllegalArgumentException should be treated by the calling code as
-        // something that is not recoverable, which is to say the resumable upload attempt
-        // should be stopped.
-        throw new IllegalArgumentException(String.format("HTTP POST to %s returned status %d (%s).",
-            url.toString(), connection.getResponseCode(), connection.getResponseMessage()));
+        String[] rangeHeaderSplits = rangeHeader.split("-", 2);
+        if (rangeHeaderSplits.length == 2) {
+          uploadedBytes = Long.valueOf(rangeHeaderSplits[1]).longValue() + 1;
+        }
       }
-    } catch (MalformedURLException e) {
-      LOG.log(Level.WARNING, "", e);
-      
-      throw new IllegalArgumentException(e);
-    } catch (IOException e) {
-      LOG.log(Level.WARNING, "", e);
-    } catch (ServiceException e) {
-      LOG.log(Level.WARNING, "", e);
+
+      return new ResumableUploadStatus(uploadedBytes, null);
+    } else if (responseCode == HttpURLConnection.HTTP_CREATED
+        || responseCode == HttpURLConnection.HTTP_OK) {
+      // This is also the answer to a status probe if the upload had already completed.
+      LOG.info("Resumable upload is complete and successful.");
+
+      PhotoEntry picasaPhoto = (PhotoEntry) ParseUtil.readEntry(new ParseSource(connection
+          .getInputStream()));
+      return new ResumableUploadStatus(photoEntry.getOriginalFileSize(), picasaPhoto);
+    } else if (responseCode >= 500) {
+      throw new IOException(String.format("HTTP PUT to %s returned status %d (%s).", connection
+          .getURL(), responseCode, connection.getResponseMessage()));
+    } else {
+      // The IllegalArgumentException should be treated by the calling code as
+      // something that is not recoverable, which is to say the resumable upload attempt
+      // should be stopped.
+      throw new IllegalArgumentException(String.format("HTTP PUT to %s returned status %d (%s).",
+          connection.getURL(), responseCode, connection.getResponseMessage()));
     }
+  }
 
-    return null;
+  /**
+   * Where a resumable upload stands after a request.
+   */
+  public static class ResumableUploadStatus {
+    private long uploadedBytes = 0;
+    private PhotoEntry photo = null;
+
+    private ResumableUploadStatus(long uploadedBytes, PhotoEntry photo) {
+      this.uploadedBytes = uploadedBytes;
+      this.photo = photo;
+    }
+
+    /**
+     * @return The number of bytes Picasa has received so far.
+     */
+    public long getUploadedBytes() {
+      return uploadedBytes;
+    }
+
+    /**
+     * @return The new Picasa photo once the upload is complete, or null until then.
+     */
+    public PhotoEntry getPhoto() {
+      return photo;
+    }
+
+    public boolean isComplete() {
+      return photo != null;
+    }
   }
-}
\ No newline at end of file
+}
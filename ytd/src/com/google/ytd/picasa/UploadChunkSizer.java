@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytd.picasa;
+
+import com.google.inject.Singleton;
+
+/**
+ * Picks the size of each chunk of a Picasa resumable upload from how quickly the upload's earlier
+ * chunks went.
+ *
+ * Each chunk is sized to take about TARGET_MILLIS at the rate measured for the last one, which
+ * leaves room under the read timeout for the link to slow down. A chunk is at most twice the size
+ * of the one before it, and a timeout halves it.
+ */
+@Singleton
+public class UploadChunkSizer {
+  // Due to a bug in the Picasa resumable uploads API, every chunk but the last has to be a
+  // multiple of this.
+  public static final int UNIT = 256 * 1024;
+  public static final int MIN_CHUNK_SIZE = UNIT;
+  // Well under the URL Fetch limit on request sizes.
+  public static final int MAX_CHUNK_SIZE = 16 * UNIT;
+  // Used until an upload has been measured; the same as the old fixed size.
+  public static final int INITIAL_CHUNK_SIZE = 3 * UNIT;
+
+  // Half the read timeout.
+  private static final long TARGET_MILLIS = 4 * 1000;
+
+  /**
+   * @param chunkSize
+   *          The size chosen for the upload so far, or null if none has been.
+   */
+  public int getChunkSize(Integer chunkSize) {
+    if (chunkSize == null) {
+      return INITIAL_CHUNK_SIZE;
+    }
+    return clamp(chunkSize);
+  }
+
+  /**
+   * @param bytes
+   *          How much the chunk that was just sent held.
+   * @param millis
+   *          How long it took to send it and get a response.
+   * @return The size of the next chunk.
+   */
+  public int afterSuccess(int chunkSize, long bytes, long millis) {
+    if (bytes < UNIT) {
+      // Too little to say anything about the link; this is usually the last chunk anyway.
+      return clamp(chunkSize);
+    }
+
+    double bytesPerMilli = bytes / (double) Math.max(1, millis);
+    long size = Math.min((long) (bytesPerMilli * TARGET_MILLIS), 2L * chunkSize);
+    return clamp(size);
+  }
+
+  /**
+   * @return The size of the next chunk, after one of chunkSize timed out.
+   */
+  public int afterTimeout(int chunkSize) {
+    return clamp(chunkSize / 2);
+  }
+
+  private int clamp(long size) {
+    long units = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size)) / UNIT;
+    return (int) units * UNIT;
+  }
+}
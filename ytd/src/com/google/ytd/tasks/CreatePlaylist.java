@@ -26,6 +26,7 @@ import com.google.ytd.dao.AssignmentDao;
 import com.google.ytd.model.Assignment;
 import com.google.ytd.util.Util;
 import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
 
 import java.io.IOException;
 import java.util.logging.Level;
@@ -45,7 +46,7 @@ public class CreatePlaylist extends HttpServlet {
   @Inject
   private AssignmentDao assignmentDao;
   @Inject
-  private YouTubeApiHelper youtubeApi;
+  private YouTubeClientPool youTubeClientPool;
   @Inject
   private AdminConfigDao adminConfigDao;
 
@@ -84,7 +85,7 @@ public class CreatePlaylist extends HttpServlet {
             String.format("Could not create new playlist for assignment '%s' because no YouTube "
                 + "AuthSub token was found in the config.", assignmentId));
       }
-      youtubeApi.setAuthSubToken(token);
+      YouTubeApiHelper youtubeApi = youTubeClientPool.getAuthSubClient(token);
 
       if (util.isNullOrEmpty(adminConfigDao.getAdminConfig().getDeveloperKey())) {
         throw new IllegalArgumentException(
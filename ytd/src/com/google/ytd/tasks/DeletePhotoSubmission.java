@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytd.tasks;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.ytd.dao.PhotoSubmissionDao;
+import com.google.ytd.util.Util;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Carries on deleting a PhotoSubmission that had too many entries to delete in one request.
+ */
+@Singleton
+public class DeletePhotoSubmission extends HttpServlet {
+  private static final Logger LOG = Logger.getLogger(DeletePhotoSubmission.class.getName());
+
+  @Inject
+  private Util util;
+  @Inject
+  private PhotoSubmissionDao photoSubmissionDao;
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    LOG.info("Starting up...");
+
+    try {
+      String photoSubmissionId = request.getParameter("id");
+      if (util.isNullOrEmpty(photoSubmissionId)) {
+        throw new IllegalArgumentException("Required parameter 'id' is null or empty.");
+      }
+
+      photoSubmissionDao.deleteSubmission(photoSubmissionId, request.getParameter("cursor"));
+    } catch (JDOObjectNotFoundException e) {
+      // Already deleted, most likely by an earlier run of this same task.
+      LOG.log(Level.WARNING, "", e);
+    } catch (IllegalArgumentException e) {
+      // We don't want to send an error response here, since that will result
+      // in the TaskQueue retrying and this is not a transient error.
+      LOG.log(Level.WARNING, "", e);
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytd.tasks;
+
+import com.google.appengine.api.channel.ChannelFailureException;
+import com.google.appengine.api.channel.ChannelMessage;
+import com.google.appengine.api.channel.ChannelService;
+import com.google.appengine.api.channel.ChannelServiceFactory;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceException;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.ytd.dao.VideoSubmissionDao;
+import com.google.ytd.model.PendingModeration;
+import com.google.ytd.model.VideoSubmission;
+import com.google.ytd.util.Util;
+import com.google.ytd.youtube.VideoModerationHelper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Drains the PendingModerations of one VideoSubmission (the "id" parameter) or several (a comma
+ * separated "ids" parameter), carrying out the YouTube and email side effects of their latest
+ * moderation decisions. Several submissions are moderated together, so that their playlist and
+ * moderation changes can be sent to YouTube in batches.
+ *
+ * A step that fails leaves the PendingModeration in place and fails the task, so that the task
+ * queue retries it with backoff; steps that already succeeded are not repeated. After
+ * MAX_ATTEMPTS the PendingModeration is dropped. Tasks queued by a bulk update also report their
+ * progress over the admin's channel, if any.
+ */
+@Singleton
+public class ModerateVideoSubmission extends HttpServlet {
+  private static final Logger LOG = Logger.getLogger(ModerateVideoSubmission.class.getName());
+
+  // The memcache counter of finished tasks for a batch; set to 0 by whoever queues the batch.
+  public static final String PROGRESS_KEY_PREFIX = "bulkModeration:";
+  private static final int MAX_ATTEMPTS = 10;
+
+  private ChannelService channelService = ChannelServiceFactory.getChannelService();
+  private MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  @Inject
+  private Util util;
+  @Inject
+  private VideoSubmissionDao videoSubmissionDao;
+  @Inject
+  private VideoModerationHelper videoModerationHelper;
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    LOG.info("Starting up...");
+    String channelId = request.getParameter("channelId");
+
+    try {
+      List<String> ids = new ArrayList<String>();
+      if (!util.isNullOrEmpty(request.getParameter("ids"))) {
+        ids.addAll(Arrays.asList(request.getParameter("ids").split(",")));
+      } else if (!util.isNullOrEmpty(request.getParameter("id"))) {
+        ids.add(request.getParameter("id"));
+      } else {
+        throw new IllegalArgumentException("Required parameter 'id' or 'ids' is null or empty.");
+      }
+
+      Map<String, VideoSubmission> submissions = videoSubmissionDao.getSubmissionsByIds(ids);
+
+      List<VideoSubmission> toModerate = new ArrayList<VideoSubmission>();
+      Map<String, PendingModeration> latestModerations = new HashMap<String, PendingModeration>();
+      Map<String, List<String>> completedSteps = new HashMap<String, List<String>>();
+      for (String id : ids) {
+        VideoSubmission submission = submissions.get(id);
+
+        List<PendingModeration> pendingModerations = videoSubmissionDao.getPendingModerations(id);
+        if (pendingModerations.isEmpty()) {
+          LOG.info(String.format("Nothing left to moderate for VideoSubmission '%s'.", id));
+        } else if (submission == null) {
+          LOG.info(String.format("VideoSubmission '%s' no longer exists.", id));
+          videoSubmissionDao.deletePendingModerations(pendingModerations);
+        } else {
+          // Only the latest decision matters; anything older has been superseded by it.
+          PendingModeration latest = pendingModerations.remove(pendingModerations.size() - 1);
+          videoSubmissionDao.deletePendingModerations(pendingModerations);
+
+          if (latest.getStatus() != submission.getStatus()) {
+            LOG.info(String.format("VideoSubmission '%s' is now %s rather than %s; skipping.",
+                id, submission.getStatus(), latest.getStatus()));
+            videoSubmissionDao.deletePendingModerations(Arrays.asList(latest));
+          } else {
+            toModerate.add(submission);
+            latestModerations.put(id, latest);
+            completedSteps.put(id, latest.getCompletedSteps());
+          }
+        }
+      }
+
+      List<String> incomplete = new ArrayList<String>();
+      if (!toModerate.isEmpty()) {
+        Set<String> done = videoModerationHelper.applyStatuses(toModerate, completedSteps);
+
+        for (Map.Entry<String, PendingModeration> entry : latestModerations.entrySet()) {
+          String id = entry.getKey();
+          PendingModeration latest = entry.getValue();
+
+          if (done.contains(id)) {
+            videoSubmissionDao.deletePendingModerations(Arrays.asList(latest));
+            continue;
+          }
+
+          latest.setAttempts(latest.getAttempts() + 1);
+
+          if (latest.getAttempts() >= MAX_ATTEMPTS) {
+            LOG.severe(String.format("Giving up on moderating VideoSubmission '%s' after %d "
+                + "attempts. Completed steps: %s", id, latest.getAttempts(),
+                latest.getCompletedSteps()));
+            videoSubmissionDao.deletePendingModerations(Arrays.asList(latest));
+          } else {
+            videoSubmissionDao.savePendingModeration(latest);
+            incomplete.add(id);
+          }
+        }
+      }
+
+      // Submissions that are done have had their PendingModerations deleted, so a retry only
+      // repeats the incomplete ones.
+      if (!incomplete.isEmpty()) {
+        throw new IllegalStateException(String.format("Moderation of VideoSubmissions %s is "
+            + "incomplete.", incomplete));
+      }
+
+      reportProgress(channelId, request.getParameter("batchId"), request.getParameter("total"),
+          ids.size());
+    } catch (IllegalArgumentException e) {
+      // We don't want to send an error response here, since that will result
+      // in the TaskQueue retrying and this is not a transient error.
+      LOG.log(Level.WARNING, "", e);
+    } catch (IllegalStateException e) {
+      LOG.log(Level.WARNING, "", e);
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+    }
+  }
+
+  private void reportProgress(String channelId, String batchId, String total, int count) {
+    if (util.isNullOrEmpty(channelId) || util.isNullOrEmpty(batchId)) {
+      return;
+    }
+
+    try {
+      Long done = memcache.increment(PROGRESS_KEY_PREFIX + batchId, count);
+      if (done == null) {
+        // The counter was evicted, so there's no meaningful progress to report.
+        return;
+      }
+
+      channelService.sendMessage(new ChannelMessage(channelId, String.format(
+          "Moderated %d of %s video submissions.", done, total)));
+    } catch (MemcacheServiceException e) {
+      LOG.log(Level.WARNING, "", e);
+    } catch (ChannelFailureException e) {
+      LOG.log(Level.WARNING, "", e);
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.google.ytd.tasks;
 
 import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.appengine.api.taskqueue.Queue;
@@ -26,15 +27,22 @@ import com.google.appengine.api.taskqueue.TaskOptions.Method;
 import static com.google.appengine.api.taskqueue.TaskOptions.Builder.*;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.ytd.dao.AdminConfigDao;
 import com.google.ytd.dao.AssignmentDao;
+import com.google.ytd.dao.PhotoHashDao;
 import com.google.ytd.dao.PhotoSubmissionDao;
+import com.google.ytd.dao.SubmissionCounterDao;
 import com.google.ytd.model.Assignment;
 import com.google.ytd.model.PhotoEntry;
+import com.google.ytd.model.PhotoHash;
 import com.google.ytd.model.PhotoSubmission;
+import com.google.ytd.picasa.PhotoDownscaler;
 import com.google.ytd.picasa.PicasaApiHelper;
+import com.google.ytd.util.EmailUtil;
 import com.google.ytd.util.Util;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,6 +64,16 @@ public class MoveToPicasa extends HttpServlet {
   private AssignmentDao assignmentDao;
   @Inject
   private PicasaApiHelper picasaApi;
+  @Inject
+  private AdminConfigDao adminConfigDao;
+  @Inject
+  private PhotoDownscaler photoDownscaler;
+  @Inject
+  private PhotoHashDao photoHashDao;
+  @Inject
+  private SubmissionCounterDao submissionCounterDao;
+  @Inject
+  private EmailUtil emailUtil;
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -101,7 +119,32 @@ public class MoveToPicasa extends HttpServlet {
       Double latitude = photoSubmission.getLatitude();
       Double longitude = photoSubmission.getLongitude();
 
+      int maxPhotoEdge = adminConfigDao.getAdminConfig().getMaxPhotoEdge();
+
       for (PhotoEntry photoEntry : photoSubmissionDao.getAllPhotos(photoSubmissionId)) {
+        if (!util.isNullOrEmpty(photoEntry.getPicasaUrl())) {
+          // Already taken care of by an earlier attempt at this task.
+          continue;
+        }
+
+        // Photos are only shared between submissions with the same submitter; see PhotoHash.
+        if (photoEntry.getSha256() != null
+            && !util.isNullOrEmpty(photoSubmission.getNotifyEmail())) {
+          PhotoEntry original = getUploadedDuplicate(photoSubmission, photoEntry);
+          if (original != null) {
+            linkToDuplicate(photoEntry, original, photoSubmission, blobstoreService);
+            continue;
+          }
+        }
+
+        // Has to happen before the upload session is started, since that's given the photo's size.
+        BlobKey originalBlobKey = photoDownscaler.downscale(photoEntry, maxPhotoEdge);
+        if (originalBlobKey != null) {
+          photoEntry = photoSubmissionDao.save(photoEntry);
+          // Only once the entry points at the smaller blob is it safe to let go of the original.
+          blobstoreService.delete(originalBlobKey);
+        }
+
         String uploadUrl = picasaApi.getResumableUploadUrl(photoEntry, title, description, albumId,
             latitude, longitude);
 
@@ -130,4 +173,61 @@ public class MoveToPicasa extends HttpServlet {
       response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
     }
   }
+
+  /**
+   * @return The entry whose Picasa photo has the same content as photoEntry, or null if no such
+   *         photo from the same submitter has finished uploading for the assignment.
+   */
+  private PhotoEntry getUploadedDuplicate(PhotoSubmission photoSubmission,
+      PhotoEntry photoEntry) {
+    PhotoHash photoHash = photoHashDao.getPhotoHash(photoSubmission.getAssignmentId(),
+        photoSubmission.getNotifyEmail(), photoEntry.getSha256());
+    if (photoHash == null) {
+      return null;
+    }
+
+    // The entry may have been deleted since, in which case the photo is uploaded again and
+    // becomes the one that's shared.
+    PhotoEntry original = photoSubmissionDao.getPhotoEntriesByIds(
+        Collections.singletonList(photoHash.getPhotoEntryId())).get(photoHash.getPhotoEntryId());
+    if (original == null || util.isNullOrEmpty(original.getPicasaUrl())) {
+      return null;
+    }
+
+    return original;
+  }
+
+  /**
+   * Points photoEntry at the Picasa photo of the submitter's earlier submission of the same photo,
+   * instead of uploading it again. Since there's only one Picasa photo, which sits in the album
+   * for its moderation status, the entry takes on that status too; it's the same photo from the
+   * same person, so the earlier moderation decision stands. The link is recorded in the photo's
+   * PhotoHash, which is how moderation finds every entry that shares the photo.
+   */
+  private void linkToDuplicate(PhotoEntry photoEntry, PhotoEntry original,
+      PhotoSubmission photoSubmission, BlobstoreService blobstoreService) {
+    LOG.info(String.format("Photo id '%s' is a duplicate of photo id '%s'; linking to '%s'.",
+        photoEntry.getId(), original.getId(), original.getPicasaUrl()));
+
+    // Counted only the first time, in case this task is retried after the link was recorded.
+    if (photoHashDao.addLinkedPhotoEntry(photoSubmission.getAssignmentId(), photoSubmission
+        .getNotifyEmail(), photoEntry.getSha256(), photoEntry.getId())) {
+      submissionCounterDao.increment(PhotoHash.class, photoSubmission.getAssignmentId(),
+          PhotoHash.DUPLICATE, 1);
+    }
+
+    photoEntry.setPicasaUrl(original.getPicasaUrl());
+    photoEntry.setThumbnailUrl(original.getThumbnailUrl());
+    photoEntry.setImageUrl(original.getImageUrl());
+    photoEntry.setStatus(original.getStatus());
+
+    if (photoEntry.getBlobKey() != null) {
+      blobstoreService.delete(photoEntry.getBlobKey());
+      photoEntry.setBlobKey(null);
+    }
+
+    photoSubmissionDao.save(photoEntry);
+
+    emailUtil.sendNewSubmissionEmail(photoEntry, photoSubmission);
+  }
 }
@@ -14,16 +14,28 @@
 
 package com.google.ytd.tasks;
 
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+
+import com.google.appengine.api.NamespaceManager;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
 import com.google.gdata.data.media.mediarss.MediaThumbnail;
+import com.google.gdata.util.ServiceException;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.ytd.dao.DataChunkDao;
+import com.google.ytd.dao.PhotoHashDao;
 import com.google.ytd.dao.PhotoSubmissionDao;
+import com.google.ytd.dao.SubmissionCounterDao;
 import com.google.ytd.model.PhotoEntry;
+import com.google.ytd.model.PhotoHash;
 import com.google.ytd.model.PhotoSubmission;
 import com.google.ytd.picasa.PicasaApiHelper;
+import com.google.ytd.picasa.PicasaApiHelper.ResumableUploadStatus;
 import com.google.ytd.util.EmailUtil;
 import com.google.ytd.util.Util;
 
@@ -35,10 +47,24 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+/**
+ * Drives a Picasa resumable upload.
+ *
+ * Chunks are sent back to back, and the number of bytes Picasa has acknowledged is saved after
+ * each one, so the upload never has to ask where it stands unless something went wrong. When the
+ * task has been running for MAX_RUN_MILLIS, the upload carries on in a new task straight away.
+ * Only real failures wait before the next attempt, with a delay that doubles each time.
+ */
 @Singleton
 public class PicasaUpload extends HttpServlet {
   private static final Logger LOG = Logger.getLogger(PicasaUpload.class.getName());
 
+  // Leaves plenty of the task request deadline for the chunk that's in progress.
+  private static final long MAX_RUN_MILLIS = 5 * 60 * 1000L;
+  private static final long MIN_BACKOFF_MILLIS = 10 * 1000L;
+  private static final long MAX_BACKOFF_MILLIS = 30 * 60 * 1000L;
+  private static final int MAX_FAILURES = 10;
+
   @Inject
   private Util util;
   @Inject
@@ -49,9 +75,14 @@ public class PicasaUpload extends HttpServlet {
   private EmailUtil emailUtil;
   @Inject
   private PicasaApiHelper picasaApi;
+  @Inject
+  private PhotoHashDao photoHashDao;
+  @Inject
+  private SubmissionCounterDao submissionCounterDao;
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long start = System.currentTimeMillis();
     LOG.info("Starting up...");
 
     try {
@@ -62,54 +93,153 @@ public class PicasaUpload extends HttpServlet {
         throw new IllegalArgumentException("Required parameter 'id' is null or empty.");
       }
 
+      int failures = 0;
+      if (!util.isNullOrEmpty(request.getParameter("failures"))) {
+        failures = Integer.parseInt(request.getParameter("failures"));
+      }
+
       LOG.info(String.format("Uploading photo id '%s' to Picasa.", photoEntryId));
 
       PhotoEntry photoEntry = photoSubmissionDao.getPhotoEntry(photoEntryId);
-
-      com.google.gdata.data.photos.PhotoEntry picasaPhoto = picasaApi.doResumableUpload(photoEntry);
-
-      if (picasaPhoto == null) {
-        // This is an expected exception, and is the mechanism for scheduling the next upload
-        // chunk, making use of TaskQueue's automatic rescheduling.
-        throw new IllegalStateException("The resumable upload is still in progress.");
+      if (photoEntry == null) {
+        throw new IllegalArgumentException(String.format("Unable to find PhotoEntry with id '%s'.",
+            photoEntryId));
+      }
+      if (!util.isNullOrEmpty(photoEntry.getPicasaUrl())) {
+        LOG.info(String.format("Photo id '%s' has already been uploaded.", photoEntryId));
+        return;
       }
 
-      photoEntry.setPicasaUrl(picasaPhoto.getEditLink().getHref());
-
-      // Let's use the smallest thumbnail from Picasa.
-      String thumbnailUrl = "";
-      int minWidth = Integer.MAX_VALUE;
-      for (MediaThumbnail thumbnail : picasaPhoto.getMediaGroup().getThumbnails()) {
-        int width = thumbnail.getWidth();
-        if (width < minWidth) {
-          minWidth = width;
-          thumbnailUrl = thumbnail.getUrl();
+      try {
+        ResumableUploadStatus status = null;
+        if (photoEntry.getUploadedBytes() == null || failures > 0) {
+          // After a failure, Picasa may have kept more or less of the last chunk than we know of.
+          status = picasaApi.getResumableUploadStatus(photoEntry);
+          photoEntry.setUploadedBytes(status.getUploadedBytes());
         }
-      }
-      photoEntry.setThumbnailUrl(thumbnailUrl);
-
-      photoEntry.setImageUrl(picasaPhoto.getMediaGroup().getContents().get(0).getUrl());
-      
-      if (photoEntry.getBlobKey() != null) {
-        BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-        blobstoreService.delete(photoEntry.getBlobKey());
-        photoEntry.setBlobKey(null);
-      }
-      
-      dataChunkDao.deleteChunks(photoEntryId);
 
-      photoSubmissionDao.save(photoEntry);
+        while (status == null || !status.isComplete()) {
+          if (System.currentTimeMillis() - start > MAX_RUN_MILLIS) {
+            photoSubmissionDao.save(photoEntry);
+            LOG.info(String.format("Continuing upload of photo id '%s' from byte %d in a new "
+                + "task.", photoEntryId, photoEntry.getUploadedBytes()));
+            // Named after the committed offset, so that a retry of this task that gets as far
+            // doesn't queue a second continuation.
+            queueUpload(photoEntryId, 0, 0, String.format("%s-at-%d", photoEntryId,
+                photoEntry.getUploadedBytes()));
+            return;
+          }
+
+          long uploadedBytes = photoEntry.getUploadedBytes();
+          status = picasaApi.uploadChunk(photoEntry, uploadedBytes);
+          if (!status.isComplete() && status.getUploadedBytes() <= uploadedBytes) {
+            throw new IOException(String.format("Picasa accepted none of the chunk starting at "
+                + "byte %d.", uploadedBytes));
+          }
+
+          photoEntry.setUploadedBytes(status.getUploadedBytes());
+          photoEntry = photoSubmissionDao.save(photoEntry);
+          // Anything that goes wrong from here on is a new problem.
+          failures = 0;
+        }
 
-      PhotoSubmission photoSubmission = photoSubmissionDao.getSubmissionById(
-          photoEntry.getSubmissionId());
-      emailUtil.sendNewSubmissionEmail(photoEntry, photoSubmission);
+        finishUpload(photoEntry, status.getPhoto());
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "", e);
+        // Keeps the smaller chunk size picked after a timeout.
+        photoSubmissionDao.save(photoEntry);
+        retry(photoEntryId, failures + 1);
+      } catch (ServiceException e) {
+        LOG.log(Level.WARNING, "", e);
+        retry(photoEntryId, failures + 1);
+      }
     } catch (IllegalArgumentException e) {
       // We don't want to send an error response here, since that will result
       // in the TaskQueue retrying and this is not a transient error.
       LOG.log(Level.WARNING, "", e);
-    } catch (IllegalStateException e) {
-      LOG.info(e.getMessage());
-      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+    }
+  }
+
+  private void finishUpload(PhotoEntry photoEntry,
+      com.google.gdata.data.photos.PhotoEntry picasaPhoto) {
+    photoEntry.setPicasaUrl(picasaPhoto.getEditLink().getHref());
+
+    // Let's use the smallest thumbnail from Picasa.
+    String thumbnailUrl = "";
+    int minWidth = Integer.MAX_VALUE;
+    for (MediaThumbnail thumbnail : picasaPhoto.getMediaGroup().getThumbnails()) {
+      int width = thumbnail.getWidth();
+      if (width < minWidth) {
+        minWidth = width;
+        thumbnailUrl = thumbnail.getUrl();
+      }
+    }
+    photoEntry.setThumbnailUrl(thumbnailUrl);
+
+    photoEntry.setImageUrl(picasaPhoto.getMediaGroup().getContents().get(0).getUrl());
+    
+    if (photoEntry.getBlobKey() != null) {
+      BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+      blobstoreService.delete(photoEntry.getBlobKey());
+      photoEntry.setBlobKey(null);
+    }
+    
+    dataChunkDao.deleteChunks(photoEntry.getId());
+
+    photoSubmissionDao.save(photoEntry);
+
+    PhotoSubmission photoSubmission = photoSubmissionDao.getSubmissionById(
+        photoEntry.getSubmissionId());
+
+    if (photoEntry.getSha256() != null && !util.isNullOrEmpty(photoSubmission.getNotifyEmail())) {
+      // The submitter's later submissions of the same photo can now link to this one instead of
+      // being uploaded. It's only counted the first time, in case this task is retried.
+      if (photoHashDao.create(new PhotoHash(photoSubmission.getAssignmentId(), photoSubmission
+          .getNotifyEmail(), photoEntry.getSha256(), photoEntry.getId()))) {
+        submissionCounterDao.increment(PhotoHash.class, photoSubmission.getAssignmentId(),
+            PhotoHash.UNIQUE, 1);
+      }
+    }
+
+    emailUtil.sendNewSubmissionEmail(photoEntry, photoSubmission);
+  }
+
+  private void retry(String photoEntryId, int failures) {
+    if (failures > MAX_FAILURES) {
+      throw new IllegalArgumentException(String.format("Giving up on uploading photo id '%s' "
+          + "after %d failed attempts.", photoEntryId, MAX_FAILURES));
+    }
+
+    long delay = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << (failures - 1));
+    LOG.info(String.format("Retrying upload of photo id '%s' in %d seconds.", photoEntryId,
+        delay / 1000));
+    queueUpload(photoEntryId, failures, delay, null);
+  }
+
+  /**
+   * @param name
+   *          The task's name before the namespace is added to it, or null for an unnamed task.
+   */
+  private void queueUpload(String photoEntryId, int failures, long delay, String name) {
+    String namespace = NamespaceManager.get();
+    if (namespace == null) {
+      namespace = "";
+    }
+
+    TaskOptions task = withUrl("/tasks/PicasaUpload").method(Method.POST).param("id",
+        photoEntryId).param("ns", namespace);
+    if (failures > 0) {
+      task.param("failures", String.valueOf(failures)).countdownMillis(delay);
+    }
+    if (name != null) {
+      task.taskName(String.format("upload-%s-%s", namespace, name).replaceAll("[^a-zA-Z0-9_-]",
+          "_"));
+    }
+
+    try {
+      QueueFactory.getDefaultQueue().add(task);
+    } catch (TaskAlreadyExistsException e) {
+      // Already queued by an earlier attempt.
     }
   }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytd.tasks;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.ytd.dao.SubmissionCounterDao;
+import com.google.ytd.model.PhotoEntry;
+import com.google.ytd.model.PhotoSubmission;
+import com.google.ytd.model.VideoSubmission;
+import com.google.ytd.util.Util;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Counts one batch of a kind's entities towards a rebuild of its submission counters. The
+ * rebuild is started, and each batch queued, by SubmissionCounterDao.
+ */
+@Singleton
+public class RebuildSubmissionCounters extends HttpServlet {
+  private static final Logger LOG = Logger.getLogger(RebuildSubmissionCounters.class.getName());
+
+  private static final Class<?>[] KINDS = { VideoSubmission.class, PhotoSubmission.class,
+      PhotoEntry.class };
+
+  @Inject
+  private Util util;
+  @Inject
+  private SubmissionCounterDao submissionCounterDao;
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    try {
+      String kindName = request.getParameter("kind");
+      if (util.isNullOrEmpty(kindName)) {
+        throw new IllegalArgumentException("Required parameter 'kind' is null or empty.");
+      }
+
+      Class<?> kind = null;
+      for (Class<?> candidate : KINDS) {
+        if (candidate.getSimpleName().equals(kindName)) {
+          kind = candidate;
+        }
+      }
+      if (kind == null) {
+        throw new IllegalArgumentException(String.format("Counts of '%s' can't be rebuilt.",
+            kindName));
+      }
+
+      submissionCounterDao.continueRebuild(kind);
+    } catch (IllegalArgumentException e) {
+      // We don't want to send an error response here, since that will result
+      // in the TaskQueue retrying and this is not a transient error.
+      LOG.log(Level.WARNING, "", e);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytd.tasks;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.ytd.dao.AdminConfigDao;
+import com.google.ytd.util.Util;
+import com.google.ytd.youtube.YouTubeApiHelper;
+import com.google.ytd.youtube.YouTubeClientPool;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Rebuilds the local PlaylistMembership index of a playlist from its YouTube feed.
+ */
+@Singleton
+public class ReconcilePlaylist extends HttpServlet {
+  private static final Logger LOG = Logger.getLogger(ReconcilePlaylist.class.getName());
+
+  @Inject
+  private Util util;
+  @Inject
+  private YouTubeClientPool youTubeClientPool;
+  @Inject
+  private AdminConfigDao adminConfigDao;
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    LOG.info("Starting up...");
+
+    try {
+      String playlistId = request.getParameter("playlistId");
+      if (util.isNullOrEmpty(playlistId)) {
+        throw new IllegalArgumentException("Required parameter 'playlistId' is null or empty.");
+      }
+
+      String token = adminConfigDao.getAdminConfig().getYouTubeAuthSubToken();
+      if (util.isNullOrEmpty(token)) {
+        throw new IllegalArgumentException(String.format("Could not reconcile playlist '%s' "
+            + "because no YouTube AuthSub token was found in the config.", playlistId));
+      }
+      YouTubeApiHelper youtubeApi = youTubeClientPool.getAuthSubClient(token);
+
+      // A failure isn't retried here; the next playlist update will queue another attempt.
+      if (!youtubeApi.reconcilePlaylist(playlistId)) {
+        LOG.warning(String.format("Could not reconcile playlist '%s'.", playlistId));
+      }
+    } catch (IllegalArgumentException e) {
+      // We don't want to send an error response here, since that will result
+      // in the TaskQueue retrying and this is not a transient error.
+      LOG.log(Level.WARNING, "", e);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.ytd.tasks;
+
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.ytd.dao.ResultPage;
+import com.google.ytd.dao.SyncPassDao;
+import com.google.ytd.dao.VideoSubmissionDao;
+import com.google.ytd.model.SyncPass;
+import com.google.ytd.model.SyncShard;
+import com.google.ytd.model.VideoSubmission;
+import com.google.ytd.model.VideoSyncState;
+import com.google.ytd.util.Util;
+import com.google.ytd.youtube.MetadataSyncHelper;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Syncs the VideoSubmissions in one shard of a metadata sync pass, checkpointing after every
+ * batch.
+ */
+@Singleton
+public class SyncMetadataShard extends HttpServlet {
+  private static final Logger LOG = Logger.getLogger(SyncMetadataShard.class.getName());
+
+  // The number of submissions synced between checkpoints. Submissions from the same uploader are
+  // only grouped within a batch, so this is one page of an uploads feed.
+  private static final int BATCH_SIZE = 50;
+  // Leaves plenty of the task request deadline for the batch that's in progress.
+  private static final long MAX_RUN_MILLIS = 5 * 60 * 1000L;
+
+  @Inject
+  private Util util;
+  @Inject
+  private SyncPassDao syncPassDao;
+  @Inject
+  private VideoSubmissionDao submissionDao;
+  @Inject
+  private MetadataSyncHelper metadataSyncHelper;
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long start = System.currentTimeMillis();
+
+    try {
+      String passId = request.getParameter("passId");
+      if (util.isNullOrEmpty(passId)) {
+        throw new IllegalArgumentException("Required parameter 'passId' is null or empty.");
+      }
+
+      String shardIndex = request.getParameter("shardIndex");
+      if (util.isNullOrEmpty(shardIndex)) {
+        throw new IllegalArgumentException("Required parameter 'shardIndex' is null or empty.");
+      }
+
+      SyncPass pass = syncPassDao.getPass(Long.parseLong(passId));
+      SyncShard shard = syncPassDao.getShard(Long.parseLong(passId), Integer.parseInt(shardIndex));
+      if (pass == null || shard == null) {
+        throw new IllegalArgumentException(String.format("Shard %s of sync pass %s not found.",
+            shardIndex, passId));
+      }
+
+      while (!shard.isDone()) {
+        if (System.currentTimeMillis() - start > MAX_RUN_MILLIS) {
+          LOG.info(String.format("Continuing shard %d of sync pass %d in a new task.", shard
+              .getShardIndex(), shard.getPassId()));
+          continueShard(shard);
+          return;
+        }
+
+        int limit = Math.min(BATCH_SIZE, shard.getSize() - shard.getSynced());
+        ResultPage<String> page = metadataSyncHelper.getSubmissionIds(pass, limit, shard
+            .getCheckpoint());
+
+        // Submissions that have been synced since the pass started, e.g. by an earlier attempt at
+        // this batch, are left alone.
+        Map<String, VideoSubmission> submissions = submissionDao.getSubmissionsByIds(page
+            .getResults());
+        Map<String, VideoSyncState> syncStates = submissionDao.getSyncStates(submissions.keySet());
+
+        List<VideoSubmission> due = new ArrayList<VideoSubmission>();
+        for (VideoSubmission submission : submissions.values()) {
+          if (metadataSyncHelper.isDue(syncStates.get(submission.getId()), pass)) {
+            due.add(submission);
+          }
+        }
+        metadataSyncHelper.sync(due, syncStates);
+
+        boolean done = !page.hasMore() || shard.getSynced() + page.getResults().size() >= shard
+            .getSize();
+        shard.checkpoint(page.getCursor(), page.getResults().size(), done);
+        shard = syncPassDao.saveShard(shard);
+      }
+
+      LOG.info(String.format("Finished shard %d of sync pass %d; %d videos synced.", shard
+          .getShardIndex(), shard.getPassId(), shard.getSynced()));
+      syncPassDao.finishIfComplete(shard.getPassId());
+    } catch (IllegalArgumentException e) {
+      // We don't want to send an error response here, since that will result
+      // in the TaskQueue retrying and this is not a transient error.
+      LOG.log(Level.WARNING, "", e);
+    }
+  }
+
+  /**
+   * Queues the rest of the shard. The task is named after the last checkpoint, so a retry of this
+   * task that reaches the same point doesn't queue a second continuation.
+   */
+  private void continueShard(SyncShard shard) {
+    String namespace = NamespaceManager.get();
+    if (namespace == null) {
+      namespace = "";
+    }
+
+    String taskName = String.format("sync-%s-%d-shard-%d-at-%d", namespace, shard.getPassId(),
+        shard.getShardIndex(), shard.getSynced()).replaceAll("[^a-zA-Z0-9_-]", "_");
+
+    try {
+      QueueFactory.getDefaultQueue().add(withUrl("/tasks/SyncMetadataShard").method(Method.POST)
+          .taskName(taskName).param("passId", String.valueOf(shard.getPassId())).param(
+              "shardIndex", String.valueOf(shard.getShardIndex())).param("ns", namespace));
+    } catch (TaskAlreadyExistsException e) {
+      // Already queued by an earlier attempt.
+    }
+  }
+}
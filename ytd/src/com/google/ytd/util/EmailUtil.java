@@ -1,14 +1,9 @@
 package com.google.ytd.util;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.mail.BodyPart;
-import javax.mail.MessagingException;
-import javax.mail.internet.MimeMultipart;
-
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.appengine.api.mail.MailService;
@@ -230,31 +225,4 @@ public class EmailUtil {
       log.log(Level.WARNING, "", e);
     }
   }
-  
-  public ArrayList<BodyPart> getAllMIMEParts(MimeMultipart mimePart) {
-    ArrayList<BodyPart> parts = new ArrayList<BodyPart>();
-    
-    try {
-      for (int i = 0; i < mimePart.getCount(); i++) {
-        BodyPart bodyPart = mimePart.getBodyPart(i);
-        log.info("Subpart's content is: " + bodyPart.getContentType());
-        
-        if (bodyPart.getContentType().toLowerCase().startsWith("multipart/")) {
-          parts.addAll(getAllMIMEParts((MimeMultipart) bodyPart.getContent()));
-        } else {
-          parts.add(bodyPart);
-        }
-      }
-    } catch (MessagingException e) {
-      log.log(Level.WARNING, "", e);
-    } catch (IOException e) {
-      log.log(Level.WARNING, "", e);
-    } catch (ClassCastException e) {
-      // I am not 100% sure that the casts will all work here, so let's catch this just to be safe.
-      // Worst-case scenario is that we end up missing a part in a funky multi-multi-part message.
-      log.log(Level.WARNING, "", e);
-    }
-    
-    return parts;
-  }
 }
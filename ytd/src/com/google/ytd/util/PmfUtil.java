@@ -1,11 +1,20 @@
 package com.google.ytd.util;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import javax.jdo.PersistenceManager;
 import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
 
+import com.google.appengine.api.datastore.Key;
 import com.google.inject.Inject;
 
 public class PmfUtil {
+  // Keeps each datastore batch get well under the per-call limit.
+  private static final int MAX_KEYS_PER_GET = 500;
+
   private PersistenceManagerFactory pmf = null;
 
   @Inject
@@ -30,6 +39,38 @@ public class PmfUtil {
     return entry;
   }
 
+  /**
+   * Fetches the objects stored under the given keys with as few batch gets as possible. Keys with
+   * no stored object are skipped, so the result may be shorter than the list of keys.
+   *
+   * @param idField The name of the class's primary key field.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> List<T> getObjectsByKeys(Class<T> type, String idField, Collection<Key> keys) {
+    List<Key> keyList = new ArrayList<Key>(keys);
+    List<T> results = new ArrayList<T>();
+    if (keyList.isEmpty()) {
+      return results;
+    }
+
+    PersistenceManager pm = pmf.getPersistenceManager();
+
+    try {
+      for (int i = 0; i < keyList.size(); i += MAX_KEYS_PER_GET) {
+        List<Key> batch = keyList.subList(i, Math.min(keyList.size(), i + MAX_KEYS_PER_GET));
+
+        // A contains() filter on the primary key is carried out as a single batch get.
+        Query query = pm.newQuery(type, String.format(":keys.contains(%s)", idField));
+        List<T> objects = (List<T>) query.execute(new ArrayList<Key>(batch));
+        results.addAll(pm.detachCopyAll(objects));
+      }
+    } finally {
+      pm.close();
+    }
+
+    return results;
+  }
+
   public void removeJdo(Object entry) {
     PersistenceManager pm = pmf.getPersistenceManager();
 
@@ -0,0 +1,39 @@
+package com.google.ytd.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds values that only need to be looked up once per request, such as the admin config.
+ *
+ * Values are kept per thread; RequestCacheFilter clears them at the start and end of every request
+ * so that nothing leaks into the next request served by the same thread.
+ */
+public class RequestCache {
+  private static final ThreadLocal<Map<String, Object>> values =
+      new ThreadLocal<Map<String, Object>>() {
+        @Override
+        protected Map<String, Object> initialValue() {
+          return new HashMap<String, Object>();
+        }
+      };
+
+  private RequestCache() {
+  }
+
+  public static Object get(String key) {
+    return values.get().get(key);
+  }
+
+  public static void put(String key, Object value) {
+    values.get().put(key, value);
+  }
+
+  public static void remove(String key) {
+    values.get().remove(key);
+  }
+
+  public static void clear() {
+    values.remove();
+  }
+}
@@ -20,6 +20,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Type;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -151,6 +153,43 @@ public class Util {
     return body.toString();
   }
 
+  public MessageDigest newSha256Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reads the stream to the end and closes it.
+   *
+   * @return The SHA-256 of everything read, in hex.
+   */
+  public String getSha256(InputStream inputStream) throws IOException {
+    MessageDigest digest = newSha256Digest();
+    byte[] buffer = new byte[64 * 1024];
+
+    try {
+      int read;
+      while ((read = inputStream.read(buffer)) >= 0) {
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      inputStream.close();
+    }
+
+    return toHex(digest.digest());
+  }
+
+  public String toHex(byte[] bytes) {
+    StringBuffer hex = new StringBuffer(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b & 0xff));
+    }
+    return hex.toString();
+  }
+
   public String getSelfUrl(HttpServletRequest request) {
     StringBuffer url = new StringBuffer();
 
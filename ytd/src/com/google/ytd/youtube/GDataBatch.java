@@ -0,0 +1,241 @@
+/* Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ytd.youtube;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gdata.client.Service;
+import com.google.gdata.client.batch.BatchInterruptedException;
+import com.google.gdata.data.BaseEntry;
+import com.google.gdata.data.Entry;
+import com.google.gdata.data.Feed;
+import com.google.gdata.data.batch.BatchOperationType;
+import com.google.gdata.data.batch.BatchStatus;
+import com.google.gdata.data.batch.BatchUtils;
+import com.google.gdata.util.ServiceException;
+
+/**
+ * Collects writes to GData feeds and sends them with the GData batch protocol, so that changing
+ * many entries of the same feed costs one request per batch instead of one per entry.
+ *
+ * Operations are grouped by the feed they target, and each group is posted to that feed's batch
+ * URL (the feed URL followed by "/batch") in batches of at most getBatchSize() operations. Once
+ * execute() returns, each Operation says whether it succeeded.
+ */
+public class GDataBatch {
+  private static final Logger log = Logger.getLogger(GDataBatch.class.getName());
+
+  // The most operations the YouTube API accepts in a single batch request.
+  public static final int MAX_BATCH_SIZE = 50;
+
+  /**
+   * A single insert, update or delete, and its outcome once the batch has been executed.
+   */
+  public static class Operation {
+    private String batchId = null;
+    private BatchOperationType type = null;
+    private BaseEntry<?> entry = null;
+
+    private int statusCode = 0;
+    private String reason = null;
+    private BaseEntry<?> result = null;
+
+    private Operation(String batchId, BatchOperationType type, BaseEntry<?> entry) {
+      this.batchId = batchId;
+      this.type = type;
+      this.entry = entry;
+    }
+
+    public BatchOperationType getType() {
+      return type;
+    }
+
+    public BaseEntry<?> getEntry() {
+      return entry;
+    }
+
+    /**
+     * @return The HTTP status of the operation, or 0 if it hasn't been executed, or its batch
+     *         request failed as a whole.
+     */
+    public int getStatusCode() {
+      return statusCode;
+    }
+
+    public String getReason() {
+      return reason;
+    }
+
+    /**
+     * @return The entry returned by the server for a successful insert or update.
+     */
+    public BaseEntry<?> getResult() {
+      return result;
+    }
+
+    public boolean isSuccess() {
+      return statusCode >= 200 && statusCode < 300;
+    }
+  }
+
+  private Service service = null;
+  private int batchSize = MAX_BATCH_SIZE;
+  private Map<String, List<Operation>> pending = new LinkedHashMap<String, List<Operation>>();
+  private int nextBatchId = 0;
+
+  public GDataBatch(Service service) {
+    this(service, MAX_BATCH_SIZE);
+  }
+
+  public GDataBatch(Service service, int batchSize) {
+    if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException(String.format("Batch size must be between 1 and %d.",
+          MAX_BATCH_SIZE));
+    }
+
+    this.service = service;
+    this.batchSize = batchSize;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public Operation insert(String feedUrl, BaseEntry<?> entry) {
+    return add(feedUrl, BatchOperationType.INSERT, entry);
+  }
+
+  /**
+   * Queues an update of an existing entry, whose id must be set to the entry's URL.
+   */
+  public Operation update(String feedUrl, BaseEntry<?> entry) {
+    return add(feedUrl, BatchOperationType.UPDATE, entry);
+  }
+
+  /**
+   * Queues the deletion of an entry, identified by its URL.
+   */
+  public Operation delete(String feedUrl, String entryUrl) {
+    Entry entry = new Entry();
+    entry.setId(entryUrl);
+    return add(feedUrl, BatchOperationType.DELETE, entry);
+  }
+
+  /**
+   * @return The number of operations waiting to be executed.
+   */
+  public int size() {
+    int size = 0;
+    for (List<Operation> operations : pending.values()) {
+      size += operations.size();
+    }
+    return size;
+  }
+
+  /**
+   * Sends every pending operation. A batch request that fails as a whole leaves its operations
+   * with a status code of 0, but doesn't stop the remaining batches from being sent.
+   *
+   * @return The number of batch requests made.
+   */
+  public int execute() {
+    int requests = 0;
+
+    for (Map.Entry<String, List<Operation>> group : pending.entrySet()) {
+      List<Operation> operations = group.getValue();
+
+      for (int i = 0; i < operations.size(); i += batchSize) {
+        executeBatch(group.getKey(), operations.subList(i, Math.min(operations.size(), i
+            + batchSize)));
+        requests++;
+      }
+    }
+
+    pending.clear();
+    return requests;
+  }
+
+  private Operation add(String feedUrl, BatchOperationType type, BaseEntry<?> entry) {
+    Operation operation = new Operation(String.valueOf(nextBatchId++), type, entry);
+
+    List<Operation> operations = pending.get(feedUrl);
+    if (operations == null) {
+      operations = new ArrayList<Operation>();
+      pending.put(feedUrl, operations);
+    }
+    operations.add(operation);
+
+    return operation;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void executeBatch(String feedUrl, List<Operation> operations) {
+    Feed batchFeed = new Feed();
+    Map<String, Operation> operationsById = new HashMap<String, Operation>();
+
+    for (Operation operation : operations) {
+      BatchUtils.setBatchId(operation.entry, operation.batchId);
+      BatchUtils.setBatchOperationType(operation.entry, operation.type);
+      // The batch feed is only a container here, so entries of any kind can go in it.
+      ((List) batchFeed.getEntries()).add(operation.entry);
+      operationsById.put(operation.batchId, operation);
+    }
+
+    Feed resultFeed = null;
+    try {
+      resultFeed = service.batch(new URL(feedUrl + "/batch"), batchFeed);
+    } catch (BatchInterruptedException e) {
+      // The operations before the interruption were still carried out.
+      log.log(Level.WARNING, "", e);
+      if (e.getIFeed() instanceof Feed) {
+        resultFeed = (Feed) e.getIFeed();
+      }
+    } catch (MalformedURLException e) {
+      log.log(Level.WARNING, "", e);
+    } catch (IOException e) {
+      log.log(Level.WARNING, "", e);
+    } catch (ServiceException e) {
+      log.log(Level.WARNING, "", e);
+    }
+
+    if (resultFeed == null) {
+      return;
+    }
+
+    for (Entry resultEntry : resultFeed.getEntries()) {
+      Operation operation = operationsById.get(BatchUtils.getBatchId(resultEntry));
+      BatchStatus status = BatchUtils.getBatchStatus(resultEntry);
+      if (operation == null || status == null) {
+        continue;
+      }
+
+      operation.statusCode = status.getCode();
+      operation.reason = status.getReason();
+      if (operation.isSuccess()) {
+        operation.result = resultEntry;
+      }
+    }
+  }
+}
@@ -44,7 +44,7 @@ public class InsightDownloadRedirect extends HttpServlet {
   @Inject
   private Util util;
   @Inject
-  private YouTubeApiHelper apiManager;
+  private YouTubeClientPool youTubeClientPool;
   @Inject
   private UserAuthTokenDao userAuthTokenDao;
 
@@ -63,10 +63,11 @@ public class InsightDownloadRedirect extends HttpServlet {
 
       UserAuthToken userAuthToken = userAuthTokenDao.getUserAuthToken(user);
 
+      YouTubeApiHelper apiManager = null;
       if (!util.isNullOrEmpty(userAuthToken.getAuthSubToken())) {
-        apiManager.setAuthSubToken(userAuthToken.getAuthSubToken());
+        apiManager = youTubeClientPool.getAuthSubClient(userAuthToken.getAuthSubToken());
       } else if (!util.isNullOrEmpty(userAuthToken.getClientLoginToken())) {
-        apiManager.setClientLoginToken(userAuthToken.getClientLoginToken());
+        apiManager = youTubeClientPool.getClientLoginClient(userAuthToken.getClientLoginToken());
       } else {
         throw new IllegalArgumentException(String.format("Couldn't retrieve authentication token for user '%s'.", user));
       }
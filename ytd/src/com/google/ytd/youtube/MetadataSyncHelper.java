@@ -0,0 +1,376 @@
+/* Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ytd.youtube;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.gdata.data.youtube.VideoEntry;
+import com.google.gdata.data.youtube.YouTubeMediaRating;
+import com.google.gdata.data.youtube.YtPublicationState;
+import com.google.gdata.data.youtube.YtStatistics;
+import com.google.gdata.util.NotModifiedException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.ytd.dao.ResultPage;
+import com.google.ytd.dao.UserAuthTokenDao;
+import com.google.ytd.dao.VideoSubmissionDao;
+import com.google.ytd.model.SyncPass;
+import com.google.ytd.model.UserAuthToken;
+import com.google.ytd.model.VideoSubmission;
+import com.google.ytd.model.VideoSyncState;
+import com.google.ytd.util.Util;
+
+/**
+ * Brings VideoSubmissions up to date with their videos' metadata on YouTube, which is always
+ * considered authoritative.
+ */
+@Singleton
+public class MetadataSyncHelper {
+  private static final Logger log = Logger.getLogger(MetadataSyncHelper.class.getName());
+
+  // Uploaders with fewer submissions than this are synced one entry at a time, which costs less
+  // than paging through an uploads feed that may be much longer than their submissions.
+  private static final int MIN_FEED_GROUP_SIZE = 3;
+  // 50 entries per page.
+  private static final int MAX_FEED_PAGES = 10;
+  // How far the view count copied onto a submission may drift before it's rewritten.
+  private static final long MIN_VIEW_COUNT_DRIFT = 10;
+  private static final double MAX_VIEW_COUNT_DRIFT_RATIO = 0.1;
+
+  private VideoSubmissionDao submissionDao = null;
+  private UserAuthTokenDao userAuthTokenDao = null;
+
+  @Inject
+  private Util util;
+
+  @Inject
+  private YouTubeClientPool youTubeClientPool;
+
+  @Inject
+  private SyncScheduler syncScheduler;
+
+  @Inject
+  public MetadataSyncHelper(VideoSubmissionDao submissionDao, UserAuthTokenDao userAuthTokenDao) {
+    this.submissionDao = submissionDao;
+    this.userAuthTokenDao = userAuthTokenDao;
+  }
+
+  /**
+   * Walks the ids of the submissions covered by a sync pass; see SyncPass.
+   */
+  public ResultPage<String> getSubmissionIds(SyncPass pass, int pageSize, String cursor) {
+    if (pass.isFull()) {
+      return submissionDao.getSubmissionIds(pageSize, cursor);
+    } else {
+      return submissionDao.getDueSubmissionIds(pass.getStarted(), pageSize, cursor);
+    }
+  }
+
+  /**
+   * @return true if the submission was due to be synced when the pass started.
+   */
+  public boolean isDue(VideoSyncState syncState, SyncPass pass) {
+    Date nextSyncDue = syncState.getNextSyncDue();
+    return nextSyncDue == null || !nextSyncDue.after(pass.getStarted());
+  }
+
+  /**
+   * Syncs the submissions after looking up their sync states.
+   */
+  public void sync(Collection<VideoSubmission> videoSubmissions) {
+    List<String> ids = new ArrayList<String>();
+    for (VideoSubmission videoSubmission : videoSubmissions) {
+      ids.add(videoSubmission.getId());
+    }
+
+    sync(videoSubmissions, submissionDao.getSyncStates(ids));
+  }
+
+  /**
+   * Syncs each of the submissions and works out when each is next due to be synced.
+   *
+   * Every sync state is saved, with a single batch write, but a submission itself is only written
+   * when a field that users see has changed. Most syncs find nothing new, so most only cost a
+   * write of the small, almost unindexed VideoSyncState.
+   *
+   * Submissions are grouped by uploader. A group of at least MIN_FEED_GROUP_SIZE is reconciled
+   * against a single read of the uploader's uploads feed, so the number of API calls follows the
+   * number of uploaders rather than the number of videos. Videos the feed doesn't turn up, and
+   * uploaders with fewer submissions, are fetched one entry at a time.
+   */
+  public void sync(Collection<VideoSubmission> videoSubmissions,
+      Map<String, VideoSyncState> syncStates) {
+    Map<String, List<VideoSubmission>> byUploader =
+        new LinkedHashMap<String, List<VideoSubmission>>();
+    for (VideoSubmission videoSubmission : videoSubmissions) {
+      List<VideoSubmission> group = byUploader.get(videoSubmission.getYouTubeName());
+      if (group == null) {
+        group = new ArrayList<VideoSubmission>();
+        byUploader.put(videoSubmission.getYouTubeName(), group);
+      }
+      group.add(videoSubmission);
+    }
+
+    // Look up every uploader's credentials in one go, rather than once per video.
+    Map<String, UserAuthToken> userAuthTokens =
+        userAuthTokenDao.getUserAuthTokens(byUploader.keySet());
+
+    List<VideoSubmission> changedSubmissions = new ArrayList<VideoSubmission>();
+    List<VideoSyncState> syncedStates = new ArrayList<VideoSyncState>();
+
+    for (Map.Entry<String, List<VideoSubmission>> group : byUploader.entrySet()) {
+      String youTubeName = group.getKey();
+      List<VideoSubmission> submissions = group.getValue();
+
+      UserAuthToken userAuthToken = userAuthTokens.get(youTubeName);
+
+      YouTubeApiHelper apiManager = null;
+      if (userAuthToken == null) {
+        apiManager = youTubeClientPool.getAnonymousClient();
+      } else {
+        apiManager = youTubeClientPool.getUserClient(userAuthToken);
+      }
+
+      Map<String, VideoEntry> feedEntries = new HashMap<String, VideoEntry>();
+      if (submissions.size() >= MIN_FEED_GROUP_SIZE && !util.isNullOrEmpty(youTubeName)) {
+        List<String> videoIds = new ArrayList<String>();
+        for (VideoSubmission videoSubmission : submissions) {
+          videoIds.add(videoSubmission.getVideoId());
+        }
+
+        feedEntries = apiManager.getUploadsVideoEntries(youTubeName, videoIds, MAX_FEED_PAGES);
+        log.info(String.format("Found %d of %d videos in the uploads feed of '%s'.", feedEntries
+            .size(), submissions.size(), youTubeName));
+      }
+
+      for (VideoSubmission videoSubmission : submissions) {
+        Date now = new Date();
+        VideoSyncState syncState = syncStates.get(videoSubmission.getId());
+
+        long previousViewCount = syncState.getViewCount();
+        Date previousSync = syncState.getLastSynced();
+
+        boolean changed = false;
+        VideoEntry feedEntry = feedEntries.get(videoSubmission.getVideoId());
+        if (feedEntry == null) {
+          changed = syncSubmission(videoSubmission, syncState, apiManager, now);
+        } else {
+          changed = syncSubmission(videoSubmission, syncState, feedEntry, now);
+        }
+
+        if (changed || isViewCountStale(videoSubmission, syncState)) {
+          videoSubmission.setViewCount(syncState.getViewCount());
+          changedSubmissions.add(videoSubmission);
+        }
+
+        syncState.setLastSynced(now);
+        syncState.setNextSyncDue(syncScheduler.getNextSyncDue(videoSubmission, syncState,
+            previousViewCount, previousSync, changed, now));
+        syncedStates.add(syncState);
+      }
+    }
+
+    submissionDao.saveSyncedSubmissions(changedSubmissions);
+    submissionDao.saveSyncStates(syncedStates);
+  }
+
+  /**
+   * @return true if the submission's copy of the view count, which is only there for sorting,
+   *         has fallen far enough behind to be worth a write of its own.
+   */
+  private boolean isViewCountStale(VideoSubmission videoSubmission, VideoSyncState syncState) {
+    long copy = videoSubmission.getViewCount();
+    long latest = syncState.getViewCount();
+    if (copy < 0 || latest < 0) {
+      return copy != latest;
+    }
+
+    return Math.abs(latest - copy) >= Math.max(MIN_VIEW_COUNT_DRIFT, copy
+        * MAX_VIEW_COUNT_DRIFT_RATIO);
+  }
+
+  /**
+   * @return true if any of the submission's metadata differed from YouTube's.
+   */
+  private boolean syncSubmission(VideoSubmission videoSubmission, VideoSyncState syncState,
+      YouTubeApiHelper apiManager, Date now) {
+    boolean changed = false;
+    String videoId = videoSubmission.getVideoId();
+    log.info(String.format("Syncing video id '%s'", videoId));
+
+    // Every request is conditional on the ETag from the last sync, so an entry that hasn't
+    // changed since then isn't downloaded, parsed or compared again.
+    String etag = syncState.getEtag();
+    VideoEntry videoEntry = null;
+    boolean notModified = false;
+
+    try {
+      // This will retrieve video info from the Uploads feed of the user who
+      // owns the video.
+      // This should always be the freshest data, but it relies on the AuthSub
+      // token being valid.
+      videoEntry = apiManager.getUploadsVideoEntryIfChanged(videoId, etag);
+      if (videoEntry == null) {
+        // Try an unauthenticated request to the specific user's uploads feed
+        // next.
+        videoEntry = apiManager.getUploadsVideoEntryIfChanged(
+            videoSubmission.getYouTubeName(), videoId, etag);
+
+        if (videoEntry == null) {
+          // Fall back on looking for the video in the public feed.
+          videoEntry = apiManager.getVideoEntryIfChanged(videoId, etag);
+        }
+      }
+    } catch (NotModifiedException e) {
+      log.info(String.format("Video id '%s' hasn't changed since the last sync.", videoId));
+      notModified = true;
+    }
+
+    if (videoEntry == null && !notModified) {
+      // The video must have been deleted...
+      log.info(String.format("Unable to find YouTube video id '%s'.", videoId));
+      changed = !"NOT_FOUND".equals(videoSubmission.getYouTubeState());
+      videoSubmission.setYouTubeState("NOT_FOUND");
+      syncState.setEtag(null);
+    }
+
+    if (videoEntry != null) {
+      changed = applyEntry(videoSubmission, syncState, videoEntry, now);
+    }
+
+    return changed;
+  }
+
+  /**
+   * Syncs a submission from an entry that was read from its uploader's uploads feed.
+   * 
+   * @return true if any of the submission's metadata differed from YouTube's.
+   */
+  private boolean syncSubmission(VideoSubmission videoSubmission, VideoSyncState syncState,
+      VideoEntry videoEntry, Date now) {
+    String videoId = videoSubmission.getVideoId();
+    log.info(String.format("Syncing video id '%s' from its uploads feed", videoId));
+
+    // Feed entries carry the same ETags as the entries themselves.
+    String etag = syncState.getEtag();
+    if (etag != null && etag.equals(videoEntry.getEtag())) {
+      log.info(String.format("Video id '%s' hasn't changed since the last sync.", videoId));
+      return false;
+    }
+
+    return applyEntry(videoSubmission, syncState, videoEntry, now);
+  }
+
+  /**
+   * Copies YouTube's metadata for the video onto the submission, and the view count and ETag onto
+   * its sync state.
+   * 
+   * @return true if any of the submission's metadata differed.
+   */
+  private boolean applyEntry(VideoSubmission videoSubmission, VideoSyncState syncState,
+      VideoEntry videoEntry, Date now) {
+    boolean changed = false;
+    String videoId = videoSubmission.getVideoId();
+
+    try {
+      YtPublicationState state = videoEntry.getPublicationState();
+      String stateValue;
+      if (state == null) {
+        // TODO: Find some way to check whether the video is embeddable
+        // and/or private, and
+        // populate that info. Because we're getting the video from the
+        // authenticated
+        // uploads feed (by default), that info isn't easily exposed on
+        // the videoEntry
+        // object. An alternative would be to get an instance from the
+        // public video feed
+        // and check that.
+
+        List<YouTubeMediaRating> ratings = videoEntry.getMediaGroup().getYouTubeRatings();
+        if (ratings.size() == 0) {
+          stateValue = "OKAY";
+        } else {
+          StringBuffer restrictionBuffer = new StringBuffer("RESTRICTED IN: ");
+          for (YouTubeMediaRating rating : ratings) {
+            restrictionBuffer.append(rating.getCountries());
+          }
+          stateValue = restrictionBuffer.toString();
+        }
+      } else {
+        stateValue = state.getState().toString();
+      }
+      if (!stateValue.equals(videoSubmission.getYouTubeState())) {
+        log.info(String.format("YouTube state differs: '%s' (local) vs. '%s' (YT).",
+            videoSubmission.getYouTubeState(), stateValue));
+        videoSubmission.setYouTubeState(stateValue);
+        videoSubmission.setUpdated(now);
+        changed = true;
+      }
+
+      String title = videoEntry.getTitle().getPlainText();
+      if (!title.equals(videoSubmission.getVideoTitle())) {
+        log.info(String.format("Title differs: '%s' (local) vs. '%s' (YT).", videoSubmission
+            .getVideoTitle(), title));
+        videoSubmission.setVideoTitle(title);
+        videoSubmission.setUpdated(now);
+        changed = true;
+      }
+
+      String description = videoEntry.getMediaGroup().getDescription().getPlainTextContent();
+      if (!description.equals(videoSubmission.getVideoDescription())) {
+        log.info(String.format("Description differs: '%s' (local) vs. '%s' (YT).",
+            videoSubmission.getVideoDescription(), description));
+        videoSubmission.setVideoDescription(description);
+        videoSubmission.setUpdated(now);
+        changed = true;
+      }
+
+      List<String> tags = videoEntry.getMediaGroup().getKeywords().getKeywords();
+      String sortedTags = util.sortedJoin(tags, ",");
+      if (!sortedTags.equals(videoSubmission.getVideoTags())) {
+        log.info(String.format("Tags differs: '%s' (local) vs. '%s' (YT).", videoSubmission
+            .getVideoTags(), sortedTags));
+        videoSubmission.setVideoTags(sortedTags);
+        videoSubmission.setUpdated(now);
+        changed = true;
+      }
+    } catch (NullPointerException e) {
+      log.info(String.format("Couldn't get metadata for video id '%s'. It may not have been"
+          + " accepted by YouTube.", videoId));
+    }
+
+    // Unconditionally update view count info, but don't call setUpdated()
+    // since this is an
+    // auto-update.
+    YtStatistics stats = videoEntry.getStatistics();
+    if (stats != null) {
+      syncState.setViewCount(stats.getViewCount());
+    }
+
+    syncState.setEtag(videoEntry.getEtag());
+
+    log.info(String.format("Finished syncing video id '%s'", videoId));
+
+    return changed;
+  }
+}
@@ -22,8 +22,6 @@ import java.security.PrivateKey;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.jdo.PersistenceManager;
-import javax.jdo.PersistenceManagerFactory;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -47,16 +45,12 @@ public class PersistAuthSubToken extends HttpServlet {
   @Inject
   private Util util;
   @Inject
-  private PersistenceManagerFactory pmf;
-  @Inject
-  private YouTubeApiHelper youtubeApi;
+  private YouTubeClientPool youTubeClientPool;
   @Inject
   private AdminConfigDao adminConfigDao;
 
   @Override
   public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-    PersistenceManager pm = pmf.getPersistenceManager();
-
     try {
       String token = AuthSubUtil.getTokenFromReply(req.getQueryString());
       token = URLDecoder.decode(token, "UTF-8");
@@ -69,7 +63,7 @@ public class PersistAuthSubToken extends HttpServlet {
       PrivateKey privateKey = adminConfigDao.getPrivateKey();
       String sessionToken = AuthSubUtil.exchangeForSessionToken(token, privateKey);
 
-      youtubeApi.setAuthSubToken(sessionToken);
+      YouTubeApiHelper youtubeApi = youTubeClientPool.getAuthSubClient(sessionToken);
 
       String youTubeName = youtubeApi.getCurrentUsername();
       if (util.isNullOrEmpty(youTubeName)) {
@@ -82,7 +76,8 @@ public class PersistAuthSubToken extends HttpServlet {
       adminConfig.setYouTubeAuthSubToken(sessionToken);
       adminConfig.setYouTubeUsername(youTubeName);
 
-      pm.makePersistent(adminConfig);
+      // Goes through the DAO so that every instance's cached copy is invalidated.
+      adminConfigDao.save(adminConfig);
 
       resp.sendRedirect(util.addNamespaceParamIfNeeded("/admin#configuration"));
     } catch (IllegalArgumentException e) {
@@ -97,8 +92,6 @@ public class PersistAuthSubToken extends HttpServlet {
     } catch (ServiceException e) {
       log.log(Level.WARNING, "", e);
       resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
-    } finally {
-      pm.close();
     }
   }
 }
\ No newline at end of file
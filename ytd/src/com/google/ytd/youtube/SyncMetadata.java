@@ -16,217 +16,207 @@
 package com.google.ytd.youtube;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.jdo.PersistenceManager;
-import javax.jdo.PersistenceManagerFactory;
-import javax.jdo.Query;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.google.apphosting.api.DeadlineExceededException;
-import com.google.gdata.data.youtube.VideoEntry;
-import com.google.gdata.data.youtube.YouTubeMediaRating;
-import com.google.gdata.data.youtube.YtPublicationState;
-import com.google.gdata.data.youtube.YtStatistics;
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.*;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.ytd.dao.UserAuthTokenDao;
-import com.google.ytd.model.UserAuthToken;
-import com.google.ytd.model.VideoSubmission;
+import com.google.ytd.dao.ResultPage;
+import com.google.ytd.dao.SyncPassDao;
+import com.google.ytd.model.SyncPass;
+import com.google.ytd.model.SyncShard;
 import com.google.ytd.util.Util;
 
 /**
- * Servlet that syncs metadata from YouTube with the local datastore.
+ * Controller for syncing metadata from YouTube with the local datastore.
+ * 
+ * YouTube metadata (fetched via the API) is always considered authoritative. Each pass covers the
+ * VideoSubmissions whose next sync is due (see SyncScheduler), and is split into shards of
+ * SHARD_SIZE submissions, which are synced in parallel by /tasks/SyncMetadataShard. The shards are
+ * found by walking the submissions' keys with cursors, SHARDS_PER_RUN shards per task, so neither
+ * the walk nor the sync itself has to fit in a single request. Every FULL_PASS_INTERVAL, a full
+ * pass walks all of the submissions instead.
  * 
- * YouTube metadata (fetched via the API) is always considered authoritative.
- * This servlet is meant to be pinged periodically via App Engine's cron
- * functionality. Invoking it once every few minutes should be enough, though it
- * may need to be tweaked if there are a large number of VideoSubmission
- * entries. Don't invoke this more than once every 30 seconds because this may
- * take up to 30 seconds to complete.
+ * A GET, meant to be sent by cron, starts a new pass unless one is still running, and reports the
+ * progress of the current pass. The POSTs that queue the shards come from the task queue.
  */
 @Singleton
 public class SyncMetadata extends HttpServlet {
   private static final Logger log = Logger.getLogger(SyncMetadata.class.getName());
+
+  // The number of submissions synced by each shard task.
+  private static final int SHARD_SIZE = 200;
+  // The number of shards queued by each controller task before it hands over to the next one.
+  private static final int SHARDS_PER_RUN = 50;
+  // A pass that hasn't finished after this long is abandoned, and a new one is started.
+  private static final long MAX_PASS_AGE = 24 * 60 * 60 * 1000L;
+  // How often a full pass is made, to pick up submissions that aren't in the nextSyncDue index.
+  private static final long FULL_PASS_INTERVAL = 7 * 24 * 60 * 60 * 1000L;
+
   @Inject
   private Util util;
   @Inject
-  private PersistenceManagerFactory pmf;
-  @Inject
-  private YouTubeApiHelper apiManager;
+  private SyncPassDao syncPassDao;
   @Inject
-  private UserAuthTokenDao userAuthTokenDao;
+  private MetadataSyncHelper metadataSyncHelper;
 
-  @SuppressWarnings("unchecked")
   @Override
   public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-    // The number of videos processed in this invocation.
-    int count = 0;
-    // The total number of videos in the datastore.
-    int total = 0;
+    SyncPass pass = syncPassDao.getLatestPass();
+    if (pass != null && !pass.isFinished()) {
+      pass = syncPassDao.finishIfComplete(pass.getId());
+    }
+
+    if (pass == null || pass.isFinished()
+        || new Date().getTime() - pass.getStarted().getTime() > MAX_PASS_AGE) {
+      if (pass != null && !pass.isFinished()) {
+        log.warning(String.format("Abandoning sync pass %d, which never finished.", pass.getId()));
+      }
+
+      SyncPass fullPass = syncPassDao.getLatestFullPass();
+      boolean full = fullPass == null
+          || new Date().getTime() - fullPass.getStarted().getTime() > FULL_PASS_INTERVAL;
+
+      pass = syncPassDao.newPass(full);
+      log.info(String.format("Starting %s sync pass %d.", full ? "full" : "regular", pass
+          .getId()));
+      queueController(pass);
+    }
 
-    PersistenceManager pm = pmf.getPersistenceManager();
+    String message = new SyncProgress(pass, syncPassDao.getShards(pass.getId())).toString();
+    log.info(message);
+    resp.setContentType("text/plain");
+    resp.getWriter().println(message);
+  }
 
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
     try {
-      log.info("Starting sync operation...");
-
-      // Get a list of all videos in the datastore, with the ones with the
-      // oldest sync date listed
-      // first. There is a timetout of 30 seconds per HTTP request in App
-      // Engine, so it is possible
-      // that not all these videos will be synced before a
-      // DeadlineExceededException. This shouldn't
-      // matter, as the ones that do get processed should have their lastSynced
-      // updated, and
-      // move to the end of the list the next time this is invoked.
-      Query query = pm.newQuery(VideoSubmission.class);
-      query.setOrdering("lastSynced asc");
-      List<VideoSubmission> videoSubmissions = (List<VideoSubmission>) query.execute();
-      total = videoSubmissions.size();
-
-      for (VideoSubmission videoSubmission : videoSubmissions) {
-        Date now = new Date();
-
-        // Create a new instance each time through the loop, since changing
-        // AuthSub tokens for an
-        // existing instance doesn't seem to work.
-        
-        UserAuthToken userAuthToken = 
-            userAuthTokenDao.getUserAuthToken(videoSubmission.getYouTubeName());
-        
-        if (!userAuthToken.getAuthSubToken().isEmpty()) {
-          apiManager.setAuthSubToken(userAuthToken.getAuthSubToken());
-        } else {
-          apiManager.setClientLoginToken(userAuthToken.getClientLoginToken());
-        }
-
-        String videoId = videoSubmission.getVideoId();
-        log.info(String.format("Syncing video id '%s'", videoId));
-
-        // This will retrieve video info from the Uploads feed of the user who
-        // owns the video.
-        // This should always be the freshest data, but it relies on the AuthSub
-        // token being valid.
-        VideoEntry videoEntry = apiManager.getUploadsVideoEntry(videoId);
-        if (videoEntry == null) {
-          // Try an unauthenticated request to the specific user's uploads feed
-          // next.
-          videoEntry = apiManager.getUploadsVideoEntry(videoSubmission.getYouTubeName(), videoId);
-
-          if (videoEntry == null) {
-            // Fall back on looking for the video in the public feed.
-            videoEntry = apiManager.getVideoEntry(videoId);
-
-            if (videoEntry == null) {
-              // The video must have been deleted...
-              log.info(String.format("Unable to find YouTube video id '%s'.", videoId));
-              videoSubmission.setYouTubeState("NOT_FOUND");
-            }
-          }
-        }
-
-        if (videoEntry != null) {
-          try {
-            YtPublicationState state = videoEntry.getPublicationState();
-            String stateValue;
-            if (state == null) {
-              // TODO: Find some way to check whether the video is embeddable
-              // and/or private, and
-              // populate that info. Because we're getting the video from the
-              // authenticated
-              // uploads feed (by default), that info isn't easily exposed on
-              // the videoEntry
-              // object. An alternative would be to get an instance from the
-              // public video feed
-              // and check that.
-
-              List<YouTubeMediaRating> ratings = videoEntry.getMediaGroup().getYouTubeRatings();
-              if (ratings.size() == 0) {
-                stateValue = "OKAY";
-              } else {
-                StringBuffer restrictionBuffer = new StringBuffer("RESTRICTED IN: ");
-                for (YouTubeMediaRating rating : ratings) {
-                  restrictionBuffer.append(rating.getCountries());
-                }
-                stateValue = restrictionBuffer.toString();
-              }
-            } else {
-              stateValue = state.getState().toString();
-            }
-            if (!stateValue.equals(videoSubmission.getYouTubeState())) {
-              log.info(String.format("YouTube state differs: '%s' (local) vs. '%s' (YT).",
-                  videoSubmission.getYouTubeState(), stateValue));
-              videoSubmission.setYouTubeState(stateValue);
-              videoSubmission.setUpdated(now);
-            }
-
-            String title = videoEntry.getTitle().getPlainText();
-            if (!title.equals(videoSubmission.getVideoTitle())) {
-              log.info(String.format("Title differs: '%s' (local) vs. '%s' (YT).", videoSubmission
-                  .getVideoTitle(), title));
-              videoSubmission.setVideoTitle(title);
-              videoSubmission.setUpdated(now);
-            }
-
-            String description = videoEntry.getMediaGroup().getDescription().getPlainTextContent();
-            if (!description.equals(videoSubmission.getVideoDescription())) {
-              log.info(String.format("Description differs: '%s' (local) vs. '%s' (YT).",
-                  videoSubmission.getVideoDescription(), description));
-              videoSubmission.setVideoDescription(description);
-              videoSubmission.setUpdated(now);
-            }
-
-            List<String> tags = videoEntry.getMediaGroup().getKeywords().getKeywords();
-            String sortedTags = util.sortedJoin(tags, ",");
-            if (!sortedTags.equals(videoSubmission.getVideoTags())) {
-              log.info(String.format("Tags differs: '%s' (local) vs. '%s' (YT).", videoSubmission
-                  .getVideoTags(), sortedTags));
-              videoSubmission.setVideoTags(sortedTags);
-              videoSubmission.setUpdated(now);
-            }
-          } catch (NullPointerException e) {
-            log.info(String.format("Couldn't get metadata for video id '%s'. It may not have been"
-                + " accepted by YouTube.", videoId));
-          }
-
-          // Unconditionally update view count info, but don't call setUpdated()
-          // since this is an
-          // auto-update.
-          YtStatistics stats = videoEntry.getStatistics();
-          if (stats != null) {
-            videoSubmission.setViewCount(stats.getViewCount());
-          }
-
-          log.info(String.format("Finished syncing video id '%s'", videoId));
-        }
-
-        // It's important to update lastSynced even for videos that didn't
-        // change; otherwise, if
-        // syncing takes longer than the timeout, the same unchanged videos
-        // might be examined again
-        // and again, with newer videos never getting checked.
-        videoSubmission.setLastSynced(now);
-        pm.makePersistent(videoSubmission);
-
-        count++;
+      String passId = req.getParameter("passId");
+      if (util.isNullOrEmpty(passId)) {
+        throw new IllegalArgumentException("Required parameter 'passId' is null or empty.");
+      }
+
+      SyncPass pass = syncPassDao.getPass(Long.parseLong(passId));
+      if (pass == null) {
+        throw new IllegalArgumentException(String.format("Sync pass '%s' not found.", passId));
+      }
+
+      if (pass.isScheduled()) {
+        // A retry of a run that already queued the last shards.
+        return;
+      }
+
+      queueShards(pass);
+    } catch (IllegalArgumentException e) {
+      // We don't want to send an error response here, since that will result
+      // in the TaskQueue retrying and this is not a transient error.
+      log.log(Level.WARNING, "", e);
+    }
+  }
+
+  /**
+   * Queues the next SHARDS_PER_RUN shards of the pass, and another controller task if there are
+   * still submissions left after those.
+   */
+  private void queueShards(SyncPass pass) {
+    long passId = pass.getId();
+    String cursor = pass.getCursor();
+    int shardCount = pass.getShardCount();
+    long videoCount = pass.getVideoCount();
+    boolean more = true;
+
+    List<SyncShard> shards = new ArrayList<SyncShard>();
+    while (shards.size() < SHARDS_PER_RUN) {
+      ResultPage<String> page = metadataSyncHelper.getSubmissionIds(pass, SHARD_SIZE, cursor);
+      int size = page.getResults().size();
+      if (size == 0) {
+        more = false;
+        break;
       }
-    } catch (DeadlineExceededException e) {
-      // App Engine imposes a 30 second timeout on requests (the development
-      // server doesn't).
-      // We should be able to handle this gracefully by logging it and closing
-      // the PM connection.
-      log.info("Deadline exceeded; aborting sync.");
-    } finally {
-      pm.close();
-
-      String message = String.format("Ending sync. %d of %d videos checked.", count, total);
-      log.info(message);
-      resp.setContentType("text/plain");
-      resp.getWriter().println(message);
+
+      // Shards that already exist were created by an earlier attempt at this run, and may have
+      // made progress since; they're only queued again.
+      SyncShard shard = syncPassDao.getShard(passId, shardCount);
+      if (shard == null) {
+        shard = new SyncShard(passId, shardCount, cursor, size);
+      }
+      shards.add(shard);
+      shardCount++;
+      videoCount += size;
+
+      if (!page.hasMore()) {
+        more = false;
+        break;
+      }
+      cursor = page.getCursor();
+    }
+
+    syncPassDao.saveShards(shards);
+    for (SyncShard shard : shards) {
+      queueShard(shard);
+    }
+
+    pass.setCursor(cursor);
+    pass.setShardCount(shardCount);
+    pass.setVideoCount(videoCount);
+    pass.setScheduled(!more);
+    pass = syncPassDao.savePass(pass);
+
+    log.info(String.format("Queued %d shards of sync pass %d.", shardCount, passId));
+
+    if (more) {
+      queueController(pass);
+    } else {
+      // In case every shard finished before the pass was marked as scheduled.
+      syncPassDao.finishIfComplete(passId);
+    }
+  }
+
+  private void queueController(SyncPass pass) {
+    // Named after the point the pass has reached, so that a retried run doesn't queue its
+    // successor twice.
+    queueTask(withUrl("/tasks/SyncMetadata").method(Method.POST).param("passId",
+        String.valueOf(pass.getId())), String.format("%d-%d", pass.getId(), pass
+        .getShardCount()));
+  }
+
+  private void queueShard(SyncShard shard) {
+    queueTask(withUrl("/tasks/SyncMetadataShard").method(Method.POST).param("passId",
+        String.valueOf(shard.getPassId())).param("shardIndex",
+        String.valueOf(shard.getShardIndex())), String.format("%d-shard-%d", shard
+        .getPassId(), shard.getShardIndex()));
+  }
+
+  private void queueTask(TaskOptions task, String name) {
+    String namespace = NamespaceManager.get();
+    if (namespace == null) {
+      namespace = "";
+    }
+
+    String taskName = String.format("sync-%s-%s", namespace, name).replaceAll("[^a-zA-Z0-9_-]",
+        "_");
+
+    try {
+      Queue queue = QueueFactory.getDefaultQueue();
+      queue.add(task.taskName(taskName).param("ns", namespace));
+    } catch (TaskAlreadyExistsException e) {
+      // Already queued by an earlier attempt.
     }
   }
 }
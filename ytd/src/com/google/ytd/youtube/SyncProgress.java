@@ -0,0 +1,87 @@
+/* Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ytd.youtube;
+
+import java.util.Date;
+import java.util.List;
+
+import com.google.ytd.model.SyncPass;
+import com.google.ytd.model.SyncShard;
+
+/**
+ * How far a metadata sync pass has got, and how quickly.
+ */
+public class SyncProgress {
+  private SyncPass pass = null;
+  private int shardsDone = 0;
+  private long synced = 0;
+
+  public SyncProgress(SyncPass pass, List<SyncShard> shards) {
+    this.pass = pass;
+
+    for (SyncShard shard : shards) {
+      if (shard.isDone()) {
+        shardsDone++;
+      }
+      synced += shard.getSynced();
+    }
+  }
+
+  public SyncPass getPass() {
+    return pass;
+  }
+
+  public int getShardsDone() {
+    return shardsDone;
+  }
+
+  /**
+   * @return The number of submissions synced so far.
+   */
+  public long getSynced() {
+    return synced;
+  }
+
+  public long getElapsedMillis() {
+    Date end = pass.isFinished() ? pass.getFinished() : new Date();
+    return Math.max(0, end.getTime() - pass.getStarted().getTime());
+  }
+
+  public double getVideosPerMinute() {
+    long elapsed = getElapsedMillis();
+    if (elapsed == 0) {
+      return 0;
+    }
+    return synced * 60000.0 / elapsed;
+  }
+
+  @Override
+  public String toString() {
+    String state = null;
+    if (pass.isFinished()) {
+      state = "finished";
+    } else if (pass.isScheduled()) {
+      state = "running";
+    } else {
+      state = "queueing shards";
+    }
+
+    return String.format("%s sync pass %d (%s): %d of %d videos synced, %d of %d shards done, "
+        + "%.1f videos per minute over %d seconds.", pass.isFull() ? "Full" : "Regular", pass
+        .getId(), state, synced, pass.getVideoCount(), shardsDone, pass.getShardCount(),
+        getVideosPerMinute(), getElapsedMillis() / 1000);
+  }
+}
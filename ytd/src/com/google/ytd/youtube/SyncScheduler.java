@@ -0,0 +1,107 @@
+/* Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ytd.youtube;
+
+import java.util.Date;
+
+import com.google.inject.Singleton;
+import com.google.ytd.model.VideoSubmission;
+import com.google.ytd.model.VideoSyncState;
+
+/**
+ * Decides when each VideoSubmission should next be synced, so that the metadata sync spends its
+ * API quota on the videos most likely to have changed.
+ *
+ * The interval starts from a base that depends on the moderation status, and is then shortened
+ * for new videos, videos that are gaining views quickly and videos that changed on the last sync,
+ * and lengthened for old or idle ones.
+ */
+@Singleton
+public class SyncScheduler {
+  private static final long MINUTE = 60 * 1000L;
+  private static final long HOUR = 60 * MINUTE;
+  private static final long DAY = 24 * HOUR;
+
+  private static final long MIN_INTERVAL = 15 * MINUTE;
+  private static final long MAX_INTERVAL = 7 * DAY;
+
+  /**
+   * @param submission
+   *          The submission, as it stands after being synced.
+   * @param syncState
+   *          The submission's sync state, as it stands after being synced.
+   * @param previousViewCount
+   *          The view count before the sync, or -1 if it wasn't known.
+   * @param previousSync
+   *          When the submission was synced before this.
+   * @param changed
+   *          Whether this sync found any of the metadata had changed.
+   * @param now
+   *          When this sync took place.
+   */
+  public Date getNextSyncDue(VideoSubmission submission, VideoSyncState syncState,
+      long previousViewCount, Date previousSync, boolean changed, Date now) {
+    double interval = getBaseInterval(submission.getStatus());
+
+    long age = now.getTime() - submission.getCreated().getTime();
+    if (age < DAY) {
+      interval *= 0.5;
+    } else if (age > 30 * DAY) {
+      interval *= 4;
+    } else if (age > 7 * DAY) {
+      interval *= 2;
+    }
+
+    long viewCount = syncState.getViewCount();
+    if (previousViewCount >= 0 && viewCount >= 0 && previousSync != null) {
+      double hours = Math.max(1, now.getTime() - previousSync.getTime()) / (double) HOUR;
+      double viewsPerHour = (viewCount - previousViewCount) / hours;
+
+      if (viewsPerHour >= 100) {
+        interval *= 0.25;
+      } else if (viewsPerHour >= 10) {
+        interval *= 0.5;
+      } else if (viewsPerHour <= 0) {
+        interval *= 2;
+      }
+    }
+
+    if (changed) {
+      interval *= 0.5;
+    }
+
+    long delay = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, Math.round(interval)));
+    return new Date(now.getTime() + delay);
+  }
+
+  private long getBaseInterval(VideoSubmission.ModerationStatus status) {
+    if (status == null) {
+      return 6 * HOUR;
+    }
+
+    switch (status) {
+      case APPROVED:
+        return HOUR;
+      case UNREVIEWED:
+        return 2 * HOUR;
+      case REJECTED:
+        return DAY;
+      default:
+        // SPAM
+        return 3 * DAY;
+    }
+  }
+}
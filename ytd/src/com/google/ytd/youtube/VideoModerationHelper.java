@@ -0,0 +1,388 @@
+/* Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ytd.youtube;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gdata.data.youtube.VideoEntry;
+import com.google.gdata.data.youtube.YouTubeMediaGroup;
+import com.google.gdata.util.ServiceException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.ytd.dao.AdminConfigDao;
+import com.google.ytd.dao.AssignmentDao;
+import com.google.ytd.dao.UserAuthTokenDao;
+import com.google.ytd.dao.VideoSubmissionDao;
+import com.google.ytd.model.AdminConfig;
+import com.google.ytd.model.Assignment;
+import com.google.ytd.model.UserAuthToken;
+import com.google.ytd.model.VideoSubmission;
+import com.google.ytd.model.AdminConfig.BrandingModeType;
+import com.google.ytd.model.VideoSubmission.ModerationStatus;
+import com.google.ytd.model.VideoSubmission.VideoSource;
+import com.google.ytd.util.EmailUtil;
+import com.google.ytd.util.Util;
+
+/**
+ * Carries out what needs to happen on YouTube, and by email, once a video submission has been
+ * moderated: branding, the moderation flag, playlist membership and the submitter notification.
+ *
+ * Every step can safely be repeated, since the work is driven by PendingModerations that are
+ * retried until all of their steps have succeeded.
+ */
+@Singleton
+public class VideoModerationHelper {
+  private static final Logger LOG = Logger.getLogger(VideoModerationHelper.class.getName());
+
+  private AssignmentDao assignmentDao = null;
+  private AdminConfigDao adminConfigDao = null;
+  private VideoSubmissionDao submissionDao = null;
+  private UserAuthTokenDao userAuthTokenDao = null;
+
+  @Inject
+  private Util util;
+
+  @Inject
+  private EmailUtil emailUtil;
+
+  @Inject
+  private YouTubeClientPool youTubeClientPool;
+
+  @Inject
+  public VideoModerationHelper(AssignmentDao assignmentDao, VideoSubmissionDao submissionDao,
+      AdminConfigDao adminConfigDao, UserAuthTokenDao userAuthTokenDao) {
+    this.assignmentDao = assignmentDao;
+    this.submissionDao = submissionDao;
+    this.adminConfigDao = adminConfigDao;
+    this.userAuthTokenDao = userAuthTokenDao;
+  }
+
+  /**
+   * The side effects carried out by applyStatus(), which records the ones that have succeeded so
+   * that a retry can skip them.
+   */
+  public enum Step {
+    BRANDING, MODERATION, PLAYLIST, EMAIL
+  }
+
+  /**
+   * Applies the side effects of the submission's current moderation status, other than those
+   * already listed in completedSteps. Each step that succeeds is added to completedSteps, and the
+   * fields any of them change are saved onto the current version of the submission; see
+   * VideoSubmissionDao.saveModeratedSubmissions().
+   * 
+   * @return true if every step has now succeeded.
+   */
+  public boolean applyStatus(VideoSubmission submission, List<String> completedSteps) {
+    Map<String, List<String>> steps = new HashMap<String, List<String>>();
+    steps.put(submission.getId(), completedSteps);
+
+    return !applyStatuses(Arrays.asList(submission), steps).isEmpty();
+  }
+
+  /**
+   * Does the same as applyStatus() for several submissions at once. Playlist changes and
+   * moderation flags are sent to YouTube in batches, rather than one request per video.
+   * 
+   * @param completedSteps
+   *          The steps each submission has already completed, by submission id. The lists are
+   *          updated in place.
+   * @return The ids of the submissions whose steps have now all succeeded.
+   */
+  public Set<String> applyStatuses(List<VideoSubmission> submissions,
+      Map<String, List<String>> completedSteps) {
+    AdminConfig adminConfig = adminConfigDao.getAdminConfig();
+    Map<String, VideoSubmission> changed = new HashMap<String, VideoSubmission>();
+
+    // Set up a YouTubeApiHelper with the admin auth token
+    YouTubeApiHelper adminYouTubeApi = youTubeClientPool.getAdminClient();
+
+    // TODO: Handle removing the branding if a video goes from APPROVED to
+    // REJECTED.
+    boolean branding = adminConfig.getBrandingMode() == BrandingModeType.ON.ordinal();
+    Map<String, Boolean> moderations = new HashMap<String, Boolean>();
+    Map<String, VideoSubmission> moderated = new HashMap<String, VideoSubmission>();
+    for (VideoSubmission submission : submissions) {
+      List<String> steps = completedSteps.get(submission.getId());
+      if (!isApproved(submission)) {
+        continue;
+      }
+
+      if (!steps.contains(Step.BRANDING.name())) {
+        if (!branding) {
+          steps.add(Step.BRANDING.name());
+        } else if (applyBranding(adminConfig, submission)) {
+          steps.add(Step.BRANDING.name());
+          changed.put(submission.getId(), submission);
+        }
+      }
+
+      if (!steps.contains(Step.MODERATION.name())) {
+        // Flip the moderation bit to approved for new uploads, if branding is on
+        if (branding && submission.getVideoSource() == VideoSource.NEW_UPLOAD) {
+          moderations.put(submission.getVideoId(), true);
+          moderated.put(submission.getVideoId(), submission);
+        } else {
+          steps.add(Step.MODERATION.name());
+        }
+      }
+    }
+    if (!moderations.isEmpty()) {
+      for (String videoId : adminYouTubeApi.updateModerations(moderations)) {
+        completedSteps.get(moderated.get(videoId).getId()).add(Step.MODERATION.name());
+      }
+    }
+
+    // Add the videos to, or remove them from, their assignments' YouTube playlists.
+    List<Long> assignmentIds = new ArrayList<Long>();
+    for (VideoSubmission submission : submissions) {
+      assignmentIds.add(submission.getAssignmentId());
+    }
+    Map<Long, Assignment> assignments = assignmentDao.getAssignmentsByIds(assignmentIds);
+
+    Map<String, List<VideoSubmission>> additions = new HashMap<String, List<VideoSubmission>>();
+    Map<String, List<VideoSubmission>> removals = new HashMap<String, List<VideoSubmission>>();
+    for (VideoSubmission submission : submissions) {
+      List<String> steps = completedSteps.get(submission.getId());
+
+      if (!steps.contains(Step.PLAYLIST.name())) {
+        if (submission.isInPlaylist() == isApproved(submission)) {
+          steps.add(Step.PLAYLIST.name());
+        } else {
+          String playlistId = getPlaylistId(assignments, submission);
+          if (playlistId != null) {
+            Map<String, List<VideoSubmission>> changes = isApproved(submission) ? additions
+                : removals;
+            if (!changes.containsKey(playlistId)) {
+              changes.put(playlistId, new ArrayList<VideoSubmission>());
+            }
+            changes.get(playlistId).add(submission);
+          }
+        }
+      }
+    }
+
+    for (Map.Entry<String, List<VideoSubmission>> addition : additions.entrySet()) {
+      Set<String> inserted = adminYouTubeApi.insertVideosIntoPlaylist(addition.getKey(),
+          getVideoIds(addition.getValue()));
+      for (VideoSubmission submission : addition.getValue()) {
+        if (inserted.contains(submission.getVideoId())) {
+          submission.setIsInPlaylist(true);
+          completedSteps.get(submission.getId()).add(Step.PLAYLIST.name());
+          changed.put(submission.getId(), submission);
+        }
+      }
+    }
+
+    for (Map.Entry<String, List<VideoSubmission>> removal : removals.entrySet()) {
+      Set<String> removed = adminYouTubeApi.removeVideosFromPlaylist(removal.getKey(),
+          getVideoIds(removal.getValue()));
+      for (VideoSubmission submission : removal.getValue()) {
+        if (removed.contains(submission.getVideoId())) {
+          submission.setIsInPlaylist(false);
+          completedSteps.get(submission.getId()).add(Step.PLAYLIST.name());
+          changed.put(submission.getId(), submission);
+        }
+      }
+    }
+
+    Set<String> done = new HashSet<String>();
+    for (VideoSubmission submission : submissions) {
+      List<String> steps = completedSteps.get(submission.getId());
+      boolean approved = isApproved(submission);
+
+      // Notify the submitter if there is a notify email
+      if (!steps.contains(Step.EMAIL.name())) {
+        if (adminConfig.isModerationEmail() && !util.isNullOrEmpty(submission.getNotifyEmail())) {
+          emailUtil.sendUserModerationEmail(submission, approved ? ModerationStatus.APPROVED
+              : ModerationStatus.REJECTED);
+        }
+        steps.add(Step.EMAIL.name());
+      }
+
+      if (steps.contains(Step.PLAYLIST.name()) && steps.contains(Step.EMAIL.name())
+          && (!approved || (steps.contains(Step.BRANDING.name())
+              && steps.contains(Step.MODERATION.name())))) {
+        done.add(submission.getId());
+      }
+    }
+
+    submissionDao.saveModeratedSubmissions(changed.values());
+
+    return done;
+  }
+
+  private boolean isApproved(VideoSubmission submission) {
+    return submission.getStatus() == ModerationStatus.APPROVED;
+  }
+
+  private List<String> getVideoIds(List<VideoSubmission> submissions) {
+    List<String> videoIds = new ArrayList<String>();
+    for (VideoSubmission submission : submissions) {
+      videoIds.add(submission.getVideoId());
+    }
+    return videoIds;
+  }
+
+  /**
+   * Prepends the link back text to the video's description. Only called when branding is on.
+   * 
+   * @return false if the video's description needed updating but couldn't be updated.
+   */
+  private boolean applyBranding(AdminConfig adminConfig, VideoSubmission submission) {
+    String linkBackText = adminConfig.getLinkBackText();
+    if (!util.isNullOrEmpty(linkBackText) && !util.isNullOrEmpty(submission.getArticleUrl())) {
+      String prependText = linkBackText.replace("ARTICLE_URL", submission.getArticleUrl());
+
+      if (!submission.getVideoDescription().contains(prependText)) {
+        // We only want to update the video if the text isn't already there.
+        String description = submission.getVideoDescription();
+        String tags = submission.getVideoTags();
+
+        if (updateVideoDescription(submission, prependText, adminConfig.getDefaultTag()) == null) {
+          // Put things back so that a retry doesn't think the text is already there.
+          submission.setVideoDescription(description);
+          submission.setVideoTags(tags);
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Looks up the YouTube playlist of the video's assignment.
+   * 
+   * @return The playlist id, or null if the assignment doesn't have one.
+   */
+  private String getPlaylistId(Map<Long, Assignment> assignments,
+      VideoSubmission videoSubmission) {
+    long assignmentId = videoSubmission.getAssignmentId();
+    Assignment assignment = assignments.get(assignmentId);
+
+    if (assignment == null) {
+      LOG.warning(String.format(
+          "Couldn't find assignment id '%d' for video id '%s'.", assignmentId,
+          videoSubmission.getId()));
+      return null;
+    }
+
+    String playlistId = assignment.getPlaylistId();
+    if (util.isNullOrEmpty(playlistId)) {
+      LOG.warning(String.format(
+          "Assignment id '%d' does not have an associated playlist.",
+          assignmentId));
+      return null;
+    }
+
+    return playlistId;
+  }
+
+  /**
+   * Updates the description of a video, both in the datastore and on YouTube,
+   * to prepend the "branding" text and apply a tag. This should be called when
+   * a video submission is marked for approval. Note that the VideoSubmission is
+   * updated in-memory, but a call to
+   * PersistenceManager.makePersistent(VideoSubmission) must be made by the
+   * calling code to save the changes to the datastore.
+   * 
+   * @param videoSubmission
+   *          The datastore object that is to be changed. Note that this
+   *          parameter will be modified by this method and must be persisted by
+   *          the calling code.
+   * @param prependText
+   *          The text that should be prepending to the video's description.
+   * @return A YouTube API VideoEntry object with the updated description, or
+   *         null if the video could not be updated.
+   */
+  private VideoEntry updateVideoDescription(VideoSubmission videoSubmission,
+      String prependText, String newTag) {
+    UserAuthToken userAuthToken = userAuthTokenDao
+        .getUserAuthToken(videoSubmission.getYouTubeName());
+    if (userAuthToken == null) {
+      LOG.warning(String.format("No UserAuthToken found for YouTube user '%s'.",
+          videoSubmission.getYouTubeName()));
+      return null;
+    }
+    YouTubeApiHelper userYouTubeApi = youTubeClientPool.getUserClient(userAuthToken);
+
+    String videoId = videoSubmission.getVideoId();
+    LOG.info(String.format(
+        "Updating description and tags of id '%s' (YouTube video id '%s').",
+        videoSubmission.getId(), videoId));
+
+    VideoEntry videoEntry = userYouTubeApi.getUploadsVideoEntry(videoId);
+    if (videoEntry == null) {
+      LOG.warning(String.format(
+          "Couldn't get video with id '%s' in the uploads feed of user "
+              + "'%s'. Perhaps the AuthSub token has been revoked?", videoId,
+          videoSubmission.getYouTubeName()));
+    } else {
+      String currentDescription = videoSubmission.getVideoDescription();
+      String newDescription = String.format("%s\n\n%s", prependText,
+          currentDescription);
+
+      // If we have a new tag to add, add to the datastore and YouTube entries.
+      if (!util.isNullOrEmpty(newTag)) {
+        String currentTags = videoSubmission.getVideoTags();
+        String[] tagsArray = currentTags.split(",\\s?");
+        ArrayList<String> tagsArrayList = new ArrayList<String>(Arrays
+            .asList(tagsArray));
+        if (!tagsArrayList.contains(newTag)) {
+          tagsArrayList.add(newTag);
+          String newTags = util.sortedJoin(tagsArrayList, ",");
+          videoSubmission.setVideoTags(newTags);
+        }
+
+        YouTubeMediaGroup mg = videoEntry.getOrCreateMediaGroup();
+        // This should work as expected even if the tag already exists; No
+        // duplicates will be added.
+        mg.getKeywords().addKeyword(newTag);
+      }
+
+      // Update the datastore entry's description.
+      videoSubmission.setVideoDescription(newDescription);
+
+      // Update the YouTube entry's description.
+      videoEntry.getMediaGroup().getDescription().setPlainTextContent(
+          newDescription);
+
+      try {
+        // And update the YouTube.com video as well.
+        videoEntry.update();
+        return videoEntry;
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, String.format(
+            "Error while updating video id '%s':", videoId), e);
+      } catch (ServiceException e) {
+        LOG.log(Level.WARNING, String.format(
+            "Error while updating video id '%s':", videoId), e);
+      }
+    }
+
+    return null;
+  }
+}
@@ -20,18 +20,29 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.security.PrivateKey;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.*;
 import com.google.gdata.client.Service.GDataRequest;
 import com.google.gdata.client.Service.GDataRequest.RequestType;
 import com.google.gdata.client.youtube.YouTubeService;
 import com.google.gdata.data.DateTime;
+import com.google.gdata.data.Entry;
 import com.google.gdata.data.Link;
 import com.google.gdata.data.PlainTextConstruct;
 import com.google.gdata.data.youtube.CaptionTrackEntry;
@@ -47,11 +58,14 @@ import com.google.gdata.data.youtube.VideoFeed;
 import com.google.gdata.util.AuthenticationException;
 import com.google.gdata.util.ContentType;
 import com.google.gdata.util.InvalidEntryException;
+import com.google.gdata.util.NotModifiedException;
+import com.google.gdata.util.ResourceNotFoundException;
 import com.google.gdata.util.ServiceException;
 import com.google.gdata.util.ServiceForbiddenException;
 import com.google.gdata.util.XmlBlob;
-import com.google.inject.Inject;
-import com.google.ytd.dao.AdminConfigDao;
+import com.google.gdata.util.common.xml.XmlNamespace;
+import com.google.ytd.dao.PlaylistMembershipDao;
+import com.google.ytd.model.PlaylistMembership;
 import com.google.ytd.util.Util;
 
 /**
@@ -71,8 +85,12 @@ public class YouTubeApiHelper {
       + "default/playlists?max-results=50";
   private static final String USER_ENTRY_URL = "http://gdata.youtube.com/feeds/api/users/default";
   private static final String UPLOAD_TOKEN_URL = "http://gdata.youtube.com/action/GetUploadToken";
+  private static final String MODERATION_FEED_URL = "http://gdata.youtube.com/feeds/api/"
+      + "products/default/videos";
   private static final String MODERATION_FEED_ENTRY_URL_FORMAT = "http://gdata.youtube.com/feeds/"
       + "api/products/default/videos/%s";
+  private static final XmlNamespace YT_NAMESPACE = new XmlNamespace("yt",
+      "http://gdata.youtube.com/schemas/2007");
   private static final String UPDATED_ENTRY_ATOM_FORMAT = "<entry xmlns='http://www.w3.org/2005/"
       + "Atom' xmlns:yt='http://gdata.youtube.com/schemas/2007'><yt:moderationStatus>%s"
       + "</yt:moderationStatus></entry>";
@@ -81,89 +99,35 @@ public class YouTubeApiHelper {
   private static final String CAPTION_FEED_URL_FORMAT = "http://gdata.youtube.com/feeds/api/"
       + "videos/%s/captions";
   private static final String CAPTION_FAILURE_TAG = "invalidFormat";
+  private static final String CAPTION_CONTENT_TYPE = "application/vnd.youtube.timedtext; "
+      + "charset=UTF-8";
   private static final String UPLOADS_FEED_URL_FORMAT = "http://gdata.youtube.com/feeds/api/"
       + "users/%s/uploads?max-results=50";
   private static final String CLAIMED = "<yt:claimed"; // closing bracked omitted for robustness 
+  // How long the local index of a playlist is trusted before it's re-read from YouTube.
+  private static final long RECONCILE_INTERVAL = 24 * 60 * 60 * 1000L;
 
   private Util util;
   private YouTubeService service = null;
-  private AdminConfigDao adminConfigDao = null;
-  
-  /**
-   * Create a new instance of the class, initializing a YouTubeService object
-   * with parameters specified in appengine-web.xml
-   */
-  @Inject
-  public YouTubeApiHelper(AdminConfigDao adminConfigDao) {
-    this.util = Util.get();
-    this.adminConfigDao = adminConfigDao;
-
-    String clientId = this.adminConfigDao.getAdminConfig().getClientId();
-    String developerKey = this.adminConfigDao.getAdminConfig().getDeveloperKey();
-
-    if (util.isNullOrEmpty(clientId)) {
-      clientId = "";
-      log.warning("clientId settings property is null or empty.");
-    }
-
-    if (util.isNullOrEmpty(developerKey)) {
-      log.warning("developerKey settings property is null or empty.");
-      service = new YouTubeService(clientId);
-    } else {
-      service = new YouTubeService(clientId, developerKey);
-    }
-  }
-
-  public YouTubeApiHelper(String clientId) {
-    this.util = Util.get();
-    if (util.isNullOrEmpty(clientId)) {
-      clientId = "";
-      log.warning("clientId parameter is null or empty.");
-    }
-    service = new YouTubeService(clientId);
-  }
-  
-  /**
-   * Sets the AuthSub token to use for API requests.
-   * 
-   * @param token
-   *          The token to use.
-   */
-  public void setAuthSubToken(String token) {
-    PrivateKey privateKey = adminConfigDao.getPrivateKey();
-    if (privateKey == null) {
-      service.setAuthSubToken(token);
-    } else {
-      service.setAuthSubToken(token, privateKey);
-    }
-  }
+  private PlaylistMembershipDao playlistMembershipDao = null;
 
   /**
-   * Sets the AuthSub token to use for API requests.
-   * 
-   * @param token
-   *          The token to use.
-   */
-  public void setClientLoginToken(String token) {
-    service.setUserToken(token);
-  }  
-  
-  /**
-   * Sets an arbitrary header for all outgoing requests using this service
-   * instance.
+   * Wraps a service whose credentials have already been set. Instances are handed out by
+   * YouTubeClientPool, and are safe to share since nothing here changes the service.
    * 
-   * @param header
-   *          The name of the header.
-   * @param value
-   *          The header's value.
+   * @param playlistMembershipDao
+   *          Lets the playlist methods use the local PlaylistMembership index instead of paging
+   *          through playlist feeds; may be null, in which case they always page.
    */
-  public void setHeader(String header, String value) {
-    service.getRequestFactory().setHeader(header, value);
+  YouTubeApiHelper(YouTubeService service, PlaylistMembershipDao playlistMembershipDao) {
+    this.util = Util.get();
+    this.service = service;
+    this.playlistMembershipDao = playlistMembershipDao;
   }
 
   /**
-   * Gets the username for the authenticated user, assumes that setToken() has
-   * already been called to provide authentication.
+   * Gets the username for the authenticated user, assumes that the helper was
+   * created with credentials.
    * 
    * @return The current username for the authenticated user.
    * @throws ServiceException
@@ -200,8 +164,9 @@ public class YouTubeApiHelper {
    *          The YouTube id of the video to moderate.
    * @param isApproved
    *          true if this video is approved, and false if not.
+   * @return true if the moderation was set.
    */
-  public void updateModeration(String videoId, boolean isApproved) {
+  public boolean updateModeration(String videoId, boolean isApproved) {
     log.info(String.format("Setting moderation of video id '%s' to '%s'.", videoId, isApproved));
 
     String entryUrl = String.format(MODERATION_FEED_ENTRY_URL_FORMAT, videoId);
@@ -216,6 +181,7 @@ public class YouTubeApiHelper {
       GDataRequest request = service.createUpdateRequest(new URL(entryUrl));
       request.getRequestStream().write(updatedEntry.getBytes());
       request.execute();
+      return true;
     } catch (MalformedURLException e) {
       log.log(Level.WARNING, "", e);
     } catch (IOException e) {
@@ -223,6 +189,63 @@ public class YouTubeApiHelper {
     } catch (ServiceException e) {
       log.log(Level.WARNING, "", e);
     }
+
+    return false;
+  }
+
+  /**
+   * Sets the moderation of several videos using batch requests. See updateModeration().
+   * 
+   * @param approvals
+   *          Whether each video, by YouTube id, is approved.
+   * @return The ids of the videos whose moderation was set.
+   */
+  public Set<String> updateModerations(Map<String, Boolean> approvals) {
+    Set<String> updated = new HashSet<String>();
+
+    if (approvals.size() == 1) {
+      Map.Entry<String, Boolean> approval = approvals.entrySet().iterator().next();
+      if (updateModeration(approval.getKey(), approval.getValue())) {
+        updated.add(approval.getKey());
+      }
+      return updated;
+    }
+
+    GDataBatch batch = createBatch();
+    Map<String, GDataBatch.Operation> operations = new HashMap<String, GDataBatch.Operation>();
+    for (Map.Entry<String, Boolean> approval : approvals.entrySet()) {
+      XmlBlob xmlBlob = new XmlBlob();
+      xmlBlob.addNamespace(YT_NAMESPACE);
+      xmlBlob.setBlob(String.format("<yt:moderationStatus>%s</yt:moderationStatus>", approval
+          .getValue() ? MODERATION_ACCEPTED : MODERATION_REJECTED));
+
+      Entry entry = new Entry();
+      entry.setId(String.format(MODERATION_FEED_ENTRY_URL_FORMAT, approval.getKey()));
+      entry.setXmlBlob(xmlBlob);
+      operations.put(approval.getKey(), batch.update(MODERATION_FEED_URL, entry));
+    }
+
+    log.info(String.format("Setting moderation of %d videos in %d requests.", approvals.size(),
+        batch.execute()));
+
+    for (Map.Entry<String, GDataBatch.Operation> operation : operations.entrySet()) {
+      if (operation.getValue().isSuccess()) {
+        updated.add(operation.getKey());
+      } else {
+        log.warning(String.format("Could not set moderation of video id '%s': %d %s",
+            operation.getKey(), operation.getValue().getStatusCode(), operation.getValue()
+                .getReason()));
+      }
+    }
+
+    return updated;
+  }
+
+  /**
+   * @return A batch of operations that will be sent with this helper's credentials.
+   */
+  public GDataBatch createBatch() {
+    return new GDataBatch(service);
   }
 
   /**
@@ -277,6 +300,27 @@ public class YouTubeApiHelper {
     return makeVideoEntryRequest(entryUrl);
   }
 
+  public VideoEntry getUploadsVideoEntryIfChanged(String videoId, String etag)
+      throws NotModifiedException {
+    String entryUrl = generateUploadsVideoEntryUrl(videoId);
+
+    return makeVideoEntryRequest(entryUrl, etag);
+  }
+
+  public VideoEntry getUploadsVideoEntryIfChanged(String username, String videoId, String etag)
+      throws NotModifiedException {
+    String entryUrl = generateUploadsVideoEntryUrl(username, videoId);
+
+    return makeVideoEntryRequest(entryUrl, etag);
+  }
+
+  public VideoEntry getVideoEntryIfChanged(String videoId, String etag)
+      throws NotModifiedException {
+    String entryUrl = generateVideoEntryUrl(videoId);
+
+    return makeVideoEntryRequest(entryUrl, etag);
+  }
+
   public VideoFeed getUploadsFeed(String username) {
     String url = String.format(UPLOADS_FEED_URL_FORMAT, username);
     try {
@@ -292,6 +336,47 @@ public class YouTubeApiHelper {
     return null;
   }
 
+  /**
+   * Reads a user's uploads feed, 50 entries per page, looking for particular videos.
+   * 
+   * @param videoIds
+   *          The videos to look for. Paging stops as soon as all of them have been found.
+   * @param maxPages
+   *          The most pages to read, for users with many more uploads than submissions.
+   * @return The entries that were found, keyed by video id. If the feed can't be read, these are
+   *         just the ones found before the error.
+   */
+  public Map<String, VideoEntry> getUploadsVideoEntries(String username,
+      Collection<String> videoIds, int maxPages) {
+    Set<String> missing = new HashSet<String>(videoIds);
+    Map<String, VideoEntry> entries = new HashMap<String, VideoEntry>();
+    String url = String.format(UPLOADS_FEED_URL_FORMAT, username);
+
+    try {
+      for (int page = 0; page < maxPages && url != null && !missing.isEmpty(); page++) {
+        VideoFeed feed = service.getFeed(new URL(url), VideoFeed.class);
+
+        for (VideoEntry entry : feed.getEntries()) {
+          String videoId = entry.getMediaGroup().getVideoId();
+          if (missing.remove(videoId)) {
+            entries.put(videoId, entry);
+          }
+        }
+
+        Link nextLink = feed.getNextLink();
+        url = nextLink == null ? null : nextLink.getHref();
+      }
+    } catch (MalformedURLException e) {
+      log.log(Level.WARNING, "", e);
+    } catch (IOException e) {
+      log.log(Level.WARNING, "", e);
+    } catch (ServiceException e) {
+      log.log(Level.WARNING, "", e);
+    }
+
+    return entries;
+  }
+
   public Map<String, String> getCaptions(String videoId) {
     String feedUrl = String.format(CAPTION_FEED_URL_FORMAT, videoId);
     try {
@@ -354,16 +439,21 @@ public class YouTubeApiHelper {
    *          The video id of the YouTube video to update.
    * @param captionTrack
    *          The UTF-8 caption track data.
+   * @param languageCode
+   *          The language of the caption track.
    * @return true if the caption track update was successful; false otherwise.
    * @throws MalformedURLException
    * @throws IOException
    * @throws ServiceException
    */
-  public boolean updateCaptionTrack(String videoId, String captionTrack)
+  public boolean updateCaptionTrack(String videoId, String captionTrack, String languageCode)
       throws MalformedURLException, IOException, ServiceException {
     String captionsUrl = String.format(CAPTION_FEED_URL_FORMAT, videoId);
 
-    GDataRequest request = service.createInsertRequest(new URL(captionsUrl));
+    // The headers are set on this request alone, since the service is shared.
+    GDataRequest request = service.createRequest(RequestType.INSERT, new URL(captionsUrl),
+        new ContentType(CAPTION_CONTENT_TYPE));
+    request.setHeader("Content-Language", languageCode);
     request.getRequestStream().write(captionTrack.getBytes("UTF-8"));
     request.execute();
 
@@ -398,7 +488,35 @@ public class YouTubeApiHelper {
    */
   public VideoEntry makeVideoEntryRequest(String entryUrl) {
     try {
-      return service.getEntry(new URL(entryUrl), VideoEntry.class);
+      return makeVideoEntryRequest(entryUrl, null);
+    } catch (NotModifiedException e) {
+      // Can't happen, since the request wasn't conditional.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Gets a YouTube video entry, unless it still matches a previously retrieved version.
+   * 
+   * @param entryUrl
+   *          A URL string representing a GData video entity.
+   * @param etag
+   *          The ETag of the copy of the entry that the caller already has, or null to retrieve
+   *          the entry unconditionally.
+   * @return A VideoEntry representing the video in question, or null.
+   * @throws NotModifiedException
+   *           If the entry still has the given ETag, in which case nothing is downloaded.
+   */
+  public VideoEntry makeVideoEntryRequest(String entryUrl, String etag)
+      throws NotModifiedException {
+    try {
+      if (util.isNullOrEmpty(etag)) {
+        return service.getEntry(new URL(entryUrl), VideoEntry.class);
+      } else {
+        return service.getEntry(new URL(entryUrl), VideoEntry.class, etag);
+      }
+    } catch (NotModifiedException e) {
+      throw e;
     } catch (MalformedURLException e) {
       log.log(Level.WARNING, "", e);
     } catch (IOException e) {
@@ -457,7 +575,15 @@ public class YouTubeApiHelper {
     PlaylistEntry playlistEntry = new PlaylistEntry();
     playlistEntry.setId(videoId);
 
-    if (getVideoInPlaylist(playlistId, videoId) != null) {
+    boolean indexed = isPlaylistIndexed(playlistId);
+    boolean present;
+    if (indexed) {
+      present = playlistMembershipDao.getMembership(playlistId, videoId) != null;
+    } else {
+      present = getVideoInPlaylist(playlistId, videoId) != null;
+    }
+
+    if (present) {
       log.warning(String.format("Video id '%s' is already in playlist id '%s'.", videoId,
           playlistId));
       // Return true here, so that the video is flagged as being in the playlist.
@@ -471,6 +597,13 @@ public class YouTubeApiHelper {
       playlistEntry = service.insert(new URL(getPlaylistFeedUrl(playlistId)), playlistEntry);
       log.info(String.format("Inserted video id '%s' into playlist id '%s' at position 1.",
         videoId, playlistId));
+
+      if (playlistMembershipDao != null) {
+        // New entries go in at the start of the playlist, ahead of everything that's indexed.
+        playlistMembershipDao.save(new PlaylistMembership(playlistId, videoId, playlistEntry
+            .getEditLink().getHref(), -System.currentTimeMillis()));
+      }
+
       return true;
     } catch (MalformedURLException e) {
       log.log(Level.WARNING, "", e);
@@ -482,20 +615,37 @@ public class YouTubeApiHelper {
       if (retry) {
         log.info("Removing oldest entry from playlist and retrying...");
 
-        PlaylistEntry lastVideo = getLastVideoInPlaylist(playlistId);
-        if (lastVideo != null) {
-          try {
-            lastVideo.delete();
+        try {
+          boolean removed = false;
+
+          if (indexed) {
+            PlaylistMembership lastMembership = playlistMembershipDao.getLastMembership(
+                playlistId);
+            if (lastMembership != null) {
+              removed = deletePlaylistEntry(lastMembership);
+            }
+          } else {
+            PlaylistEntry lastVideo = getLastVideoInPlaylist(playlistId);
+            if (lastVideo != null) {
+              lastVideo.delete();
+              if (playlistMembershipDao != null) {
+                playlistMembershipDao.delete(playlistId, lastVideo.getMediaGroup().getVideoId());
+              }
+              removed = true;
+            }
+          }
+
+          if (removed) {
             log.info("Last entry removed.");
 
             return insertVideoIntoPlaylist(playlistId, videoId, false);
-          } catch (IOException innerEx) {
-            log.log(Level.WARNING, "", innerEx);
-          } catch (ServiceException innerEx) {
-            log.log(Level.WARNING, "", innerEx);
-          } catch (UnsupportedOperationException innerEx) {
-            log.log(Level.WARNING, "", innerEx);
           }
+        } catch (IOException innerEx) {
+          log.log(Level.WARNING, "", innerEx);
+        } catch (ServiceException innerEx) {
+          log.log(Level.WARNING, "", innerEx);
+        } catch (UnsupportedOperationException innerEx) {
+          log.log(Level.WARNING, "", innerEx);
         }
       }
     } catch (ServiceException e) {
@@ -539,6 +689,19 @@ public class YouTubeApiHelper {
 
   public boolean removeVideoFromPlaylist(String playlistId, String videoId) {
     try {
+      if (isPlaylistIndexed(playlistId)) {
+        PlaylistMembership membership = playlistMembershipDao.getMembership(playlistId, videoId);
+        // Videos added to the playlist outside of this app since the last reconciliation won't
+        // be indexed yet, so a miss still falls back to paging.
+        if (membership != null) {
+          deletePlaylistEntry(membership);
+          log.info(String.format("Removed video '%s' from playlist id '%s'.", videoId,
+              playlistId));
+
+          return true;
+        }
+      }
+
       PlaylistEntry playlistEntry = getVideoInPlaylist(playlistId, videoId);
 
       if (playlistEntry == null) {
@@ -547,6 +710,9 @@ public class YouTubeApiHelper {
         return false;
       } else {
         playlistEntry.delete();
+        if (playlistMembershipDao != null) {
+          playlistMembershipDao.delete(playlistId, videoId);
+        }
 
         log.info(String.format("Removed video '%s' from playlist id '%s'.", videoId, playlistId));
 
@@ -565,9 +731,299 @@ public class YouTubeApiHelper {
     return false;
   }
 
+  /**
+   * Adds several videos to the start of a playlist using batch requests. Videos that can't be
+   * added in the batch, e.g. because the playlist is full, are retried one by one.
+   * 
+   * @return The ids of the videos that are now in the playlist.
+   */
+  public Set<String> insertVideosIntoPlaylist(String playlistId, Collection<String> videoIds) {
+    Set<String> inserted = new HashSet<String>();
+
+    if (videoIds.size() == 1) {
+      String videoId = videoIds.iterator().next();
+      if (insertVideoIntoPlaylist(playlistId, videoId)) {
+        inserted.add(videoId);
+      }
+      return inserted;
+    }
+
+    Set<String> present = new HashSet<String>();
+    if (isPlaylistIndexed(playlistId)) {
+      for (String videoId : videoIds) {
+        if (playlistMembershipDao.getMembership(playlistId, videoId) != null) {
+          present.add(videoId);
+        }
+      }
+    } else {
+      Map<String, String> entryUrls = getPlaylistEntryUrls(playlistId);
+      if (entryUrls == null) {
+        return inserted;
+      }
+      present.addAll(entryUrls.keySet());
+    }
+
+    String feedUrl = getPlaylistFeedUrl(playlistId);
+    GDataBatch batch = createBatch();
+    Map<String, GDataBatch.Operation> operations = new HashMap<String, GDataBatch.Operation>();
+    for (String videoId : videoIds) {
+      if (present.contains(videoId)) {
+        log.warning(String.format("Video id '%s' is already in playlist id '%s'.", videoId,
+            playlistId));
+        inserted.add(videoId);
+      } else if (!operations.containsKey(videoId)) {
+        PlaylistEntry playlistEntry = new PlaylistEntry();
+        playlistEntry.setId(videoId);
+        playlistEntry.setPosition(0);
+        operations.put(videoId, batch.insert(feedUrl, playlistEntry));
+      }
+    }
+
+    if (batch.size() > 0) {
+      log.info(String.format("Inserting %d videos into playlist id '%s' in %d requests.", batch
+          .size(), playlistId, batch.execute()));
+    }
+
+    for (Map.Entry<String, GDataBatch.Operation> operation : operations.entrySet()) {
+      String videoId = operation.getKey();
+
+      if (operation.getValue().isSuccess()) {
+        if (playlistMembershipDao != null) {
+          playlistMembershipDao.save(new PlaylistMembership(playlistId, videoId, operation
+              .getValue().getResult().getEditLink().getHref(), -System.currentTimeMillis()));
+        }
+        inserted.add(videoId);
+      } else if (insertVideoIntoPlaylist(playlistId, videoId)) {
+        inserted.add(videoId);
+      }
+    }
+
+    return inserted;
+  }
+
+  /**
+   * Removes several videos from a playlist using batch requests.
+   * 
+   * @return The ids of the videos that were removed.
+   */
+  public Set<String> removeVideosFromPlaylist(String playlistId, Collection<String> videoIds) {
+    Set<String> removed = new HashSet<String>();
+
+    if (videoIds.size() == 1) {
+      String videoId = videoIds.iterator().next();
+      if (removeVideoFromPlaylist(playlistId, videoId)) {
+        removed.add(videoId);
+      }
+      return removed;
+    }
+
+    Map<String, String> entryUrls = new HashMap<String, String>();
+    if (isPlaylistIndexed(playlistId)) {
+      for (String videoId : videoIds) {
+        PlaylistMembership membership = playlistMembershipDao.getMembership(playlistId, videoId);
+        if (membership != null) {
+          entryUrls.put(videoId, membership.getEditUrl());
+        } else if (removeVideoFromPlaylist(playlistId, videoId)) {
+          // Not indexed yet, so this falls back to paging.
+          removed.add(videoId);
+        }
+      }
+    } else {
+      Map<String, String> playlistEntryUrls = getPlaylistEntryUrls(playlistId);
+      if (playlistEntryUrls == null) {
+        return removed;
+      }
+
+      for (String videoId : videoIds) {
+        if (playlistEntryUrls.containsKey(videoId)) {
+          entryUrls.put(videoId, playlistEntryUrls.get(videoId));
+        } else {
+          log.warning(String.format("Could not find video id '%s' in playlist id '%s'.",
+              videoId, playlistId));
+        }
+      }
+    }
+
+    String feedUrl = getPlaylistFeedUrl(playlistId);
+    GDataBatch batch = createBatch();
+    Map<String, GDataBatch.Operation> operations = new HashMap<String, GDataBatch.Operation>();
+    for (Map.Entry<String, String> entryUrl : entryUrls.entrySet()) {
+      operations.put(entryUrl.getKey(), batch.delete(feedUrl, entryUrl.getValue()));
+    }
+
+    if (batch.size() > 0) {
+      log.info(String.format("Removing %d videos from playlist id '%s' in %d requests.", batch
+          .size(), playlistId, batch.execute()));
+    }
+
+    for (Map.Entry<String, GDataBatch.Operation> operation : operations.entrySet()) {
+      String videoId = operation.getKey();
+      int statusCode = operation.getValue().getStatusCode();
+
+      // A 404 means the entry was already gone.
+      if (operation.getValue().isSuccess() || statusCode == 404) {
+        if (playlistMembershipDao != null) {
+          playlistMembershipDao.delete(playlistId, videoId);
+        }
+        removed.add(videoId);
+      } else {
+        log.warning(String.format("Could not remove video id '%s' from playlist id '%s': %d %s",
+            videoId, playlistId, statusCode, operation.getValue().getReason()));
+      }
+    }
+
+    return removed;
+  }
+
+  /**
+   * Pages through a playlist's feed.
+   * 
+   * @return The edit URL of each entry in the playlist, by video id, or null if the feed couldn't
+   *         be read.
+   */
+  private Map<String, String> getPlaylistEntryUrls(String playlistId) {
+    Map<String, String> entryUrls = new HashMap<String, String>();
+    String playlistUrl = getPlaylistFeedUrl(playlistId);
+
+    try {
+      while (playlistUrl != null) {
+        PlaylistFeed playlistFeed = service.getFeed(new URL(playlistUrl), PlaylistFeed.class);
+
+        Link nextLink = playlistFeed.getNextLink();
+        if (nextLink == null) {
+          playlistUrl = null;
+        } else {
+          playlistUrl = nextLink.getHref();
+        }
+
+        for (PlaylistEntry playlistEntry : playlistFeed.getEntries()) {
+          entryUrls.put(playlistEntry.getMediaGroup().getVideoId(), playlistEntry.getEditLink()
+              .getHref());
+        }
+      }
+    } catch (MalformedURLException e) {
+      log.log(Level.WARNING, "", e);
+      return null;
+    } catch (IOException e) {
+      log.log(Level.WARNING, "", e);
+      return null;
+    } catch (ServiceException e) {
+      log.log(Level.WARNING, "", e);
+      return null;
+    }
+
+    return entryUrls;
+  }
+
   public String getPlaylistFeedUrl(String playlistId) {
     return String.format(PLAYLIST_ENTRY_URL_FORMAT, playlistId);
   }
+
+  /**
+   * Rebuilds the local index of a playlist from its feed.
+   * 
+   * @return true if the whole feed was read and indexed; false otherwise.
+   */
+  public boolean reconcilePlaylist(String playlistId) {
+    if (playlistMembershipDao == null) {
+      throw new IllegalStateException("No PlaylistMembershipDao is set.");
+    }
+
+    List<PlaylistMembership> memberships = new ArrayList<PlaylistMembership>();
+    String playlistUrl = getPlaylistFeedUrl(playlistId);
+    // Entries indexed from here on may be missing from the feed we're about to read.
+    Date started = new Date();
+
+    try {
+      while (playlistUrl != null) {
+        PlaylistFeed playlistFeed = service.getFeed(new URL(playlistUrl), PlaylistFeed.class);
+
+        Link nextLink = playlistFeed.getNextLink();
+        if (nextLink == null) {
+          playlistUrl = null;
+        } else {
+          playlistUrl = nextLink.getHref();
+        }
+
+        for (PlaylistEntry playlistEntry : playlistFeed.getEntries()) {
+          Integer position = playlistEntry.getPosition();
+          memberships.add(new PlaylistMembership(playlistId, playlistEntry.getMediaGroup()
+              .getVideoId(), playlistEntry.getEditLink().getHref(),
+              position == null ? memberships.size() + 1 : position));
+        }
+      }
+    } catch (MalformedURLException e) {
+      log.log(Level.WARNING, "", e);
+      return false;
+    } catch (IOException e) {
+      log.log(Level.WARNING, "", e);
+      return false;
+    } catch (ServiceException e) {
+      log.log(Level.WARNING, "", e);
+      return false;
+    }
+
+    playlistMembershipDao.reconcile(playlistId, memberships, started);
+    log.info(String.format("Indexed %d entries in playlist id '%s'.", memberships.size(),
+        playlistId));
+
+    return true;
+  }
+
+  /**
+   * Checks whether the playlist's local index can be used, and queues a reconciliation if it has
+   * never been built or is getting old.
+   */
+  private boolean isPlaylistIndexed(String playlistId) {
+    if (playlistMembershipDao == null) {
+      return false;
+    }
+
+    Date reconciled = playlistMembershipDao.getLastReconciled(playlistId);
+    if (reconciled == null
+        || System.currentTimeMillis() - reconciled.getTime() > RECONCILE_INTERVAL) {
+      queueReconcile(playlistId);
+    }
+
+    return reconciled != null;
+  }
+
+  private void queueReconcile(String playlistId) {
+    String namespace = NamespaceManager.get();
+    if (namespace == null) {
+      namespace = "";
+    }
+
+    // Named so that only one reconciliation per playlist is queued in each interval.
+    String taskName = String.format("reconcile-%s-%s-%d", namespace, playlistId,
+        System.currentTimeMillis() / RECONCILE_INTERVAL).replaceAll("[^a-zA-Z0-9_-]", "_");
+
+    try {
+      Queue queue = QueueFactory.getDefaultQueue();
+      queue.add(withUrl("/tasks/ReconcilePlaylist").method(Method.POST).taskName(taskName)
+          .param("playlistId", playlistId).param("ns", namespace));
+    } catch (TaskAlreadyExistsException e) {
+      // Already queued by an earlier request.
+    }
+  }
+
+  /**
+   * Deletes an indexed entry from the playlist on YouTube, and from the index.
+   * 
+   * @return true if the entry is no longer in the playlist.
+   */
+  private boolean deletePlaylistEntry(PlaylistMembership membership) throws IOException,
+      ServiceException {
+    try {
+      service.delete(new URL(membership.getEditUrl()));
+    } catch (ResourceNotFoundException e) {
+      log.info(String.format("Entry for video id '%s' was already gone from playlist id '%s'.",
+          membership.getVideoId(), membership.getPlaylistId()));
+    }
+
+    playlistMembershipDao.delete(membership.getPlaylistId(), membership.getVideoId());
+    return true;
+  }
   
   public List<PlaylistLinkEntry> getDefaulUsersPlaylists() {
     ArrayList<PlaylistLinkEntry> playlistEntries = new ArrayList<PlaylistLinkEntry>();
@@ -0,0 +1,174 @@
+/* Copyright (c) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ytd.youtube;
+
+import java.security.PrivateKey;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.gdata.client.youtube.YouTubeService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.ytd.dao.AdminConfigDao;
+import com.google.ytd.dao.PlaylistMembershipDao;
+import com.google.ytd.model.AdminConfig;
+import com.google.ytd.model.UserAuthToken;
+import com.google.ytd.util.Util;
+
+/**
+ * Hands out YouTubeApiHelpers that are bound to a single set of credentials.
+ *
+ * The YouTubeService behind each helper is configured once, when it's created, and never changed
+ * afterwards, so helpers can be shared between concurrent requests. Services are kept in a
+ * bounded, least recently used pool, keyed by their credentials and by the client id, developer
+ * key and private key from the admin config, so changing any of those settings takes effect
+ * straight away.
+ */
+@Singleton
+public class YouTubeClientPool {
+  private static final Logger log = Logger.getLogger(YouTubeClientPool.class.getName());
+
+  private static final int MAX_CLIENTS = 100;
+
+  private enum CredentialType {
+    NONE, AUTH_SUB, CLIENT_LOGIN
+  }
+
+  private AdminConfigDao adminConfigDao = null;
+  private PlaylistMembershipDao playlistMembershipDao = null;
+  private Util util = null;
+
+  private final Map<String, YouTubeService> services = new LinkedHashMap<String, YouTubeService>(
+      16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, YouTubeService> eldest) {
+      return size() > MAX_CLIENTS;
+    }
+  };
+
+  @Inject
+  public YouTubeClientPool(AdminConfigDao adminConfigDao,
+      PlaylistMembershipDao playlistMembershipDao, Util util) {
+    this.adminConfigDao = adminConfigDao;
+    this.playlistMembershipDao = playlistMembershipDao;
+    this.util = util;
+  }
+
+  /**
+   * @return A helper that makes unauthenticated requests.
+   */
+  public YouTubeApiHelper getAnonymousClient() {
+    return getClient(CredentialType.NONE, "");
+  }
+
+  public YouTubeApiHelper getAuthSubClient(String token) {
+    if (util.isNullOrEmpty(token)) {
+      throw new IllegalArgumentException("AuthSub token is null or empty.");
+    }
+    return getClient(CredentialType.AUTH_SUB, token);
+  }
+
+  public YouTubeApiHelper getClientLoginClient(String token) {
+    if (util.isNullOrEmpty(token)) {
+      throw new IllegalArgumentException("ClientLogin token is null or empty.");
+    }
+    return getClient(CredentialType.CLIENT_LOGIN, token);
+  }
+
+  /**
+   * @return A helper that uses the user's AuthSub token if they have one, or their ClientLogin
+   *         token otherwise.
+   */
+  public YouTubeApiHelper getUserClient(UserAuthToken userAuthToken) {
+    if (!util.isNullOrEmpty(userAuthToken.getAuthSubToken())) {
+      return getAuthSubClient(userAuthToken.getAuthSubToken());
+    } else {
+      return getClientLoginClient(userAuthToken.getClientLoginToken());
+    }
+  }
+
+  /**
+   * @return A helper that uses the AuthSub token from the admin config, or an unauthenticated one
+   *         if there is no such token.
+   */
+  public YouTubeApiHelper getAdminClient() {
+    String token = adminConfigDao.getAdminConfig().getYouTubeAuthSubToken();
+    if (util.isNullOrEmpty(token)) {
+      log.warning("No AuthSub token found in admin config.");
+      return getAnonymousClient();
+    }
+    return getAuthSubClient(token);
+  }
+
+  private YouTubeApiHelper getClient(CredentialType credentialType, String token) {
+    AdminConfig adminConfig = adminConfigDao.getAdminConfig();
+    String clientId = adminConfig.getClientId();
+    String developerKey = adminConfig.getDeveloperKey();
+    byte[] privateKeyBytes = adminConfig.getPrivateKeyBytes();
+
+    String key = String.format("%s\n%s\n%s\n%d\n%s", credentialType, clientId, developerKey,
+        Arrays.hashCode(privateKeyBytes), token);
+
+    YouTubeService service = null;
+    synchronized (services) {
+      service = services.get(key);
+    }
+
+    if (service == null) {
+      service = createService(clientId, developerKey, credentialType, token);
+
+      synchronized (services) {
+        services.put(key, service);
+      }
+    }
+
+    return new YouTubeApiHelper(service, playlistMembershipDao);
+  }
+
+  private YouTubeService createService(String clientId, String developerKey,
+      CredentialType credentialType, String token) {
+    if (util.isNullOrEmpty(clientId)) {
+      clientId = "";
+      log.warning("clientId settings property is null or empty.");
+    }
+
+    YouTubeService service = null;
+    if (util.isNullOrEmpty(developerKey)) {
+      log.warning("developerKey settings property is null or empty.");
+      service = new YouTubeService(clientId);
+    } else {
+      service = new YouTubeService(clientId, developerKey);
+    }
+
+    switch (credentialType) {
+      case AUTH_SUB:
+        PrivateKey privateKey = adminConfigDao.getPrivateKey();
+        if (privateKey == null) {
+          service.setAuthSubToken(token);
+        } else {
+          service.setAuthSubToken(token, privateKey);
+        }
+        break;
+      case CLIENT_LOGIN:
+        service.setUserToken(token);
+        break;
+    }
+
+    return service;
+  }
+}
@@ -0,0 +1,48 @@
+package com.google.ytd.dao;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobKey;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps blobs in memory, so that code which writes to the Blobstore can be tested without the
+ * Files API.
+ */
+public class InMemoryBlobDao implements BlobDao {
+  private Map<BlobKey, BlobInfo> blobInfos = new LinkedHashMap<BlobKey, BlobInfo>();
+  private Map<BlobKey, byte[]> blobs = new LinkedHashMap<BlobKey, byte[]>();
+
+  @Override
+  public BlobInfo save(String contentType, String fileName, InputStream data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = data.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+
+    BlobKey blobKey = new BlobKey("blob" + (blobs.size() + 1));
+    BlobInfo blobInfo = new BlobInfo(blobKey, contentType, new Date(), fileName, out.size());
+    blobInfos.put(blobKey, blobInfo);
+    blobs.put(blobKey, out.toByteArray());
+
+    return blobInfo;
+  }
+
+  /**
+   * @return The blobs saved so far, in the order they were saved.
+   */
+  public Map<BlobKey, BlobInfo> getBlobInfos() {
+    return blobInfos;
+  }
+
+  public byte[] getData(BlobKey blobKey) {
+    return blobs.get(blobKey);
+  }
+}
@@ -1,5 +1,7 @@
 package com.google.ytd.jsonrpc;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -16,8 +18,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.google.ytd.command.GetVideoSubmissions;
+import com.google.ytd.dao.ResultPage;
+import com.google.ytd.dao.SubmissionCounterDao;
 import com.google.ytd.dao.VideoSubmissionDao;
 import com.google.ytd.model.VideoSubmission;
+import com.google.ytd.util.Util;
 
 public class BasicCommandTest {
   @Before
@@ -33,23 +38,29 @@ public class BasicCommandTest {
 
     JUnit4Mockery mockery = new JUnit4Mockery();
     final VideoSubmissionDao manager = mockery.mock(VideoSubmissionDao.class);
+    final SubmissionCounterDao counter = mockery.mock(SubmissionCounterDao.class);
     mockery.checking(new Expectations() {
       {
-        oneOf(manager).getSubmissions(with("created"), with("desc"), with("all"));
-        will(returnValue(submissions));
+        oneOf(manager).getSubmissions(with("created"), with("desc"), with("all"), with(10),
+            with(aNull(String.class)));
+        will(returnValue(new ResultPage<VideoSubmission>(submissions, null, false)));
+        oneOf(counter).getCount(VideoSubmission.class, null, "all");
+        will(returnValue(1l));
       }
     });
 
-    GetVideoSubmissions command = new GetVideoSubmissions(manager);
+    GetVideoSubmissions command = new GetVideoSubmissions(manager, counter, new Util());
     Map<String, String> params = new HashMap<String, String>();
     params.put("sortBy", "created");
     params.put("sortOrder", "desc");
     params.put("filterType", "all");
-    params.put("pageIndex", "1");
     params.put("pageSize", "10");
     command.setParams(params);
     JSONObject response = command.execute();
     assertNotNull("JSONObject is null", response);
-    assertTrue("result length is zero", response.getInt("totalPages") > 0);
+    assertTrue("result length is zero", response.getJSONArray("result").length() > 0);
+    assertFalse("unexpected next page", response.getBoolean("hasMore"));
+    assertEquals(1, response.getLong("totalSize"));
+    assertEquals(1, response.getLong("totalPages"));
   }
 }
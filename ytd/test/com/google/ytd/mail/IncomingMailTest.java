@@ -0,0 +1,142 @@
+package com.google.ytd.mail;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.ytd.dao.AdminConfigDao;
+import com.google.ytd.dao.AssignmentDao;
+import com.google.ytd.dao.BlobDao;
+import com.google.ytd.dao.InMemoryBlobDao;
+import com.google.ytd.dao.PhotoSubmissionDao;
+import com.google.ytd.model.PhotoEntry;
+import com.google.ytd.util.Util;
+
+public class IncomingMailTest {
+  private static final String MESSAGE = "From: Someone <someone@example.com>\r\n"
+      + "Subject: Photos\r\n"
+      + "Content-Type: multipart/mixed; boundary=\"outer\"\r\n"
+      + "\r\n"
+      + "--outer\r\n"
+      + "Content-Type: text/plain; charset=utf-8\r\n"
+      + "Content-Transfer-Encoding: quoted-printable\r\n"
+      + "\r\n"
+      + "Caf=C3=A9 at noon\r\n"
+      + "--outer\r\n"
+      + "Content-Type: image/jpeg\r\n"
+      + "Content-Disposition: attachment; filename=\"=?utf-8?Q?caf=C3=A9.jpg?=\"\r\n"
+      + "Content-Transfer-Encoding: base64\r\n"
+      + "\r\n"
+      + "AAECAwQF\r\n"
+      + "BgcICQ==\r\n"
+      + "--outer\r\n"
+      + "Content-Type: text/plain\r\n"
+      + "\r\n"
+      + "Sent from my phone\r\n"
+      + "--outer\r\n"
+      + "Content-Type: image/png; name=second.png\r\n"
+      + "\r\n"
+      + "PNG\r\n"
+      + "--outer--\r\n";
+
+  private JUnit4Mockery mockery = new JUnit4Mockery();
+  private InMemoryBlobDao blobDao = new InMemoryBlobDao();
+  private PhotoSubmissionDao photoSubmissionDao = mockery.mock(PhotoSubmissionDao.class);
+  private List<PhotoEntry> savedEntries = new ArrayList<PhotoEntry>();
+  private IncomingMail incomingMail;
+
+  @Before
+  public void setUp() {
+    incomingMail = Guice.createInjector(new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(BlobDao.class).toInstance(blobDao);
+        bind(PhotoSubmissionDao.class).toInstance(photoSubmissionDao);
+        bind(AssignmentDao.class).toInstance(mockery.mock(AssignmentDao.class));
+        bind(AdminConfigDao.class).toInstance(mockery.mock(AdminConfigDao.class));
+      }
+    }).getInstance(IncomingMail.class);
+
+    mockery.checking(new Expectations() {
+      {
+        allowing(photoSubmissionDao).save(with(any(PhotoEntry.class)));
+        will(new CustomAction("save entry") {
+          @Override
+          public Object invoke(Invocation invocation) {
+            PhotoEntry photoEntry = (PhotoEntry) invocation.getParameter(0);
+            savedEntries.add(photoEntry);
+            return photoEntry;
+          }
+        });
+      }
+    });
+  }
+
+  @Test
+  public void testImagesAreSavedWithTheirEntries() throws Exception {
+    IncomingMail.AttachmentHandler handler = readAttachments(MESSAGE);
+
+    assertEquals(2, handler.getImageCount());
+    assertEquals(2, blobDao.getBlobInfos().size());
+    assertEquals(2, savedEntries.size());
+
+    PhotoEntry jpeg = savedEntries.get(0);
+    BlobInfo jpegInfo = blobDao.getBlobInfos().get(jpeg.getBlobKey());
+    byte[] jpegData = new byte[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+    assertArrayEquals(jpegData, blobDao.getData(jpeg.getBlobKey()));
+    assertEquals("image/jpeg", jpegInfo.getContentType());
+    assertEquals("caf\u00e9.jpg", jpegInfo.getFilename());
+    assertEquals("submission", jpeg.getSubmissionId());
+    assertEquals("image/jpeg", jpeg.getFormat());
+    assertEquals("caf\u00e9.jpg", jpeg.getOriginalFileName());
+    assertEquals(10, jpeg.getOriginalFileSize());
+    assertEquals(sha256(jpegData), jpeg.getSha256());
+
+    PhotoEntry png = savedEntries.get(1);
+    assertArrayEquals("PNG".getBytes("US-ASCII"), blobDao.getData(png.getBlobKey()));
+    assertEquals("image/png", png.getFormat());
+    assertEquals("second.png", png.getOriginalFileName());
+  }
+
+  @Test
+  public void testFirstTextPartIsTheDescription() throws Exception {
+    IncomingMail.AttachmentHandler handler = readAttachments(MESSAGE);
+
+    assertEquals("Caf\u00e9 at noon", handler.getDescription());
+  }
+
+  @Test
+  public void testMessageWithoutImagesSavesNothing() throws Exception {
+    IncomingMail.AttachmentHandler handler = readAttachments("Content-Type: multipart/mixed; "
+        + "boundary=b\r\n\r\n--b\r\nContent-Type: text/plain\r\n\r\nJust text\r\n--b--\r\n");
+
+    assertEquals(0, handler.getImageCount());
+    assertEquals(0, blobDao.getBlobInfos().size());
+    assertEquals(0, savedEntries.size());
+  }
+
+  private IncomingMail.AttachmentHandler readAttachments(String message) throws Exception {
+    MimeStreamParser parser = new MimeStreamParser(new ByteArrayInputStream(message
+        .getBytes("US-ASCII")), 10000, 10000);
+    parser.readHeaders();
+    return incomingMail.readAttachments(parser, "submission");
+  }
+
+  private String sha256(byte[] data) throws Exception {
+    Util util = new Util();
+    return util.getSha256(new ByteArrayInputStream(data));
+  }
+}
@@ -0,0 +1,143 @@
+package com.google.ytd.mail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.mail.internet.InternetHeaders;
+
+import org.junit.Test;
+
+public class MimeStreamParserTest {
+  private static final String MESSAGE = "From: Someone <someone@example.com>\r\n"
+      + "Subject: A long\r\n"
+      + " subject\r\n"
+      + "Content-Type: multipart/mixed; boundary=\"outer\"\r\n"
+      + "\r\n"
+      + "Preamble.\r\n"
+      + "--outer\r\n"
+      + "Content-Type: multipart/alternative; boundary=inner\r\n"
+      + "\r\n"
+      + "--inner\r\n"
+      + "Content-Type: text/plain\r\n"
+      + "\r\n"
+      + "Line one\r\n"
+      + "--not a boundary\r\n"
+      + "\r\n"
+      + "--inner\r\n"
+      + "Content-Type: text/html\r\n"
+      + "\r\n"
+      + "<p>Hi</p>\r\n"
+      + "--inner--\r\n"
+      + "\r\n"
+      + "--outer\r\n"
+      + "Content-Type: image/jpeg; name=photo.jpg\r\n"
+      + "Content-Transfer-Encoding: base64\r\n"
+      + "\r\n"
+      + "AAECAwQF\r\n"
+      + "BgcICQ==\r\n"
+      + "--outer--\r\n"
+      + "Epilogue.\r\n";
+
+  private class RecordingHandler implements MimeStreamParser.PartHandler {
+    private List<String> types = new ArrayList<String>();
+    private List<byte[]> bodies = new ArrayList<byte[]>();
+
+    @Override
+    public void handlePart(InternetHeaders headers, InputStream body) throws IOException {
+      types.add(MimeStreamParser.getBaseType(headers));
+      bodies.add(readAll(body));
+    }
+  }
+
+  @Test
+  public void testHeadersAreUnfolded() throws Exception {
+    InternetHeaders headers = parser(MESSAGE, 10000, 10000).readHeaders();
+
+    assertEquals("A long subject", headers.getHeader("Subject", null));
+    assertEquals("multipart/mixed", MimeStreamParser.getBaseType(headers));
+  }
+
+  @Test
+  public void testNestedPartsAreFlattenedAndDecoded() throws Exception {
+    MimeStreamParser parser = parser(MESSAGE, 10000, 10000);
+    parser.readHeaders();
+    RecordingHandler handler = new RecordingHandler();
+    parser.readParts(handler);
+
+    assertEquals(3, handler.types.size());
+    assertEquals("text/plain", handler.types.get(0));
+    assertEquals("Line one\r\n--not a boundary\r\n",
+        new String(handler.bodies.get(0), "US-ASCII"));
+    assertEquals("text/html", handler.types.get(1));
+    assertEquals("<p>Hi</p>", new String(handler.bodies.get(1), "US-ASCII"));
+    assertEquals("image/jpeg", handler.types.get(2));
+    assertEquals(10, handler.bodies.get(2).length);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, handler.bodies.get(2)[i]);
+    }
+  }
+
+  @Test
+  public void testUnreadPartsAreSkipped() throws Exception {
+    MimeStreamParser parser = parser(MESSAGE, 10000, 10000);
+    parser.readHeaders();
+    final List<String> types = new ArrayList<String>();
+    parser.readParts(new MimeStreamParser.PartHandler() {
+      @Override
+      public void handlePart(InternetHeaders headers, InputStream body) {
+        types.add(MimeStreamParser.getBaseType(headers));
+      }
+    });
+
+    assertEquals(3, types.size());
+  }
+
+  @Test
+  public void testOversizedPartsAreRejected() throws Exception {
+    MimeStreamParser parser = parser(MESSAGE, 10000, 9);
+    parser.readHeaders();
+
+    try {
+      parser.readParts(new RecordingHandler());
+      fail();
+    } catch (MimeStreamParser.SizeLimitException e) {
+      // The 10 byte image is over the limit.
+    }
+  }
+
+  @Test
+  public void testOversizedMessagesAreRejected() throws Exception {
+    MimeStreamParser parser = parser(MESSAGE, MESSAGE.length() - 1, 10000);
+
+    try {
+      parser.readHeaders();
+      parser.readParts(new RecordingHandler());
+      fail();
+    } catch (MimeStreamParser.SizeLimitException e) {
+      // The message is a byte over the limit.
+    }
+  }
+
+  private MimeStreamParser parser(String message, long maxMessageSize, long maxPartSize)
+      throws IOException {
+    return new MimeStreamParser(new ByteArrayInputStream(message.getBytes("US-ASCII")),
+        maxMessageSize, maxPartSize);
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[3];
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,53 @@
+package com.google.ytd.picasa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class PhotoDownscalerTest {
+  private static final int[] APP0 = { 0xFF, 0xE0, 0x00, 0x10, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0,
+      1, 0, 1, 0, 0 };
+  private static final int[] SOF0 = { 0xFF, 0xC0, 0x00, 0x11, 8, 0x03, 0x00, 0x04, 0x00, 3, 1,
+      0x22, 0, 2, 0x11, 1, 3, 0x11, 1 };
+  private static final int[] DHT = { 0xFF, 0xC4, 0x00, 0x04, 0, 0 };
+  private static final int[] SOS = { 0xFF, 0xDA, 0x00, 0x02 };
+
+  @Test
+  public void testSizeIsReadFromTheFrameHeader() throws IOException {
+    int[] size = getJpegSize(new int[] { 0xFF, 0xD8 }, APP0, DHT, SOF0, SOS);
+
+    assertEquals(1024, size[0]);
+    assertEquals(768, size[1]);
+  }
+
+  @Test
+  public void testOtherFormatsAreIgnored() throws IOException {
+    assertNull(getJpegSize(new int[] { 0x89, 'P', 'N', 'G' }, APP0, SOF0));
+  }
+
+  @Test
+  public void testImageDataEndsTheSearch() throws IOException {
+    assertNull(getJpegSize(new int[] { 0xFF, 0xD8 }, APP0, SOS, SOF0));
+  }
+
+  private int[] getJpegSize(int[]... segments) throws IOException {
+    int length = 0;
+    for (int[] segment : segments) {
+      length += segment.length;
+    }
+
+    byte[] data = new byte[length];
+    int i = 0;
+    for (int[] segment : segments) {
+      for (int b : segment) {
+        data[i++] = (byte) b;
+      }
+    }
+
+    return PhotoDownscaler.getJpegSize(new ByteArrayInputStream(data));
+  }
+}
@@ -0,0 +1,42 @@
+package com.google.ytd.picasa;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class UploadChunkSizerTest {
+  private static final int UNIT = UploadChunkSizer.UNIT;
+
+  private UploadChunkSizer sizer = new UploadChunkSizer();
+
+  @Test
+  public void testUnmeasuredUploadsUseTheInitialSize() {
+    assertEquals(UploadChunkSizer.INITIAL_CHUNK_SIZE, sizer.getChunkSize(null));
+  }
+
+  @Test
+  public void testFastChunksAtMostDouble() {
+    assertEquals(6 * UNIT, sizer.afterSuccess(3 * UNIT, 3 * UNIT, 100));
+    assertEquals(UploadChunkSizer.MAX_CHUNK_SIZE, sizer.afterSuccess(
+        UploadChunkSizer.MAX_CHUNK_SIZE, UploadChunkSizer.MAX_CHUNK_SIZE, 100));
+  }
+
+  @Test
+  public void testSlowChunksShrinkToWholeUnits() {
+    // 4 units in 8 seconds is 2 units in the 4 second target.
+    assertEquals(2 * UNIT, sizer.afterSuccess(4 * UNIT, 4 * UNIT, 8000));
+    assertEquals(UploadChunkSizer.MIN_CHUNK_SIZE, sizer.afterSuccess(4 * UNIT, 4 * UNIT, 60000));
+  }
+
+  @Test
+  public void testShortChunksDontChangeTheSize() {
+    assertEquals(3 * UNIT, sizer.afterSuccess(3 * UNIT, 1000, 60000));
+  }
+
+  @Test
+  public void testTimeoutsHalveTheSize() {
+    assertEquals(3 * UNIT, sizer.afterTimeout(6 * UNIT));
+    assertEquals(UNIT, sizer.afterTimeout(3 * UNIT));
+    assertEquals(UploadChunkSizer.MIN_CHUNK_SIZE, sizer.afterTimeout(UNIT));
+  }
+}
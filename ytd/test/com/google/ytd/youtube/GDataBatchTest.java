@@ -0,0 +1,97 @@
+package com.google.ytd.youtube;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gdata.client.youtube.YouTubeService;
+import com.google.gdata.data.youtube.PlaylistEntry;
+
+public class GDataBatchTest {
+  private LocalGDataServer server = null;
+  private GDataBatch batch = null;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new LocalGDataServer();
+    server.start();
+    batch = new GDataBatch(new YouTubeService("test"));
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Test
+  public void testInsertsAreSentInBatches() {
+    String feedUrl = server.getFeedUrl("/feeds/api/playlists/PL1");
+
+    List<GDataBatch.Operation> operations = new ArrayList<GDataBatch.Operation>();
+    for (int i = 0; i < 120; i++) {
+      PlaylistEntry entry = new PlaylistEntry();
+      entry.setId("video" + i);
+      operations.add(batch.insert(feedUrl, entry));
+    }
+    assertEquals(120, batch.size());
+
+    assertEquals(3, batch.execute());
+    assertEquals(Arrays.asList(50, 50, 20), server.getBatchSizes());
+    assertEquals("/feeds/api/playlists/PL1/batch", server.getPaths().get(0));
+    assertEquals(0, batch.size());
+
+    for (GDataBatch.Operation operation : operations) {
+      assertTrue(operation.isSuccess());
+      assertEquals(201, operation.getStatusCode());
+      assertNotNull(operation.getResult().getEditLink());
+    }
+  }
+
+  @Test
+  public void testOperationsAreGroupedByFeed() {
+    String firstFeedUrl = server.getFeedUrl("/feeds/api/playlists/PL1");
+    String secondFeedUrl = server.getFeedUrl("/feeds/api/playlists/PL2");
+
+    batch.delete(firstFeedUrl, firstFeedUrl + "/entry1");
+    batch.delete(secondFeedUrl, secondFeedUrl + "/entry2");
+    batch.delete(firstFeedUrl, firstFeedUrl + "/entry3");
+
+    assertEquals(2, batch.execute());
+    assertEquals(Arrays.asList("/feeds/api/playlists/PL1/batch",
+        "/feeds/api/playlists/PL2/batch"), server.getPaths());
+    assertEquals(Arrays.asList(2, 1), server.getBatchSizes());
+  }
+
+  @Test
+  public void testFailuresAreReportedPerOperation() {
+    String feedUrl = server.getFeedUrl("/feeds/api/playlists/PL1");
+    server.fail(feedUrl + "/entry2");
+
+    GDataBatch.Operation first = batch.delete(feedUrl, feedUrl + "/entry1");
+    GDataBatch.Operation second = batch.delete(feedUrl, feedUrl + "/entry2");
+    batch.execute();
+
+    assertTrue(first.isSuccess());
+    assertFalse(second.isSuccess());
+    assertEquals(403, second.getStatusCode());
+  }
+
+  @Test
+  public void testFailedRequestLeavesOperationsUnexecuted() {
+    GDataBatch.Operation operation = batch.delete("http://localhost:1/feeds/api/playlists/PL1",
+        "http://localhost:1/feeds/api/playlists/PL1/entry1");
+
+    assertEquals(1, batch.execute());
+    assertFalse(operation.isSuccess());
+    assertEquals(0, operation.getStatusCode());
+  }
+}
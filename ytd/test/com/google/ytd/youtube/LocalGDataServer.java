@@ -0,0 +1,137 @@
+package com.google.ytd.youtube;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for the GData batch endpoints, which answers every batch request with a status for
+ * each of its entries and records what it was sent.
+ */
+public class LocalGDataServer {
+  private static final Pattern ENTRY = Pattern.compile("<(atom:)?entry[ >].*?</(atom:)?entry>",
+      Pattern.DOTALL);
+  private static final Pattern BATCH_ID = Pattern.compile("<batch:id>([^<]*)</batch:id>");
+  private static final Pattern ID = Pattern.compile("<(?:atom:)?id>([^<]*)</(?:atom:)?id>");
+  private static final Pattern OPERATION = Pattern.compile("operation type=['\"](\\w+)['\"]");
+
+  private HttpServer server = null;
+  private List<String> paths = new ArrayList<String>();
+  private List<Integer> batchSizes = new ArrayList<Integer>();
+  private Set<String> failingIds = new HashSet<String>();
+
+  public void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        respond(exchange);
+      }
+    });
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+  }
+
+  public String getFeedUrl(String path) {
+    return String.format("http://localhost:%d%s", server.getAddress().getPort(), path);
+  }
+
+  /**
+   * Makes operations on entries with the given id (or, for inserts, the given batch id) fail.
+   */
+  public void fail(String id) {
+    failingIds.add(id);
+  }
+
+  public synchronized List<String> getPaths() {
+    return paths;
+  }
+
+  public synchronized List<Integer> getBatchSizes() {
+    return batchSizes;
+  }
+
+  private synchronized void respond(HttpExchange exchange) throws IOException {
+    String body = read(exchange.getRequestBody());
+    paths.add(exchange.getRequestURI().getPath());
+
+    StringBuilder feed = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>"
+        + "<feed xmlns='http://www.w3.org/2005/Atom' "
+        + "xmlns:batch='http://schemas.google.com/gdata/batch'><id>batch</id>"
+        + "<updated>2010-01-01T00:00:00.000Z</updated><title>Batch results</title>");
+
+    int count = 0;
+    Matcher entries = ENTRY.matcher(body);
+    while (entries.find()) {
+      String entry = entries.group();
+      String batchId = null;
+      String id = null;
+      String type = "insert";
+
+      Matcher batchIdMatcher = BATCH_ID.matcher(entry);
+      if (batchIdMatcher.find()) {
+        batchId = batchIdMatcher.group(1);
+      }
+      Matcher idMatcher = ID.matcher(entry);
+      if (idMatcher.find()) {
+        id = idMatcher.group(1);
+      }
+      Matcher operationMatcher = OPERATION.matcher(entry);
+      if (operationMatcher.find()) {
+        type = operationMatcher.group(1);
+      }
+
+      int code = "insert".equals(type) ? 201 : 200;
+      if (failingIds.contains(batchId) || failingIds.contains(id)) {
+        code = 403;
+      }
+
+      // Inserted entries get a new URL; anything else keeps the one it was sent with.
+      String entryId = id;
+      if ("insert".equals(type)) {
+        entryId = getFeedUrl(exchange.getRequestURI().getPath().replace("/batch", "/entry"
+            + batchId));
+      }
+      feed.append(String.format("<entry><id>%s</id><updated>2010-01-01T00:00:00.000Z</updated>"
+          + "<title>%s</title><link rel='edit' type='application/atom+xml' href='%s'/>"
+          + "<batch:id>%s</batch:id>"
+          + "<batch:operation type='%s'/><batch:status code='%d' reason='%s'/></entry>",
+          entryId, type, entryId, batchId, type, code, code == 403 ? "Forbidden" : "OK"));
+      count++;
+    }
+    feed.append("</feed>");
+    batchSizes.add(count);
+
+    byte[] response = feed.toString().getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", "application/atom+xml; charset=UTF-8");
+    exchange.sendResponseHeaders(200, response.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(response);
+    out.close();
+  }
+
+  private String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toString("UTF-8");
+  }
+}
@@ -70,6 +70,19 @@ limitations under the License.
       <div class="help">
         Only individual photo submissions smaller than this size will be allowed.
       </div>
+      <div class="clear">
+        <label for="maxPhotoEdge" class="configureLabel">Downscale Photos To:</label>
+        <select class="configureInput" id="maxPhotoEdge">
+          <option value="0" selected="selected">Off</option>
+          <option value="1024">1024 pixels</option>
+          <option value="1600">1600 pixels</option>
+          <option value="2048">2048 pixels</option>
+          <option value="3200">3200 pixels</option>
+        </select>
+      </div>
+      <div class="help">
+        JPEG photos whose longer side is larger than this are resized and recompressed before they're uploaded to Picasa, which makes uploads faster. Smaller photos, and photos in other formats, are uploaded as they were submitted.
+      </div>
       <div class="clear">
         <label for="recaptchaPrivateKey" class="configureLabel">ReCaptcha Private Key: </label>
         <input class="configureInput" id="recaptchaPrivateKey" type="text"/>
@@ -21,6 +21,8 @@ limitations under the License.
 			<input id="photoPrevPage" value="<< Prev" type="button"/>
 			<span id="photoPageIndex"></span>	
 			<input id="photoNextPage" value="Next >>" type="button"/>
+			&nbsp;&nbsp;&nbsp;
+			<span id="photoDuplicateRate"></span>
 	</div>
 	<table id="photoGrid" class="scroll" cellpadding="0" cellspacing="0"></table>
 	
@@ -22,7 +22,8 @@ admin.config.BASIC_PARAMS = ['developerKey', 'defaultTag', 'linkBackText',
                              'moderationMode', 'newSubmissionAddress', 'brandingMode',
                              'loginInstruction', 'postSubmitMessage', 'fromAddress',
                              'approvalEmailText', 'rejectionEmailText', 'privateKeyBytes', 
-                             'maxPhotoSizeMb', 'recaptchaPrivateKey', 'recaptchaPublicKey'];
+                             'maxPhotoSizeMb', 'maxPhotoEdge', 'recaptchaPrivateKey',
+                             'recaptchaPublicKey'];
 admin.config.CHECKBOX_PARAMS = ['photoSubmissionEnabled', 'moderationEmail'];
 
 admin.config.init = function(namespace) {
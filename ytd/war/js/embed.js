@@ -521,6 +521,8 @@ function getUploadToken() {
   ajaxCall.success = function(res) {
     var uploadToken = res.uploadToken;
     var uploadUrl = res.uploadUrl;
+    // The session id changes when the session is signed rather than stored.
+    sessionId = res.sessionId || sessionId;
 
     if (uploadToken == 'null' || uploadUrl == 'null') {
       // handle upload error
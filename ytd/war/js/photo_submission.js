@@ -18,7 +18,8 @@ var admin = admin || {};
 admin.photo = admin.photo || {};
 
 // user current setting
-admin.photo.total = 0; // size of current working set
+admin.photo.total = 0; // size of current working set, as tracked by the server's counters
+admin.photo.hasMore = false; // whether the server reported a page after the current one
 admin.photo.submissions = []; // current working set
 admin.photo.sortBy = 'created';
 admin.photo.sortOrder = 'desc';
@@ -52,12 +53,7 @@ admin.photo.initControlPanel = function() {
 };
 
 admin.photo.hasNextPage = function() {
-  var totalPages = Math.ceil(admin.photo.total / admin.photo.pageSize);
-  if (admin.photo.pageIndex < totalPages) {
-    return true;
-  } else {
-    return false;
-  }
+  return admin.photo.hasMore;
 };
 
 admin.photo.hasPrevPage = function() {
@@ -286,8 +282,9 @@ admin.photo.refreshGrid = function() {
 
     admin.photo.refreshGridUI(entries);
 
-    var totalPage = admin.photo.getTotalPage();
-    if (totalPage > 0) {
+    if (entries.length > 0 || admin.photo.hasPrevPage()) {
+      // The counters are eventually consistent, so never show fewer pages than we've walked.
+      var totalPage = Math.max(admin.photo.getTotalPage(), admin.photo.pageIndex);
       jQuery('#photoPageIndex').html(
           'Page ' + admin.photo.pageIndex + ' of ' + totalPage);
     } else {
@@ -740,6 +737,8 @@ admin.photo.getAllSubmissions = function(callback) {
       if (!json.error) {
         admin.showMessage("Photo submission loaded.", messageElement);
         admin.photo.total = json.totalSize;
+        admin.photo.hasMore = json.hasMore;
+        admin.photo.showDuplicateRate(json.duplicatePhotos, json.uniquePhotos);
         var entries = json.result;
         admin.photo.submissions = entries.concat( []);
         callback(entries);
@@ -754,6 +753,18 @@ admin.photo.getAllSubmissions = function(callback) {
   jsonrpc.makeRequest(command, params, jsonRpcCallback);
 };
 
+admin.photo.showDuplicateRate = function(duplicates, uniques) {
+  var total = duplicates + uniques;
+  if (!total) {
+    jQuery('#photoDuplicateRate').html('');
+    return;
+  }
+
+  var percent = Math.round(100 * duplicates / total);
+  jQuery('#photoDuplicateRate').html('Duplicate photos: ' + duplicates + ' of ' + total + ' ('
+      + percent + '%)');
+};
+
 admin.photo.updateSubmissionStatus = function(entry) {
   var messageElement = admin.showMessage("Updating submission status...");
 
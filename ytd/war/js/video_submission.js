@@ -205,13 +205,15 @@ admin.sub.languageMap = {
 };
 
 // user current setting
-admin.sub.total = 0; // size of current working set
+admin.sub.total = 0; // size of current working set, as tracked by the server's counters
 admin.sub.submissions = []; // current working set
 admin.sub.sortBy = 'created';
 admin.sub.sortOrder = 'desc';
 admin.sub.pageIndex = 1; 
 admin.sub.pageSize = 20; 
 admin.sub.filterType = 'ALL';
+admin.sub.pageCursors = ['']; // pageCursors[i] is the server cursor for page i + 1
+admin.sub.hasMore = false; // whether the server reported a page after the current one
 
 admin.sub.init = function() {
   admin.sub.initSubmissionGrid();  
@@ -249,7 +251,7 @@ admin.sub.setupLabelFilter = function(label) {
     admin.sub.filterType = label.html();
           
     // reset the page index to first page
-    admin.sub.pageIndex = 1;
+    admin.sub.resetPaging();
     
     admin.sub.refreshGrid();                    
     
@@ -277,13 +279,14 @@ admin.sub.initControlPanel = function() {
   });    
 };
 
+admin.sub.resetPaging = function() {
+  admin.sub.pageIndex = 1;
+  admin.sub.pageCursors = [''];
+  admin.sub.hasMore = false;
+};
+
 admin.sub.hasNextPage = function() {
-  var totalPages = Math.ceil(admin.sub.total/admin.sub.pageSize);
-  if (admin.sub.pageIndex < totalPages) {
-    return true;
-  } else {
-    return false;
-  }
+  return admin.sub.hasMore;
 };
 
 admin.sub.hasPrevPage = function() {
@@ -364,7 +367,7 @@ admin.sub.initSubmissionGrid = function() {
   grid.onSortCol = function(colType, columnIndex, sortOrder) {    
     admin.sub.sortBy = colType;
     admin.sub.sortOrder = sortOrder;
-    admin.sub.pageIndex = 1;
+    admin.sub.resetPaging();
     admin.sub.refreshGrid();
   };
   
@@ -614,8 +617,9 @@ admin.sub.refreshGrid = function() {
     
     jQuery('#submissionGrid').setCaption(captionTitle + ' (' + admin.sub.total + ')');      
     
-    var totalPage = admin.sub.getTotalPage();
-    if (totalPage > 0) {
+    if (entries.length > 0 || admin.sub.hasPrevPage()) {
+      // The counters are eventually consistent, so never show fewer pages than we've walked.
+      var totalPage = Math.max(admin.sub.getTotalPage(), admin.sub.pageIndex);
       jQuery('#submissionPageIndex').html('Page ' + admin.sub.pageIndex + ' of ' + totalPage);
     } else {
       jQuery('#submissionPageIndex').html('0 result');
@@ -1053,15 +1057,20 @@ admin.sub.getAllSubmissions = function(callback) {
   var params = {};
   params.sortBy = admin.sub.sortBy;
   params.sortOrder = admin.sub.sortOrder;
-  params.pageIndex = admin.sub.pageIndex;
   params.pageSize = admin.sub.pageSize;
   params.filterType = admin.sub.filterType;
+  params.cursor = admin.sub.pageCursors[admin.sub.pageIndex - 1];
   
   var jsonRpcCallback = function(json) {
     try {
       if (!json.error) {
         admin.showMessage("Video submissions loaded.", messageElement);
         admin.sub.total = json.totalSize;
+        admin.sub.hasMore = json.hasMore;
+        if (json.hasMore) {
+          // Remember where the next page starts, so that Prev/Next can walk back and forth.
+          admin.sub.pageCursors[admin.sub.pageIndex] = json.cursor;
+        }
         var entries = json.result;
         admin.sub.submissions = entries.concat([]);
         callback(entries);          